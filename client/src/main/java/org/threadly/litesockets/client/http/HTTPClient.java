@@ -515,6 +515,7 @@ public class HTTPClient extends AbstractService {
     private long lastRead = Clock.lastKnownForwardProgressingMillis();
 
     public HTTPRequestWrapper(HTTPRequest hr, HTTPAddress ha, ByteBuffer body, long timeout) {
+      hrp.setMergedBodyData(true);
       hrp.addHTTPResponseCallback(this);
       this.hr = hr;
       this.ha = ha;
@@ -538,6 +539,16 @@ public class HTTPClient extends AbstractService {
     @Override
     public void bodyData(ByteBuffer bb) {
       responseMBB.add(bb);
+      checkResponseSize();
+    }
+
+    @Override
+    public void bodyData(MergedByteBuffers mbb) {
+      responseMBB.add(mbb);
+      checkResponseSize();
+    }
+
+    private void checkResponseSize() {
       if(responseMBB.remaining() > maxResponseSize) {
         slf.setFailure(new HTTPParsingException("Response Body to large!"));
         client.close();
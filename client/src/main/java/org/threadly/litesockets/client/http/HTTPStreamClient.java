@@ -15,11 +15,12 @@ import org.threadly.litesockets.Client.ClientCloseListener;
 import org.threadly.litesockets.Client.Reader;
 import org.threadly.litesockets.SocketExecuter;
 import org.threadly.litesockets.TCPClient;
+import org.threadly.litesockets.buffers.MergedByteBuffers;
 import org.threadly.litesockets.protocols.http.request.HTTPRequest;
 import org.threadly.litesockets.protocols.http.response.HTTPResponse;
 import org.threadly.litesockets.protocols.http.response.HTTPResponseProcessor;
 import org.threadly.litesockets.protocols.http.response.HTTPResponseProcessor.HTTPResponseCallback;
-import org.threadly.litesockets.protocols.http.shared.HTTPUtils;
+import org.threadly.litesockets.protocols.http.shared.HTTPChunkedEncoder;
 import org.threadly.litesockets.protocols.ws.WebSocketFrameParser.WebSocketFrame;
 import org.threadly.litesockets.utils.SSLUtils;
 
@@ -32,8 +33,8 @@ import org.threadly.litesockets.utils.SSLUtils;
  * <p>The HttpStreamClient can also do many requests/responses in a row w/o closing the connection</p>
  * 
  * <p>Its important to note that if chunked encoding is set in a header anything sent and/or received will 
- * automatically remove the chunk headers.  If the HTTPResponse is chunked you will get a call to onRead for 
- * each chunk but the chunk header will be removed.  If you are sending and have turned on chunked encoding
+ * automatically remove the chunk headers.  If the HTTPResponse is chunked you will get calls to onRead with 
+ * the chunk data as it arrives (a chunk can be split over more then one call) but the chunk header will be removed.  If you are sending and have turned on chunked encoding
  * every call to .write will add a chunked header to it, and calling .write with a ByteBuffer of 0 will end the 
  * stream</p>
  * 
@@ -74,6 +75,7 @@ public class HTTPStreamClient implements StreamingClient {
     port = client.getRemoteSocketAddress().getPort();
     client.addCloseListener(classCloser);
     httpProcessor = new HTTPResponseProcessor();
+    httpProcessor.setMergedBodyData(true);
     httpProcessor.addHTTPResponseCallback(requestCB);
     slfResponse = new SettableListenableFuture<HTTPResponse>();
     isConnected = true;
@@ -96,6 +98,7 @@ public class HTTPStreamClient implements StreamingClient {
     client.setConnectionTimeout(DEFAULT_TIMEOUT);
     client.addCloseListener(classCloser);
     httpProcessor = new HTTPResponseProcessor();
+    httpProcessor.setMergedBodyData(true);
     httpProcessor.addHTTPResponseCallback(requestCB);
   }
   
@@ -172,7 +175,7 @@ public class HTTPStreamClient implements StreamingClient {
       throw new IllegalStateException("Must have a pending HTTPRequest before you can write!");
     }
     if(currentHttpRequest != null && currentHttpRequest.getHTTPHeaders().isChunked()) {
-      return client.write(HTTPUtils.wrapInChunk(bb));
+      return client.write(HTTPChunkedEncoder.wrapInChunk(bb));
     } else {
       return client.write(bb);
     }
@@ -276,6 +279,13 @@ public class HTTPStreamClient implements StreamingClient {
       }
     }
 
+    @Override
+    public void bodyData(MergedByteBuffers mbb) {
+      if(httpReader != null) {
+        httpReader.handle(mbb);
+      }
+    }
+
     @Override
     public void finished() {
       close();
@@ -308,5 +318,17 @@ public class HTTPStreamClient implements StreamingClient {
      * @param bb a {@link ByteBuffer} containing the next body data.
      */
     public void handle(ByteBuffer bb);
+    
+    /**
+     * This is called when body reads come in from the client, with the data still in the buffers it was 
+     * read into so nothing is copied.  By default each buffer is passed to {@link #handle(ByteBuffer)} in order.
+     * 
+     * @param mbb a {@link MergedByteBuffers} containing the next body data.
+     */
+    default void handle(MergedByteBuffers mbb) {
+      while(mbb.remaining() > 0) {
+        handle(mbb.popBuffer());
+      }
+    }
   }
 }
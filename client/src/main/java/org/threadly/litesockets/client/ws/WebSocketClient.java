@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.ByteBuffer;
 import java.text.ParseException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -14,7 +15,9 @@ import org.threadly.concurrent.future.ListenableFuture;
 import org.threadly.concurrent.future.SettableListenableFuture;
 import org.threadly.litesockets.SocketExecuter;
 import org.threadly.litesockets.TCPClient;
+import org.threadly.litesockets.buffers.MergedByteBuffers;
 import org.threadly.litesockets.buffers.ReuseableMergedByteBuffers;
+import org.threadly.litesockets.buffers.SimpleMergedByteBuffers;
 import org.threadly.litesockets.client.http.HTTPStreamClient;
 import org.threadly.litesockets.client.http.HTTPStreamClient.HTTPStreamReader;
 import org.threadly.litesockets.client.http.StreamingClient;
@@ -22,11 +25,18 @@ import org.threadly.litesockets.protocols.http.request.HTTPRequest;
 import org.threadly.litesockets.protocols.http.request.HTTPRequestBuilder;
 import org.threadly.litesockets.protocols.http.response.HTTPResponse;
 import org.threadly.litesockets.protocols.http.response.HTTPResponseBuilder;
+import org.threadly.litesockets.protocols.http.shared.HTTPBufferPool;
+import org.threadly.litesockets.protocols.http.shared.HTTPBufferPools;
 import org.threadly.litesockets.protocols.http.shared.HTTPConstants;
 import org.threadly.litesockets.protocols.http.shared.HTTPRequestType;
 import org.threadly.litesockets.protocols.http.shared.HTTPResponseCode;
+import org.threadly.litesockets.protocols.ws.WebSocketDeflateConfig;
+import org.threadly.litesockets.protocols.ws.WebSocketDeflater;
+import org.threadly.litesockets.protocols.ws.WebSocketFrameDecoder;
 import org.threadly.litesockets.protocols.ws.WebSocketFrameParser;
 import org.threadly.litesockets.protocols.ws.WebSocketFrameParser.WebSocketFrame;
+import org.threadly.litesockets.protocols.ws.WebSocketMaskGenerator;
+import org.threadly.litesockets.protocols.ws.WebSocketMessageAssembler;
 import org.threadly.litesockets.protocols.ws.WebSocketOpCode;
 import org.threadly.litesockets.utils.IOUtils;
 
@@ -61,11 +71,20 @@ public class WebSocketClient implements StreamingClient {
   private final HTTPRequestBuilder hrb = new HTTPRequestBuilder();
   private final LocalStreamReader lsr = new LocalStreamReader();
   private final HTTPStreamClient hsc;
+  private final WebSocketMaskGenerator maskGenerator = new WebSocketMaskGenerator();
+  private final ConcurrentLinkedQueue<PendingWrite> outbound = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean flushing = new AtomicBoolean(false);
   
+  private volatile ListenableFuture<?> lastWrite;
   private volatile WebSocketDataReader onData;
   private volatile WebSocketOpCode wsoc = WebSocketOpCode.Binary;
   private volatile boolean defaultMask = false;
   private volatile boolean autoReplyPings = true;
+  private volatile boolean streaming = false;
+  private volatile long maxFrameSize = Long.MAX_VALUE;
+  private volatile long maxMessageSize = Long.MAX_VALUE;
+  private volatile WebSocketDeflateConfig deflateConfig;
+  private volatile WebSocketDeflater deflater;
 
   /**
    * This takes over an existing TCPClient to do websocket communications. 
@@ -192,6 +211,66 @@ public class WebSocketClient implements StreamingClient {
     return this.autoReplyPings;
   }
   
+  /**
+   * Sets if frame payloads should be passed to {@link WebSocketDataReader#onPayload(WebSocketFrame, ByteBuffer)}
+   * in parts as they arrive, followed by {@link WebSocketDataReader#onFrameFinished(WebSocketFrame)}, instead 
+   * of buffering each frame for {@link WebSocketDataReader#onData(WebSocketFrame, ByteBuffer)}.  This lets 
+   * frames of any size be read without holding them in memory.  The default is false.
+   * 
+   * @param streaming true to stream frame payloads.
+   */
+  public void setStreaming(final boolean streaming) {
+    this.streaming = streaming;
+  }
+  
+  /**
+   * Lets you know if frame payloads are streamed, see {@link #setStreaming(boolean)}.
+   * 
+   * @return true if frame payloads are streamed.
+   */
+  public boolean isStreaming() {
+    return this.streaming;
+  }
+  
+  /**
+   * Sets the largest frame payload and message the server can send.  If either is exceeded the connection 
+   * is closed.  The default is no limit, though frames over {@link Integer#MAX_VALUE} can only be streamed.
+   * 
+   * @param maxFrameSize the max frame payload size in bytes.
+   * @param maxMessageSize the max message size in bytes, counting a data frame and its continuations.
+   */
+  public void setMaxSizes(final long maxFrameSize, final long maxMessageSize) {
+    this.maxFrameSize = maxFrameSize;
+    this.maxMessageSize = maxMessageSize;
+  }
+  
+  /**
+   * Offers permessage-deflate in the upgrade request.  If the server accepts it messages are compressed and 
+   * inflated as set in the {@link WebSocketDeflateConfig}.  NOTE: This must be set before {@link #connect()} 
+   * is called.
+   * 
+   * @param config the {@link WebSocketDeflateConfig} to use, or null to not offer compression.
+   */
+  public void setDeflate(final WebSocketDeflateConfig config) {
+    if(!sentRequest.get()) {
+      deflateConfig = config;
+      if(config == null) {
+        hrb.removeHeader(HTTPConstants.HTTP_KEY_WEBSOCKET_EXTENSIONS);
+      } else {
+        hrb.setHeader(HTTPConstants.HTTP_KEY_WEBSOCKET_EXTENSIONS, config.makeOffer());
+      }
+    }
+  }
+  
+  /**
+   * Gets the {@link WebSocketDeflater} negotiated with the server.
+   * 
+   * @return the {@link WebSocketDeflater} or null if compression is not in use.
+   */
+  public WebSocketDeflater getDeflater() {
+    return deflater;
+  }
+  
   /**
    * Sets the default {@link WebSocketOpCode} to use when calling {@link #write(ByteBuffer)}.
    * 
@@ -277,6 +356,18 @@ public class WebSocketClient implements StreamingClient {
     onData = reader;
     hsc.setHTTPStreamReader(lsr);
   }
+
+  /**
+   * Reads whole messages instead of frames.  Every frame read is passed to the {@link WebSocketMessageAssembler}, 
+   * which puts fragmented messages back together without copying them and passes them, along with any control 
+   * frames, to its listener.  If a message goes over the assemblers max size, or the frames are not in a valid 
+   * order, the connection is closed.  This replaces any {@link WebSocketDataReader} that was set.
+   * 
+   * @param assembler the {@link WebSocketMessageAssembler} to pass frames to.
+   */
+  public void setWebSocketMessageAssembler(final WebSocketMessageAssembler assembler) {
+    setWebSocketDataReader(new AssemblingReader(assembler));
+  }
   
 
   @Override
@@ -300,7 +391,13 @@ public class WebSocketClient implements StreamingClient {
    * defaults.
    * 
    * Every {@link ByteBuffer} written is seen as an individual websocketFrame.
-   * 
+   *
+   * This can be called from any number of threads at once without blocking.  Each frame is built (and masked)
+   * in a single pooled buffer on the calling thread and then queued, and the queue is written to the socket
+   * in order by whichever thread is not already writing it.  If the socket write fails the returned future
+   * fails.  The only exception is when permessage-deflate is in use with context takeover, then frames are
+   * compressed and queued one at a time.
+   *
    * @param bb the {@link ByteBuffer} to write to frame and write to the websocket.
    * @param opCode the opCode to use in the websocket frame.
    * @param mask sets whether or not to mask the websocket data. true to mask, false to not.
@@ -308,22 +405,60 @@ public class WebSocketClient implements StreamingClient {
    */
   public ListenableFuture<?> write(final ByteBuffer bb, final byte opCode, final boolean mask) {
     if(connectFuture.isDone()) {
-      WebSocketFrame wsFrame = WebSocketFrameParser.makeWebSocketFrame(bb.remaining(), opCode, mask);
-      ByteBuffer data = bb;
-      if(mask) {
-        data = wsFrame.unmaskPayload(bb);
-      }
-      synchronized(this) {
-        hsc.write(wsFrame.getRawFrame());
-        return hsc.write(data);
+      final WebSocketDeflater d = deflater;
+      final PendingWrite pw;
+      if(d != null && d.isCompressContextTakeover()) {
+        // each compressed frame depends on the ones before it so they must be queued in the order they are made
+        synchronized(d) {
+          pw = queueFrame(d, bb, opCode, mask);
+        }
+      } else {
+        pw = queueFrame(d, bb, opCode, mask);
       }
+      flushOutbound();
+      return pw.future;
     } else {
       throw new IllegalStateException("Must be connected first!");
     }
   }
   
+  private PendingWrite queueFrame(final WebSocketDeflater d, final ByteBuffer bb, final byte opCode, final boolean mask) {
+    final HTTPBufferPool pool = HTTPBufferPools.getDefault();
+    final int maskValue = mask ? maskGenerator.nextMask() : 0;
+    final MergedByteBuffers payload = new SimpleMergedByteBuffers(false, bb);
+    final ByteBuffer frame = d == null ? 
+        WebSocketFrameParser.makeWebSocketFrame(pool, payload, true, opCode, mask, maskValue) : 
+        d.makeWebSocketFrame(pool, payload, opCode, mask, maskValue);
+    final PendingWrite pw = new PendingWrite(pool, frame);
+    lastWrite = pw.future;
+    outbound.offer(pw);
+    return pw;
+  }
+  
+  /**
+   * Writes everything in the outbound queue to the socket.  Only one thread does this at a time, any other 
+   * thread that calls this while its happening just leaves its frame in the queue for that thread to write, 
+   * so frames are written in the order they were queued without writers waiting on a lock.
+   */
+  private void flushOutbound() {
+    while(!outbound.isEmpty() && flushing.compareAndSet(false, true)) {
+      try {
+        PendingWrite pw;
+        while((pw = outbound.poll()) != null) {
+          pw.write();
+        }
+      } finally {
+        flushing.set(false);
+      }
+    }
+  }
+  
   public ListenableFuture<?> getLastWriteFuture() {
-    return hsc.getLastWriteFuture();
+    final ListenableFuture<?> lf = lastWrite;
+    if(lf == null) {
+      return hsc.getLastWriteFuture();
+    }
+    return lf;
   }
 
   @Override
@@ -337,7 +472,9 @@ public class WebSocketClient implements StreamingClient {
             String orig = hrb.build().getHTTPHeaders().getHeader(HTTPConstants.HTTP_KEY_WEBSOCKET_KEY);
             String resp = result.getHeaders().getHeader(HTTPConstants.HTTP_KEY_WEBSOCKET_ACCEPT);
               if(WebSocketFrameParser.validateKeyResponse(orig, resp)) {
-                connectFuture.setResult(true);
+                if(acceptDeflate(result)) {
+                  connectFuture.setResult(true);
+                }
               } else {
                 connectFuture.setFailure(
                     new IllegalStateException("Bad WebSocket Key Response!: "+ resp 
@@ -359,6 +496,26 @@ public class WebSocketClient implements StreamingClient {
     return connectFuture;
   }
   
+  private boolean acceptDeflate(final HTTPResponse response) {
+    final WebSocketDeflateConfig config = deflateConfig;
+    if(config == null) {
+      return true;
+    }
+    try {
+      final WebSocketDeflater d = config.acceptResponse(response.getHeaders().getHeader(HTTPConstants.HTTP_KEY_WEBSOCKET_EXTENSIONS));
+      if(d != null) {
+        d.setMaxInflatedSize(maxMessageSize);
+        deflater = d;
+        hsc.addCloseListener(d::close);
+      }
+      return true;
+    } catch(ParseException e) {
+      connectFuture.setFailure(new IllegalStateException("Bad WebSocket Extension Response!: "+e.getMessage()));
+      hsc.close();
+      return false;
+    }
+  }
+  
   @Override
   public boolean isConnected() {
     return hsc.isConnected();
@@ -381,37 +538,175 @@ public class WebSocketClient implements StreamingClient {
    */
   private class LocalStreamReader implements HTTPStreamReader {
     private final ReuseableMergedByteBuffers mbb = new ReuseableMergedByteBuffers();
+    private final WebSocketFrameDecoder frameDecoder = new WebSocketFrameDecoder();
     private WebSocketFrame lastFrame;
 
     @Override
     public void handle(final ByteBuffer bb) {
       mbb.add(bb);
+      processFrames();
+    }
+
+    @Override
+    public void handle(final MergedByteBuffers body) {
+      mbb.add(body);
+      processFrames();
+    }
+
+    private void processFrames() {
+      frameDecoder.setMaxFrameSize(maxFrameSize);
+      frameDecoder.setMaxMessageSize(maxMessageSize);
+      frameDecoder.setAllowRSV1(deflater != null);
       while(mbb.remaining() > 0) {
-        try {
+        if(lastFrame == null) {
+          try {
+            lastFrame = frameDecoder.decode(mbb);
+          } catch(ParseException e) {
+            closeOnError();
+            return;
+          }
           if(lastFrame == null) {
-            lastFrame = WebSocketFrameParser.parseWebSocketFrame(mbb);
+            break;
           }
-          if(lastFrame != null) {
-            if(mbb.remaining() >= lastFrame.getPayloadDataLength()) {
-              ByteBuffer data = mbb.pullBuffer((int) lastFrame.getPayloadDataLength());
-              if(lastFrame.hasMask()) {
-                data = lastFrame.unmaskPayload(data);
-              }
-              if(autoReplyPings && lastFrame.getOpCode() == WebSocketOpCode.Ping.getValue()) {
-                write(IOUtils.EMPTY_BYTEBUFFER, WebSocketOpCode.Pong.getValue(), false);
-              } else {
-                onData.onData(lastFrame, data);
-              }
-              lastFrame = null;
+        }
+        final boolean autoPong = autoReplyPings && lastFrame.getOpCode() == WebSocketOpCode.Ping.getValue();
+        final WebSocketDeflater d = deflater;
+        try {
+          if(streaming) {
+            ByteBuffer data;
+            while((data = frameDecoder.nextPayload(mbb)) != null) {
+              sendPayload(autoPong, d == null ? data : d.inflate(lastFrame, data));
+            }
+            if(!frameDecoder.isPayloadComplete()) {
+              break;
+            }
+            if(d != null) {
+              sendPayload(autoPong, d.finishFrame(lastFrame));
+            }
+            if(autoPong) {
+              write(IOUtils.EMPTY_BYTEBUFFER, WebSocketOpCode.Pong.getValue(), false);
             } else {
+              onData.onFrameFinished(lastFrame);
+            }
+          } else {
+            if(lastFrame.getPayloadDataLength() > Integer.MAX_VALUE) {
+              closeOnError();
+              return;
+            }
+            if(mbb.remaining() < lastFrame.getPayloadDataLength()) {
               break;
             }
+            ByteBuffer data = mbb.pullBuffer((int) lastFrame.getPayloadDataLength());
+            if(lastFrame.hasMask()) {
+              data = lastFrame.unmaskPayload(data);
+            }
+            if(d != null) {
+              data = d.inflateFrame(lastFrame, data);
+            }
+            if(autoPong) {
+              write(IOUtils.EMPTY_BYTEBUFFER, WebSocketOpCode.Pong.getValue(), false);
+            } else {
+              onData.onData(lastFrame, data);
+            }
           }
         } catch(ParseException e) {
-          break;
+          closeOnError();
+          return;
+        }
+        lastFrame = null;
+      }
+    }
+    
+    private void sendPayload(final boolean autoPong, final ByteBuffer data) {
+      if(!autoPong && data.hasRemaining()) {
+        onData.onPayload(lastFrame, data);
+      }
+    }
+    
+    private void closeOnError() {
+      lastFrame = null;
+      frameDecoder.reset();
+      mbb.discard(mbb.remaining());
+      close();
+    }
+  }
+
+  /**
+   * Passes frames to a {@link WebSocketMessageAssembler}, closing the client if it fails.
+   */
+  private class AssemblingReader implements WebSocketDataReader {
+    private final WebSocketMessageAssembler assembler;
+    private boolean failed = false;
+
+    private AssemblingReader(final WebSocketMessageAssembler assembler) {
+      this.assembler = assembler;
+    }
+
+    @Override
+    public void onData(final WebSocketFrame wsf, final ByteBuffer bb) {
+      if(!failed) {
+        try {
+          assembler.onFrame(wsf, bb);
+        } catch(ParseException e) {
+          fail();
+        }
+      }
+    }
+
+    @Override
+    public void onPayload(final WebSocketFrame wsf, final ByteBuffer bb) {
+      if(!failed) {
+        try {
+          assembler.onPayload(wsf, bb);
+        } catch(ParseException e) {
+          fail();
+        }
+      }
+    }
+
+    @Override
+    public void onFrameFinished(final WebSocketFrame wsf) {
+      if(!failed) {
+        try {
+          assembler.onFrameFinished(wsf);
+        } catch(ParseException e) {
+          fail();
         }
       }
     }
+
+    private void fail() {
+      failed = true;
+      assembler.reset();
+      close();
+    }
+  }
+
+  /**
+   * A frame waiting in the outbound queue, and the future for it that is handed back from the write.
+   */
+  private class PendingWrite {
+    private final SettableListenableFuture<Object> future = new SettableListenableFuture<>(false);
+    private final HTTPBufferPool pool;
+    private final ByteBuffer frame;
+
+    private PendingWrite(final HTTPBufferPool pool, final ByteBuffer frame) {
+      this.pool = pool;
+      this.frame = frame;
+    }
+
+    private void write() {
+      final ListenableFuture<?> lf;
+      try {
+        lf = hsc.write(frame);
+      } catch(RuntimeException e) {
+        pool.release(frame);
+        future.setFailure(e);
+        return;
+      }
+      lf.addListener(() -> pool.release(frame));
+      lf.addCallback(future);
+    }
   }
 
   /**
@@ -424,10 +719,31 @@ public class WebSocketClient implements StreamingClient {
     /**
      * This is called when a data frame is read off the {@link WebSocketClient}.
      * 
-     * @param wsf the {@link WebSocketFrame} that was read off the socket.
+     * @param wsf the {@link WebSocketFrame} that was read off the socket, this is reused for the next frame so 
+     *     use {@link WebSocketFrame#copy()} to keep it.
      * @param bb the payload of the frame, might be empty, but never null.
      */
     public void onData(WebSocketFrame wsf, ByteBuffer bb);
+    
+    /**
+     * Called with each part of a frames payload as it arrives when the client is set to 
+     * {@link WebSocketClient#setStreaming(boolean)}.  The data is already unmasked.
+     * 
+     * @param wsf the {@link WebSocketFrame} the payload is for, this is reused for the next frame.
+     * @param bb the next part of the payload.
+     */
+    default void onPayload(WebSocketFrame wsf, ByteBuffer bb) {
+      // ignored by default
+    }
+    
+    /**
+     * Called once all of a streamed frames payload has been passed to {@link #onPayload(WebSocketFrame, ByteBuffer)}.
+     * 
+     * @param wsf the {@link WebSocketFrame} that was finished.
+     */
+    default void onFrameFinished(WebSocketFrame wsf) {
+      // ignored by default
+    }
   }
 
 
@@ -9,6 +9,9 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -30,14 +33,20 @@ import org.threadly.litesockets.TCPServer;
 import org.threadly.litesockets.ThreadedSocketExecuter;
 import org.threadly.litesockets.client.ws.WebSocketClient.WebSocketDataReader;
 import org.threadly.litesockets.protocols.http.response.HTTPResponseBuilder;
+import org.threadly.litesockets.protocols.http.shared.DirectHTTPBufferPool;
+import org.threadly.litesockets.protocols.http.shared.HTTPBufferPool;
+import org.threadly.litesockets.protocols.http.shared.HTTPBufferPools;
 import org.threadly.litesockets.protocols.http.response.HTTPResponseHeader;
 import org.threadly.litesockets.protocols.http.shared.HTTPConstants;
 import org.threadly.litesockets.protocols.http.shared.HTTPResponseCode;
 import org.threadly.litesockets.protocols.ws.WebSocketFrameParser;
 import org.threadly.litesockets.protocols.ws.WebSocketFrameParser.WebSocketFrame;
+import org.threadly.litesockets.protocols.ws.WebSocketMessageAssembler;
+import org.threadly.litesockets.protocols.ws.WebSocketMessageAssembler.WebSocketMessageListener;
 import org.threadly.litesockets.protocols.ws.WebSocketOpCode;
 import org.threadly.litesockets.buffers.MergedByteBuffers;
 import org.threadly.litesockets.buffers.ReuseableMergedByteBuffers;
+import org.threadly.litesockets.buffers.SimpleMergedByteBuffers;
 import org.threadly.litesockets.utils.PortUtils;
 import org.threadly.test.concurrent.TestCondition;
 import org.threadly.util.ExceptionUtils;
@@ -47,9 +56,15 @@ public class WebSocketClientTest {
   ThreadedSocketExecuter TSE;
   TCPServer httpServer;
   int port;
+  HTTPBufferPool defaultPool;
+  DirectHTTPBufferPool pool;
 
   @Before
   public void start() throws IOException {
+    defaultPool = HTTPBufferPools.getDefault();
+    pool = new DirectHTTPBufferPool();
+    pool.setLeakDetection(true);
+    HTTPBufferPools.setDefault(pool);
     port = PortUtils.findTCPPort();
     PS = new PriorityScheduler(2);
     TSE = new ThreadedSocketExecuter(PS);
@@ -64,6 +79,8 @@ public class WebSocketClientTest {
     TSE.stopIfRunning();
     PS.shutdownNow();
     httpServer.close();
+    HTTPBufferPools.setDefault(defaultPool);
+    assertTrue(pool.getLeaks().toString(), pool.getLeaks().isEmpty());
   }
 
   @Test
@@ -163,6 +180,144 @@ public class WebSocketClientTest {
 
   }
 
+  @Test
+  public void concurrentWritesTest() throws Exception {
+    httpServer.setClientAcceptor(new WSEchoHandler());
+    final int threads = 4;
+    final int perThread = 200;
+    final List<String> responses = Collections.synchronizedList(new ArrayList<String>());
+    final WebSocketClient wsc = new WebSocketClient(TSE, new URI("ws://localhost:"+port));
+    wsc.setDefaultMask(true);
+    wsc.setWebSocketDataReader(new WebSocketDataReader() {
+      @Override
+      public void onData(WebSocketFrame wsf, ByteBuffer bb) {
+        ReuseableMergedByteBuffers mbb = new ReuseableMergedByteBuffers();
+        mbb.add(bb);
+        responses.add(mbb.getAsString(mbb.remaining()));
+      }});
+    wsc.connect().get(5, TimeUnit.SECONDS);
+    List<Thread> writers = new ArrayList<Thread>();
+    for(int t=0; t<threads; t++) {
+      final int id = t;
+      writers.add(new Thread(() -> {
+        for(int i=0; i<perThread; i++) {
+          wsc.write(ByteBuffer.wrap((id+":"+i).getBytes()));
+        }
+      }));
+    }
+    for(Thread t: writers) {
+      t.start();
+    }
+    for(Thread t: writers) {
+      t.join();
+    }
+    wsc.getLastWriteFuture().get(5, TimeUnit.SECONDS);
+    new TestCondition(){
+      @Override
+      public boolean get() {
+        return responses.size() == threads * perThread;
+      }
+    }.blockTillTrue(5000);
+    int[] next = new int[threads];
+    for(String r: responses) {
+      String[] tmp = r.split(":");
+      int id = Integer.parseInt(tmp[0]);
+      assertEquals(next[id]++, Integer.parseInt(tmp[1]));
+    }
+    wsc.close();
+  }
+
+  @Test
+  public void messageAssemblerTest() throws Exception {
+    httpServer.setClientAcceptor(new WSEchoHandler());
+    final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+    final SettableListenableFuture<MergedByteBuffers> slf = new SettableListenableFuture<>();
+    TCPClient WSclient = TSE.createTCPClient("localhost", port);
+    WSclient.setReader((c)->{
+      slf.setResult(c.getRead());
+    });
+    WSclient.connect().get(10, TimeUnit.SECONDS);
+    WSclient.write(WebSocketClient.DEFAULT_WS_REQUEST.getByteBuffer());
+    slf.get(10, TimeUnit.SECONDS);
+    
+    final WebSocketClient wsc = new WebSocketClient(WSclient);
+    wsc.setRequestResponseHeaders(WebSocketClient.DEFAULT_WS_REQUEST, WebSocketClient.DEFAULT_WS_RESPONSE, false);
+    wsc.setWebSocketMessageAssembler(new WebSocketMessageAssembler(new WebSocketMessageListener() {
+      @Override
+      public void onMessage(int opCode, MergedByteBuffers message) {
+        received.add(opCode+":"+message.getAsString(message.remaining()));
+      }
+      
+      @Override
+      public void onControlFrame(WebSocketFrame frame, ByteBuffer payload) {
+        received.add(frame.getOpCode()+":"+new SimpleMergedByteBuffers(false, payload).getAsString(payload.remaining()));
+      }
+    }).setMaxMessageSize(16));
+    
+    // the echo server sends the raw frames back, with a pong in the middle of the message
+    writeFrame(WSclient, "Hel", false, WebSocketOpCode.Text);
+    writeFrame(WSclient, "p", true, WebSocketOpCode.Pong);
+    writeFrame(WSclient, "lo", true, WebSocketOpCode.Continuation);
+    new TestCondition(){
+      @Override
+      public boolean get() {
+        return received.size() == 2;
+      }
+    }.blockTillTrue(3000);
+    assertEquals(WebSocketOpCode.Pong.getValue()+":p", received.get(0));
+    assertEquals(WebSocketOpCode.Text.getValue()+":Hello", received.get(1));
+    
+    // a message over the max size closes the client
+    wsc.write(ByteBuffer.allocate(20));
+    new TestCondition(){
+      @Override
+      public boolean get() {
+        return !wsc.isConnected();
+      }
+    }.blockTillTrue(3000);
+    assertEquals(2, received.size());
+  }
+
+  @Test
+  public void reservedBitsCloseTest() throws Exception {
+    httpServer.setClientAcceptor(new WSEchoHandler());
+    final List<String> received = Collections.synchronizedList(new ArrayList<String>());
+    final SettableListenableFuture<MergedByteBuffers> slf = new SettableListenableFuture<>();
+    TCPClient WSclient = TSE.createTCPClient("localhost", port);
+    WSclient.setReader((c)->{
+      slf.setResult(c.getRead());
+    });
+    WSclient.connect().get(10, TimeUnit.SECONDS);
+    WSclient.write(WebSocketClient.DEFAULT_WS_REQUEST.getByteBuffer());
+    slf.get(10, TimeUnit.SECONDS);
+
+    final WebSocketClient wsc = new WebSocketClient(WSclient);
+    wsc.setRequestResponseHeaders(WebSocketClient.DEFAULT_WS_REQUEST, WebSocketClient.DEFAULT_WS_RESPONSE, false);
+    wsc.setWebSocketDataReader(new WebSocketDataReader() {
+      @Override
+      public void onData(WebSocketFrame wsf, ByteBuffer bb) {
+        received.add(new SimpleMergedByteBuffers(false, bb).getAsString(bb.remaining()));
+      }});
+
+    WSclient.write(ByteBuffer.wrap(new byte[] {(byte)0x81, 2, 'o', 'k'}));
+    new TestCondition(){
+      @Override
+      public boolean get() {
+        return received.size() == 1;
+      }
+    }.blockTillTrue(3000);
+
+    // the echo server sends it back with RSV1 set, but permessage-deflate was never negotiated
+    WSclient.write(ByteBuffer.wrap(new byte[] {(byte)0xc1, 4, 't', 'e', 's', 't'}));
+    new TestCondition(){
+      @Override
+      public boolean get() {
+        return !wsc.isConnected();
+      }
+    }.blockTillTrue(3000);
+    assertEquals(Collections.singletonList("ok"), received);
+  }
+
   @Test
   public void badKeyResponseTest() throws IOException, URISyntaxException {
     httpServer.setClientAcceptor(new BadKeyResponseHandler());
@@ -251,6 +406,12 @@ public class WebSocketClientTest {
     assertFalse(wsc.isConnected());
   }
 
+  private void writeFrame(TCPClient client, String payload, boolean isFinished, WebSocketOpCode opCode) {
+    final ByteBuffer frame = WebSocketFrameParser.makeWebSocketFrame(pool, 
+        new SimpleMergedByteBuffers(false, ByteBuffer.wrap(payload.getBytes())), isFinished, opCode.getValue(), false);
+    client.write(frame).addListener(() -> pool.release(frame));
+  }
+
   public class BadResponseHeaderHandler implements ClientAcceptor, Reader {
     final ConcurrentHashMap<Client, MergedByteBuffers> buffers = new ConcurrentHashMap<Client, MergedByteBuffers>(); 
     final ConcurrentHashMap<Client, Boolean> headerDone = new ConcurrentHashMap<Client, Boolean>();
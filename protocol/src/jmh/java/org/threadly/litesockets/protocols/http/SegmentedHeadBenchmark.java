@@ -0,0 +1,143 @@
+package org.threadly.litesockets.protocols.http;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.threadly.litesockets.protocols.http.request.HTTPRequest;
+import org.threadly.litesockets.protocols.http.request.HTTPRequestBuilder;
+import org.threadly.litesockets.protocols.http.request.HTTPRequestProcessor;
+import org.threadly.litesockets.protocols.http.request.HTTPRequestProcessor.HTTPRequestCallback;
+import org.threadly.litesockets.protocols.http.response.HTTPResponse;
+import org.threadly.litesockets.protocols.http.response.HTTPResponseBuilder;
+import org.threadly.litesockets.protocols.http.response.HTTPResponseProcessor;
+import org.threadly.litesockets.protocols.http.response.HTTPResponseProcessor.HTTPResponseCallback;
+import org.threadly.litesockets.protocols.http.shared.HTTPConstants;
+import org.threadly.litesockets.protocols.ws.WebSocketFrameParser.WebSocketFrame;
+
+/**
+ * Measures parsing a request and a response head with 100 headers when it arrives split into reads of
+ * {@link #segment} bytes, to make sure a head trickling in a few bytes at a time is not rescanned from the
+ * start on every read.
+ *
+ * Run with {@code ./gradlew jmh -PjmhArgs="SegmentedHeadBenchmark"}.
+ *
+ * @author lwahlmeier
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SegmentedHeadBenchmark {
+  private static final int HEADERS = 100;
+
+  @Param({"1", "7", "1460"})
+  public int segment;
+
+  private ByteBuffer request;
+  private ByteBuffer response;
+  private HTTPRequestProcessor requestProcessor;
+  private HTTPResponseProcessor responseProcessor;
+
+  @Setup
+  public void setup(final Blackhole bh) {
+    HTTPRequestBuilder hrb = new HTTPRequestBuilder();
+    HTTPResponseBuilder hrsb = new HTTPResponseBuilder();
+    for(int i=0; i<HEADERS; i++) {
+      hrb.setHeader("X-Header-"+i, "some-value-"+i);
+      hrsb.setHeader("X-Header-"+i, "some-value-"+i);
+    }
+    request = hrb.setHeader(HTTPConstants.HTTP_KEY_CONTENT_LENGTH, "0").build().getByteBuffer();
+    response = hrsb.setHeader(HTTPConstants.HTTP_KEY_CONTENT_LENGTH, "0").build().getByteBuffer();
+    requestProcessor = new HTTPRequestProcessor();
+    requestProcessor.addHTTPRequestCallback(new HTTPRequestCallback() {
+      @Override
+      public void headersFinished(final HTTPRequest hr) {
+        bh.consume(hr);
+      }
+
+      @Override
+      public void bodyData(final ByteBuffer bb) {
+        bh.consume(bb);
+      }
+
+      @Override
+      public void websocketData(final WebSocketFrame wsf, final ByteBuffer bb) {
+        bh.consume(bb);
+      }
+
+      @Override
+      public void finished() {
+        // not used
+      }
+
+      @Override
+      public void hasError(final Throwable t) {
+        throw new IllegalStateException(t);
+      }
+    });
+    responseProcessor = new HTTPResponseProcessor();
+    responseProcessor.addHTTPResponseCallback(new HTTPResponseCallback() {
+      @Override
+      public void headersFinished(final HTTPResponse hr) {
+        bh.consume(hr);
+      }
+
+      @Override
+      public void bodyData(final ByteBuffer bb) {
+        bh.consume(bb);
+      }
+
+      @Override
+      public void websocketData(final WebSocketFrame wsf, final ByteBuffer bb) {
+        bh.consume(bb);
+      }
+
+      @Override
+      public void finished() {
+        // not used
+      }
+
+      @Override
+      public void hasError(final Throwable t) {
+        throw new IllegalStateException(t);
+      }
+    });
+  }
+
+  @Benchmark
+  public void requestHead() {
+    ByteBuffer bb = request.duplicate();
+    while(bb.hasRemaining()) {
+      ByteBuffer nbb = bb.duplicate();
+      nbb.limit(Math.min(bb.limit(), bb.position()+segment));
+      bb.position(nbb.limit());
+      requestProcessor.processData(nbb);
+    }
+  }
+
+  @Benchmark
+  public void responseHead() {
+    ByteBuffer bb = response.duplicate();
+    while(bb.hasRemaining()) {
+      ByteBuffer nbb = bb.duplicate();
+      nbb.limit(Math.min(bb.limit(), bb.position()+segment));
+      bb.position(nbb.limit());
+      responseProcessor.processData(nbb);
+    }
+  }
+}
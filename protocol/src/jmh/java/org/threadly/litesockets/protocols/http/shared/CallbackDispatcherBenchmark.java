@@ -0,0 +1,102 @@
+package org.threadly.litesockets.protocols.http.shared;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.threadly.concurrent.event.ListenerHelper;
+import org.threadly.litesockets.protocols.http.request.HTTPRequest;
+import org.threadly.litesockets.protocols.http.request.HTTPRequestProcessor.HTTPRequestCallback;
+import org.threadly.litesockets.protocols.ws.WebSocketFrameParser.WebSocketFrame;
+
+/**
+ * Compares calling {@link HTTPRequestCallback#bodyData(ByteBuffer)} through threadly's {@link ListenerHelper}
+ * (a reflection proxy, with a duplicate made for every call) to calling it through a {@link CallbackDispatcher}.
+ *
+ * Run with {@code ./gradlew jmh -PjmhArgs="CallbackDispatcherBenchmark"}.
+ *
+ * @author lwahlmeier
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallbackDispatcherBenchmark {
+  private static final int BODY_SIZE = 1024;
+
+  @Param({"1", "2"})
+  public int listeners;
+
+  private ListenerHelper<HTTPRequestCallback> helper;
+  private CallbackDispatcher<HTTPRequestCallback> dispatcher;
+  private ByteBuffer body;
+
+  @Setup
+  public void setup(final Blackhole bh) {
+    helper = new ListenerHelper<>(HTTPRequestCallback.class);
+    dispatcher = new CallbackDispatcher<>();
+    for(int i=0; i<listeners; i++) {
+      BodyCallback cb = new BodyCallback(bh);
+      helper.addListener(cb);
+      dispatcher.addListener(cb);
+    }
+    body = ByteBuffer.allocate(BODY_SIZE);
+  }
+
+  @Benchmark
+  public void listenerHelper() {
+    helper.call().bodyData(body.duplicate());
+  }
+
+  @Benchmark
+  public void callbackDispatcher() {
+    dispatcher.callWithBuffer(HTTPRequestCallback::bodyData, body);
+  }
+
+  private static class BodyCallback implements HTTPRequestCallback {
+    private final Blackhole bh;
+
+    private BodyCallback(final Blackhole bh) {
+      this.bh = bh;
+    }
+
+    @Override
+    public void headersFinished(final HTTPRequest hr) {
+      bh.consume(hr);
+    }
+
+    @Override
+    public void bodyData(final ByteBuffer bb) {
+      bh.consume(bb);
+    }
+
+    @Override
+    public void websocketData(final WebSocketFrame wsf, final ByteBuffer bb) {
+      bh.consume(bb);
+    }
+
+    @Override
+    public void finished() {
+      // not used
+    }
+
+    @Override
+    public void hasError(final Throwable t) {
+      bh.consume(t);
+    }
+  }
+}
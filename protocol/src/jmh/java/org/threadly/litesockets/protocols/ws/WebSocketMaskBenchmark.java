@@ -0,0 +1,96 @@
+package org.threadly.litesockets.protocols.ws;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares unmasking WebSocket payloads by copying ({@link WebSocketFrameParser#doDataMask(ByteBuffer, int)}
+ * and the old 4 byte at a time copy) to unmasking in place, whole and in MTU sized slices.
+ *
+ * Run with {@code ./gradlew jmh -PjmhArgs="WebSocketMaskBenchmark"}.
+ *
+ * @author lwahlmeier
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebSocketMaskBenchmark {
+  private static final int SLICE_SIZE = 1460;
+
+  @Param({"16", "128", "1024", "16384", "131072", "1048576"})
+  public int size;
+
+  private int mask;
+  private ByteBuffer heap;
+  private ByteBuffer direct;
+
+  @Setup
+  public void setup() {
+    Random rnd = new Random(size);
+    byte[] ba = new byte[size];
+    rnd.nextBytes(ba);
+    mask = rnd.nextInt();
+    heap = ByteBuffer.wrap(ba);
+    direct = ByteBuffer.allocateDirect(size);
+    direct.put(ba).flip();
+  }
+
+  @Benchmark
+  public ByteBuffer copyIntLoop() {
+    ByteBuffer nbb = heap.duplicate();
+    byte[] maskArray = ByteBuffer.allocate(4).putInt(mask).array();
+    ByteBuffer rbb = ByteBuffer.allocate(nbb.remaining());
+    while(nbb.remaining() >= 4) {
+      rbb.putInt(nbb.getInt()^mask);
+    }
+    for(int i=0; nbb.remaining() > 0; i++) {
+      rbb.put((byte)(nbb.get()^maskArray[i%4]));
+    }
+    rbb.flip();
+    return rbb;
+  }
+
+  @Benchmark
+  public ByteBuffer copy() {
+    return WebSocketFrameParser.doDataMask(heap.duplicate(), mask);
+  }
+
+  @Benchmark
+  public ByteBuffer inPlaceHeap() {
+    WebSocketFrameParser.doDataMaskInPlace(heap, mask, 0);
+    return heap;
+  }
+
+  @Benchmark
+  public ByteBuffer inPlaceDirect() {
+    WebSocketFrameParser.doDataMaskInPlace(direct, mask, 0);
+    return direct;
+  }
+
+  @Benchmark
+  public ByteBuffer inPlaceSlices() {
+    ByteBuffer slice = heap.duplicate();
+    for(int offset = 0; offset < size; offset += SLICE_SIZE) {
+      slice.limit(Math.min(size, offset + SLICE_SIZE)).position(offset);
+      WebSocketFrameParser.doDataMaskInPlace(slice, mask, offset);
+    }
+    return slice;
+  }
+}
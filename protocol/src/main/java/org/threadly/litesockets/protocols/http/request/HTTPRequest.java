@@ -51,24 +51,61 @@ public class HTTPRequest {
   }
 
   /**
-   * Returns a {@link ByteBuffer} for this header.  The buffer is read-only.
+   * Returns a {@link ByteBuffer} for this request.  The request is only encoded once, every call returns a 
+   * duplicate of the same read-only buffer.
    * 
-   * @return a {@link ByteBuffer} for this header
+   * @return a read-only {@link ByteBuffer} for this request.
    */
   public ByteBuffer getByteBuffer() {
-    if(cachedBuffer == null) {
-      ByteBuffer combined = ByteBuffer.allocate(headers.toString().length() + request.length() + 
-          HTTPConstants.HTTP_NEWLINE_DELIMINATOR.length() + 
-          HTTPConstants.HTTP_NEWLINE_DELIMINATOR.length());
-
-      combined.put(request.getByteBuffer());
-      combined.put(HTTPConstants.HTTP_NEWLINE_DELIMINATOR.getBytes());
-      combined.put(headers.toString().getBytes());
-      combined.put(HTTPConstants.HTTP_NEWLINE_DELIMINATOR.getBytes());
-      combined.flip();
-      cachedBuffer = combined.asReadOnlyBuffer();
+    ByteBuffer bb = cachedBuffer;
+    if(bb == null) {
+      bb = ByteBuffer.allocate(encodedLength());
+      encode(bb);
+      bb.flip();
+      bb = bb.asReadOnlyBuffer();
+      cachedBuffer = bb;
+    }
+    return bb.duplicate();
+  }
+  
+  /**
+   * Writes this request into the provided {@link ByteBuffer}, ie a pooled or reused buffer.  The headers are 
+   * written straight in as bytes, no intermediate String is made.
+   * 
+   * @param bb the {@link ByteBuffer} to write into.
+   * @throws java.nio.BufferOverflowException if there is not enough room in the {@link ByteBuffer}, 
+   * see {@link #encodedLength()}.
+   */
+  public void writeTo(final ByteBuffer bb) {
+    ByteBuffer cached = cachedBuffer;
+    if(cached != null) {
+      bb.put(cached.duplicate());
+    } else {
+      encode(bb);
     }
-    return cachedBuffer.duplicate();
+  }
+  
+  /**
+   * Gets the number of bytes this request encodes to.
+   * 
+   * @return the encoded size of this request.
+   */
+  public int encodedLength() {
+    ByteBuffer cached = cachedBuffer;
+    if(cached != null) {
+      return cached.remaining();
+    }
+    return request.encodedLength() + headers.encodedLength() + 
+        HTTPConstants.HTTP_NEWLINE_DELIMINATOR.length() + HTTPConstants.HTTP_NEWLINE_DELIMINATOR.length();
+  }
+  
+  private void encode(final ByteBuffer bb) {
+    request.writeTo(bb);
+    bb.put((byte)'\r');
+    bb.put((byte)'\n');
+    headers.writeTo(bb);
+    bb.put((byte)'\r');
+    bb.put((byte)'\n');
   }
 
   @Override
@@ -2,12 +2,10 @@ package org.threadly.litesockets.protocols.http.request;
 
 import java.net.URL;
 import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.TreeMap;
 
 import org.threadly.litesockets.protocols.http.shared.HTTPAddress;
 import org.threadly.litesockets.protocols.http.shared.HTTPConstants;
+import org.threadly.litesockets.protocols.http.shared.HTTPHeaderStore;
 import org.threadly.litesockets.protocols.http.shared.HTTPHeaders;
 import org.threadly.litesockets.protocols.http.shared.HTTPRequestType;
 import org.threadly.litesockets.protocols.http.shared.HTTPUtils;
@@ -17,7 +15,8 @@ import org.threadly.util.ArgumentVerifier;
  * A builder object for {@link HTTPRequest}.  This helps construct different types of httpRequests.
  */
 public class HTTPRequestBuilder {
-  private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+  private HTTPHeaderStore headers = new HTTPHeaderStore();
+  private boolean headersShared = false;
   private HTTPRequestHeader request = HTTPConstants.DEFAULT_REQUEST_HEADER;
   private String host = "localhost";
   private int port = HTTPConstants.DEFAULT_HTTP_PORT;
@@ -26,7 +25,7 @@ public class HTTPRequestBuilder {
    * Creates a new HTTPRequestBuilder object.
    */
   public HTTPRequestBuilder() {
-    headers.putAll(HTTPConstants.DEFAULT_HEADERS_MAP);
+    HTTPConstants.DEFAULT_HEADERS.copyTo(headers);
     setHeader(HTTPConstants.HTTP_KEY_HOST, host);
   }
     
@@ -36,7 +35,7 @@ public class HTTPRequestBuilder {
    * @param url the {@link URL} to use to create the {@link HTTPRequestBuilder} object with.
    */
   public HTTPRequestBuilder(final URL url) {
-    headers.putAll(HTTPConstants.DEFAULT_HEADERS_MAP);
+    HTTPConstants.DEFAULT_HEADERS.copyTo(headers);
     setURL(url);
   }
   
@@ -225,9 +224,7 @@ public class HTTPRequestBuilder {
   public HTTPRequestBuilder duplicate() {
     HTTPRequestBuilder hrb = new HTTPRequestBuilder();
     hrb.request = request;
-    for(Entry<String, String> entry: headers.entrySet()) {
-      hrb.setHeader(entry.getKey(), entry.getValue());
-    }
+    hrb.headers = headers.copy();
     hrb.setHost(host);
     hrb.setPort(port);
     return hrb;
@@ -241,7 +238,20 @@ public class HTTPRequestBuilder {
    * @return the current {@link HTTPRequestBuilder} object.
    */
   public HTTPRequestBuilder setHeader(final String key, final String value) {
-    headers.put(key, value);
+    writableHeaders().set(key, value);
+    return this;
+  }
+  
+  /**
+   * Adds a header on the HTTPRequest.  Unlike {@link #setHeader(String, String)} any values already set 
+   * for this header are kept, and the header will be sent once per value.
+   * 
+   * @param key the key for the header.
+   * @param value the value in the header.
+   * @return the current {@link HTTPRequestBuilder} object.
+   */
+  public HTTPRequestBuilder addHeader(final String key, final String value) {
+    writableHeaders().add(key, value);
     return this;
   }
   
@@ -252,10 +262,18 @@ public class HTTPRequestBuilder {
    * @return the current {@link HTTPRequestBuilder} object.
    */
   public HTTPRequestBuilder removeHeader(final String key) {
-    headers.remove(key);
+    writableHeaders().remove(key);
     return this;
   }
   
+  private HTTPHeaderStore writableHeaders() {
+    if(headersShared) {
+      headers = headers.copy();
+      headersShared = false;
+    }
+    return headers;
+  }
+  
   
   /**
    * Replaces all the {@link HTTPHeaders} for this HTTPRequestBuilder with the ones provided.
@@ -264,10 +282,9 @@ public class HTTPRequestBuilder {
    * @return the current {@link HTTPRequestBuilder} object.
    */
   public HTTPRequestBuilder replaceHTTPHeaders(final HTTPHeaders hh) {
-    this.headers.clear();
-    for(Entry<String, String> head: hh.getHeadersMap().entrySet()) {
-      setHeader(head.getKey(), head.getValue());
-    }
+    headers = new HTTPHeaderStore();
+    headersShared = false;
+    hh.copyTo(headers);
     return this;
   }
 
@@ -300,6 +317,7 @@ public class HTTPRequestBuilder {
    * @return an Immutable {@link HTTPRequest} object
    */
   public HTTPRequest build() {
+    headersShared = true;
     return new HTTPRequest(request, new HTTPHeaders(headers));
   }
 }
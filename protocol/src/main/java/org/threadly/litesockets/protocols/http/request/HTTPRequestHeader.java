@@ -1,11 +1,12 @@
 package org.threadly.litesockets.protocols.http.request;
 
 import java.nio.ByteBuffer;
-import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.threadly.litesockets.protocols.http.shared.HTTPConstants;
+import org.threadly.litesockets.protocols.http.shared.HTTPHeaderValueCache;
+import org.threadly.litesockets.protocols.http.shared.HTTPQuery;
 import org.threadly.litesockets.protocols.http.shared.HTTPRequestType;
 import org.threadly.litesockets.protocols.http.shared.HTTPUtils;
 
@@ -16,11 +17,16 @@ import org.threadly.litesockets.protocols.http.shared.HTTPUtils;
  */
 public class HTTPRequestHeader {
   private static final int REQUIRED_REQUEST_ITEMS = 3;
-  private final String rawRequest;
-  private final String requestType;
-  private final String requestPath;
-  private final Map<String, String> requestQuery;
+  private final ByteBuffer rawBytes;
+  private final int typeEnd;
+  private final int pathEnd;
+  private final int queryEnd;
   private final String httpVersion;
+  private volatile String rawRequest;
+  private volatile String requestType;
+  private volatile String requestPath;
+  private volatile HTTPQuery query;
+  private volatile Map<String, String> requestQuery;
   
   /**
    * This parses an http request string and creates an Immutable {@link HTTPRequest} object for it.
@@ -29,6 +35,10 @@ public class HTTPRequestHeader {
    * @throws IllegalArgumentException If the header fails to parse.
    */
   public HTTPRequestHeader(final String requestHeader) {
+    this.rawBytes = null;
+    this.typeEnd = -1;
+    this.pathEnd = -1;
+    this.queryEnd = -1;
     this.rawRequest = requestHeader.trim();
     String[] tmp = rawRequest.split(" ");
     if(tmp.length != REQUIRED_REQUEST_ITEMS) {
@@ -39,10 +49,10 @@ public class HTTPRequestHeader {
     int queryParamPos = ptmp.indexOf('?');
     if(queryParamPos >= 0) {
       requestPath = ptmp.substring(0, queryParamPos);
-      requestQuery = HTTPUtils.queryToMap(ptmp.substring(queryParamPos+1));
+      query = new HTTPQuery(ptmp.substring(queryParamPos+1));
     } else {
       requestPath = ptmp;
-      requestQuery = Collections.emptyMap();
+      query = HTTPQuery.EMPTY;
     }
     
     httpVersion = tmp[2].trim().toUpperCase();
@@ -51,6 +61,71 @@ public class HTTPRequestHeader {
     }
   }
   
+  /**
+   * This parses an http request line directly from bytes and creates an Immutable {@link HTTPRequest} object for it.
+   * 
+   * The line is parsed in a single pass and only the offsets of the request type, path, query and version are kept.  
+   * Strings are only created when they are asked for.  The {@link ByteBuffer} is not modified but it is kept, so its 
+   * contents must not change after this is called.
+   * 
+   * @param requestHeader the {@link ByteBuffer} containing the request line (the CRLF is optional).
+   * @throws IllegalArgumentException If the header fails to parse.
+   */
+  public HTTPRequestHeader(final ByteBuffer requestHeader) {
+    this.rawBytes = requestHeader;
+    int start = requestHeader.position();
+    int end = requestHeader.limit();
+    while(start < end && HTTPUtils.isWhitespace(requestHeader.get(start))) {
+      start++;
+    }
+    while(end > start && HTTPUtils.isWhitespace(requestHeader.get(end-1))) {
+      end--;
+    }
+    int items = 1;
+    int tEnd = -1;
+    int pEnd = -1;
+    int qEnd = -1;
+    for(int i = start; i < end; i++) {
+      byte b = requestHeader.get(i);
+      if(b == ' ') {
+        if(items == 1) {
+          tEnd = i;
+        } else if(items == 2) {
+          qEnd = i;
+          if(pEnd < 0) {
+            pEnd = i;
+          }
+        }
+        items++;
+      } else if(b == '?' && items == 2 && pEnd < 0) {
+        pEnd = i;
+      }
+    }
+    if(items != REQUIRED_REQUEST_ITEMS) {
+      throw new IllegalArgumentException("HTTPRequestHeader can only have 3 arguments! :"+
+          HTTPUtils.bytesToString(requestHeader, requestHeader.position(), requestHeader.limit()));
+    }
+    if(HTTPUtils.equalsIgnoreCase(requestHeader, qEnd+1, end, HTTPConstants.HTTP_VERSION_1_1)) {
+      httpVersion = HTTPConstants.HTTP_VERSION_1_1;
+    } else if(HTTPUtils.equalsIgnoreCase(requestHeader, qEnd+1, end, HTTPConstants.HTTP_VERSION_1_0)) {
+      httpVersion = HTTPConstants.HTTP_VERSION_1_0;
+    } else {
+      throw new UnsupportedOperationException("Unknown HTTP Version!:"+HTTPUtils.bytesToString(requestHeader, qEnd+1, end));
+    }
+    for(HTTPRequestType hrt: HTTPRequestType.values()) {
+      if(HTTPUtils.equalsIgnoreCase(requestHeader, start, tEnd, hrt.name())) {
+        requestType = hrt.name();
+        break;
+      }
+    }
+    this.typeEnd = tEnd;
+    this.pathEnd = pEnd;
+    this.queryEnd = qEnd;
+    if(pEnd == qEnd) {
+      query = HTTPQuery.EMPTY;
+    }
+  }
+  
   /**
    * Creates a new Immutable {@link HTTPRequest} object from the parts that are in a request.
    * 
@@ -72,6 +147,10 @@ public class HTTPRequestHeader {
    * @param httpVersion the httpVersion to set.
    */
   public HTTPRequestHeader(String requestType, String requestPath, Map<String, String> requestQuery, String httpVersion){
+    this.rawBytes = null;
+    this.typeEnd = -1;
+    this.pathEnd = -1;
+    this.queryEnd = -1;
     this.requestType = requestType;
     final LinkedHashMap<String, String> rqm = new LinkedHashMap<>();
     int queryParamPos = requestPath.indexOf("?");
@@ -85,9 +164,9 @@ public class HTTPRequestHeader {
       rqm.putAll(requestQuery);
     }
     if (rqm.isEmpty()) {
-      this.requestQuery = Collections.emptyMap();
+      this.query = HTTPQuery.EMPTY;
     } else {
-      this.requestQuery = Collections.unmodifiableMap(rqm);
+      this.query = new HTTPQuery(rqm);
     }
     if(!HTTPConstants.HTTP_VERSION_1_1.equals(httpVersion) && !HTTPConstants.HTTP_VERSION_1_0.equals(httpVersion)) {
       throw new UnsupportedOperationException("Unknown HTTP Version!:"+httpVersion);
@@ -111,6 +190,9 @@ public class HTTPRequestHeader {
    * @return the request type.
    */
   public String getRequestType() {
+    if(requestType == null) {
+      requestType = HTTPHeaderValueCache.toString(rawBytes, rawStart(), typeEnd).toUpperCase();
+    }
     return requestType;
   }
   
@@ -120,18 +202,37 @@ public class HTTPRequestHeader {
    * @return the request path.
    */
   public String getRequestPath() {
+    if(requestPath == null) {
+      requestPath = HTTPUtils.bytesToString(rawBytes, typeEnd+1, pathEnd);
+    }
     return requestPath;
   }
   
   /**
-   * Gets the request query.
+   * Gets the request query as a {@link Map}.  Names and values are decoded and for names set more then once
+   * the last value is used, see {@link #getQuery()} to get all of them.
    *  
    * @return the request query.
    */
   public Map<String, String> getRequestQuery() {
+    if(requestQuery == null) {
+      requestQuery = getQuery().toMap();
+    }
     return requestQuery;
   }
   
+  /**
+   * Gets the request query as an {@link HTTPQuery}.  The query is not parsed until a parameter is asked for.
+   *  
+   * @return the request query.
+   */
+  public HTTPQuery getQuery() {
+    if(query == null) {
+      query = new HTTPQuery(rawBytes, pathEnd+1, queryEnd);
+    }
+    return query;
+  }
+  
   /**
    * Gets the http version.
    * 
@@ -149,26 +250,82 @@ public class HTTPRequestHeader {
    * @return a {@link ByteBuffer} of the request header.
    */
   public ByteBuffer getByteBuffer() {
+    if(rawBytes != null) {
+      ByteBuffer bb = rawBytes.duplicate();
+      bb.limit(rawEnd());
+      bb.position(rawStart());
+      return bb.slice().asReadOnlyBuffer();
+    }
     return ByteBuffer.wrap(rawRequest.getBytes()).asReadOnlyBuffer();
   }
   
+  /**
+   * Writes the header into the provided {@link ByteBuffer}.
+   * 
+   * The newline/carriage return is not included!
+   * 
+   * @param bb the {@link ByteBuffer} to write into.
+   * @throws java.nio.BufferOverflowException if there is not enough room in the {@link ByteBuffer}.
+   */
+  public void writeTo(final ByteBuffer bb) {
+    if(rawBytes != null) {
+      ByteBuffer raw = rawBytes.duplicate();
+      raw.limit(rawEnd());
+      raw.position(rawStart());
+      bb.put(raw);
+    } else {
+      HTTPUtils.putString(bb, rawRequest);
+    }
+  }
+  
+  /**
+   * Gets the number of bytes {@link #writeTo(ByteBuffer)} will write for this header.
+   * 
+   * @return the encoded size of this header.
+   */
+  public int encodedLength() {
+    if(rawBytes != null) {
+      return rawEnd() - rawStart();
+    }
+    return HTTPUtils.encodedLength(rawRequest);
+  }
+  
   /**
    * The length in bytes of the http request header.
    * 
    * @return length in bytes of the http request header.
    */
   public int length() {
-    return rawRequest.length();
+    return toString().length();
+  }
+  
+  private int rawStart() {
+    int start = rawBytes.position();
+    while(HTTPUtils.isWhitespace(rawBytes.get(start))) {
+      start++;
+    }
+    return start;
+  }
+  
+  private int rawEnd() {
+    int end = rawBytes.limit();
+    while(HTTPUtils.isWhitespace(rawBytes.get(end-1))) {
+      end--;
+    }
+    return end;
   }
   
   @Override
   public String toString() {
+    if(rawRequest == null) {
+      rawRequest = HTTPUtils.bytesToString(rawBytes, rawStart(), rawEnd());
+    }
     return rawRequest;
   }
   
   @Override
   public int hashCode() {
-    return this.rawRequest.hashCode();
+    return toString().hashCode();
   }
   
   @Override
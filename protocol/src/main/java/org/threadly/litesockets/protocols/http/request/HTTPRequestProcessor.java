@@ -2,13 +2,20 @@ package org.threadly.litesockets.protocols.http.request;
 
 import java.nio.ByteBuffer;
 import java.text.ParseException;
+import java.util.function.BiConsumer;
 
-import org.threadly.concurrent.event.ListenerHelper;
 import org.threadly.litesockets.buffers.MergedByteBuffers;
 import org.threadly.litesockets.buffers.ReuseableMergedByteBuffers;
+import org.threadly.litesockets.protocols.http.response.HTTPResponse;
+import org.threadly.litesockets.protocols.http.shared.CallbackDispatcher;
+import org.threadly.litesockets.protocols.http.shared.HTTPChunkedDecoder;
 import org.threadly.litesockets.protocols.http.shared.HTTPConstants;
+import org.threadly.litesockets.protocols.http.shared.HTTPDelimiterScanner;
 import org.threadly.litesockets.protocols.http.shared.HTTPHeaders;
 import org.threadly.litesockets.protocols.http.shared.HTTPParsingException;
+import org.threadly.litesockets.protocols.http.shared.HTTPUtils;
+import org.threadly.litesockets.protocols.ws.WebSocketDeflater;
+import org.threadly.litesockets.protocols.ws.WebSocketFrameDecoder;
 import org.threadly.litesockets.protocols.ws.WebSocketFrameParser;
 import org.threadly.litesockets.protocols.ws.WebSocketFrameParser.WebSocketFrame;
 
@@ -16,6 +23,10 @@ import org.threadly.litesockets.protocols.ws.WebSocketFrameParser.WebSocketFrame
  * This processes byte data and turns it into HTTPrequests.  It does this through callbacks to a {@link HTTPRequestCallback} interface.  
  * These callbacks happen on the same thread that called to process the data.
  * 
+ * The request line is parsed as soon as it arrives and passed to 
+ * {@link HTTPRequestCallback#requestLineFinished(HTTPRequestHeader, RequestLineControl)}, before the rest of the 
+ * headers are buffered.  This lets a request be routed, given its own header size limit or rejected early.
+ * 
  * @author lwahlmeier
  *
  */
@@ -24,16 +35,29 @@ public class HTTPRequestProcessor {
   public static final int MAX_HEADER_ROW_LENGTH = 1024*8;
 
   private final ReuseableMergedByteBuffers pendingBuffers = new ReuseableMergedByteBuffers();
-  private final ListenerHelper<HTTPRequestCallback> listeners = new ListenerHelper<>(HTTPRequestCallback.class);
+  private final CallbackDispatcher<HTTPRequestCallback> listeners = new CallbackDispatcher<>();
+  private final HTTPChunkedDecoder chunkDecoder = new HTTPChunkedDecoder();
+  private final HTTPDelimiterScanner headScanner = new HTTPDelimiterScanner(HTTPConstants.HTTP_DOUBLE_NEWLINE_DELIMINATOR);
+  private final HTTPDelimiterScanner lineScanner = new HTTPDelimiterScanner(HTTPConstants.HTTP_NEWLINE_DELIMINATOR);
+  private final WebSocketFrameDecoder frameDecoder = new WebSocketFrameDecoder();
+  private final RequestLineControl control = new RequestLineControl(MAX_HEADER_LENGTH);
+  private final BiConsumer<HTTPRequestCallback, RequestLineControl> requestLineEvent = 
+      (cb, rlc) -> cb.requestLineFinished(this.requestLine, rlc);
   private int maxHeaderLength = MAX_HEADER_LENGTH;
   private int maxRowLength = MAX_HEADER_ROW_LENGTH;
+  private HTTPRequestHeader requestLine;
+  private int requestMaxHeaderLength = MAX_HEADER_LENGTH;
+  private boolean rejected = false;
+  private boolean mergedBodyData = false;
+  private boolean unmaskInPlace = false;
+  private boolean streamWebsocketData = false;
   private HTTPRequest request;
   private int currentBodySize = 0;
   private long bodySize = 0;
-  private ByteBuffer chunkedBB;
   private boolean isChunked = false;
   private boolean isWebsocket = false;
   private WebSocketFrame lastFrame = null;
+  private WebSocketDeflater deflater = null;
 
   /**
    * Constructs an httpRequestProcessor.
@@ -58,6 +82,137 @@ public class HTTPRequestProcessor {
     listeners.removeListener(hrc);
   }
 
+  /**
+   * Sets if body data should be passed to {@link HTTPRequestCallback#bodyData(MergedByteBuffers)} instead of 
+   * {@link HTTPRequestCallback#bodyData(ByteBuffer)}.  When set the body is handed over as the original read 
+   * buffers and is never copied, otherwise it is pulled into a single {@link ByteBuffer} which copies 
+   * whenever it crosses the end of a read buffer.  This is off by default.
+   * 
+   * @param mergedBodyData true to pass body data as {@link MergedByteBuffers}.
+   */
+  public void setMergedBodyData(boolean mergedBodyData) {
+    this.mergedBodyData = mergedBodyData;
+  }
+
+  /**
+   * Lets you know if body data is passed as {@link MergedByteBuffers}, see {@link #setMergedBodyData(boolean)}.
+   * 
+   * @return true if body data is passed as {@link MergedByteBuffers}.
+   */
+  public boolean isMergedBodyData() {
+    return mergedBodyData;
+  }
+
+  /**
+   * Sets if masked websocket payloads should be unmasked in the buffers they arrived in instead of being 
+   * copied into a new {@link ByteBuffer}.  This should only be set if the buffers passed into 
+   * {@link #processData(ByteBuffer)} are not used anywhere else, as they will be modified.  Read only buffers 
+   * are still copied.  This is off by default.
+   * 
+   * @param unmaskInPlace true to unmask websocket payloads in place.
+   */
+  public void setUnmaskInPlace(boolean unmaskInPlace) {
+    this.unmaskInPlace = unmaskInPlace;
+    this.frameDecoder.setUnmaskInPlace(unmaskInPlace);
+  }
+
+  /**
+   * Lets you know if websocket payloads are unmasked in place, see {@link #setUnmaskInPlace(boolean)}.
+   * 
+   * @return true if websocket payloads are unmasked in place.
+   */
+  public boolean isUnmaskInPlace() {
+    return unmaskInPlace;
+  }
+
+  /**
+   * Sets if websocket payloads should be passed to {@link HTTPRequestCallback#websocketPayload(WebSocketFrame, ByteBuffer)}
+   * in parts as they arrive, followed by {@link HTTPRequestCallback#websocketFrameFinished(WebSocketFrame)}, 
+   * instead of buffering each frame and passing it to {@link HTTPRequestCallback#websocketData(WebSocketFrame, ByteBuffer)}.
+   * This lets frames of any size be handled without holding them in memory.  This is off by default.
+   * 
+   * @param streamWebsocketData true to stream websocket payloads.
+   */
+  public void setWebsocketStreaming(boolean streamWebsocketData) {
+    this.streamWebsocketData = streamWebsocketData;
+  }
+
+  /**
+   * Lets you know if websocket payloads are streamed, see {@link #setWebsocketStreaming(boolean)}.
+   * 
+   * @return true if websocket payloads are streamed.
+   */
+  public boolean isWebsocketStreaming() {
+    return streamWebsocketData;
+  }
+
+  /**
+   * Sets the largest websocket frame payload that will be accepted.  If a bigger frame is sent 
+   * {@link HTTPRequestCallback#hasError(Throwable)} is called and all data is dropped until 
+   * {@link #clearBuffer()} is called.  Frames are always limited to {@link Integer#MAX_VALUE} when not 
+   * streaming.
+   * 
+   * @param maxFrameSize the max frame payload size in bytes.
+   */
+  public void setMaxWebsocketFrameSize(long maxFrameSize) {
+    frameDecoder.setMaxFrameSize(maxFrameSize);
+  }
+
+  /**
+   * Gets the largest websocket frame payload that will be accepted, see {@link #setMaxWebsocketFrameSize(long)}.
+   * 
+   * @return the max frame payload size in bytes.
+   */
+  public long getMaxWebsocketFrameSize() {
+    return frameDecoder.getMaxFrameSize();
+  }
+
+  /**
+   * Sets the largest websocket message that will be accepted, counting a data frame and all of its 
+   * continuation frames.  This is enforced as each frame header arrives, the same way as 
+   * {@link #setMaxWebsocketFrameSize(long)}.
+   * 
+   * @param maxMessageSize the max message size in bytes.
+   */
+  public void setMaxWebsocketMessageSize(long maxMessageSize) {
+    frameDecoder.setMaxMessageSize(maxMessageSize);
+  }
+
+  /**
+   * Gets the largest websocket message that will be accepted, see {@link #setMaxWebsocketMessageSize(long)}.
+   * 
+   * @return the max message size in bytes.
+   */
+  public long getMaxWebsocketMessageSize() {
+    return frameDecoder.getMaxMessageSize();
+  }
+
+  /**
+   * Sets the {@link WebSocketDeflater} negotiated for the current websocket request.  Compressed messages are 
+   * inflated before they are passed to the callbacks, so the payload length on the {@link WebSocketFrame} is the 
+   * compressed length.  Received messages are not allowed to inflate to more then 
+   * {@link #getMaxWebsocketMessageSize()}.  Frames with RSV1 set are only accepted while one is set.  This is
+   * cleared when the request is reset.
+   * 
+   * @param deflater the {@link WebSocketDeflater} to use, or null for none.
+   */
+  public void setWebsocketDeflater(WebSocketDeflater deflater) {
+    if(deflater != null) {
+      deflater.setMaxInflatedSize(getMaxWebsocketMessageSize());
+    }
+    this.deflater = deflater;
+    frameDecoder.setAllowRSV1(deflater != null);
+  }
+
+  /**
+   * Gets the {@link WebSocketDeflater} set with {@link #setWebsocketDeflater(WebSocketDeflater)}.
+   * 
+   * @return the {@link WebSocketDeflater} in use or null if there is none.
+   */
+  public WebSocketDeflater getWebsocketDeflater() {
+    return deflater;
+  }
+
   /**
    * byte[] to send through the processor.
    * 
@@ -73,7 +228,10 @@ public class HTTPRequestProcessor {
    * @param bb {@link ByteBuffer} to send through the processor.
    */
   public void processData(ByteBuffer bb) {
-    pendingBuffers.add(bb);
+    if(rejected) {
+      return;
+    }
+    addPending(bb);
     runProcessData();
   }
 
@@ -83,10 +241,28 @@ public class HTTPRequestProcessor {
    * @param bb {@link MergedByteBuffers} to send through the processor.
    */
   public void processData(MergedByteBuffers bb) {
-    pendingBuffers.add(bb);
+    if(rejected) {
+      bb.discard(bb.remaining());
+      return;
+    }
+    while(bb.remaining() > 0) {
+      addPending(bb.popBuffer());
+    }
     runProcessData();
   }
 
+  private void addPending(ByteBuffer bb) {
+    if(request == null) {
+      if(requestLine == null && lineScanner.isCaughtUp(pendingBuffers.remaining())) {
+        lineScanner.scan(bb);
+      }
+      if(headScanner.isCaughtUp(pendingBuffers.remaining())) {
+        headScanner.scan(bb);
+      }
+    }
+    pendingBuffers.add(bb);
+  }
+
   /**
    * Called when an http request connection is closes.  Some types of requests are only completed when the connection is closed (http1.0).
    * 
@@ -105,36 +281,51 @@ public class HTTPRequestProcessor {
   
 
   /**
-   * Resets the processor and any pending buffers left in it.
+   * Resets the processor and any pending buffers left in it.  This also clears a rejected request, see 
+   * {@link RequestLineControl#reject(ByteBuffer)}.
    * 
    */
   public void clearBuffer() {
     reset();
     this.pendingBuffers.discard(this.pendingBuffers.remaining());
+    this.headScanner.reset();
+    this.lineScanner.reset();
+    this.frameDecoder.reset();
+    this.lastFrame = null;
+    this.rejected = false;
+  }
+  
+  /**
+   * Lets you know if a request was rejected from 
+   * {@link HTTPRequestCallback#requestLineFinished(HTTPRequestHeader, RequestLineControl)}, or a websocket 
+   * frame went over the size limits.  Once rejected all data is dropped until {@link #clearBuffer()} is called.
+   * 
+   * @return true if a request was rejected.
+   */
+  public boolean isRejected() {
+    return rejected;
   }
 
   private void runProcessData() {
     while(pendingBuffers.remaining() > 0) {
       if(request == null) {
-        int pos = pendingBuffers.indexOf(HTTPConstants.HTTP_DOUBLE_NEWLINE_DELIMINATOR);
-        if(pos > maxHeaderLength || (pos == -1 && pendingBuffers.remaining() > maxHeaderLength)) {
+        if(requestLine == null && !parseRequestLine()) {
+          return;
+        }
+        int pos = headScanner.find(pendingBuffers);
+        if(pos > requestMaxHeaderLength || (pos == -1 && pendingBuffers.remaining() > requestMaxHeaderLength)) {
           reset(new HTTPParsingException("Headers are to big!"));
           return;
         }
         if(pos > -1) {
-          MergedByteBuffers tmp = new ReuseableMergedByteBuffers();
-          tmp.add(pendingBuffers.pullBuffer(pos+2));
-          pendingBuffers.discard(2);
+          ByteBuffer head = pendingBuffers.pullBuffer(pos+HTTPConstants.HTTP_NEWLINE_DELIMINATOR.length());
+          pendingBuffers.discard(HTTPConstants.HTTP_NEWLINE_DELIMINATOR.length());
+          headScanner.reset();
+          lineScanner.reset();
           try{
-            String reqh = tmp.getAsString(tmp.indexOf(HTTPConstants.HTTP_NEWLINE_DELIMINATOR));
-            if(reqh.length() > this.maxRowLength) {
-              reset(new HTTPParsingException("Request Header is to big!"));
-              return;    
-            }
-            HTTPRequestHeader hrh = new HTTPRequestHeader(reqh);
-            HTTPHeaders hh = new HTTPHeaders(tmp.getAsString(tmp.remaining()));
-            request = new HTTPRequest(hrh, hh);
-            listeners.call().headersFinished(request);
+            request = parseHead(head);
+            HTTPHeaders hh = request.getHTTPHeaders();
+            listeners.call(HTTPRequestCallback::headersFinished, request);
             bodySize = hh.getContentLength();
             String upgrade = hh.getHeader(HTTPConstants.HTTP_KEY_UPGRADE);
             if(hh.isChunked()) {
@@ -163,6 +354,59 @@ public class HTTPRequestProcessor {
     }
   }
 
+  /**
+   * Parses the request line as soon as its CRLF has arrived, without consuming it from the pending data, 
+   * and lets the callbacks act on it.
+   * 
+   * @return true if the headers should be processed next, false if there is not enough data yet or the 
+   * request failed or was rejected.
+   */
+  private boolean parseRequestLine() {
+    int lineEnd = lineScanner.find(pendingBuffers);
+    if(lineEnd > maxRowLength || (lineEnd == -1 && pendingBuffers.remaining() > maxRowLength)) {
+      reset(new HTTPParsingException("Request Header is to big!"));
+      return false;
+    } else if(lineEnd == -1) {
+      return false;
+    }
+    control.reset(maxHeaderLength);
+    try {
+      requestLine = new HTTPRequestHeader(pendingBuffers.duplicate().pullBuffer(lineEnd));
+    } catch(Exception e) {
+      reset(e);
+      return false;
+    }
+    final HTTPRequestHeader hrh = requestLine;
+    listeners.call(requestLineEvent, control);
+    if(control.response != null) {
+      pendingBuffers.discard(pendingBuffers.remaining());
+      headScanner.reset();
+      lineScanner.reset();
+      requestLine = null;
+      rejected = true;
+      final ByteBuffer response = control.response.duplicate();
+      control.reset(maxHeaderLength);
+      listeners.callWithBuffer(HTTPRequestCallback::requestRejected, hrh, response);
+      return false;
+    }
+    requestMaxHeaderLength = control.maxHeaderLength;
+    return true;
+  }
+
+  /**
+   * Parses the headers straight out of the head {@link ByteBuffer}.  The header block is sliced out of it 
+   * (no copies) and parsed from its bytes, the request line was already parsed by {@link #parseRequestLine()}.
+   * 
+   * @param head the request head, from the start of the request line to the CRLF of the last header row.
+   * @return the parsed {@link HTTPRequest}.
+   */
+  private HTTPRequest parseHead(final ByteBuffer head) {
+    int lineEnd = HTTPUtils.indexOfNewline(head, head.position(), head.limit());
+    ByteBuffer headerBlock = head.duplicate();
+    headerBlock.position(lineEnd+HTTPConstants.HTTP_NEWLINE_DELIMINATOR.length());
+    return new HTTPRequest(requestLine, new HTTPHeaders(headerBlock));
+  }
+
   private boolean processBody() {
     if(isChunked) {
       return parseChunkData();
@@ -176,36 +420,83 @@ public class HTTPRequestProcessor {
   private boolean parseWebsocketData() {
     if(lastFrame == null) {
       try {
-        lastFrame = WebSocketFrameParser.parseWebSocketFrame(pendingBuffers);
+        lastFrame = frameDecoder.decode(pendingBuffers);
       } catch(ParseException e) {
+        websocketError(e.getMessage());
         return false;
       }
-    }
-    if(lastFrame.getPayloadDataLength() <= pendingBuffers.remaining()) {
-      ByteBuffer bb = pendingBuffers.pullBuffer((int)lastFrame.getPayloadDataLength());
-      if(lastFrame.hasMask()) {
-        bb = WebSocketFrameParser.doDataMask(bb, lastFrame.getMaskValue());
+      if(lastFrame == null) {
+        return false;
       }
-      for(HTTPRequestCallback hrc: listeners.getSubscribedListeners()) {
-        hrc.websocketData(lastFrame, bb.duplicate());
+      if(!streamWebsocketData && lastFrame.getPayloadDataLength() > Integer.MAX_VALUE) {
+        websocketError("WebSocket frame is to big to buffer: "+lastFrame.getPayloadDataLength());
+        return false;
       }
-      lastFrame = null;
     }
-    if(pendingBuffers.remaining() >= 2) {
-      return true;
+    try {
+      if(streamWebsocketData) {
+        ByteBuffer bb;
+        while((bb = frameDecoder.nextPayload(pendingBuffers)) != null) {
+          sendWebsocketPayload(deflater == null ? bb : deflater.inflate(lastFrame, bb));
+        }
+        if(!frameDecoder.isPayloadComplete()) {
+          return false;
+        }
+        if(deflater != null) {
+          sendWebsocketPayload(deflater.finishFrame(lastFrame));
+        }
+        listeners.call(HTTPRequestCallback::websocketFrameFinished, lastFrame);
+      } else {
+        if(lastFrame.getPayloadDataLength() > pendingBuffers.remaining()) {
+          return false;
+        }
+        ByteBuffer bb = pendingBuffers.pullBuffer((int)lastFrame.getPayloadDataLength());
+        if(lastFrame.hasMask()) {
+          if(unmaskInPlace && !bb.isReadOnly()) {
+            lastFrame.unmaskPayloadInPlace(bb, 0);
+          } else {
+            bb = WebSocketFrameParser.doDataMask(bb, lastFrame.getMaskValue());
+          }
+        }
+        if(deflater != null) {
+          bb = deflater.inflateFrame(lastFrame, bb);
+        }
+        listeners.callWithBuffer(HTTPRequestCallback::websocketData, lastFrame, bb);
+      }
+    } catch(ParseException e) {
+      websocketError(e.getMessage());
+      return false;
     }
-    return false;
+    lastFrame = null;
+    return pendingBuffers.remaining() > 0;
+  }
+
+  private void sendWebsocketPayload(final ByteBuffer bb) {
+    if(bb.hasRemaining()) {
+      listeners.callWithBuffer(HTTPRequestCallback::websocketPayload, lastFrame, bb);
+    }
+  }
+
+  /**
+   * A websocket frame went over the size limits or could not be inflated.  The rest of the connection can not
+   * be parsed, so all data is dropped the same as a rejected request.
+   */
+  private void websocketError(final String msg) {
+    rejected = true;
+    lastFrame = null;
+    pendingBuffers.discard(pendingBuffers.remaining());
+    reset(new HTTPParsingException(msg));
   }
 
   private boolean parseStreamBody() {
     if(bodySize == -1) {
-      sendDuplicateBBtoListeners(pendingBuffers.pullBuffer(pendingBuffers.remaining()));
+      sendBodyToListeners(pendingBuffers.remaining());
       return false;
     } else {
       if(currentBodySize < bodySize) {
-        ByteBuffer bb = pendingBuffers.pullBuffer((int)Math.min(pendingBuffers.remaining(), bodySize - currentBodySize));
-        currentBodySize+=bb.remaining();
-        sendDuplicateBBtoListeners(bb);
+        int size = (int)Math.min(pendingBuffers.remaining(), bodySize - currentBodySize);
+        currentBodySize+=size;
+        sendBodyToListeners(size);
         if(currentBodySize == bodySize) {
           reset();
           return true;
@@ -218,49 +509,40 @@ public class HTTPRequestProcessor {
   }
 
   private boolean parseChunkData() {
-    if(bodySize < 0) {
-      int pos = pendingBuffers.indexOf(HTTPConstants.HTTP_NEWLINE_DELIMINATOR);
-      try {
-        if(pos > 0) {
-          bodySize = Integer.parseInt(pendingBuffers.getAsString(pos), HTTPConstants.HEX_SIZE);
-          pendingBuffers.discard(HTTPConstants.HTTP_NEWLINE_DELIMINATOR.length());
-          if(bodySize == 0) {
-            pendingBuffers.discard(HTTPConstants.HTTP_NEWLINE_DELIMINATOR.length());
-            reset();
-            return false;
-          } else {
-            chunkedBB = ByteBuffer.allocate((int)bodySize); // we can int cast safely due to int parse above
-            return true;
-          }
-        } else {
-          return false;
+    try {
+      if(mergedBodyData) {
+        MergedByteBuffers mbb = chunkDecoder.nextBuffers(pendingBuffers);
+        if(mbb != null) {
+          listeners.callWithBuffers(HTTPRequestCallback::bodyData, mbb);
+          return true;
         }
-      } catch(Exception e) {
-        listeners.call().hasError(new HTTPParsingException("Problem reading chunk size!", e));
-        return false;
-      }
-    } else {
-      if(currentBodySize == bodySize && pendingBuffers.remaining() >=2) {
-        chunkedBB.flip();
-        sendDuplicateBBtoListeners(chunkedBB.duplicate());
-        chunkedBB = null;
-        pendingBuffers.discard(2);
-        bodySize = -1;
-        currentBodySize = 0;
-      } else if(currentBodySize == bodySize && pendingBuffers.remaining() < 2) {
-        return false;
       } else {
-        ByteBuffer bb = pendingBuffers.pullBuffer((int)Math.min(pendingBuffers.remaining(), bodySize - currentBodySize));
-        currentBodySize+=bb.remaining();
-        chunkedBB.put(bb);
+        ByteBuffer bb = chunkDecoder.next(pendingBuffers);
+        if(bb != null) {
+          sendBBtoListeners(bb);
+          return true;
+        }
       }
+    } catch(HTTPParsingException e) {
+      reset(e);
+      return false;
+    }
+    if(chunkDecoder.isFinished()) {
+      reset();
       return true;
     }
+    return false;
+  }
+
+  private void sendBBtoListeners(ByteBuffer bb) {
+    listeners.callWithBuffer(HTTPRequestCallback::bodyData, bb);
   }
 
-  private void sendDuplicateBBtoListeners(ByteBuffer bb) {
-    for(HTTPRequestCallback hrc: listeners.getSubscribedListeners()) {
-      hrc.bodyData(bb.duplicate());
+  private void sendBodyToListeners(int size) {
+    if(mergedBodyData) {
+      listeners.callWithBuffers(HTTPRequestCallback::bodyData, HTTPUtils.pullBuffers(pendingBuffers, size));
+    } else {
+      sendBBtoListeners(pendingBuffers.pullBuffer(size));
     }
   }
 
@@ -284,15 +566,21 @@ public class HTTPRequestProcessor {
    */
   public void reset(Throwable t) {
     if(this.request != null && t == null) {
-      this.listeners.call().finished();
+      this.listeners.call(HTTPRequestCallback::finished);
     }
     if(t != null) {
-      this.listeners.call().hasError(t);
+      this.listeners.call(HTTPRequestCallback::hasError, t);
     }
     this.request = null;
+    this.requestLine = null;
+    this.requestMaxHeaderLength = maxHeaderLength;
     this.currentBodySize = 0;
     this.bodySize = 0;
     this.isChunked = false;
+    this.isWebsocket = false;
+    this.deflater = null;
+    this.frameDecoder.setAllowRSV1(false);
+    this.chunkDecoder.reset();
   }
 
   /**
@@ -313,6 +601,79 @@ public class HTTPRequestProcessor {
     return this.pendingBuffers.remaining();
   }
 
+  /**
+   * Passed to {@link HTTPRequestCallback#requestLineFinished(HTTPRequestHeader, RequestLineControl)} to let 
+   * callbacks change how the rest of a request is processed.  It is only valid during that call, the processor 
+   * reuses it for the next request.
+   * 
+   * @author lwahlmeier
+   *
+   */
+  public static class RequestLineControl {
+    private int maxHeaderLength;
+    private ByteBuffer response;
+    
+    protected RequestLineControl(final int maxHeaderLength) {
+      this.maxHeaderLength = maxHeaderLength;
+    }
+    
+    private void reset(final int maxHeaderLength) {
+      this.maxHeaderLength = maxHeaderLength;
+      this.response = null;
+    }
+    
+    /**
+     * Sets the max size of the request head (request line and headers) for only this request.  If the head 
+     * is larger then this {@link HTTPRequestCallback#hasError(Throwable)} is called.  This can be larger or 
+     * smaller then the processors default.
+     * 
+     * @param maxHeaderLength the max head size in bytes for this request.
+     */
+    public void setMaxHeaderLength(final int maxHeaderLength) {
+      this.maxHeaderLength = maxHeaderLength;
+    }
+    
+    /**
+     * Gets the max size of the request head for this request.
+     * 
+     * @return the max head size in bytes.
+     */
+    public int getMaxHeaderLength() {
+      return maxHeaderLength;
+    }
+    
+    /**
+     * Rejects the request.  The headers will not be buffered or parsed, all pending and future data is 
+     * dropped and {@link HTTPRequestCallback#requestRejected(HTTPRequestHeader, ByteBuffer)} is called with 
+     * the response.  Since the end of the rejected request can not be known, the connection should be closed 
+     * once the response is written.
+     * 
+     * @param response the already encoded response to send back, it is not modified.
+     */
+    public void reject(final ByteBuffer response) {
+      this.response = response;
+    }
+    
+    /**
+     * Rejects the request with an {@link HTTPResponse}, see {@link #reject(ByteBuffer)}.  The response is only 
+     * encoded once, so a shared constant can be used for every rejection.
+     * 
+     * @param response the {@link HTTPResponse} to send back.
+     */
+    public void reject(final HTTPResponse response) {
+      reject(response.getByteBuffer());
+    }
+    
+    /**
+     * Lets you know if the request has been rejected by a callback.
+     * 
+     * @return true if the request was rejected.
+     */
+    public boolean isRejected() {
+      return response != null;
+    }
+  }
+
   /**
    * Used for processing data with {@link HTTPRequestProcessor}.
    * 
@@ -321,6 +682,25 @@ public class HTTPRequestProcessor {
    */
   public interface HTTPRequestCallback {
 
+    /**
+     * Called as soon as the request line is parsed, before the headers are buffered or parsed.  The 
+     * {@link RequestLineControl} can be used to set a header size limit for this request or reject it.  
+     * By default this does nothing.
+     * 
+     * @param hrh the parsed {@link HTTPRequestHeader}.
+     * @param control the {@link RequestLineControl} for this request.
+     */
+    default void requestLineFinished(HTTPRequestHeader hrh, RequestLineControl control) {}
+
+    /**
+     * Called when a request is rejected from {@link #requestLineFinished(HTTPRequestHeader, RequestLineControl)}.
+     * By default this does nothing.
+     * 
+     * @param hrh the {@link HTTPRequestHeader} that was rejected.
+     * @param response the encoded response the request was rejected with.
+     */
+    default void requestRejected(HTTPRequestHeader hrh, ByteBuffer response) {}
+
     /**
      * Called when we reach a completed {@link HTTPRequest} header.
      * 
@@ -331,20 +711,57 @@ public class HTTPRequestProcessor {
     /**
      * Called after {@link #headersFinished(HTTPRequest)} is called for any body associated with the request.
      * 
-     * If the body is chunked this will be called per chunk of data and the chunk header is not included.
+     * If the body is chunked this is called with the chunk data as it arrives, so a single chunk can come
+     * in over more then one call.  Chunk headers, extensions and trailers are not included.
      * 
      * @param bb the body in a {@link ByteBuffer}
      */
     public void bodyData(ByteBuffer bb);
 
+    /**
+     * Called instead of {@link #bodyData(ByteBuffer)} when the processor is set to 
+     * {@link HTTPRequestProcessor#setMergedBodyData(boolean)}.  The buffers are the original read buffers, 
+     * no copy is made.  By default each buffer is passed to {@link #bodyData(ByteBuffer)} in order.
+     * 
+     * @param mbb the body in a {@link MergedByteBuffers}
+     */
+    default void bodyData(MergedByteBuffers mbb) {
+      while(mbb.remaining() > 0) {
+        bodyData(mbb.popBuffer());
+      }
+    }
+
     /**
      * If the last headersFinished was a websocket request this will be called back on each frame we get from processed data.
      * 
-     * @param wsf The {@link WebSocketFrame} that was wrapping the data.
-     * @param bb the payload of the frame, it will be unmasked already if its needed.
+     * @param wsf The {@link WebSocketFrame} that was wrapping the data, this is reused for the next frame so 
+     *     use {@link WebSocketFrame#copy()} to keep it.
+     * @param bb the payload of the frame, it will be unmasked and inflated already if its needed, see 
+     *     {@link HTTPRequestProcessor#setWebsocketDeflater(WebSocketDeflater)}.
      */
     public void websocketData(WebSocketFrame wsf, ByteBuffer bb);
 
+    /**
+     * Called instead of {@link #websocketData(WebSocketFrame, ByteBuffer)} when the processor is set to 
+     * {@link HTTPRequestProcessor#setWebsocketStreaming(boolean)}.  This is called with each part of a frames 
+     * payload as it arrives, already unmasked, so a single frame can come in over many calls.
+     * 
+     * @param wsf The {@link WebSocketFrame} the payload is for, this is reused for the next frame.
+     * @param bb the next part of the payload.
+     */
+    default void websocketPayload(WebSocketFrame wsf, ByteBuffer bb) {
+      // ignored by default
+    }
+
+    /**
+     * Called once all of a frames payload has been passed to {@link #websocketPayload(WebSocketFrame, ByteBuffer)}.
+     * 
+     * @param wsf The {@link WebSocketFrame} that was finished.
+     */
+    default void websocketFrameFinished(WebSocketFrame wsf) {
+      // ignored by default
+    }
+
     /**
      * This is called when the http request finishes.  This can also be called if the connection is set to closed, or reset manually.
      * 
@@ -5,6 +5,7 @@ import java.util.Collections;
 import java.util.Map;
 
 import org.threadly.litesockets.protocols.http.shared.HTTPConstants;
+import org.threadly.litesockets.protocols.http.shared.HTTPDate;
 import org.threadly.litesockets.protocols.http.shared.HTTPHeaders;
 import org.threadly.litesockets.protocols.http.shared.HTTPParsingException;
 import org.threadly.litesockets.protocols.http.shared.HTTPResponseCode;
@@ -16,6 +17,8 @@ import org.threadly.litesockets.protocols.http.shared.HTTPResponseCode;
 public class HTTPResponse {
   private final HTTPResponseHeader rHeader;
   private final HTTPHeaders headers;
+  private transient volatile ByteBuffer cachedBuffer;
+  private transient volatile DatedBuffer datedBuffer;
   
   /**
    * Creates an {@link HTTPResponse} object.
@@ -69,20 +72,84 @@ public class HTTPResponse {
   }
   
   /**
-   * Gets this {@link HTTPResponse} as a {@link ByteBuffer}.
+   * Returns a {@link ByteBuffer} for this response.  The response is only encoded once, every call returns a 
+   * duplicate of the same read-only buffer.
    * 
-   * @return a {@link ByteBuffer} of this {@link HTTPResponse}.
+   * @return a read-only {@link ByteBuffer} for this response.
    */
   public ByteBuffer getByteBuffer() {
-    ByteBuffer combined = ByteBuffer.allocate(headers.toString().length() + rHeader.length() + 
-        HTTPConstants.HTTP_NEWLINE_DELIMINATOR.length() + 
-        HTTPConstants.HTTP_NEWLINE_DELIMINATOR.length());
-    combined.put(rHeader.getByteBuffer());
-    combined.put(HTTPConstants.HTTP_NEWLINE_DELIMINATOR.getBytes());
-    combined.put(headers.toString().getBytes());
-    combined.put(HTTPConstants.HTTP_NEWLINE_DELIMINATOR.getBytes());
-    combined.flip();
-    return combined;
+    ByteBuffer bb = cachedBuffer;
+    if(bb == null) {
+      bb = ByteBuffer.allocate(encodedLength());
+      encode(bb);
+      bb.flip();
+      bb = bb.asReadOnlyBuffer();
+      cachedBuffer = bb;
+    }
+    return bb.duplicate();
+  }
+  
+  /**
+   * Returns a {@link ByteBuffer} for this response with the Date header row for the current second (see 
+   * {@link HTTPDate#getDateHeaderRow()}) added after its headers.  The dated response is only encoded once a 
+   * second, every other call returns a duplicate of the same read-only buffer.
+   * 
+   * @return a read-only {@link ByteBuffer} for this response with a Date header.
+   */
+  public ByteBuffer getByteBufferWithDate() {
+    final byte[] date = HTTPDate.getCurrentDateBytes();
+    DatedBuffer db = datedBuffer;
+    if(db == null || db.date != date) {
+      ByteBuffer head = getByteBuffer();
+      head.limit(head.limit() - HTTPConstants.HTTP_NEWLINE_DELIMINATOR.length());
+      ByteBuffer row = HTTPDate.getDateHeaderRow();
+      ByteBuffer bb = ByteBuffer.allocate(head.remaining() + row.remaining() + HTTPConstants.HTTP_NEWLINE_DELIMINATOR.length());
+      bb.put(head).put(row).put((byte)'\r').put((byte)'\n');
+      bb.flip();
+      db = new DatedBuffer(date, bb.asReadOnlyBuffer());
+      datedBuffer = db;
+    }
+    return db.buffer.duplicate();
+  }
+  
+  /**
+   * Writes this response into the provided {@link ByteBuffer}, ie a pooled or reused buffer.  The headers are 
+   * written straight in as bytes, no intermediate String is made.
+   * 
+   * @param bb the {@link ByteBuffer} to write into.
+   * @throws java.nio.BufferOverflowException if there is not enough room in the {@link ByteBuffer}, 
+   * see {@link #encodedLength()}.
+   */
+  public void writeTo(final ByteBuffer bb) {
+    ByteBuffer cached = cachedBuffer;
+    if(cached != null) {
+      bb.put(cached.duplicate());
+    } else {
+      encode(bb);
+    }
+  }
+  
+  /**
+   * Gets the number of bytes this response encodes to.
+   * 
+   * @return the encoded size of this response.
+   */
+  public int encodedLength() {
+    ByteBuffer cached = cachedBuffer;
+    if(cached != null) {
+      return cached.remaining();
+    }
+    return rHeader.encodedLength() + headers.encodedLength() + 
+        HTTPConstants.HTTP_NEWLINE_DELIMINATOR.length() + HTTPConstants.HTTP_NEWLINE_DELIMINATOR.length();
+  }
+  
+  private void encode(final ByteBuffer bb) {
+    rHeader.writeTo(bb);
+    bb.put((byte)'\r');
+    bb.put((byte)'\n');
+    headers.writeTo(bb);
+    bb.put((byte)'\r');
+    bb.put((byte)'\n');
   }
   
   @Override
@@ -150,4 +217,16 @@ public class HTTPResponse {
     }
   }
 
+  /**
+   * An encoded response with the Date header of a single second.
+   */
+  private static class DatedBuffer {
+    private final byte[] date;
+    private final ByteBuffer buffer;
+    
+    private DatedBuffer(final byte[] date, final ByteBuffer buffer) {
+      this.date = date;
+      this.buffer = buffer;
+    }
+  }
 }
@@ -1,10 +1,8 @@
 package org.threadly.litesockets.protocols.http.response;
 
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.TreeMap;
-
 import org.threadly.litesockets.protocols.http.shared.HTTPConstants;
+import org.threadly.litesockets.protocols.http.shared.HTTPDate;
+import org.threadly.litesockets.protocols.http.shared.HTTPHeaderStore;
 import org.threadly.litesockets.protocols.http.shared.HTTPHeaders;
 import org.threadly.litesockets.protocols.http.shared.HTTPResponseCode;
 
@@ -15,7 +13,9 @@ import org.threadly.litesockets.protocols.http.shared.HTTPResponseCode;
  *
  */
 public class HTTPResponseBuilder {
-  private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+  private HTTPHeaderStore headers = new HTTPHeaderStore();
+  private boolean headersShared = false;
+  private boolean addDateHeader = false;
   private HTTPResponseHeader rHeader = HTTPConstants.OK_RESPONSE_HEADER;
   
   /**
@@ -23,8 +23,8 @@ public class HTTPResponseBuilder {
    * 
    */
   public HTTPResponseBuilder() {
-    headers.putAll(HTTPConstants.DEFAULT_HEADERS.getHeadersMap());
-    headers.put(HTTPConstants.HTTP_KEY_CONTENT_LENGTH, "0");
+    HTTPConstants.DEFAULT_HEADERS.copyTo(headers);
+    headers.set(HTTPConstants.HTTP_KEY_CONTENT_LENGTH, "0");
   }
   
   
@@ -70,13 +70,26 @@ public class HTTPResponseBuilder {
    */
   public HTTPResponseBuilder setHeader(String key, String value) {
     if(value == null) {
-      headers.remove(key);
+      writableHeaders().remove(key);
     } else {
-      headers.put(key, value);
+      writableHeaders().set(key, value);
     }
     return this;
   }
   
+  /**
+   * Adds a header on the HTTPResponse.  Unlike {@link #setHeader(String, String)} any values already set 
+   * for this header are kept, and the header will be sent once per value (ie Set-Cookie).
+   * 
+   * @param key the key for the header.
+   * @param value the value in the header.
+   * @return the current {@link HTTPResponseBuilder} object.
+   */
+  public HTTPResponseBuilder addHeader(final String key, final String value) {
+    writableHeaders().add(key, value);
+    return this;
+  }
+  
   /**
    * Removes a header on the HTTPResponse.
    * 
@@ -84,10 +97,18 @@ public class HTTPResponseBuilder {
    * @return the current {@link HTTPResponseBuilder} object.
    */
   public HTTPResponseBuilder removeHeader(final String key) {
-    headers.remove(key);
+    writableHeaders().remove(key);
     return this;
   }
   
+  private HTTPHeaderStore writableHeaders() {
+    if(headersShared) {
+      headers = headers.copy();
+      headersShared = false;
+    }
+    return headers;
+  }
+  
   /**
    * Replaces all the {@link HTTPHeaders} for this HTTPResponseBuilder with the ones provided.
    * 
@@ -98,10 +119,9 @@ public class HTTPResponseBuilder {
    */
   @Deprecated
   public HTTPResponseBuilder setHeaders(HTTPHeaders hh) {
-    this.headers.clear();
-    for(Entry<String, String> head: hh.getHeadersMap().entrySet()) {
-      setHeader(head.getKey(), head.getValue());
-    }
+    headers = new HTTPHeaderStore();
+    headersShared = false;
+    hh.copyTo(headers);
     return this;
   }
   
@@ -112,10 +132,22 @@ public class HTTPResponseBuilder {
    * @return the current {@link HTTPResponseBuilder} object.
    */
   public HTTPResponseBuilder replaceHTTPHeaders(final HTTPHeaders hh) {
-    this.headers.clear();
-    for(Entry<String, String> head: hh.getHeadersMap().entrySet()) {
-      setHeader(head.getKey(), head.getValue());
-    }
+    headers = new HTTPHeaderStore();
+    headersShared = false;
+    hh.copyTo(headers);
+    return this;
+  }
+
+  /**
+   * Sets if a Date header with the current time should be set every time {@link #build()} is called.  The
+   * date comes from the shared cache in {@link HTTPDate} so this does not format a date on every build.  This 
+   * is off by default.
+   * 
+   * @param addDateHeader true to set the Date header on build.
+   * @return the current {@link HTTPResponseBuilder} object.
+   */
+  public HTTPResponseBuilder setAddDateHeader(final boolean addDateHeader) {
+    this.addDateHeader = addDateHeader;
     return this;
   }
 
@@ -125,6 +157,10 @@ public class HTTPResponseBuilder {
    * @return a new {@link HTTPResponse} based on what is set in this builder.
    */
   public HTTPResponse build() {
+    if(addDateHeader) {
+      writableHeaders().set(HTTPConstants.HTTP_KEY_DATE, HTTPDate.getCurrentDate());
+    }
+    headersShared = true;
     return new HTTPResponse(rHeader, new HTTPHeaders(headers));
   }
 }
@@ -4,15 +4,21 @@ import java.nio.ByteBuffer;
 
 import org.threadly.litesockets.protocols.http.shared.HTTPConstants;
 import org.threadly.litesockets.protocols.http.shared.HTTPResponseCode;
+import org.threadly.litesockets.protocols.http.shared.HTTPUtils;
 
 /**
  * An Immutable object of the HTTP Response header.  Basically the first line in the Header of an HTTP response. 
  */
 public class HTTPResponseHeader {
   private static final int MAX_RESPONSE_ITEMS = 3;
-  private final String rawResponse;
+  private static final int MAX_CODE_DIGITS = 3;
+  private final ByteBuffer rawBytes;
+  private final int rawStart;
+  private final int rawEnd;
   private final HTTPResponseCode hrc;
   private final String httpVersion;
+  private final boolean fromCode;
+  private volatile String rawResponse;
 
   /**
    * This parses an http response string and creates an Immutable {@link HTTPResponse} object for it.
@@ -21,12 +27,16 @@ public class HTTPResponseHeader {
    * @throws IllegalArgumentException If the header fails to parse.
    */
   public HTTPResponseHeader(final String responseHeader) {
+    this.rawBytes = null;
+    this.rawStart = -1;
+    this.rawEnd = -1;
+    this.fromCode = false;
     this.rawResponse = responseHeader.trim();
     String[] tmp = rawResponse.split(" ", MAX_RESPONSE_ITEMS);
     try {
-      httpVersion = tmp[0].trim();
-      if(!httpVersion.equalsIgnoreCase(HTTPConstants.HTTP_VERSION_1_1) && !httpVersion.equalsIgnoreCase(HTTPConstants.HTTP_VERSION_1_0)) {
-        throw new IllegalArgumentException("Unknown HTTP Version!:"+httpVersion);
+      httpVersion = knownVersion(tmp[0].trim());
+      if(httpVersion == null) {
+        throw new IllegalArgumentException("Unknown HTTP Version!:"+tmp[0].trim());
       }
       hrc = HTTPResponseCode.findResponseCode(Integer.parseInt(tmp[1].trim()));
     } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
@@ -34,6 +44,58 @@ public class HTTPResponseHeader {
     }
   }
 
+  /**
+   * This parses an http response status line from bytes without making any Strings.  The status code is
+   * looked up directly and the String form of the header is only made if {@link #toString()} is called.
+   *
+   * The newline/carriage return should not be included.
+   *
+   * @param responseHeader the {@link ByteBuffer} to parse, from its position to its limit.  This buffer is kept
+   * by this object and must not be modified after this call.
+   * @throws IllegalArgumentException If the header fails to parse.
+   */
+  public HTTPResponseHeader(final ByteBuffer responseHeader) {
+    this.rawBytes = responseHeader;
+    this.fromCode = false;
+    int start = responseHeader.position();
+    int end = responseHeader.limit();
+    while(start < end && HTTPUtils.isWhitespace(responseHeader.get(start))) {
+      start++;
+    }
+    while(end > start && HTTPUtils.isWhitespace(responseHeader.get(end-1))) {
+      end--;
+    }
+    this.rawStart = start;
+    this.rawEnd = end;
+    int pos = start;
+    while(pos < end && responseHeader.get(pos) != ' ') {
+      pos++;
+    }
+    if(HTTPUtils.equalsIgnoreCase(responseHeader, start, pos, HTTPConstants.HTTP_VERSION_1_1)) {
+      httpVersion = HTTPConstants.HTTP_VERSION_1_1;
+    } else if(HTTPUtils.equalsIgnoreCase(responseHeader, start, pos, HTTPConstants.HTTP_VERSION_1_0)) {
+      httpVersion = HTTPConstants.HTTP_VERSION_1_0;
+    } else {
+      throw new IllegalArgumentException("Unknown HTTP Version!:"+HTTPUtils.bytesToString(responseHeader, start, pos));
+    }
+    while(pos < end && responseHeader.get(pos) == ' ') {
+      pos++;
+    }
+    int code = 0;
+    int digits = 0;
+    for(; pos < end && responseHeader.get(pos) != ' '; pos++) {
+      byte b = responseHeader.get(pos);
+      if(b < '0' || b > '9' || ++digits > MAX_CODE_DIGITS) {
+        throw new IllegalArgumentException("Invalid Response Header! :"+toString());
+      }
+      code = (code * 10) + (b - '0');
+    }
+    if(digits == 0) {
+      throw new IllegalArgumentException("Invalid Response Header! :"+toString());
+    }
+    hrc = HTTPResponseCode.findResponseCode(code);
+  }
+
   /**
    * This parses an http response string and creates an Immutable {@link HTTPResponse} object for it.
    * 
@@ -42,12 +104,15 @@ public class HTTPResponseHeader {
    * @throws IllegalArgumentException If the header fails to parse.
    */
   public HTTPResponseHeader(final HTTPResponseCode rCode, final String httpVersion) {
-    if(!httpVersion.equals(HTTPConstants.HTTP_VERSION_1_1) && !httpVersion.equals(HTTPConstants.HTTP_VERSION_1_0)) {
+    this.httpVersion = knownVersion(httpVersion);
+    if(this.httpVersion == null || !this.httpVersion.equals(httpVersion)) {
       throw new IllegalArgumentException("Unknown HTTP Version!:"+httpVersion);
     }
+    this.rawBytes = null;
+    this.rawStart = -1;
+    this.rawEnd = -1;
+    this.fromCode = true;
     hrc = rCode;
-    this.httpVersion = httpVersion;
-    rawResponse = (this.httpVersion+" "+hrc.getId()+" "+hrc.toString());
   }
   
   /**
@@ -74,7 +139,7 @@ public class HTTPResponseHeader {
    * @return length in bytes of the http response header.
    */
   public int length() {
-    return rawResponse.length();
+    return toString().length();
   }
 
   /**
@@ -85,12 +150,56 @@ public class HTTPResponseHeader {
    * @return a {@link ByteBuffer} of the response header.
    */
   public ByteBuffer getByteBuffer() {
+    if(rawBytes != null) {
+      ByteBuffer bb = rawBytes.duplicate();
+      bb.limit(rawEnd);
+      bb.position(rawStart);
+      return bb.slice().asReadOnlyBuffer();
+    } else if(fromCode) {
+      return hrc.getStatusLine(httpVersion);
+    }
     return ByteBuffer.wrap(this.rawResponse.getBytes()).asReadOnlyBuffer();
   }
 
+  /**
+   * Writes the header into the provided {@link ByteBuffer}.  Headers made from an {@link HTTPResponseCode}
+   * write its pre-encoded status line.
+   * 
+   * The newline/carriage return is not included!
+   * 
+   * @param bb the {@link ByteBuffer} to write into.
+   * @throws java.nio.BufferOverflowException if there is not enough room in the {@link ByteBuffer}.
+   */
+  public void writeTo(final ByteBuffer bb) {
+    if(rawBytes != null) {
+      ByteBuffer raw = rawBytes.duplicate();
+      raw.limit(rawEnd);
+      raw.position(rawStart);
+      bb.put(raw);
+    } else if(fromCode) {
+      hrc.writeStatusLine(bb, httpVersion);
+    } else {
+      HTTPUtils.putString(bb, rawResponse);
+    }
+  }
+  
+  /**
+   * Gets the number of bytes {@link #writeTo(ByteBuffer)} will write for this header.
+   * 
+   * @return the encoded size of this header.
+   */
+  public int encodedLength() {
+    if(rawBytes != null) {
+      return rawEnd - rawStart;
+    } else if(fromCode) {
+      return hrc.getStatusLineLength();
+    }
+    return HTTPUtils.encodedLength(rawResponse);
+  }
+
   @Override
   public int hashCode() {
-    return rawResponse.hashCode();
+    return hrc.getId() ^ httpVersion.hashCode();
   }
 
   @Override
@@ -105,6 +214,24 @@ public class HTTPResponseHeader {
 
   @Override
   public String toString() {
-    return rawResponse;
+    String raw = rawResponse;
+    if(raw == null) {
+      if(rawBytes != null) {
+        raw = HTTPUtils.bytesToString(rawBytes, rawStart, rawEnd);
+      } else {
+        raw = this.httpVersion+" "+hrc.getId()+" "+hrc.toString();
+      }
+      rawResponse = raw;
+    }
+    return raw;
+  }
+
+  private static String knownVersion(final String version) {
+    if(version.equalsIgnoreCase(HTTPConstants.HTTP_VERSION_1_1)) {
+      return HTTPConstants.HTTP_VERSION_1_1;
+    } else if(version.equalsIgnoreCase(HTTPConstants.HTTP_VERSION_1_0)) {
+      return HTTPConstants.HTTP_VERSION_1_0;
+    }
+    return null;
   }
 }
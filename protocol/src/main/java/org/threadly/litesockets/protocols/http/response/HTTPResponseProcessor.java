@@ -4,14 +4,17 @@ import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.HashMap;
 
-import org.threadly.concurrent.event.ListenerHelper;
 import org.threadly.litesockets.buffers.MergedByteBuffers;
 import org.threadly.litesockets.buffers.ReuseableMergedByteBuffers;
 import org.threadly.litesockets.buffers.SimpleMergedByteBuffers;
+import org.threadly.litesockets.protocols.http.shared.CallbackDispatcher;
+import org.threadly.litesockets.protocols.http.shared.HTTPChunkedDecoder;
 import org.threadly.litesockets.protocols.http.shared.HTTPConstants;
+import org.threadly.litesockets.protocols.http.shared.HTTPDelimiterScanner;
 import org.threadly.litesockets.protocols.http.shared.HTTPHeaders;
 import org.threadly.litesockets.protocols.http.shared.HTTPParsingException;
 import org.threadly.litesockets.protocols.http.shared.HTTPResponseCode;
+import org.threadly.litesockets.protocols.http.shared.HTTPUtils;
 import org.threadly.litesockets.protocols.ws.WebSocketFrameParser.WebSocketFrame;
 
 
@@ -23,10 +26,12 @@ public class HTTPResponseProcessor {
   public static final int MAX_HEADER_SIZE = 50000;
 
   private final ReuseableMergedByteBuffers buffers = new ReuseableMergedByteBuffers();
-  private final ListenerHelper<HTTPResponseCallback> listeners = new ListenerHelper<>(HTTPResponseCallback.class);
+  private final CallbackDispatcher<HTTPResponseCallback> listeners = new CallbackDispatcher<>();
+  private final HTTPChunkedDecoder chunkDecoder = new HTTPChunkedDecoder();
+  private final HTTPDelimiterScanner headScanner = new HTTPDelimiterScanner(HTTPConstants.HTTP_DOUBLE_NEWLINE_DELIMINATOR);
   private HTTPResponse response;
-  private int nextChunkSize = -1;
   private int currentBodySize = 0;
+  private boolean mergedBodyData = false;
 
   /**
    * Creates a new {@link HTTPResponseProcessor}. 
@@ -85,6 +90,27 @@ public class HTTPResponseProcessor {
   }
 
 
+  /**
+   * Sets if body data should be passed to {@link HTTPResponseCallback#bodyData(MergedByteBuffers)} instead of 
+   * {@link HTTPResponseCallback#bodyData(ByteBuffer)}.  When set the body is handed over as the original read 
+   * buffers and is never copied, otherwise it is pulled into a single {@link ByteBuffer} which copies 
+   * whenever it crosses the end of a read buffer.  This is off by default.
+   * 
+   * @param mergedBodyData true to pass body data as {@link MergedByteBuffers}.
+   */
+  public void setMergedBodyData(boolean mergedBodyData) {
+    this.mergedBodyData = mergedBodyData;
+  }
+
+  /**
+   * Lets you know if body data is passed as {@link MergedByteBuffers}, see {@link #setMergedBodyData(boolean)}.
+   * 
+   * @return true if body data is passed as {@link MergedByteBuffers}.
+   */
+  public boolean isMergedBodyData() {
+    return mergedBodyData;
+  }
+
   /**
    * byte[] to send through the processor.
    * 
@@ -109,29 +135,46 @@ public class HTTPResponseProcessor {
    * @param bb {@link MergedByteBuffers} to send through the processor.
    */
   public void processData(MergedByteBuffers bb) {
-    buffers.add(bb);
-    if(response == null && buffers.indexOf(HTTPConstants.HTTP_DOUBLE_NEWLINE_DELIMINATOR) > -1) {
-      try{
-        HTTPResponseHeader hrh = new HTTPResponseHeader(buffers.getAsString(buffers.indexOf(HTTPConstants.HTTP_NEWLINE_DELIMINATOR)));
-        buffers.discard(2);
-        int pos = buffers.indexOf(HTTPConstants.HTTP_DOUBLE_NEWLINE_DELIMINATOR);
-        HTTPHeaders hh;
-        if (pos > 0) {
-          hh = new HTTPHeaders(buffers.getAsString(pos));
-          buffers.discard(HTTPConstants.HTTP_DOUBLE_NEWLINE_DELIMINATOR.length());
-        } else {
-          hh  = new HTTPHeaders(new HashMap<String, String>());
+    while(bb.remaining() > 0) {
+      ByteBuffer nbb = bb.popBuffer();
+      if(response == null && headScanner.isCaughtUp(buffers.remaining())) {
+        headScanner.scan(nbb);
+      }
+      buffers.add(nbb);
+    }
+    if(response == null) {
+      int pos = headScanner.find(buffers);
+      if(pos > MAX_HEADER_SIZE || (pos == -1 && buffers.remaining() > MAX_HEADER_SIZE)) {
+        reset(new HTTPParsingException("Headers are to big!"));
+        return;
+      }
+      if(pos > -1) {
+        headScanner.reset();
+        try{
+          int lineEnd = buffers.indexOf(HTTPConstants.HTTP_NEWLINE_DELIMINATOR);
+          if(lineEnd > MAX_RESPONSE_HEADER_SIZE) {
+            throw new HTTPParsingException("Response Header is to big!");
+          }
+          HTTPResponseHeader hrh = new HTTPResponseHeader(buffers.pullBuffer(lineEnd));
           buffers.discard(HTTPConstants.HTTP_NEWLINE_DELIMINATOR.length());
-        }
-        response = new HTTPResponse(hrh, hh);
-        listeners.call().headersFinished(response);
-        if(!response.getHeaders().isChunked() && response.getHeaders().getContentLength() == 0) {
-          if(response.getResponseCode() != HTTPResponseCode.SwitchingProtocols ) {
-            reset(null);
+          HTTPHeaders hh;
+          if (pos > lineEnd) {
+            hh = new HTTPHeaders(buffers.pullBuffer(pos - lineEnd));
+            buffers.discard(HTTPConstants.HTTP_NEWLINE_DELIMINATOR.length());
+          } else {
+            hh  = new HTTPHeaders(new HashMap<String, String>());
+            buffers.discard(HTTPConstants.HTTP_NEWLINE_DELIMINATOR.length());
+          }
+          response = new HTTPResponse(hrh, hh);
+          listeners.call(HTTPResponseCallback::headersFinished, response);
+          if(!response.getHeaders().isChunked() && response.getHeaders().getContentLength() == 0) {
+            if(response.getResponseCode() != HTTPResponseCode.SwitchingProtocols ) {
+              reset(null);
+            }
           }
+        } catch(Exception e) {
+          reset(e);
         }
-      } catch(Exception e) {
-        reset(e);
       }
     }
 
@@ -150,7 +193,7 @@ public class HTTPResponseProcessor {
   public void connectionClosed() {
     if(response != null) {
       if(response.getHeaders().isChunked()) {
-        if (this.nextChunkSize == -1 || this.nextChunkSize == 0) {
+        if (chunkDecoder.isBetweenChunks()) {
           reset(null);
         } else {
           reset(new HTTPParsingException("Did not complete chunked encoding!"));
@@ -166,6 +209,7 @@ public class HTTPResponseProcessor {
       reset(new HTTPParsingException("No Response Received!"));
     }
     buffers.discard(buffers.remaining());
+    headScanner.reset();
   }
 
 
@@ -176,6 +220,7 @@ public class HTTPResponseProcessor {
   public void clearBuffer() {
     reset();
     this.buffers.discard(this.buffers.remaining());
+    this.headScanner.reset();
   }
   
   /**
@@ -197,16 +242,16 @@ public class HTTPResponseProcessor {
    */
   public void reset(Throwable t) {
     if(response != null && t == null) {
-      listeners.call().finished();
+      listeners.call(HTTPResponseCallback::finished);
     }
     
     if (t != null){
-      listeners.call().hasError(t);
+      listeners.call(HTTPResponseCallback::hasError, t);
     }
     response = null;
 
     currentBodySize = 0;
-    nextChunkSize = -1;
+    chunkDecoder.reset();
   }
   
   /**
@@ -232,14 +277,14 @@ public class HTTPResponseProcessor {
       processChunks();
     } else {
       if(response.getHeaders().getContentLength() != -1 && currentBodySize < response.getHeaders().getContentLength()) {
-        int pull = (int)Math.min(response.getHeaders().getContentLength(), buffers.remaining());
-        sendDuplicateBBtoListeners(buffers.pullBuffer(pull));
+        int pull = (int)Math.min(response.getHeaders().getContentLength() - currentBodySize, buffers.remaining());
+        sendBodyToListeners(pull);
         currentBodySize+=pull;
         if(currentBodySize >= response.getHeaders().getContentLength()) {
           reset(null);
         }
       } else if (response.getHeaders().getContentLength() == -1 || response.getResponseCode() == HTTPResponseCode.SwitchingProtocols) {
-        sendDuplicateBBtoListeners(buffers.pullBuffer(buffers.remaining()));
+        sendBodyToListeners(buffers.remaining());
       }
     }
   }
@@ -266,42 +311,38 @@ public class HTTPResponseProcessor {
   }
 
   private void processChunks() {
-    while(buffers.remaining() > 0) {
-      if(nextChunkSize == -1) {
-        int pos = buffers.indexOf(HTTPConstants.HTTP_NEWLINE_DELIMINATOR);
-        try {
-          if(pos > 0) {
-            String len = buffers.getAsString(pos);
-            nextChunkSize = Integer.parseInt(len.trim(), HTTPConstants.HEX_SIZE);
-            buffers.discard(2);
-            if(nextChunkSize == 0) {
-              buffers.discard(2);
-              reset(null);
-              return;
-            } 
-          } else {
-            return;
-          }
-        } catch(Exception e) {
-          listeners.call().hasError(new HTTPParsingException("Problem reading chunk size!", e));
-          return;
+    try {
+      if(mergedBodyData) {
+        MergedByteBuffers mbb = chunkDecoder.nextBuffers(buffers);
+        while(mbb != null) {
+          listeners.callWithBuffers(HTTPResponseCallback::bodyData, mbb);
+          mbb = chunkDecoder.nextBuffers(buffers);
         }
       } else {
-        if(buffers.remaining() >= nextChunkSize+2) {
-          ByteBuffer bb = buffers.pullBuffer(nextChunkSize);
-          buffers.discard(2);
-          sendDuplicateBBtoListeners(bb);  
-          nextChunkSize = -1;
-        } else {
-          return;
+        ByteBuffer bb = chunkDecoder.next(buffers);
+        while(bb != null) {
+          sendBBtoListeners(bb);
+          bb = chunkDecoder.next(buffers);
         }
       }
+    } catch(HTTPParsingException e) {
+      listeners.call(HTTPResponseCallback::hasError, e);
+      return;
     }
+    if(chunkDecoder.isFinished()) {
+      reset(null);
+    }
+  }
+
+  private void sendBBtoListeners(ByteBuffer bb) {
+    listeners.callWithBuffer(HTTPResponseCallback::bodyData, bb);
   }
 
-  private void sendDuplicateBBtoListeners(ByteBuffer bb) {
-    for(HTTPResponseCallback hrc: listeners.getSubscribedListeners()) {
-      hrc.bodyData(bb.duplicate());
+  private void sendBodyToListeners(int size) {
+    if(mergedBodyData) {
+      listeners.callWithBuffers(HTTPResponseCallback::bodyData, HTTPUtils.pullBuffers(buffers, size));
+    } else {
+      sendBBtoListeners(buffers.pullBuffer(size));
     }
   }
 
@@ -323,11 +364,26 @@ public class HTTPResponseProcessor {
     /**
      * Called after {@link #headersFinished(HTTPResponse)} is called for any body associated with the request.
      * 
-     * If the body is chunked this will be called per chunk of data and the chunk header is not included.
+     * If the body is chunked this is called with the chunk data as it arrives, so a single chunk can come
+     * in over more then one call.  Chunk headers, extensions and trailers are not included.
      * 
      * @param bb the body in a {@link ByteBuffer}
      */
     public void bodyData(ByteBuffer bb);
+
+    /**
+     * Called instead of {@link #bodyData(ByteBuffer)} when the processor is set to 
+     * {@link HTTPResponseProcessor#setMergedBodyData(boolean)}.  The buffers are the original read buffers, 
+     * no copy is made.  By default each buffer is passed to {@link #bodyData(ByteBuffer)} in order.
+     * 
+     * @param mbb the body in a {@link MergedByteBuffers}
+     */
+    default void bodyData(MergedByteBuffers mbb) {
+      while(mbb.remaining() > 0) {
+        bodyData(mbb.popBuffer());
+      }
+    }
+
     /**
      * If the last headersFinished was a websocket request this will be called back on each frame we get from processed data.
      * 
@@ -0,0 +1,238 @@
+package org.threadly.litesockets.protocols.http.response;
+
+import java.nio.ByteBuffer;
+
+import org.threadly.litesockets.protocols.http.shared.HTTPHeaderStore;
+import org.threadly.litesockets.protocols.http.shared.HTTPUtils;
+
+/**
+ * A precompiled {@link HTTPResponse} head for responses that are sent over and over with only a few header
+ * values changing (ie Content-Length).  The status line and headers are encoded to bytes once, and each
+ * header that changes gets a fixed width slot in those bytes.  Sending a response is then just copying the
+ * template into a buffer and patching the slots, nothing is parsed and no maps or Strings are built.
+ *
+ * Slot values are right aligned and padded with leading spaces, which http allows as whitespace before a
+ * header value.
+ *
+ * This object is immutable and can be shared across threads.
+ *
+ * <pre>{@code
+ * HTTPResponseTemplate template = new HTTPResponseTemplate(response,
+ *     new String[] {HTTPConstants.HTTP_KEY_CONTENT_LENGTH}, new int[] {HTTPResponseTemplate.CONTENT_LENGTH_WIDTH});
+ * int start = buffer.position();
+ * template.writeTo(buffer);
+ * template.setSlot(buffer, start, 0, body.remaining());
+ * }</pre>
+ *
+ * @author lwahlmeier
+ *
+ */
+public class HTTPResponseTemplate {
+  /**
+   * A slot width big enough to hold any positive long, ie a Content-Length.
+   */
+  public static final int CONTENT_LENGTH_WIDTH = 19;
+
+  private static final int DECIMAL = 10;
+
+  private final HTTPResponse response;
+  private final ByteBuffer template;
+  private final String[] slotNames;
+  private final int[] slotOffsets;
+  private final int[] slotWidths;
+
+  /**
+   * Creates a new {@link HTTPResponseTemplate} from an {@link HTTPResponse}.  Each slot name replaces the
+   * value of that header in the response, or is added to the end of the headers if the response does not
+   * have it set.
+   *
+   * @param response the {@link HTTPResponse} to base this template on.
+   * @param slotNames the names of the headers to leave slots for.
+   * @param slotWidths the max width in bytes of each slots value, in the same order as the names.
+   * @throws IllegalArgumentException if the names and widths do not match up or a width is less then 1.
+   */
+  public HTTPResponseTemplate(final HTTPResponse response, final String[] slotNames, final int[] slotWidths) {
+    if(slotNames.length != slotWidths.length) {
+      throw new IllegalArgumentException("Must provide a width for every slot!");
+    }
+    this.response = response;
+    this.slotNames = slotNames.clone();
+    this.slotWidths = slotWidths.clone();
+    this.slotOffsets = new int[slotNames.length];
+    HTTPHeaderStore store = new HTTPHeaderStore();
+    response.getHeaders().copyTo(store);
+    for(int i=0; i<slotNames.length; i++) {
+      if(slotWidths[i] < 1) {
+        throw new IllegalArgumentException("Slot width must be at least 1!");
+      }
+      store.set(slotNames[i], spaces(slotWidths[i]));
+    }
+    int length = response.getResponseHeader().encodedLength() + 2;
+    for(int i=0; i<store.size(); i++) {
+      length += HTTPUtils.encodedLength(store.getName(i)) + HTTPUtils.encodedLength(store.getValue(i)) + 2 + 2;
+    }
+    ByteBuffer bb = ByteBuffer.allocate(length + 2);
+    response.getResponseHeader().writeTo(bb);
+    putCRLF(bb);
+    for(int i=0; i<store.size(); i++) {
+      HTTPUtils.putString(bb, store.getName(i));
+      bb.put((byte)':');
+      bb.put((byte)' ');
+      int slot = findSlot(store.getName(i));
+      if(slot >= 0) {
+        slotOffsets[slot] = bb.position();
+      }
+      HTTPUtils.putString(bb, store.getValue(i));
+      putCRLF(bb);
+    }
+    putCRLF(bb);
+    bb.flip();
+    template = bb.asReadOnlyBuffer();
+  }
+
+  /**
+   * Gets the {@link HTTPResponse} this template was made from.  The slot headers in it are not changed.
+   *
+   * @return the {@link HTTPResponse} this template was made from.
+   */
+  public HTTPResponse getResponse() {
+    return response;
+  }
+
+  /**
+   * Gets the index of the slot for a header name.
+   *
+   * @param name the header name to look for.
+   * @return the slot index or -1 if there is no slot for that header.
+   */
+  public int findSlot(final String name) {
+    for(int i=0; i<slotNames.length; i++) {
+      if(slotNames[i].equalsIgnoreCase(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * The length in bytes of the response head made by this template.
+   *
+   * @return the length in bytes of this template.
+   */
+  public int length() {
+    return template.remaining();
+  }
+
+  /**
+   * Returns a new writable {@link ByteBuffer} with this template in it, ready to have its slots set
+   * with a start of 0.
+   *
+   * @return a new {@link ByteBuffer} with this template in it.
+   */
+  public ByteBuffer newBuffer() {
+    ByteBuffer bb = ByteBuffer.allocate(template.remaining());
+    bb.put(template.duplicate());
+    bb.flip();
+    return bb;
+  }
+
+  /**
+   * Copies this template into the provided {@link ByteBuffer}, ie a pooled or reused buffer.  The position
+   * of the buffer before this call is the start to use when setting slots.  All slots will be blank until
+   * they are set.
+   *
+   * @param bb the {@link ByteBuffer} to write into.
+   * @throws java.nio.BufferOverflowException if there is not enough room in the {@link ByteBuffer}.
+   */
+  public void writeTo(final ByteBuffer bb) {
+    bb.put(template.duplicate());
+  }
+
+  /**
+   * Sets a slot to a number, ie a Content-Length.  The buffers position and limit are not changed.
+   *
+   * @param bb the {@link ByteBuffer} this template was written into.
+   * @param start the position in the {@link ByteBuffer} the template was written at.
+   * @param slot the index of the slot to set.
+   * @param value the number to set, must not be negative.
+   * @throws IllegalArgumentException if the value is negative or does not fit in the slot.
+   */
+  public void setSlot(final ByteBuffer bb, final int start, final int slot, final long value) {
+    if(value < 0) {
+      throw new IllegalArgumentException("Slot value can not be negative!");
+    }
+    int offset = start + slotOffsets[slot];
+    int pos = offset + slotWidths[slot];
+    long left = value;
+    do {
+      if(pos == offset) {
+        throw new IllegalArgumentException("Value "+value+" does not fit in slot of width "+slotWidths[slot]);
+      }
+      bb.put(--pos, (byte)('0' + (left % DECIMAL)));
+      left /= DECIMAL;
+    } while(left > 0);
+    while(pos > offset) {
+      bb.put(--pos, (byte)' ');
+    }
+  }
+
+  /**
+   * Sets a slot to the provided bytes, ie a pre-encoded Date.  The buffers position and limit are not changed.
+   *
+   * @param bb the {@link ByteBuffer} this template was written into.
+   * @param start the position in the {@link ByteBuffer} the template was written at.
+   * @param slot the index of the slot to set.
+   * @param value the bytes to set.
+   * @throws IllegalArgumentException if the value does not fit in the slot.
+   */
+  public void setSlot(final ByteBuffer bb, final int start, final int slot, final byte[] value) {
+    if(value.length > slotWidths[slot]) {
+      throw new IllegalArgumentException("Value of length "+value.length+" does not fit in slot of width "+slotWidths[slot]);
+    }
+    int offset = start + slotOffsets[slot];
+    int pad = slotWidths[slot] - value.length;
+    for(int i=0; i<pad; i++) {
+      bb.put(offset + i, (byte)' ');
+    }
+    for(int i=0; i<value.length; i++) {
+      bb.put(offset + pad + i, value[i]);
+    }
+  }
+
+  /**
+   * Sets a slot to the provided String.  Only ASCII values should be used.  The buffers position and
+   * limit are not changed.
+   *
+   * @param bb the {@link ByteBuffer} this template was written into.
+   * @param start the position in the {@link ByteBuffer} the template was written at.
+   * @param slot the index of the slot to set.
+   * @param value the String to set.
+   * @throws IllegalArgumentException if the value does not fit in the slot.
+   */
+  public void setSlot(final ByteBuffer bb, final int start, final int slot, final String value) {
+    if(value.length() > slotWidths[slot]) {
+      throw new IllegalArgumentException("Value "+value+" does not fit in slot of width "+slotWidths[slot]);
+    }
+    int offset = start + slotOffsets[slot];
+    int pad = slotWidths[slot] - value.length();
+    for(int i=0; i<pad; i++) {
+      bb.put(offset + i, (byte)' ');
+    }
+    for(int i=0; i<value.length(); i++) {
+      bb.put(offset + pad + i, (byte)value.charAt(i));
+    }
+  }
+
+  private static void putCRLF(final ByteBuffer bb) {
+    bb.put((byte)'\r');
+    bb.put((byte)'\n');
+  }
+
+  private static String spaces(final int width) {
+    StringBuilder sb = new StringBuilder(width);
+    for(int i=0; i<width; i++) {
+      sb.append(' ');
+    }
+    return sb.toString();
+  }
+}
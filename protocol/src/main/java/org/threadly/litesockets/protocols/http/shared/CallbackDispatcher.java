@@ -0,0 +1,211 @@
+package org.threadly.litesockets.protocols.http.shared;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.threadly.litesockets.buffers.MergedByteBuffers;
+import org.threadly.util.ExceptionUtils;
+
+/**
+ * Holds a set of callbacks and calls them directly, without going through a reflection proxy the way
+ * {@link org.threadly.concurrent.event.ListenerHelper} does.  Events are passed in as non-capturing method
+ * references (ie {@code HTTPRequestCallback::finished}) so dispatching an event does not allocate, and the
+ * common case of a single callback is a direct call.
+ *
+ * Buffer ownership: a {@link ByteBuffer} passed to one of the {@code callWithBuffer} methods belongs to the
+ * dispatcher from that point on, the caller must not read or modify it again.  If only one callback is set
+ * it is handed that buffer as is, otherwise every callback gets its own {@link ByteBuffer#duplicate()}.  The
+ * same goes for a {@link MergedByteBuffers} passed to {@link #callWithBuffers(BiConsumer, MergedByteBuffers)}.
+ *
+ * @param <T> the callback interface type.
+ *
+ * @author lwahlmeier
+ *
+ */
+public class CallbackDispatcher<T> {
+  private static final Object[] EMPTY = new Object[0];
+
+  private final Object lock = new Object();
+  private volatile Object[] callbacks = EMPTY;
+
+  /**
+   * Adds a callback to be called on events.
+   *
+   * @param callback the callback to add.
+   */
+  public void addListener(final T callback) {
+    synchronized(lock) {
+      Object[] ncb = Arrays.copyOf(callbacks, callbacks.length+1);
+      ncb[callbacks.length] = callback;
+      callbacks = ncb;
+    }
+  }
+
+  /**
+   * Removes a callback so it will no longer be called.
+   *
+   * @param callback the callback to remove.
+   * @return true if the callback was found and removed, false if not.
+   */
+  public boolean removeListener(final T callback) {
+    synchronized(lock) {
+      Object[] cb = callbacks;
+      for(int i=0; i<cb.length; i++) {
+        if(cb[i].equals(callback)) {
+          Object[] ncb = new Object[cb.length-1];
+          System.arraycopy(cb, 0, ncb, 0, i);
+          System.arraycopy(cb, i+1, ncb, i, ncb.length-i);
+          callbacks = ncb;
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Removes all set callbacks.
+   */
+  public void clearListeners() {
+    synchronized(lock) {
+      callbacks = EMPTY;
+    }
+  }
+
+  /**
+   * Returns the number of callbacks currently set.
+   *
+   * @return the number of callbacks.
+   */
+  public int registeredListenerCount() {
+    return callbacks.length;
+  }
+
+  /**
+   * Gets all the callbacks currently set.
+   *
+   * @return an unmodifiable {@link Collection} of callbacks.
+   */
+  @SuppressWarnings("unchecked")
+  public Collection<T> getSubscribedListeners() {
+    return Collections.unmodifiableList(Arrays.asList((T[])callbacks));
+  }
+
+  /**
+   * Calls an event with no arguments on every callback.  Exceptions thrown by a callback are passed to
+   * {@link ExceptionUtils#handleException(Throwable)} and do not stop other callbacks from being called.
+   *
+   * @param event the event to call, ie {@code HTTPRequestCallback::finished}.
+   */
+  @SuppressWarnings("unchecked")
+  public void call(final Consumer<? super T> event) {
+    Object[] cb = callbacks;
+    for(int i=0; i<cb.length; i++) {
+      try {
+        event.accept((T)cb[i]);
+      } catch(Throwable t) {
+        ExceptionUtils.handleException(t);
+      }
+    }
+  }
+
+  /**
+   * Calls an event with a single argument on every callback.  Exceptions thrown by a callback are passed to
+   * {@link ExceptionUtils#handleException(Throwable)} and do not stop other callbacks from being called.
+   *
+   * @param <A> the type of the events argument.
+   * @param event the event to call, ie {@code HTTPRequestCallback::headersFinished}.
+   * @param arg the argument to pass to the event.
+   */
+  @SuppressWarnings("unchecked")
+  public <A> void call(final BiConsumer<? super T, A> event, final A arg) {
+    Object[] cb = callbacks;
+    for(int i=0; i<cb.length; i++) {
+      try {
+        event.accept((T)cb[i], arg);
+      } catch(Throwable t) {
+        ExceptionUtils.handleException(t);
+      }
+    }
+  }
+
+  /**
+   * Calls an event that takes a {@link ByteBuffer} on every callback.  See the class docs for who owns the
+   * buffer.  Exceptions thrown by a callback are not caught.
+   *
+   * @param event the event to call, ie {@code HTTPRequestCallback::bodyData}.
+   * @param bb the {@link ByteBuffer} to pass to the callbacks.
+   */
+  @SuppressWarnings("unchecked")
+  public void callWithBuffer(final BiConsumer<? super T, ByteBuffer> event, final ByteBuffer bb) {
+    Object[] cb = callbacks;
+    if(cb.length == 1) {
+      event.accept((T)cb[0], bb);
+      return;
+    }
+    for(int i=0; i<cb.length; i++) {
+      event.accept((T)cb[i], bb.duplicate());
+    }
+  }
+
+  /**
+   * Calls an event that takes a {@link MergedByteBuffers} on every callback.  See the class docs for who owns 
+   * the buffers.  Exceptions thrown by a callback are not caught.
+   *
+   * @param event the event to call, ie {@code HTTPRequestCallback::bodyData}.
+   * @param mbb the {@link MergedByteBuffers} to pass to the callbacks.
+   */
+  @SuppressWarnings("unchecked")
+  public void callWithBuffers(final BiConsumer<? super T, MergedByteBuffers> event, final MergedByteBuffers mbb) {
+    Object[] cb = callbacks;
+    if(cb.length == 1) {
+      event.accept((T)cb[0], mbb);
+      return;
+    }
+    for(int i=0; i<cb.length; i++) {
+      event.accept((T)cb[i], mbb.duplicate());
+    }
+  }
+
+  /**
+   * Calls an event that takes an argument and a {@link ByteBuffer} on every callback.  See the class docs
+   * for who owns the buffer.  Exceptions thrown by a callback are not caught.
+   *
+   * @param <A> the type of the events argument.
+   * @param event the event to call, ie {@code HTTPRequestCallback::websocketData}.
+   * @param arg the argument to pass to the event.
+   * @param bb the {@link ByteBuffer} to pass to the callbacks.
+   */
+  @SuppressWarnings("unchecked")
+  public <A> void callWithBuffer(final BufferEvent<? super T, A> event, final A arg, final ByteBuffer bb) {
+    Object[] cb = callbacks;
+    if(cb.length == 1) {
+      event.accept((T)cb[0], arg, bb);
+      return;
+    }
+    for(int i=0; i<cb.length; i++) {
+      event.accept((T)cb[i], arg, bb.duplicate());
+    }
+  }
+
+  /**
+   * An event that takes an argument along with a {@link ByteBuffer}.
+   *
+   * @param <T> the callback interface type.
+   * @param <A> the type of the events argument.
+   */
+  public interface BufferEvent<T, A> {
+    /**
+     * Calls the event on the callback.
+     *
+     * @param callback the callback to call.
+     * @param arg the argument for the event.
+     * @param bb the {@link ByteBuffer} for the event.
+     */
+    public void accept(T callback, A arg, ByteBuffer bb);
+  }
+}
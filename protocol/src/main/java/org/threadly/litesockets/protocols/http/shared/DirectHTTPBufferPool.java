@@ -0,0 +1,234 @@
+package org.threadly.litesockets.protocols.http.shared;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The default {@link HTTPBufferPool}.  Buffers are direct and are handed out in power of 2 size classes from
+ * {@link #MIN_POOLED_SIZE} up to the max pooled size.  Released buffers go into a small cache for the thread
+ * that released them, and once that is full into a bounded cache shared by all threads.  Requests bigger
+ * then the max pooled size get a heap buffer that is not kept on release.
+ *
+ * Leak detection can be turned on with {@link #setLeakDetection(boolean)}.  While on, every outstanding buffer
+ * remembers where it was acquired, releasing a buffer twice throws an {@link IllegalStateException}, and
+ * {@link #getLeaks()} can be used (normally at the end of a test) to find buffers that were never released.
+ * This is expensive and should not be used in production.
+ *
+ * @author lwahlmeier
+ *
+ */
+public class DirectHTTPBufferPool implements HTTPBufferPool {
+  public static final int MIN_POOLED_SIZE = 64;
+  public static final int DEFAULT_MAX_POOLED_SIZE = 65536;
+  public static final int DEFAULT_THREAD_CACHE_SIZE = 16;
+  public static final int DEFAULT_SHARED_CACHE_SIZE = 256;
+
+  private static final int MIN_POOLED_SHIFT = Integer.numberOfTrailingZeros(MIN_POOLED_SIZE);
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder outstanding = new LongAdder();
+  private final Map<ByteBuffer, Throwable> tracked = Collections.synchronizedMap(new IdentityHashMap<>());
+  private final int maxPooledSize;
+  private final int threadCacheSize;
+  private final ArrayList<ArrayBlockingQueue<ByteBuffer>> sharedCache;
+  private final ThreadLocal<ThreadCache> threadCache;
+  private volatile boolean leakDetection = false;
+
+  /**
+   * Creates a pool with the default sizes.
+   */
+  public DirectHTTPBufferPool() {
+    this(DEFAULT_MAX_POOLED_SIZE, DEFAULT_THREAD_CACHE_SIZE, DEFAULT_SHARED_CACHE_SIZE);
+  }
+
+  /**
+   * Creates a pool with the provided sizes.
+   *
+   * @param maxPooledSize the biggest buffer to pool, this is rounded up to a power of 2.
+   * @param threadCacheSize the number of buffers of each size class kept for each thread.
+   * @param sharedCacheSize the number of buffers of each size class kept for all threads.
+   */
+  public DirectHTTPBufferPool(final int maxPooledSize, final int threadCacheSize, final int sharedCacheSize) {
+    if(maxPooledSize < MIN_POOLED_SIZE) {
+      throw new IllegalArgumentException("maxPooledSize must be at least "+MIN_POOLED_SIZE);
+    }
+    final int classes = sizeClass(maxPooledSize) + 1;
+    this.maxPooledSize = classSize(classes - 1);
+    this.threadCacheSize = threadCacheSize;
+    this.sharedCache = new ArrayList<>(classes);
+    for(int i=0; i<classes; i++) {
+      sharedCache.add(new ArrayBlockingQueue<>(Math.max(1, sharedCacheSize)));
+    }
+    this.threadCache = ThreadLocal.withInitial(() -> new ThreadCache(classes, threadCacheSize));
+  }
+
+  @Override
+  public ByteBuffer acquire(final int size) {
+    ByteBuffer bb = null;
+    if(size <= maxPooledSize) {
+      final int sc = sizeClass(size);
+      bb = threadCache.get().poll(sc);
+      if(bb == null) {
+        bb = sharedCache.get(sc).poll();
+      }
+      if(bb == null) {
+        misses.increment();
+        bb = ByteBuffer.allocateDirect(classSize(sc));
+      } else {
+        hits.increment();
+      }
+    } else {
+      misses.increment();
+      bb = ByteBuffer.allocate(size);
+    }
+    bb.clear();
+    bb.limit(size);
+    bb.order(ByteOrder.BIG_ENDIAN);
+    outstanding.increment();
+    if(leakDetection) {
+      tracked.put(bb, new Throwable("Buffer of size "+size+" acquired here"));
+    }
+    return bb;
+  }
+
+  @Override
+  public void release(final ByteBuffer bb) {
+    if(leakDetection && tracked.remove(bb) == null) {
+      throw new IllegalStateException("Buffer was released twice or was not acquired from this pool");
+    }
+    outstanding.decrement();
+    final int capacity = bb.capacity();
+    if(!bb.isDirect() || capacity > maxPooledSize || capacity != classSize(sizeClass(capacity))) {
+      return;
+    }
+    final int sc = sizeClass(capacity);
+    if(!threadCache.get().offer(sc, bb)) {
+      sharedCache.get(sc).offer(bb);
+    }
+  }
+
+  @Override
+  public long getHits() {
+    return hits.sum();
+  }
+
+  @Override
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  @Override
+  public long getOutstanding() {
+    return outstanding.sum();
+  }
+
+  /**
+   * Gets the biggest buffer this pool will keep.
+   *
+   * @return the max pooled size in bytes.
+   */
+  public int getMaxPooledSize() {
+    return maxPooledSize;
+  }
+
+  /**
+   * Gets the number of buffers of each size class kept for each thread.
+   *
+   * @return the per thread cache size.
+   */
+  public int getThreadCacheSize() {
+    return threadCacheSize;
+  }
+
+  /**
+   * Turns leak detection on or off.  Only buffers acquired while it is on are tracked, turning it off
+   * forgets every tracked buffer.
+   *
+   * @param enable true to track outstanding buffers.
+   */
+  public void setLeakDetection(final boolean enable) {
+    leakDetection = enable;
+    if(!enable) {
+      tracked.clear();
+    }
+  }
+
+  /**
+   * Lets you know if leak detection is on.
+   *
+   * @return true if outstanding buffers are being tracked.
+   */
+  public boolean isLeakDetection() {
+    return leakDetection;
+  }
+
+  /**
+   * Gets where each tracked buffer that has not been released was acquired.  This is always empty if
+   * leak detection is off.
+   *
+   * @return a {@link List} with a {@link Throwable} for each leaked buffer, its stack is where it was acquired.
+   */
+  public List<Throwable> getLeaks() {
+    synchronized(tracked) {
+      return new ArrayList<>(tracked.values());
+    }
+  }
+
+  /**
+   * Resets the hit and miss counters to 0.
+   */
+  public void resetStats() {
+    hits.reset();
+    misses.reset();
+  }
+
+  private static int sizeClass(final int size) {
+    if(size <= MIN_POOLED_SIZE) {
+      return 0;
+    }
+    return Integer.SIZE - Integer.numberOfLeadingZeros(size - 1) - MIN_POOLED_SHIFT;
+  }
+
+  private static int classSize(final int sizeClass) {
+    return MIN_POOLED_SIZE << sizeClass;
+  }
+
+  /**
+   * The buffers cached for a single thread, a small stack for each size class.
+   */
+  private static class ThreadCache {
+    private final ByteBuffer[][] buffers;
+    private final int[] counts;
+
+    private ThreadCache(final int classes, final int size) {
+      buffers = new ByteBuffer[classes][size];
+      counts = new int[classes];
+    }
+
+    private ByteBuffer poll(final int sc) {
+      if(counts[sc] == 0) {
+        return null;
+      }
+      final int i = --counts[sc];
+      final ByteBuffer bb = buffers[sc][i];
+      buffers[sc][i] = null;
+      return bb;
+    }
+
+    private boolean offer(final int sc, final ByteBuffer bb) {
+      if(counts[sc] == buffers[sc].length) {
+        return false;
+      }
+      buffers[sc][counts[sc]++] = bb;
+      return true;
+    }
+  }
+}
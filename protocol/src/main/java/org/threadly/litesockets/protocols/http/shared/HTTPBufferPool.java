@@ -0,0 +1,54 @@
+package org.threadly.litesockets.protocols.http.shared;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A source of {@link ByteBuffer}s for the encoders and writers in the protocol, server and client modules.
+ * Buffers are taken with {@link #acquire(int)} and must be given back with {@link #release(ByteBuffer)} once
+ * nothing is using them anymore (normally once the write they were used for is finished).
+ *
+ * The pool used by default can be changed with {@link HTTPBufferPools#setDefault(HTTPBufferPool)}.
+ *
+ * @author lwahlmeier
+ *
+ */
+public interface HTTPBufferPool {
+
+  /**
+   * Gets a {@link ByteBuffer} with at least the requested amount of space.  The buffer is returned with its
+   * position at 0 and its limit set to the requested size.
+   *
+   * @param size the number of bytes needed.
+   * @return a {@link ByteBuffer} to write into.
+   */
+  public ByteBuffer acquire(int size);
+
+  /**
+   * Gives a {@link ByteBuffer} from {@link #acquire(int)} back to the pool.  The same instance that was
+   * acquired must be passed in (not a slice or duplicate of it), and it must not be used after this is called.
+   *
+   * @param bb the {@link ByteBuffer} to give back.
+   */
+  public void release(ByteBuffer bb);
+
+  /**
+   * Gets the number of times {@link #acquire(int)} was able to reuse a buffer.
+   *
+   * @return the number of pool hits.
+   */
+  public long getHits();
+
+  /**
+   * Gets the number of times {@link #acquire(int)} had to allocate a new buffer.
+   *
+   * @return the number of pool misses.
+   */
+  public long getMisses();
+
+  /**
+   * Gets the number of buffers that have been acquired but not yet released.
+   *
+   * @return the number of outstanding buffers.
+   */
+  public long getOutstanding();
+}
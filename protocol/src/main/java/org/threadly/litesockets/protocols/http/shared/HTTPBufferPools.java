@@ -0,0 +1,36 @@
+package org.threadly.litesockets.protocols.http.shared;
+
+/**
+ * Holds the {@link HTTPBufferPool} that is used when one is not provided.  This starts as a
+ * {@link DirectHTTPBufferPool} with its default settings.
+ *
+ * @author lwahlmeier
+ *
+ */
+public class HTTPBufferPools {
+  private static volatile HTTPBufferPool defaultPool = new DirectHTTPBufferPool();
+
+  private HTTPBufferPools() {}
+
+  /**
+   * Gets the default {@link HTTPBufferPool}.
+   *
+   * @return the default {@link HTTPBufferPool}.
+   */
+  public static HTTPBufferPool getDefault() {
+    return defaultPool;
+  }
+
+  /**
+   * Sets the default {@link HTTPBufferPool}.  Buffers that were acquired from the previous pool will still
+   * be released to it.
+   *
+   * @param pool the {@link HTTPBufferPool} to use.
+   */
+  public static void setDefault(final HTTPBufferPool pool) {
+    if(pool == null) {
+      throw new IllegalArgumentException("Pool can not be null!");
+    }
+    defaultPool = pool;
+  }
+}
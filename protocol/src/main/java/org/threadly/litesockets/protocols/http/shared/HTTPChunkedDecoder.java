@@ -0,0 +1,189 @@
+package org.threadly.litesockets.protocols.http.shared;
+
+import java.nio.ByteBuffer;
+
+import org.threadly.litesockets.buffers.MergedByteBuffers;
+
+/**
+ * Decodes a chunked transfer encoded body as the data arrives.  Chunk sizes are parsed straight from the
+ * bytes, chunk payloads are handed back as slices of the pending data as soon as any of it is available
+ * (a single chunk can come back in many pieces), and chunk extensions and trailers are skipped over without
+ * being buffered.
+ *
+ * This is used by both {@link org.threadly.litesockets.protocols.http.request.HTTPRequestProcessor} and
+ * {@link org.threadly.litesockets.protocols.http.response.HTTPResponseProcessor}.  It is not thread safe.
+ *
+ * @author lwahlmeier
+ *
+ */
+public class HTTPChunkedDecoder {
+  public static final int MAX_CHUNK_SIZE_DIGITS = 15;
+  public static final int MAX_CHUNK_LINE_LENGTH = 1024*8;
+
+  private enum State {SIZE, EXTENSION, SIZE_LF, DATA, DATA_CR, DATA_LF, TRAILER, TRAILER_LINE, TRAILER_LINE_LF, TRAILER_END_LF, DONE}
+
+  private State state = State.SIZE;
+  private long chunkLeft = 0;
+  private int sizeDigits = 0;
+  private int lineLength = 0;
+
+  /**
+   * Reads as much as it can from the pending data and returns the next piece of chunk payload.  This should
+   * be called until it returns null, after which either more data is needed or {@link #isFinished()} is true.
+   *
+   * @param mbb the pending data, anything read is removed from it.
+   * @return a {@link ByteBuffer} with the next piece of payload or null if there is none available.
+   * @throws HTTPParsingException if the data is not valid chunked encoding.
+   */
+  public ByteBuffer next(final MergedByteBuffers mbb) throws HTTPParsingException {
+    int size = nextDataSize(mbb);
+    return size < 0 ? null : mbb.pullBuffer(size);
+  }
+
+  /**
+   * The same as {@link #next(MergedByteBuffers)} but the payload is handed back as the original buffers
+   * from the pending data, so it is never copied even when it crosses the end of a read buffer.
+   *
+   * @param mbb the pending data, anything read is removed from it.
+   * @return a {@link MergedByteBuffers} with the next piece of payload or null if there is none available.
+   * @throws HTTPParsingException if the data is not valid chunked encoding.
+   */
+  public MergedByteBuffers nextBuffers(final MergedByteBuffers mbb) throws HTTPParsingException {
+    int size = nextDataSize(mbb);
+    return size < 0 ? null : HTTPUtils.pullBuffers(mbb, size);
+  }
+
+  private int nextDataSize(final MergedByteBuffers mbb) throws HTTPParsingException {
+    while(mbb.remaining() > 0) {
+      switch(state) {
+        case SIZE: {
+          byte b = mbb.get();
+          int digit = hexValue(b);
+          if(digit >= 0) {
+            if(++sizeDigits > MAX_CHUNK_SIZE_DIGITS) {
+              throw new HTTPParsingException("Chunk size is to large!");
+            }
+            chunkLeft = (chunkLeft * HTTPConstants.HEX_SIZE) + digit;
+          } else if(b == '\r') {
+            state = State.SIZE_LF;
+          } else if(b == ';' || b == ' ' || b == '\t') {
+            state = State.EXTENSION;
+          } else {
+            throw new HTTPParsingException("Problem reading chunk size!");
+          }
+          break;
+        }
+        case EXTENSION: {
+          if(mbb.get() == '\r') {
+            state = State.SIZE_LF;
+          } else if(++lineLength > MAX_CHUNK_LINE_LENGTH) {
+            throw new HTTPParsingException("Chunk extension is to large!");
+          }
+          break;
+        }
+        case SIZE_LF: {
+          if(mbb.get() != '\n' || sizeDigits == 0) {
+            throw new HTTPParsingException("Problem reading chunk size!");
+          }
+          sizeDigits = 0;
+          lineLength = 0;
+          state = chunkLeft == 0 ? State.TRAILER : State.DATA;
+          break;
+        }
+        case DATA: {
+          int size = (int)Math.min(mbb.remaining(), chunkLeft);
+          chunkLeft -= size;
+          if(chunkLeft == 0) {
+            state = State.DATA_CR;
+          }
+          return size;
+        }
+        case DATA_CR: {
+          expect(mbb.get(), '\r');
+          state = State.DATA_LF;
+          break;
+        }
+        case DATA_LF: {
+          expect(mbb.get(), '\n');
+          state = State.SIZE;
+          break;
+        }
+        case TRAILER: {
+          if(mbb.get() == '\r') {
+            state = State.TRAILER_END_LF;
+          } else {
+            state = State.TRAILER_LINE;
+          }
+          break;
+        }
+        case TRAILER_LINE: {
+          if(mbb.get() == '\r') {
+            state = State.TRAILER_LINE_LF;
+          } else if(++lineLength > MAX_CHUNK_LINE_LENGTH) {
+            throw new HTTPParsingException("Chunk trailer is to large!");
+          }
+          break;
+        }
+        case TRAILER_LINE_LF: {
+          expect(mbb.get(), '\n');
+          lineLength = 0;
+          state = State.TRAILER;
+          break;
+        }
+        case TRAILER_END_LF: {
+          expect(mbb.get(), '\n');
+          state = State.DONE;
+          return -1;
+        }
+        default:
+          return -1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Lets you know if the final chunk and any trailers have been read.
+   *
+   * @return true if the chunked body is complete.
+   */
+  public boolean isFinished() {
+    return state == State.DONE;
+  }
+
+  /**
+   * Lets you know if the decoder is between chunks, ie it has not started reading the next chunk size yet.
+   *
+   * @return true if no chunk is partially read.
+   */
+  public boolean isBetweenChunks() {
+    return state == State.DONE || (state == State.SIZE && sizeDigits == 0);
+  }
+
+  /**
+   * Resets the decoder so it can be used for a new body.
+   */
+  public void reset() {
+    state = State.SIZE;
+    chunkLeft = 0;
+    sizeDigits = 0;
+    lineLength = 0;
+  }
+
+  private static void expect(final byte b, final char expected) throws HTTPParsingException {
+    if(b != expected) {
+      throw new HTTPParsingException("Chunk was not terminated with CRLF!");
+    }
+  }
+
+  private static int hexValue(final byte b) {
+    if(b >= '0' && b <= '9') {
+      return b - '0';
+    } else if(b >= 'a' && b <= 'f') {
+      return b - 'a' + 10;
+    } else if(b >= 'A' && b <= 'F') {
+      return b - 'A' + 10;
+    }
+    return -1;
+  }
+}
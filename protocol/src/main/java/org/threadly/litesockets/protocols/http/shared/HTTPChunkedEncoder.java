@@ -0,0 +1,96 @@
+package org.threadly.litesockets.protocols.http.shared;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.threadly.litesockets.buffers.MergedByteBuffers;
+import org.threadly.litesockets.buffers.ReuseableMergedByteBuffers;
+import org.threadly.litesockets.buffers.SimpleMergedByteBuffers;
+
+/**
+ * Wraps body data in chunked transfer encoding without copying it.  The chunk header and the trailing CRLF
+ * are separate small buffers placed around the payload in a {@link MergedByteBuffers}, so it can be handed
+ * right to a clients write.
+ *
+ * Chunk headers are cached as read only buffers once made, for every size up to {@link #MAX_CACHED_CHUNK_SIZE}
+ * and for every power of 2 size above that.
+ *
+ * @author lwahlmeier
+ *
+ */
+public class HTTPChunkedEncoder {
+  public static final int MAX_CACHED_CHUNK_SIZE = 1024*16;
+
+  private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes();
+  private static final int HEX_BITS = 4;
+  private static final int HEX_MASK = 0xf;
+  private static final ByteBuffer CRLF = ByteBuffer.wrap(HTTPConstants.HTTP_NEWLINE_DELIMINATOR.getBytes()).asReadOnlyBuffer();
+  private static final AtomicReferenceArray<ByteBuffer> SMALL_HEADERS = new AtomicReferenceArray<>(MAX_CACHED_CHUNK_SIZE+1);
+  private static final AtomicReferenceArray<ByteBuffer> POW2_HEADERS = new AtomicReferenceArray<>(Integer.SIZE);
+
+  private HTTPChunkedEncoder() {}
+
+  /**
+   * Wraps the provided data in a chunk.  The data is not copied, it is placed between the chunk header and
+   * trailing CRLF in the returned {@link MergedByteBuffers}.  An empty buffer makes the final chunk.
+   *
+   * @param bb the data to put in the chunk, this buffer is now owned by the returned {@link MergedByteBuffers}.
+   * @return a {@link MergedByteBuffers} containing the full chunk.
+   */
+  public static MergedByteBuffers wrapInChunk(final ByteBuffer bb) {
+    return new SimpleMergedByteBuffers(false, chunkHeader(bb.remaining()), bb, CRLF.duplicate());
+  }
+
+  /**
+   * Wraps all the data in the provided {@link MergedByteBuffers} in a single chunk.  The data is not copied.
+   *
+   * @param mbb the data to put in the chunk, its buffers are moved into the returned {@link MergedByteBuffers}.
+   * @return a {@link MergedByteBuffers} containing the full chunk.
+   */
+  public static MergedByteBuffers wrapInChunk(final MergedByteBuffers mbb) {
+    ReuseableMergedByteBuffers rmbb = new ReuseableMergedByteBuffers(false, chunkHeader(mbb.remaining()));
+    rmbb.add(mbb);
+    rmbb.add(CRLF.duplicate());
+    return rmbb;
+  }
+
+  /**
+   * Gets a buffer with the chunk header (hex size and CRLF) for a chunk of the given size.
+   *
+   * @param size the size of the chunk payload.
+   * @return a read only {@link ByteBuffer} with the chunk header in it.
+   */
+  public static ByteBuffer chunkHeader(final int size) {
+    ByteBuffer header;
+    if(size <= MAX_CACHED_CHUNK_SIZE) {
+      header = SMALL_HEADERS.get(size);
+      if(header == null) {
+        header = makeChunkHeader(size);
+        SMALL_HEADERS.lazySet(size, header);
+      }
+    } else if(Integer.bitCount(size) == 1) {
+      int pos = Integer.numberOfTrailingZeros(size);
+      header = POW2_HEADERS.get(pos);
+      if(header == null) {
+        header = makeChunkHeader(size);
+        POW2_HEADERS.lazySet(pos, header);
+      }
+    } else {
+      return makeChunkHeader(size);
+    }
+    return header.duplicate();
+  }
+
+  private static ByteBuffer makeChunkHeader(final int size) {
+    int digits = Math.max(1, (Integer.SIZE - Integer.numberOfLeadingZeros(size) + HEX_BITS - 1) / HEX_BITS);
+    byte[] ba = new byte[digits+HTTPConstants.HTTP_NEWLINE_DELIMINATOR.length()];
+    int value = size;
+    for(int i=digits-1; i>=0; i--) {
+      ba[i] = HEX_DIGITS[value & HEX_MASK];
+      value >>>= HEX_BITS;
+    }
+    ba[digits] = '\r';
+    ba[digits+1] = '\n';
+    return ByteBuffer.wrap(ba).asReadOnlyBuffer();
+  }
+}
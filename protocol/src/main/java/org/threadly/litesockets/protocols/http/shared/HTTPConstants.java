@@ -30,6 +30,7 @@ public class HTTPConstants {
   public static final String HTTP_KEY_WEBSOCKET_VERSION = "Sec-WebSocket-Version";
   public static final String HTTP_KEY_WEBSOCKET_KEY = "Sec-WebSocket-Key";
   public static final String HTTP_KEY_WEBSOCKET_ACCEPT = "Sec-WebSocket-Accept";
+  public static final String HTTP_KEY_WEBSOCKET_EXTENSIONS = "Sec-WebSocket-Extensions";
   public static final String HTTP_KEY_CONTENT_TYPE = "Content-Type";
   public static final String HTTP_KEY_CONTENT_LENGTH = "Content-Length";
   public static final String HTTP_KEY_TRANSFER_ENCODING  = "Transfer-Encoding";
@@ -38,6 +39,9 @@ public class HTTPConstants {
   public static final String HTTP_KEY_KEEP_ALIVE = "Keep-Alive";
   public static final String HTTP_KEY_ACCEPT = "Accept";
   public static final String HTTP_KEY_HOST = "Host";
+  public static final String HTTP_KEY_DATE = "Date";
+  public static final String HTTP_KEY_LAST_MODIFIED = "Last-Modified";
+  public static final String HTTP_KEY_IF_MODIFIED_SINCE = "If-Modified-Since";
   public static final String HTTP_VERSION_1_1 = "HTTP/1.1";
   public static final String HTTP_VERSION_1_0 = "HTTP/1.0";
   public static final String WEBSOCKET = "websocket";
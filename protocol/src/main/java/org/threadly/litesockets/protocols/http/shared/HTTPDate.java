@@ -0,0 +1,243 @@
+package org.threadly.litesockets.protocols.http.shared;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.threadly.util.Clock;
+
+/**
+ * Formats and parses http dates without going through {@link java.time.format.DateTimeFormatter}.
+ *
+ * The current date is kept in a shared cache driven by threadly's {@link Clock}, it is only re-encoded when
+ * the second changes so getting the value for a Date header is normally just a volatile read.  Dates are
+ * always written in the IMF-fixdate format (ie "Sun, 06 Nov 1994 08:49:37 GMT").  Parsing accepts IMF-fixdate
+ * as well as the obsolete RFC 850 and asctime formats, as http requires.
+ *
+ * @author lwahlmeier
+ *
+ */
+public class HTTPDate {
+  public static final int DATE_LENGTH = 29;
+
+  private static final byte[][] DAYS = toBytes("Sun", "Mon", "Tue", "Wed", "Thu", "Fri", "Sat");
+  private static final byte[][] MONTHS = toBytes("Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec");
+  private static final long MILLIS_IN_SECOND = 1000;
+  private static final int SECONDS_IN_MINUTE = 60;
+  private static final int SECONDS_IN_HOUR = 60 * SECONDS_IN_MINUTE;
+  private static final int SECONDS_IN_DAY = 24 * SECONDS_IN_HOUR;
+  private static final int DAYS_IN_WEEK = 7;
+  private static final int EPOCH_DAY_OF_WEEK = 4;
+  private static final int DAYS_IN_ERA = 146097;
+  private static final int DAYS_TO_EPOCH = 719468;
+  private static final int YEARS_IN_ERA = 400;
+  private static final int MONTHS_FROM_MARCH = 10;
+  private static final int FIRST_MONTH = 3;
+  private static final int LAST_MONTH = 12;
+  private static final int TWO_DIGIT_CENTURY = 1900;
+  private static final int TWO_DIGIT_PIVOT = 70;
+  private static final int RFC850_LENGTH_AFTER_COMMA = 24;
+  private static final int ASCTIME_LENGTH = 24;
+  private static final int GMT_LENGTH = 3;
+
+  private static volatile CachedDate cached = new CachedDate(Clock.lastKnownTimeMillis() / MILLIS_IN_SECOND);
+
+  private HTTPDate() {}
+
+  /**
+   * Gets the current date as a String in IMF-fixdate format.
+   *
+   * @return the current date.
+   */
+  public static String getCurrentDate() {
+    return current().value;
+  }
+
+  /**
+   * Gets the current date encoded as bytes in IMF-fixdate format.  The returned array is shared and must
+   * not be modified.
+   *
+   * @return the current date as bytes.
+   */
+  public static byte[] getCurrentDateBytes() {
+    return current().bytes;
+  }
+
+  /**
+   * Gets a full Date header row for the current date, ie "Date: Sun, 06 Nov 1994 08:49:37 GMT\r\n".
+   *
+   * @return a read-only {@link ByteBuffer} with the Date header row in it.
+   */
+  public static ByteBuffer getDateHeaderRow() {
+    return current().headerRow.duplicate();
+  }
+
+  /**
+   * Formats a time as an IMF-fixdate String.
+   *
+   * @param millis the time in milliseconds since the epoch.
+   * @return the formatted date.
+   */
+  public static String formatDate(final long millis) {
+    byte[] ba = new byte[DATE_LENGTH];
+    formatDate(Math.floorDiv(millis, MILLIS_IN_SECOND), ba, 0);
+    return new String(ba, StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Parses an http date.  IMF-fixdate, RFC 850 and asctime formats are accepted.
+   *
+   * @param date the date to parse.
+   * @return the time in milliseconds since the epoch, or -1 if the date could not be parsed.
+   */
+  public static long parseDate(final String date) {
+    if(date == null) {
+      return -1;
+    }
+    String str = date.trim();
+    if(str.length() == DATE_LENGTH && str.charAt(3) == ',') {
+      return parseFields(str, 5, 8, 12, 4, 17, true);
+    } else if(str.length() == ASCTIME_LENGTH && str.charAt(3) == ' ') {
+      return parseFields(str, 8, 4, 20, 4, 11, false);
+    } else {
+      int comma = str.indexOf(',');
+      if(comma > 0 && str.length() == comma + RFC850_LENGTH_AFTER_COMMA && str.charAt(comma+4) == '-') {
+        return parseFields(str, comma+2, comma+5, comma+9, 2, comma+12, true);
+      }
+    }
+    return -1;
+  }
+
+  private static long parseFields(final String str, final int dayPos, final int monthPos, final int yearPos,
+                                  final int yearDigits, final int timePos, final boolean gmt) {
+    if(gmt && !str.regionMatches(str.length()-GMT_LENGTH, "GMT", 0, GMT_LENGTH)) {
+      return -1;
+    }
+    int month = -1;
+    for(int i=0; i<MONTHS.length; i++) {
+      if(str.charAt(monthPos) == MONTHS[i][0] && str.charAt(monthPos+1) == MONTHS[i][1] && str.charAt(monthPos+2) == MONTHS[i][2]) {
+        month = i+1;
+        break;
+      }
+    }
+    int day = digits(str, dayPos, dayPos < monthPos ? monthPos-1 : timePos-1);
+    int year = digits(str, yearPos, yearPos+yearDigits);
+    int hour = digits(str, timePos, timePos+2);
+    int minute = digits(str, timePos+3, timePos+5);
+    int second = digits(str, timePos+6, timePos+8);
+    if(month < 0 || day < 1 || year < 0 || hour < 0 || minute < 0 || second < 0 ||
+        str.charAt(timePos+2) != ':' || str.charAt(timePos+5) != ':') {
+      return -1;
+    }
+    if(yearDigits == 2) {
+      year += year < TWO_DIGIT_PIVOT ? TWO_DIGIT_CENTURY + 100 : TWO_DIGIT_CENTURY;
+    }
+    long days = daysFromCivil(year, month, day);
+    return ((days * SECONDS_IN_DAY) + (hour * SECONDS_IN_HOUR) + (minute * SECONDS_IN_MINUTE) + second) * MILLIS_IN_SECOND;
+  }
+
+  private static int digits(final String str, final int start, final int end) {
+    int value = 0;
+    boolean found = false;
+    for(int i=start; i<end; i++) {
+      char c = str.charAt(i);
+      if(c >= '0' && c <= '9') {
+        value = (value * 10) + (c - '0');
+        found = true;
+      } else if(c != ' ' || found) {
+        return -1;
+      }
+    }
+    return found ? value : -1;
+  }
+
+  private static CachedDate current() {
+    long second = Clock.lastKnownTimeMillis() / MILLIS_IN_SECOND;
+    CachedDate cd = cached;
+    if(cd.second != second) {
+      cd = new CachedDate(second);
+      cached = cd;
+    }
+    return cd;
+  }
+
+  private static void formatDate(final long epochSecond, final byte[] ba, final int offset) {
+    long days = Math.floorDiv(epochSecond, SECONDS_IN_DAY);
+    int secs = (int)Math.floorMod(epochSecond, SECONDS_IN_DAY);
+    // civil from days, see http://howardhinnant.github.io/date_algorithms.html
+    long z = days + DAYS_TO_EPOCH;
+    long era = Math.floorDiv(z, DAYS_IN_ERA);
+    int doe = (int)(z - era * DAYS_IN_ERA);
+    int yoe = (doe - doe/1460 + doe/36524 - doe/(DAYS_IN_ERA-1)) / 365;
+    int doy = doe - (365*yoe + yoe/4 - yoe/100);
+    int mp = (5*doy + 2)/153;
+    int day = doy - (153*mp+2)/5 + 1;
+    int month = mp < MONTHS_FROM_MARCH ? mp+FIRST_MONTH : mp-(LAST_MONTH-FIRST_MONTH);
+    long year = yoe + era * YEARS_IN_ERA + (month <= 2 ? 1 : 0);
+
+    int pos = offset;
+    System.arraycopy(DAYS[(int)Math.floorMod(days + EPOCH_DAY_OF_WEEK, DAYS_IN_WEEK)], 0, ba, pos, 3);
+    pos += 3;
+    ba[pos++] = ',';
+    ba[pos++] = ' ';
+    pos = put2(ba, pos, day);
+    ba[pos++] = ' ';
+    System.arraycopy(MONTHS[month-1], 0, ba, pos, 3);
+    pos += 3;
+    ba[pos++] = ' ';
+    pos = put2(ba, pos, (int)(year / 100));
+    pos = put2(ba, pos, (int)(year % 100));
+    ba[pos++] = ' ';
+    pos = put2(ba, pos, secs / SECONDS_IN_HOUR);
+    ba[pos++] = ':';
+    pos = put2(ba, pos, (secs % SECONDS_IN_HOUR) / SECONDS_IN_MINUTE);
+    ba[pos++] = ':';
+    pos = put2(ba, pos, secs % SECONDS_IN_MINUTE);
+    ba[pos++] = ' ';
+    ba[pos++] = 'G';
+    ba[pos++] = 'M';
+    ba[pos] = 'T';
+  }
+
+  private static long daysFromCivil(final int year, final int month, final int day) {
+    int y = month <= 2 ? year - 1 : year;
+    long era = Math.floorDiv(y, YEARS_IN_ERA);
+    int yoe = (int)(y - era * YEARS_IN_ERA);
+    int doy = (153*(month > 2 ? month-FIRST_MONTH : month+(LAST_MONTH-FIRST_MONTH)) + 2)/5 + day-1;
+    int doe = yoe * 365 + yoe/4 - yoe/100 + doy;
+    return era * DAYS_IN_ERA + doe - DAYS_TO_EPOCH;
+  }
+
+  private static int put2(final byte[] ba, final int pos, final int value) {
+    ba[pos] = (byte)('0' + value / 10);
+    ba[pos+1] = (byte)('0' + value % 10);
+    return pos+2;
+  }
+
+  private static byte[][] toBytes(final String ... strs) {
+    byte[][] result = new byte[strs.length][];
+    for(int i=0; i<strs.length; i++) {
+      result[i] = strs[i].getBytes(StandardCharsets.US_ASCII);
+    }
+    return result;
+  }
+
+  /**
+   * The encoded forms of a single second.
+   */
+  private static class CachedDate {
+    private final long second;
+    private final byte[] bytes;
+    private final String value;
+    private final ByteBuffer headerRow;
+
+    private CachedDate(final long second) {
+      this.second = second;
+      this.bytes = new byte[DATE_LENGTH];
+      formatDate(second, bytes, 0);
+      this.value = new String(bytes, StandardCharsets.US_ASCII);
+      byte[] row = (HTTPConstants.HTTP_KEY_DATE + HTTPConstants.HTTP_HEADER_VALUE_DELIMINATOR + HTTPConstants.SPACE +
+          value + HTTPConstants.HTTP_NEWLINE_DELIMINATOR).getBytes(StandardCharsets.US_ASCII);
+      this.headerRow = ByteBuffer.wrap(row).asReadOnlyBuffer();
+    }
+  }
+}
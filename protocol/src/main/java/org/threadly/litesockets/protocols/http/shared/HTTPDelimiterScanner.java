@@ -0,0 +1,144 @@
+package org.threadly.litesockets.protocols.http.shared;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.threadly.litesockets.buffers.MergedByteBuffers;
+
+/**
+ * Finds a delimiter in a stream of pending data without re-scanning bytes it has already looked at.
+ *
+ * Buffers should be passed to {@link #scan(ByteBuffer)} right before they are appended to the pending
+ * data, this lets each byte be checked exactly once no matter how small the reads are.  If the pending
+ * data has bytes that were never passed in (ie left over from a previous request) {@link #find(MergedByteBuffers)}
+ * will pick up from where the last scan left off.
+ *
+ * All positions are relative to the start of the pending data, so {@link #reset()} must be called any
+ * time data is removed from the front of it.
+ *
+ * @author lwahlmeier
+ *
+ */
+public class HTTPDelimiterScanner {
+  private final byte[] delimiter;
+  private final byte[][] prefixes;
+  private final int[] fallback;
+  private int scanned = 0;
+  private int matched = 0;
+  private int found = -1;
+
+  /**
+   * Creates a scanner for the provided ASCII delimiter.
+   *
+   * @param delimiter the delimiter to look for.
+   */
+  public HTTPDelimiterScanner(final String delimiter) {
+    this.delimiter = delimiter.getBytes(StandardCharsets.US_ASCII);
+    this.prefixes = new byte[this.delimiter.length][];
+    for(int i=1; i<this.delimiter.length; i++) {
+      byte[] prefix = new byte[i];
+      System.arraycopy(this.delimiter, 0, prefix, 0, i);
+      prefixes[i] = prefix;
+    }
+    this.fallback = new int[this.delimiter.length];
+    int k = 0;
+    for(int i=1; i<this.delimiter.length; i++) {
+      while(k > 0 && this.delimiter[i] != this.delimiter[k]) {
+        k = fallback[k-1];
+      }
+      if(this.delimiter[i] == this.delimiter[k]) {
+        k++;
+      }
+      fallback[i] = k;
+    }
+  }
+
+  /**
+   * Scans a buffer that is about to be added to the end of the pending data.  The buffers position
+   * is not modified.
+   *
+   * NOTE: this only works if every byte of the pending data before this buffer was already scanned,
+   * see {@link #isCaughtUp(int)}.
+   *
+   * @param bb the {@link ByteBuffer} that is going to be added to the pending data.
+   * @return the position of the delimiter in the pending data or -1 if it has not been found yet.
+   */
+  public int scan(final ByteBuffer bb) {
+    if(found > -1) {
+      return found;
+    }
+    for(int i=bb.position(); i<bb.limit(); i++) {
+      byte b = bb.get(i);
+      while(matched > 0 && b != delimiter[matched]) {
+        matched = fallback[matched-1];
+      }
+      if(b == delimiter[matched]) {
+        matched++;
+      }
+      scanned++;
+      if(matched == delimiter.length) {
+        found = scanned - delimiter.length;
+        return found;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Finds the delimiter in the pending data, only looking at bytes that have not been scanned yet.
+   *
+   * @param mbb the pending data.
+   * @return the position of the delimiter in the pending data or -1 if it is not there yet.
+   */
+  public int find(final MergedByteBuffers mbb) {
+    if(found > -1) {
+      return found;
+    }
+    int size = mbb.remaining();
+    if(scanned >= size) {
+      return -1;
+    }
+    int pos = mbb.indexOf(delimiter, scanned - matched);
+    if(pos > -1) {
+      found = pos;
+      return found;
+    }
+    scanned = size;
+    matched = 0;
+    for(int i=Math.min(delimiter.length-1, size); i>0; i--) {
+      if(mbb.indexOf(prefixes[i], size - i) == size - i) {
+        matched = i;
+        break;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Lets you know if every byte of the pending data has been scanned.
+   *
+   * @param pendingSize the current size of the pending data.
+   * @return true if {@link #scan(ByteBuffer)} can be used for the next buffer added.
+   */
+  public boolean isCaughtUp(final int pendingSize) {
+    return found == -1 && scanned == pendingSize;
+  }
+
+  /**
+   * Gets the number of pending bytes scanned so far.
+   *
+   * @return the number of bytes scanned.
+   */
+  public int getScanned() {
+    return scanned;
+  }
+
+  /**
+   * Resets the scanner to the start of the pending data.
+   */
+  public void reset() {
+    scanned = 0;
+    matched = 0;
+    found = -1;
+  }
+}
@@ -0,0 +1,206 @@
+package org.threadly.litesockets.protocols.http.shared;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Decodes url encoded name/value pairs, as used in query strings and {@code application/x-www-form-urlencoded}
+ * bodies.  Data can be fed in as it arrives, in as many pieces as needed, and each parameter is handed to the
+ * {@link ParameterListener} as soon as it is complete, so a form body never has to be buffered as a whole.
+ *
+ * Decoding is done in a single pass over the bytes: {@code +} becomes a space, {@code %XX} escapes are
+ * decoded (the resulting bytes are read as UTF-8) and invalid escapes are kept as is.  A parameter with no
+ * {@code =} gets an empty value, and empty parameters (ie {@code a=1&&b=2}) are skipped.  Every parameter is
+ * passed to the listener in order, including repeated names.
+ *
+ * This object is not thread safe.
+ *
+ * @author lwahlmeier
+ *
+ */
+public class HTTPFormDecoder {
+  public static final int DEFAULT_MAX_PARAMETER_SIZE = 1024*64;
+
+  private static final int DEFAULT_BUFFER_SIZE = 64;
+  private static final int ASCII_LIMIT = 0x80;
+  private static final int HEX_BITS = 4;
+
+  private final ParameterListener listener;
+  private final int maxParameterSize;
+  private byte[] token;
+  private int tokenLength = 0;
+  private String name = null;
+  private int pendingEscape = 0;
+  private byte escapeFirst = 0;
+
+  /**
+   * Creates a new {@link HTTPFormDecoder} with a max parameter size of {@link #DEFAULT_MAX_PARAMETER_SIZE}.
+   *
+   * @param listener the {@link ParameterListener} to hand decoded parameters to.
+   */
+  public HTTPFormDecoder(final ParameterListener listener) {
+    this(listener, DEFAULT_MAX_PARAMETER_SIZE);
+  }
+
+  /**
+   * Creates a new {@link HTTPFormDecoder}.
+   *
+   * @param listener the {@link ParameterListener} to hand decoded parameters to.
+   * @param maxParameterSize the max size in bytes a single decoded name or value can be.
+   */
+  public HTTPFormDecoder(final ParameterListener listener, final int maxParameterSize) {
+    this.listener = listener;
+    this.maxParameterSize = maxParameterSize;
+    this.token = new byte[Math.min(DEFAULT_BUFFER_SIZE, maxParameterSize)];
+  }
+
+  /**
+   * Decodes all the data in the {@link ByteBuffer}.  Any parameters completed by this data are passed to the
+   * listener before this returns.  The buffer is fully consumed.
+   *
+   * @param bb the data to decode.
+   * @throws HTTPParsingException if a parameter is larger then the max parameter size.
+   */
+  public void process(final ByteBuffer bb) throws HTTPParsingException {
+    while(bb.hasRemaining()) {
+      processByte(bb.get());
+    }
+  }
+
+  /**
+   * Decodes a range of a {@link CharSequence}, ie a query String.  Characters outside of ASCII are treated as
+   * their UTF-8 bytes.
+   *
+   * @param cs the {@link CharSequence} to decode.
+   * @param start the index to start at.
+   * @param end the index to stop at (exclusive).
+   * @throws HTTPParsingException if a parameter is larger then the max parameter size.
+   */
+  public void process(final CharSequence cs, final int start, final int end) throws HTTPParsingException {
+    for(int i=start; i<end; i++) {
+      char c = cs.charAt(i);
+      if(c < ASCII_LIMIT) {
+        processByte((byte)c);
+      } else {
+        int cp = Character.codePointAt(cs, i);
+        if(Character.isSupplementaryCodePoint(cp)) {
+          i++;
+        }
+        for(byte b: new String(Character.toChars(cp)).getBytes(StandardCharsets.UTF_8)) {
+          processByte(b);
+        }
+      }
+    }
+  }
+
+  /**
+   * Lets the decoder know there is no more data, the last parameter (if any) is passed to the listener.
+   * The decoder is reset after this and can be used again.
+   *
+   * @throws HTTPParsingException if a parameter is larger then the max parameter size.
+   */
+  public void finish() throws HTTPParsingException {
+    flushEscape();
+    endParameter();
+    reset();
+  }
+
+  /**
+   * Resets the decoder, dropping any partial parameter.
+   */
+  public void reset() {
+    tokenLength = 0;
+    name = null;
+    pendingEscape = 0;
+  }
+
+  private void processByte(final byte b) throws HTTPParsingException {
+    if(pendingEscape > 0) {
+      if(hexValue(b) < 0) {
+        flushEscape();
+      } else if(pendingEscape == 2) {
+        escapeFirst = b;
+        pendingEscape = 1;
+        return;
+      } else {
+        pendingEscape = 0;
+        append((byte)((hexValue(escapeFirst) << HEX_BITS) | hexValue(b)));
+        return;
+      }
+    }
+    if(b == '&') {
+      endParameter();
+    } else if(b == '=' && name == null) {
+      name = takeToken();
+    } else if(b == '+') {
+      append((byte)' ');
+    } else if(b == '%') {
+      pendingEscape = 2;
+    } else {
+      append(b);
+    }
+  }
+
+  private void flushEscape() throws HTTPParsingException {
+    if(pendingEscape > 0) {
+      append((byte)'%');
+      if(pendingEscape == 1) {
+        append(escapeFirst);
+      }
+      pendingEscape = 0;
+    }
+  }
+
+  private void endParameter() throws HTTPParsingException {
+    String value = takeToken();
+    if(name == null) {
+      if(!value.isEmpty()) {
+        listener.onParameter(value, "");
+      }
+    } else if(!name.isEmpty()) {
+      listener.onParameter(name, value);
+    }
+    name = null;
+  }
+
+  private void append(final byte b) throws HTTPParsingException {
+    if(tokenLength == token.length) {
+      if(tokenLength >= maxParameterSize) {
+        throw new HTTPParsingException("Form parameter is to large!");
+      }
+      token = Arrays.copyOf(token, Math.min(maxParameterSize, tokenLength*2));
+    }
+    token[tokenLength++] = b;
+  }
+
+  private String takeToken() {
+    String str = tokenLength == 0 ? "" : new String(token, 0, tokenLength, StandardCharsets.UTF_8);
+    tokenLength = 0;
+    return str;
+  }
+
+  private static int hexValue(final byte b) {
+    if(b >= '0' && b <= '9') {
+      return b - '0';
+    } else if(b >= 'a' && b <= 'f') {
+      return b - 'a' + 10;
+    } else if(b >= 'A' && b <= 'F') {
+      return b - 'A' + 10;
+    }
+    return -1;
+  }
+
+  /**
+   * Receives parameters from an {@link HTTPFormDecoder} as they are decoded.
+   */
+  public interface ParameterListener {
+    /**
+     * Called for every decoded parameter, in the order they appear.
+     *
+     * @param name the decoded name.
+     * @param value the decoded value, empty if the parameter had no value.
+     */
+    public void onParameter(String name, String value);
+  }
+}
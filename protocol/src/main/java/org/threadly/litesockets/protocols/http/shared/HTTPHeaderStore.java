@@ -0,0 +1,442 @@
+package org.threadly.litesockets.protocols.http.shared;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A compact, insertion ordered store of http header names and values.  Names and values are kept in flat
+ * arrays and looked up through an open addressing table keyed by a case insensitive hash of the name, so
+ * no temporary lower case Strings are ever made.  The headers in {@link HTTPConstants} also get a fixed
+ * id so looking them up does not need to hash or probe at all.
+ *
+ * Multiple values for the same name are kept in the order they were added (ie Set-Cookie).  Lookups
+ * that return a single value return the last one added.
+ *
+ * This object is not thread safe.  Once it has been handed to an {@link HTTPHeaders} it should not be
+ * modified again.
+ *
+ * @author lwahlmeier
+ *
+ */
+public class HTTPHeaderStore {
+  private static final String[] KNOWN_HEADERS = new String[] {
+      HTTPConstants.HTTP_KEY_HOST,
+      HTTPConstants.HTTP_KEY_CONTENT_LENGTH,
+      HTTPConstants.HTTP_KEY_TRANSFER_ENCODING,
+      HTTPConstants.HTTP_KEY_CONNECTION,
+      HTTPConstants.HTTP_KEY_UPGRADE,
+      HTTPConstants.HTTP_KEY_CONTENT_TYPE,
+      HTTPConstants.HTTP_KEY_ACCEPT,
+      HTTPConstants.HTTP_KEY_USER_AGENT,
+      HTTPConstants.HTTP_KEY_AUTHORIZATION,
+      HTTPConstants.HTTP_KEY_KEEP_ALIVE,
+      HTTPConstants.HTTP_KEY_WEBSOCKET_KEY,
+      HTTPConstants.HTTP_KEY_WEBSOCKET_VERSION,
+      HTTPConstants.HTTP_KEY_WEBSOCKET_ACCEPT};
+  private static final int[] KNOWN_HASHES = new int[KNOWN_HEADERS.length];
+  private static final int DEFAULT_SIZE = 8;
+  private static final int HASH_MULTIPLIER = 31;
+  private static final int ROW_OVERHEAD = 4;
+
+  static {
+    for(int i=0; i<KNOWN_HEADERS.length; i++) {
+      KNOWN_HASHES[i] = hashName(KNOWN_HEADERS[i]);
+    }
+  }
+
+  private final int[] knownLast = new int[KNOWN_HEADERS.length];
+  private String[] names;
+  private String[] values;
+  private int[] hashes;
+  private int[] ids;
+  private int[] table;
+  private int size = 0;
+  private int distinct = 0;
+
+  /**
+   * Creates an empty {@link HTTPHeaderStore}.
+   */
+  public HTTPHeaderStore() {
+    this(DEFAULT_SIZE);
+  }
+
+  /**
+   * Creates an empty {@link HTTPHeaderStore} sized for the expected number of headers.
+   *
+   * @param expectedSize the number of headers expected to be added.
+   */
+  public HTTPHeaderStore(final int expectedSize) {
+    int cap = Math.max(expectedSize, 1);
+    names = new String[cap];
+    values = new String[cap];
+    hashes = new int[cap];
+    ids = new int[cap];
+    table = new int[tableSizeFor(cap)];
+  }
+
+  private HTTPHeaderStore(final HTTPHeaderStore hs) {
+    names = Arrays.copyOf(hs.names, Math.max(hs.size, 1));
+    values = Arrays.copyOf(hs.values, names.length);
+    hashes = Arrays.copyOf(hs.hashes, names.length);
+    ids = Arrays.copyOf(hs.ids, names.length);
+    table = hs.table.clone();
+    System.arraycopy(hs.knownLast, 0, knownLast, 0, knownLast.length);
+    size = hs.size;
+    distinct = hs.distinct;
+  }
+
+  /**
+   * Makes an independent copy of this {@link HTTPHeaderStore}.
+   *
+   * @return a new {@link HTTPHeaderStore} with the same headers in the same order.
+   */
+  public HTTPHeaderStore copy() {
+    return new HTTPHeaderStore(this);
+  }
+
+  /**
+   * Returns the total number of header rows in this store, including repeated names.
+   *
+   * @return the number of header rows.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Gets the name of the header row at the given position.
+   *
+   * @param index the position of the row, in the order rows were added.
+   * @return the name of the header.
+   */
+  public String getName(final int index) {
+    checkIndex(index);
+    return names[index];
+  }
+
+  /**
+   * Gets the value of the header row at the given position.
+   *
+   * @param index the position of the row, in the order rows were added.
+   * @return the value of the header.
+   */
+  public String getValue(final int index) {
+    checkIndex(index);
+    return values[index];
+  }
+
+  /**
+   * Gets the value of a header.  If the header was added more then once the last value is returned.
+   *
+   * @param name the name of the header, case insensitive.
+   * @return the value of the header or null if it is not set.
+   */
+  public String get(final String name) {
+    int pos = lastIndexOf(name);
+    if(pos < 0) {
+      return null;
+    }
+    return values[pos];
+  }
+
+  /**
+   * Gets every value of a header in the order they were added.
+   *
+   * @param name the name of the header, case insensitive.
+   * @return a {@link List} of values, empty if the header is not set.
+   */
+  public List<String> getAll(final String name) {
+    int last = lastIndexOf(name);
+    if(last < 0) {
+      return Collections.emptyList();
+    }
+    List<String> list = new ArrayList<>(2);
+    int hash = hashes[last];
+    for(int i=0; i<last; i++) {
+      if(hashes[i] == hash && names[i].equalsIgnoreCase(name)) {
+        list.add(values[i]);
+      }
+    }
+    list.add(values[last]);
+    return list;
+  }
+
+  /**
+   * Lets you know if a header is set.
+   *
+   * @param name the name of the header, case insensitive.
+   * @return true if the header is set, false if not.
+   */
+  public boolean contains(final String name) {
+    return lastIndexOf(name) > -1;
+  }
+
+  /**
+   * Adds a header row.  Any other values already set for this name are kept.
+   *
+   * @param name the name of the header.
+   * @param value the value of the header.
+   * @return this {@link HTTPHeaderStore}.
+   */
+  public HTTPHeaderStore add(final String name, final String value) {
+    int hash = hashName(name);
+    if(size == names.length) {
+      int cap = names.length*2;
+      names = Arrays.copyOf(names, cap);
+      values = Arrays.copyOf(values, cap);
+      hashes = Arrays.copyOf(hashes, cap);
+      ids = Arrays.copyOf(ids, cap);
+    }
+    int pos = size++;
+    names[pos] = name;
+    values[pos] = value;
+    hashes[pos] = hash;
+    ids[pos] = knownId(name, hash);
+    index(pos);
+    return this;
+  }
+
+  /**
+   * Sets a header, replacing any values already set for this name.  If the name was already set the
+   * header keeps the position of its last value.
+   *
+   * @param name the name of the header.
+   * @param value the value of the header.
+   * @return this {@link HTTPHeaderStore}.
+   */
+  public HTTPHeaderStore set(final String name, final String value) {
+    int last = lastIndexOf(name);
+    if(last < 0) {
+      return add(name, value);
+    }
+    values[last] = value;
+    int hash = hashes[last];
+    int removed = 0;
+    for(int i=0; i<last; i++) {
+      if(hashes[i] == hash && names[i].equalsIgnoreCase(name)) {
+        names[i] = null;
+        removed++;
+      }
+    }
+    if(removed > 0) {
+      compact();
+    }
+    return this;
+  }
+
+  /**
+   * Removes every value for a header.
+   *
+   * @param name the name of the header, case insensitive.
+   * @return this {@link HTTPHeaderStore}.
+   */
+  public HTTPHeaderStore remove(final String name) {
+    int last = lastIndexOf(name);
+    if(last < 0) {
+      return this;
+    }
+    int hash = hashes[last];
+    for(int i=0; i<=last; i++) {
+      if(hashes[i] == hash && names[i].equalsIgnoreCase(name)) {
+        names[i] = null;
+      }
+    }
+    compact();
+    return this;
+  }
+
+  /**
+   * Removes all headers from this store.
+   */
+  public void clear() {
+    Arrays.fill(names, 0, size, null);
+    Arrays.fill(values, 0, size, null);
+    Arrays.fill(table, 0);
+    Arrays.fill(knownLast, 0);
+    size = 0;
+    distinct = 0;
+  }
+
+  /**
+   * Builds a case insensitive {@link Map} of the headers in this store.  For names set more then once
+   * the last value is used.
+   *
+   * @return a new {@link Map} of the headers.
+   */
+  public Map<String, String> toMap() {
+    TreeMap<String, String> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    for(int i=0; i<size; i++) {
+      map.put(names[i], values[i]);
+    }
+    return map;
+  }
+
+  /**
+   * Appends every header row to the {@link StringBuilder} in http format, each row ending with a CRLF.
+   *
+   * @param sb the {@link StringBuilder} to append to.
+   * @return the passed in {@link StringBuilder}.
+   */
+  public StringBuilder appendTo(final StringBuilder sb) {
+    for(int i=0; i<size; i++) {
+      sb.append(names[i]);
+      sb.append(HTTPConstants.HTTP_HEADER_VALUE_DELIMINATOR);
+      sb.append(HTTPConstants.SPACE);
+      sb.append(values[i]);
+      sb.append(HTTPConstants.HTTP_NEWLINE_DELIMINATOR);
+    }
+    return sb;
+  }
+
+  /**
+   * Gets the number of bytes {@link #writeTo(ByteBuffer)} will write for this store.
+   *
+   * @return the encoded size of all the header rows.
+   */
+  public int encodedLength() {
+    int length = 0;
+    for(int i=0; i<size; i++) {
+      length += HTTPUtils.encodedLength(names[i]) + HTTPUtils.encodedLength(values[i]) + ROW_OVERHEAD;
+    }
+    return length;
+  }
+
+  /**
+   * Writes every header row into the {@link ByteBuffer} in http format, each row ending with a CRLF.
+   *
+   * @param bb the {@link ByteBuffer} to write into.
+   * @throws java.nio.BufferOverflowException if there is not enough room in the {@link ByteBuffer}.
+   */
+  public void writeTo(final ByteBuffer bb) {
+    for(int i=0; i<size; i++) {
+      HTTPUtils.putString(bb, names[i]);
+      bb.put((byte)':');
+      bb.put((byte)' ');
+      HTTPUtils.putString(bb, values[i]);
+      bb.put((byte)'\r');
+      bb.put((byte)'\n');
+    }
+  }
+
+  @Override
+  public String toString() {
+    return appendTo(new StringBuilder()).toString();
+  }
+
+  private void checkIndex(final int index) {
+    if(index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException(index+" >= "+size);
+    }
+  }
+
+  private int lastIndexOf(final String name) {
+    for(int i=0; i<KNOWN_HEADERS.length; i++) {
+      if(KNOWN_HEADERS[i] == name) {
+        return knownLast[i] - 1;
+      }
+    }
+    int hash = hashName(name);
+    int mask = table.length - 1;
+    for(int slot = hash & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+      int pos = table[slot] - 1;
+      if(hashes[pos] == hash && names[pos].equalsIgnoreCase(name)) {
+        return pos;
+      }
+    }
+    return -1;
+  }
+
+  private void index(final int pos) {
+    if(ids[pos] > -1) {
+      knownLast[ids[pos]] = pos + 1;
+    }
+    int hash = hashes[pos];
+    int mask = table.length - 1;
+    int slot = hash & mask;
+    while(table[slot] != 0) {
+      int other = table[slot] - 1;
+      if(hashes[other] == hash && names[other].equalsIgnoreCase(names[pos])) {
+        table[slot] = pos + 1;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = pos + 1;
+    distinct++;
+    if(distinct*2 > table.length) {
+      rebuildTable(table.length*2);
+    }
+  }
+
+  private void compact() {
+    int write = 0;
+    for(int read=0; read<size; read++) {
+      if(names[read] != null) {
+        names[write] = names[read];
+        values[write] = values[read];
+        hashes[write] = hashes[read];
+        ids[write] = ids[read];
+        write++;
+      }
+    }
+    Arrays.fill(names, write, size, null);
+    Arrays.fill(values, write, size, null);
+    size = write;
+    rebuildTable(table.length);
+  }
+
+  private void rebuildTable(final int tableSize) {
+    table = new int[tableSize];
+    Arrays.fill(knownLast, 0);
+    distinct = 0;
+    for(int i=0; i<size; i++) {
+      index(i);
+    }
+  }
+
+  private static int knownId(final String name, final int hash) {
+    for(int i=0; i<KNOWN_HEADERS.length; i++) {
+      if(KNOWN_HASHES[i] == hash && KNOWN_HEADERS[i].equalsIgnoreCase(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int tableSizeFor(final int entries) {
+    int tableSize = 2;
+    while(tableSize < entries*2) {
+      tableSize <<= 1;
+    }
+    return tableSize;
+  }
+
+  /**
+   * Hashes a header name ignoring case.  This will return the same hash for any two names that
+   * are equal by {@link String#equalsIgnoreCase(String)}, so non-ASCII characters are folded the same
+   * way it folds them (upper case then lower case).
+   *
+   * @param name the header name to hash.
+   * @return the case insensitive hash of the name.
+   */
+  public static int hashName(final String name) {
+    int hash = 0;
+    for(int i=0; i<name.length();) {
+      int c = name.codePointAt(i);
+      i += Character.charCount(c);
+      if(c >= 'A' && c <= 'Z') {
+        c = Character.toLowerCase(c);
+      } else if(c > Byte.MAX_VALUE) {
+        c = Character.toLowerCase(Character.toUpperCase(c));
+      }
+      hash = (hash * HASH_MULTIPLIER) + c;
+    }
+    // spread the bits so the low bits used by the table are not just the last character
+    return hash ^ (hash >>> (Integer.SIZE/2));
+  }
+}
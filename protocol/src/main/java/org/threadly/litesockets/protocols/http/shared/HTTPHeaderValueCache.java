@@ -0,0 +1,191 @@
+package org.threadly.litesockets.protocols.http.shared;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A shared, bounded cache that maps the bytes of small header names and values to a single String instance.
+ * Clients tend to send the exact same User-Agent, Accept, Accept-Encoding, etc over and over, so the parsers
+ * check here before making a new String for them.
+ *
+ * The cache is a fixed size table that is read and written without locks.  A value is only added once the
+ * same bytes have been seen twice in a row for its slot, so one off values (ie cookies or auth tokens) do
+ * not push out values that repeat.  Values longer then {@link #getMaxValueLength()} are never cached.
+ *
+ * Hit and miss counts are kept so the cache can be sized, and it can be turned off with
+ * {@link #setEnabled(boolean)}.
+ *
+ * @author lwahlmeier
+ *
+ */
+public class HTTPHeaderValueCache {
+  public static final int DEFAULT_MAX_VALUE_LENGTH = 128;
+
+  private static final int TABLE_SIZE = 4096;
+  private static final int HASH_MULTIPLIER = 31;
+  private static final int HASH_SPREAD = 16;
+  private static final AtomicReferenceArray<CachedValue> TABLE = new AtomicReferenceArray<>(TABLE_SIZE);
+  private static final AtomicIntegerArray LAST_SEEN = new AtomicIntegerArray(TABLE_SIZE);
+  private static final LongAdder HITS = new LongAdder();
+  private static final LongAdder MISSES = new LongAdder();
+
+  private static volatile boolean enabled = true;
+  private static volatile int maxValueLength = DEFAULT_MAX_VALUE_LENGTH;
+
+  private HTTPHeaderValueCache() {}
+
+  /**
+   * Gets the String for a range of bytes, using the cached instance if there is one.  The bytes are read
+   * as UTF-8, the same as {@link HTTPUtils#bytesToString(ByteBuffer, int, int)}.
+   *
+   * @param bb the {@link ByteBuffer} the bytes are in.
+   * @param start the absolute index to start at.
+   * @param end the absolute index to end at (exclusive).
+   * @return the String for those bytes.
+   */
+  public static String toString(final ByteBuffer bb, final int start, final int end) {
+    if(!enabled || end - start > maxValueLength) {
+      return HTTPUtils.bytesToString(bb, start, end);
+    }
+    int hash = hash(bb, start, end);
+    int slot = hash & (TABLE_SIZE - 1);
+    CachedValue cv = TABLE.get(slot);
+    if(cv != null && cv.hash == hash && cv.matches(bb, start, end)) {
+      HITS.increment();
+      return cv.value;
+    }
+    MISSES.increment();
+    String value = HTTPUtils.bytesToString(bb, start, end);
+    if(LAST_SEEN.get(slot) == hash) {
+      byte[] ba = new byte[end - start];
+      for(int i=0; i<ba.length; i++) {
+        ba[i] = bb.get(start + i);
+      }
+      TABLE.lazySet(slot, new CachedValue(hash, ba, value));
+    } else {
+      LAST_SEEN.lazySet(slot, hash);
+    }
+    return value;
+  }
+
+  /**
+   * Turns the cache on or off.  When off every lookup makes a new String and the counters are not changed.
+   * The cache is on by default.
+   *
+   * @param enable true to use the cache.
+   */
+  public static void setEnabled(final boolean enable) {
+    enabled = enable;
+  }
+
+  /**
+   * Lets you know if the cache is on.
+   *
+   * @return true if the cache is being used.
+   */
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Sets the longest value, in bytes, that will be cached.
+   *
+   * @param length the max length to cache.
+   */
+  public static void setMaxValueLength(final int length) {
+    maxValueLength = length;
+  }
+
+  /**
+   * Gets the longest value, in bytes, that will be cached.
+   *
+   * @return the max length to cache.
+   */
+  public static int getMaxValueLength() {
+    return maxValueLength;
+  }
+
+  /**
+   * Gets the number of lookups that returned a cached String.
+   *
+   * @return the number of cache hits.
+   */
+  public static long getHits() {
+    return HITS.sum();
+  }
+
+  /**
+   * Gets the number of lookups that had to make a new String, including values to long to be cached.
+   *
+   * @return the number of cache misses.
+   */
+  public static long getMisses() {
+    return MISSES.sum();
+  }
+
+  /**
+   * Gets the fraction of lookups that were hits.
+   *
+   * @return the hit rate between 0 and 1, 0 if there have been no lookups.
+   */
+  public static double getHitRate() {
+    long hits = HITS.sum();
+    long total = hits + MISSES.sum();
+    return total == 0 ? 0 : (double)hits / total;
+  }
+
+  /**
+   * Resets the hit and miss counters to 0.
+   */
+  public static void resetStats() {
+    HITS.reset();
+    MISSES.reset();
+  }
+
+  /**
+   * Removes every cached value.
+   */
+  public static void clear() {
+    for(int i=0; i<TABLE_SIZE; i++) {
+      TABLE.set(i, null);
+      LAST_SEEN.set(i, 0);
+    }
+  }
+
+  private static int hash(final ByteBuffer bb, final int start, final int end) {
+    int h = 0;
+    for(int i=start; i<end; i++) {
+      h = (h * HASH_MULTIPLIER) + bb.get(i);
+    }
+    return h ^ (h >>> HASH_SPREAD);
+  }
+
+  /**
+   * A cached String and the bytes it was made from.
+   */
+  private static class CachedValue {
+    private final int hash;
+    private final byte[] bytes;
+    private final String value;
+
+    private CachedValue(final int hash, final byte[] bytes, final String value) {
+      this.hash = hash;
+      this.bytes = bytes;
+      this.value = value;
+    }
+
+    private boolean matches(final ByteBuffer bb, final int start, final int end) {
+      if(end - start != bytes.length) {
+        return false;
+      }
+      for(int i=0; i<bytes.length; i++) {
+        if(bb.get(start + i) != bytes[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -1,6 +1,10 @@
 package org.threadly.litesockets.protocols.http.shared;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
@@ -12,11 +16,26 @@ import org.threadly.util.StringUtils;
  * separated by a colon. 
  */
 public class HTTPHeaders {
-  private final String rawHeaders;
-  private final Map<String, String> headers;
+  private static final int OFFSETS_PER_HEADER = 4;
+  private static final int DEFAULT_INDEX_SIZE = 16;
+  private static final int MAX_INT_DIGITS = 18;
+  
+  private final HTTPHeaderStore store;
+  private final ByteBuffer rawBytes;
+  private final int[] offsets;
+  private final int headerCount;
+  private final int rawStart;
+  private final int rawEnd;
+  private volatile String rawHeaders;
+  private volatile Map<String, String> headers;
   
   public HTTPHeaders(String headerString) {
-    TreeMap<String, String> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    this.store = new HTTPHeaderStore();
+    this.rawBytes = null;
+    this.offsets = null;
+    this.headerCount = 0;
+    this.rawStart = -1;
+    this.rawEnd = -1;
     if(headerString.endsWith(HTTPConstants.HTTP_DOUBLE_NEWLINE_DELIMINATOR)) {
       this.rawHeaders = headerString.substring(0, headerString.length()-2);
     } else if(!headerString.endsWith(HTTPConstants.HTTP_NEWLINE_DELIMINATOR)) { 
@@ -35,23 +54,131 @@ public class HTTPHeaders {
       if (delim < 0) {
         throw new IllegalArgumentException("Header is missing key value delim: " + h);
       }
-      map.put(h.substring(0, delim).trim(), h.substring(delim + 1).trim());
+      store.add(h.substring(0, delim).trim(), h.substring(delim + 1).trim());
     }
-   
-    if (map.isEmpty()) {
-      headers = Collections.emptyMap();
-    } else {
-      headers = Collections.unmodifiableMap(map);
+  }
+  
+  /**
+   * Creates {@link HTTPHeaders} backed by the provided {@link HTTPHeaderStore}.  The store is used as is
+   * (no copy is made) so it must not be modified after this is called.
+   * 
+   * @param store the {@link HTTPHeaderStore} with the header rows.
+   */
+  public HTTPHeaders(final HTTPHeaderStore store) {
+    this.store = store;
+    this.rawBytes = null;
+    this.offsets = null;
+    this.headerCount = 0;
+    this.rawStart = -1;
+    this.rawEnd = -1;
+  }
+  
+  /**
+   * Parses a block of http headers directly from bytes.  The block is scanned once, recording where each 
+   * header name and value starts and ends.  No Strings are made until they are asked for, and the full
+   * headers {@link Map} is only built the first time {@link #getHeadersMap()} is called.
+   * 
+   * @param headerBlock {@link ByteBuffer} containing the CRLF separated header rows. This is not modified.
+   * @throws IllegalArgumentException If a header row is missing its key/value delimiter.
+   */
+  public HTTPHeaders(final ByteBuffer headerBlock) {
+    final int end = headerBlock.limit();
+    int start = headerBlock.position();
+    while(start < end && HTTPUtils.isWhitespace(headerBlock.get(start))) {
+      start++;
+    }
+    int[] index = new int[DEFAULT_INDEX_SIZE];
+    int count = 0;
+    int lastRowEnd = start;
+    int rowStart = start;
+    while(rowStart < end) {
+      int rowEnd = HTTPUtils.indexOfNewline(headerBlock, rowStart, end);
+      int next = rowEnd + HTTPConstants.HTTP_NEWLINE_DELIMINATOR.length();
+      if(rowEnd < 0) {
+        rowEnd = end;
+        next = end;
+      }
+      if(rowEnd > rowStart) {
+        int delim = -1;
+        for(int i = rowStart; i < rowEnd; i++) {
+          if(headerBlock.get(i) == ':') {
+            delim = i;
+            break;
+          }
+        }
+        if (delim < 0) {
+          throw new IllegalArgumentException("Header is missing key value delim: " + 
+              HTTPUtils.bytesToString(headerBlock, rowStart, rowEnd));
+        }
+        if((count+1)*OFFSETS_PER_HEADER > index.length) {
+          index = Arrays.copyOf(index, index.length*2);
+        }
+        int pos = count*OFFSETS_PER_HEADER;
+        index[pos] = trimStart(headerBlock, rowStart, delim);
+        index[pos+1] = trimEnd(headerBlock, index[pos], delim);
+        index[pos+2] = trimStart(headerBlock, delim+1, rowEnd);
+        index[pos+3] = trimEnd(headerBlock, index[pos+2], rowEnd);
+        count++;
+        lastRowEnd = rowEnd;
+      }
+      rowStart = next;
+    }
+    this.store = null;
+    this.rawBytes = headerBlock.duplicate();
+    this.offsets = index;
+    this.headerCount = count;
+    this.rawStart = start;
+    this.rawEnd = lastRowEnd;
+    if (count == 0) {
+      this.rawHeaders = "";
+      this.headers = Collections.emptyMap();
+    }
+  }
+  
+  private static int trimStart(final ByteBuffer bb, int start, final int end) {
+    while(start < end && HTTPUtils.isWhitespace(bb.get(start))) {
+      start++;
+    }
+    return start;
+  }
+  
+  private static int trimEnd(final ByteBuffer bb, final int start, int end) {
+    while(end > start && HTTPUtils.isWhitespace(bb.get(end-1))) {
+      end--;
+    }
+    return end;
+  }
+  
+  /**
+   * Finds the last header row with the given name in the raw bytes.  The last one is used so this matches
+   * what ends up in {@link #getHeadersMap()}.
+   * 
+   * @param name the header name to look for, case insensitive.
+   * @return the position of the headers offsets or -1 if it was not found.
+   */
+  private int findRawHeader(final String name) {
+    for(int i=(headerCount-1)*OFFSETS_PER_HEADER; i>=0; i-=OFFSETS_PER_HEADER) {
+      if(HTTPUtils.equalsIgnoreCase(rawBytes, offsets[i], offsets[i+1], name)) {
+        return i;
+      }
     }
+    return -1;
   }
   
   public HTTPHeaders(final Map<String, String> headerMap) {
+    this.store = new HTTPHeaderStore(headerMap.size());
+    this.rawBytes = null;
+    this.offsets = null;
+    this.headerCount = 0;
+    this.rawStart = -1;
+    this.rawEnd = -1;
     TreeMap<String, String> lheaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
     for(Entry<String, String> kv: headerMap.entrySet()) {
       lheaders.put(kv.getKey().trim(), kv.getValue().trim());
     }
-    rawHeaders = formatHeaderMap(lheaders);
-    this.headers = Collections.unmodifiableMap(lheaders);
+    for(Entry<String, String> kv: lheaders.entrySet()) {
+      store.add(kv.getKey(), kv.getValue());
+    }
   }
   
 
@@ -68,19 +195,84 @@ public class HTTPHeaders {
   }
   
   public Map<String, String> getHeadersMap() {
-    return headers;
+    Map<String, String> map = headers;
+    if(map == null) {
+      if(store != null) {
+        map = Collections.unmodifiableMap(store.toMap());
+      } else {
+        TreeMap<String, String> lheaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for(int i=0; i<headerCount*OFFSETS_PER_HEADER; i+=OFFSETS_PER_HEADER) {
+          lheaders.put(HTTPHeaderValueCache.toString(rawBytes, offsets[i], offsets[i+1]), 
+              HTTPHeaderValueCache.toString(rawBytes, offsets[i+2], offsets[i+3]));
+        }
+        map = Collections.unmodifiableMap(lheaders);
+      }
+      headers = map;
+    }
+    return map;
+  }
+  
+  /**
+   * Adds every header row, in order, to the provided {@link HTTPHeaderStore}.  Repeated headers are all added.
+   * 
+   * @param target the {@link HTTPHeaderStore} to add the headers to.
+   */
+  public void copyTo(final HTTPHeaderStore target) {
+    if(store != null) {
+      for(int i=0; i<store.size(); i++) {
+        target.add(store.getName(i), store.getValue(i));
+      }
+    } else {
+      for(int i=0; i<headerCount*OFFSETS_PER_HEADER; i+=OFFSETS_PER_HEADER) {
+        target.add(HTTPHeaderValueCache.toString(rawBytes, offsets[i], offsets[i+1]), 
+            HTTPHeaderValueCache.toString(rawBytes, offsets[i+2], offsets[i+3]));
+      }
+    }
   }
   
   public boolean isChunked() {
-    return headers.containsKey(HTTPConstants.HTTP_KEY_TRANSFER_ENCODING);
+    if(store != null) {
+      return store.contains(HTTPConstants.HTTP_KEY_TRANSFER_ENCODING);
+    }
+    return findRawHeader(HTTPConstants.HTTP_KEY_TRANSFER_ENCODING) > -1;
   }
   
   public String getHeader(String header) {
-    return headers.get(header);
+    if(store != null) {
+      return store.get(header);
+    }
+    int pos = findRawHeader(header);
+    if(pos < 0) {
+      return null;
+    }
+    return HTTPHeaderValueCache.toString(rawBytes, offsets[pos+2], offsets[pos+3]);
+  }
+  
+  /**
+   * Gets every value set for a header, in the order they came in.  This should be used for headers that 
+   * can be repeated (ie Set-Cookie), {@link #getHeader(String)} only returns the last one.
+   * 
+   * @param header the name of the header, case insensitive.
+   * @return a {@link List} of the values for this header, empty if it is not set.
+   */
+  public List<String> getHeaders(String header) {
+    if(store != null) {
+      return store.getAll(header);
+    }
+    List<String> list = new ArrayList<>(2);
+    for(int i=0; i<headerCount*OFFSETS_PER_HEADER; i+=OFFSETS_PER_HEADER) {
+      if(HTTPUtils.equalsIgnoreCase(rawBytes, offsets[i], offsets[i+1], header)) {
+        list.add(HTTPHeaderValueCache.toString(rawBytes, offsets[i+2], offsets[i+3]));
+      }
+    }
+    return list;
   }
 
   public long getContentLength() {
-    String scl = headers.get(HTTPConstants.HTTP_KEY_CONTENT_LENGTH);
+    if(store == null) {
+      return rawContentLength();
+    }
+    String scl = store.get(HTTPConstants.HTTP_KEY_CONTENT_LENGTH);
     long cl = -1;
     if (! StringUtils.isNullOrEmpty(scl)) {
       try {
@@ -92,14 +284,99 @@ public class HTTPHeaders {
     return cl;
   }
   
+  private long rawContentLength() {
+    int pos = findRawHeader(HTTPConstants.HTTP_KEY_CONTENT_LENGTH);
+    if(pos < 0) {
+      return -1;
+    }
+    int start = offsets[pos+2];
+    int end = offsets[pos+3];
+    if(start == end) {
+      return -1;
+    }
+    if(end - start > MAX_INT_DIGITS) {
+      try {
+        return Long.parseLong(HTTPUtils.bytesToString(rawBytes, start, end));
+      } catch (NumberFormatException e) {
+        return -1;
+      }
+    }
+    boolean negative = false;
+    byte b = rawBytes.get(start);
+    if(b == '-' || b == '+') {
+      negative = b == '-';
+      start++;
+      if(start == end) {
+        return -1;
+      }
+    }
+    long cl = 0;
+    for(int i=start; i<end; i++) {
+      b = rawBytes.get(i);
+      if(b < '0' || b > '9') {
+        return -1;
+      }
+      cl = (cl*10) + (b - '0');
+    }
+    return negative ? -cl : cl;
+  }
+  
+  /**
+   * Gets the number of bytes {@link #writeTo(ByteBuffer)} will write for these headers.
+   * 
+   * @return the encoded size of the headers, including the CRLF ending each row.
+   */
+  public int encodedLength() {
+    if(store != null) {
+      return store.encodedLength();
+    }
+    if(headerCount == 0) {
+      return 0;
+    }
+    return rawEnd - rawStart + HTTPConstants.HTTP_NEWLINE_DELIMINATOR.length();
+  }
+  
+  /**
+   * Writes these headers into the {@link ByteBuffer} in http format, each row ending with a CRLF.  Headers
+   * parsed from bytes are copied as is, otherwise the names and values are written straight in without
+   * building a String of the whole block first.
+   * 
+   * @param bb the {@link ByteBuffer} to write into.
+   * @throws java.nio.BufferOverflowException if there is not enough room in the {@link ByteBuffer}.
+   */
+  public void writeTo(final ByteBuffer bb) {
+    if(store != null) {
+      store.writeTo(bb);
+    } else if(headerCount > 0) {
+      ByteBuffer raw = rawBytes.duplicate();
+      raw.limit(rawEnd).position(rawStart);
+      bb.put(raw);
+      bb.put((byte)'\r');
+      bb.put((byte)'\n');
+    }
+  }
+  
   @Override
   public String toString() {
-    return rawHeaders;
+    String raw = rawHeaders;
+    if(raw == null) {
+      if(store != null) {
+        raw = store.toString();
+      } else {
+        raw = HTTPUtils.bytesToString(rawBytes, rawStart, rawEnd) + HTTPConstants.HTTP_NEWLINE_DELIMINATOR;
+      }
+      rawHeaders = raw;
+    }
+    return raw;
   }
   
   @Override
   public int hashCode() {
-    return rawHeaders.hashCode();
+    int hash = 0;
+    for(Entry<String, String> kv: getHeadersMap().entrySet()) {
+      hash += HTTPHeaderStore.hashName(kv.getKey()) ^ kv.getValue().hashCode();
+    }
+    return hash;
   }
   
   @Override
@@ -108,7 +385,7 @@ public class HTTPHeaders {
       return true;
     } else if(o instanceof HTTPHeaders) {
       HTTPHeaders h = (HTTPHeaders)o;
-      return headers.equals(h.headers);
+      return getHeadersMap().equals(h.getHeadersMap());
     }
     return false;
   }
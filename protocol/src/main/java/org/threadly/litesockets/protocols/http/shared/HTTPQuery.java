@@ -0,0 +1,257 @@
+package org.threadly.litesockets.protocols.http.shared;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * An immutable, ordered view of the parameters in a query string.  The raw query is kept as is and only
+ * decoded by an {@link HTTPFormDecoder} the first time a parameter is asked for, so requests whose query is
+ * never looked at do not pay for parsing it.
+ *
+ * Repeated names are all kept in the order they appear.  Lookups that return a single value return the last
+ * one, the same way {@link HTTPHeaderStore} does.
+ *
+ * @author lwahlmeier
+ *
+ */
+public class HTTPQuery {
+  public static final HTTPQuery EMPTY = new HTTPQuery(Collections.<String, String>emptyMap());
+
+  private static final String[] NO_PARAMS = new String[0];
+
+  private final String rawQuery;
+  private final ByteBuffer rawBytes;
+  private final int rawStart;
+  private final int rawEnd;
+  private volatile String[] params;
+  private volatile Map<String, String> map;
+
+  /**
+   * Creates an {@link HTTPQuery} from a raw query String.  The String is used as is, it should not include the
+   * {@code ?} that starts the query.
+   *
+   * @param query the url encoded query String.
+   */
+  public HTTPQuery(final String query) {
+    this.rawQuery = query;
+    this.rawBytes = null;
+    this.rawStart = -1;
+    this.rawEnd = -1;
+  }
+
+  /**
+   * Creates an {@link HTTPQuery} from raw url encoded bytes.  The {@link ByteBuffer} is not modified but it is
+   * kept, so its contents must not change after this is called.
+   *
+   * @param bb the {@link ByteBuffer} the query is in.
+   * @param start the absolute index the query starts at (after the {@code ?}).
+   * @param end the absolute index the query ends at (exclusive).
+   */
+  public HTTPQuery(final ByteBuffer bb, final int start, final int end) {
+    this.rawQuery = null;
+    this.rawBytes = bb;
+    this.rawStart = start;
+    this.rawEnd = end;
+  }
+
+  /**
+   * Creates an {@link HTTPQuery} from already decoded names and values.
+   *
+   * @param query the {@link Map} of names and values.
+   */
+  public HTTPQuery(final Map<String, String> query) {
+    String[] p = new String[query.size()*2];
+    int i = 0;
+    for(Entry<String, String> kv: query.entrySet()) {
+      p[i++] = kv.getKey();
+      p[i++] = kv.getValue() == null ? "" : kv.getValue();
+    }
+    this.params = p;
+    this.rawQuery = null;
+    this.rawBytes = null;
+    this.rawStart = -1;
+    this.rawEnd = -1;
+  }
+
+  /**
+   * Gets the number of parameters, including repeated names.
+   *
+   * @return the number of parameters.
+   */
+  public int size() {
+    return params().length / 2;
+  }
+
+  /**
+   * Lets you know if there are no parameters.
+   *
+   * @return true if there are no parameters.
+   */
+  public boolean isEmpty() {
+    return params().length == 0;
+  }
+
+  /**
+   * Gets the decoded name of the parameter at the given index.
+   *
+   * @param index the index of the parameter.
+   * @return the name of the parameter.
+   */
+  public String getName(final int index) {
+    return params()[index*2];
+  }
+
+  /**
+   * Gets the decoded value of the parameter at the given index.
+   *
+   * @param index the index of the parameter.
+   * @return the value of the parameter, empty if it had none.
+   */
+  public String getValue(final int index) {
+    return params()[(index*2)+1];
+  }
+
+  /**
+   * Gets the last value set for a parameter name.
+   *
+   * @param name the name to look for.
+   * @return the value or null if the name is not in this query.
+   */
+  public String get(final String name) {
+    String[] p = params();
+    for(int i=p.length-2; i>=0; i-=2) {
+      if(p[i].equals(name)) {
+        return p[i+1];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Gets every value set for a parameter name, in the order they appear.
+   *
+   * @param name the name to look for.
+   * @return an unmodifiable {@link List} of values, empty if the name is not in this query.
+   */
+  public List<String> getAll(final String name) {
+    String[] p = params();
+    List<String> values = null;
+    for(int i=0; i<p.length; i+=2) {
+      if(p[i].equals(name)) {
+        if(values == null) {
+          values = new ArrayList<>(2);
+        }
+        values.add(p[i+1]);
+      }
+    }
+    return values == null ? Collections.<String>emptyList() : Collections.unmodifiableList(values);
+  }
+
+  /**
+   * Lets you know if a parameter name is in this query.
+   *
+   * @param name the name to look for.
+   * @return true if the name is in this query.
+   */
+  public boolean contains(final String name) {
+    return get(name) != null;
+  }
+
+  /**
+   * Gets the parameters as a {@link Map}.  For names set more then once the last value is used.
+   *
+   * @return an unmodifiable, insertion ordered {@link Map} of the parameters.
+   */
+  public Map<String, String> toMap() {
+    Map<String, String> m = map;
+    if(m == null) {
+      String[] p = params();
+      if(p.length == 0) {
+        m = Collections.emptyMap();
+      } else {
+        LinkedHashMap<String, String> lhm = new LinkedHashMap<>();
+        for(int i=0; i<p.length; i+=2) {
+          lhm.put(p[i], p[i+1]);
+        }
+        m = Collections.unmodifiableMap(lhm);
+      }
+      map = m;
+    }
+    return m;
+  }
+
+  private String[] params() {
+    String[] p = params;
+    if(p == null) {
+      p = parse();
+      params = p;
+    }
+    return p;
+  }
+
+  private String[] parse() {
+    final List<String> list = new ArrayList<>();
+    HTTPFormDecoder decoder = new HTTPFormDecoder((name, value) -> {
+      list.add(name);
+      list.add(value);
+    }, Integer.MAX_VALUE);
+    try {
+      if(rawBytes != null) {
+        ByteBuffer bb = rawBytes.duplicate();
+        bb.limit(rawEnd);
+        bb.position(rawStart);
+        decoder.process(bb);
+      } else {
+        decoder.process(rawQuery, 0, rawQuery.length());
+      }
+      decoder.finish();
+    } catch(HTTPParsingException e) {
+      // can not happen without a max parameter size
+      throw new IllegalStateException(e);
+    }
+    return list.isEmpty() ? NO_PARAMS : list.toArray(NO_PARAMS);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(params());
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if(o == this) {
+      return true;
+    } else if(o instanceof HTTPQuery) {
+      return Arrays.equals(params(), ((HTTPQuery)o).params());
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    if(rawQuery != null) {
+      return rawQuery;
+    } else if(rawBytes != null) {
+      return HTTPUtils.bytesToString(rawBytes, rawStart, rawEnd);
+    }
+    StringBuilder sb = new StringBuilder();
+    String[] p = params();
+    for(int i=0; i<p.length; i+=2) {
+      if(i > 0) {
+        sb.append('&');
+      }
+      HTTPUtils.urlEncode(sb, p[i]);
+      if(!p[i+1].isEmpty()) {
+        sb.append('=');
+        HTTPUtils.urlEncode(sb, p[i+1]);
+      }
+    }
+    return sb.toString();
+  }
+}
@@ -1,5 +1,8 @@
 package org.threadly.litesockets.protocols.http.shared;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 /**
  * Enum of all known HTTP Response codes.
  */
@@ -69,28 +72,103 @@ public enum HTTPResponseCode {
   NetworkAuthenticationRequired(511, "Network Authentication Required") /*(RFC 6585)*/, 
   OptionNotSupported(551, "Option not supported") /*(RTSP)*/;
   
-  private int val;
-  private String text;
+  private static final int MAX_CODE = 999;
+  private static final HTTPResponseCode[] BY_CODE = new HTTPResponseCode[MAX_CODE+1];
+  
+  static {
+    for(HTTPResponseCode hrc: HTTPResponseCode.values()) {
+      BY_CODE[hrc.val] = hrc;
+    }
+  }
+  
+  private final int val;
+  private final String text;
+  private final byte[] http11Line;
+  private final byte[] http10Line;
+  
   private HTTPResponseCode(int val, String text) {
     this.val = val;
     this.text = text;
+    this.http11Line = (HTTPConstants.HTTP_VERSION_1_1+" "+val+" "+text).getBytes(StandardCharsets.US_ASCII);
+    this.http10Line = (HTTPConstants.HTTP_VERSION_1_0+" "+val+" "+text).getBytes(StandardCharsets.US_ASCII);
   }
   
   public int getId() {
     return val;
   }
   
+  /**
+   * Gets the pre-encoded status line for this code, ie "HTTP/1.1 200 OK".
+   * 
+   * The newline/carriage return is not included!
+   * 
+   * @param httpVersion the http version of the status line, must be 1.1 or 1.0.
+   * @return a read-only {@link ByteBuffer} with the status line in it.
+   */
+  public ByteBuffer getStatusLine(final String httpVersion) {
+    return ByteBuffer.wrap(statusLine(httpVersion)).asReadOnlyBuffer();
+  }
+  
+  /**
+   * Writes the pre-encoded status line for this code into the provided {@link ByteBuffer}.
+   * 
+   * The newline/carriage return is not included!
+   * 
+   * @param bb the {@link ByteBuffer} to write into.
+   * @param httpVersion the http version of the status line, must be 1.1 or 1.0.
+   */
+  public void writeStatusLine(final ByteBuffer bb, final String httpVersion) {
+    bb.put(statusLine(httpVersion));
+  }
+  
+  /**
+   * Gets the length in bytes of the status line for this code.
+   * 
+   * @return the length of the status line without the newline.
+   */
+  public int getStatusLineLength() {
+    return http11Line.length;
+  }
+  
+  private byte[] statusLine(final String httpVersion) {
+    if(HTTPConstants.HTTP_VERSION_1_1.equals(httpVersion)) {
+      return http11Line;
+    } else if(HTTPConstants.HTTP_VERSION_1_0.equals(httpVersion)) {
+      return http10Line;
+    }
+    throw new IllegalArgumentException("Unknown HTTP Version!:"+httpVersion);
+  }
+  
   @Override
   public String toString() {
     return text;
   }
   
+  /**
+   * Gets the {@link HTTPResponseCode} for a numeric code.  This is a direct array lookup.
+   * 
+   * @param val the numeric response code.
+   * @return the {@link HTTPResponseCode} for the code.
+   * @throws IllegalArgumentException if the code is not known.
+   */
   public static HTTPResponseCode findResponseCode(int val) {
-    for(HTTPResponseCode hrc: HTTPResponseCode.values()) { 
-      if(hrc.getId() == val) {
-        return hrc;
-      }
+    HTTPResponseCode hrc = lookup(val);
+    if(hrc == null) {
+      throw new IllegalArgumentException("Could not find ResponseCode: " + val);
+    }
+    return hrc;
+  }
+  
+  /**
+   * Gets the {@link HTTPResponseCode} for a numeric code, without throwing if it is not known.
+   * 
+   * @param val the numeric response code.
+   * @return the {@link HTTPResponseCode} for the code or null if it is not known.
+   */
+  public static HTTPResponseCode lookup(int val) {
+    if(val < 0 || val > MAX_CODE) {
+      return null;
     }
-    throw new IllegalArgumentException("Could not find ResponseCode: " + val);
+    return BY_CODE[val];
   }
 }
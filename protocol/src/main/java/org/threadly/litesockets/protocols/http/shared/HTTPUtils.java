@@ -1,8 +1,8 @@
 package org.threadly.litesockets.protocols.http.shared;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 
 import org.threadly.litesockets.buffers.MergedByteBuffers;
@@ -16,6 +16,26 @@ import org.threadly.util.StringUtils;
  *
  */
 public class HTTPUtils {
+  private static final byte ASCII_CASE_BIT = 0x20;
+  private static final char ASCII_LIMIT = 0x80;
+  private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+  private static final int HEX_BITS = 4;
+  private static final int HEX_MASK = 0xf;
+  private static final boolean[] URL_SAFE = new boolean[ASCII_LIMIT];
+  
+  static {
+    for(char c = 'a'; c <= 'z'; c++) {
+      URL_SAFE[c] = true;
+      URL_SAFE[Character.toUpperCase(c)] = true;
+    }
+    for(char c = '0'; c <= '9'; c++) {
+      URL_SAFE[c] = true;
+    }
+    for(char c: "-._~*!'()/:@,;$".toCharArray()) {
+      URL_SAFE[c] = true;
+    }
+  }
+  
   public static String leftTrim(String value) {
     int count = 0;
     while(Character.isWhitespace(value.charAt(count))) {
@@ -39,6 +59,13 @@ public class HTTPUtils {
     return -1;
   }
   
+  /**
+   * Copies the provided data into a new buffer wrapped in a chunk.  {@link HTTPChunkedEncoder#wrapInChunk(ByteBuffer)}
+   * should be used where possible as it does not copy the data.
+   * 
+   * @param bb the data to put in the chunk.
+   * @return a new {@link ByteBuffer} with the full chunk in it.
+   */
   public static ByteBuffer wrapInChunk(ByteBuffer bb) {
     byte[] size = Integer.toHexString(bb.remaining()).getBytes();
     ByteBuffer newBB = ByteBuffer.allocate(bb.remaining()+
@@ -51,6 +78,13 @@ public class HTTPUtils {
     return newBB;
   }
   
+  /**
+   * Makes a url encoded query String from a {@link Map} of names and values, starting with a {@code ?}.
+   * Names and values are encoded with {@link #urlEncode(StringBuilder, String)}.
+   * 
+   * @param map the names and values to encode.
+   * @return the encoded query String or an empty String if there are no values.
+   */
   public static String queryToString(Map<String,String> map) {
     if(map.isEmpty()) {
       return "";
@@ -58,44 +92,202 @@ public class HTTPUtils {
     
     StringBuilder sb = new StringBuilder();
     sb.append('?');
-    for(String k: map.keySet()) {
+    for(Map.Entry<String, String> kv: map.entrySet()) {
       if(sb.length() > 1) {
         sb.append('&');  
       }
-      sb.append(k);
-      String v = map.get(k);
+      urlEncode(sb, kv.getKey());
+      String v = kv.getValue();
       if(! StringUtils.isNullOrEmpty(v)) {
         sb.append('=');
-        sb.append(v);
+        urlEncode(sb, v);
       }
     }
     return sb.toString();
   }
   
+  /**
+   * Parses a url encoded query String into a {@link Map}.  Anything up to and including the first {@code ?}
+   * is ignored.  Names and values are decoded, and for names set more then once the last value is used,
+   * see {@link HTTPQuery} to get all of them.
+   * 
+   * @param query the query String to parse.
+   * @return an unmodifiable {@link Map} of the decoded names and values.
+   */
   public static Map<String, String> queryToMap(String query) {
     if (StringUtils.isNullOrEmpty(query)) {
       return Collections.emptyMap();
     }
-    Map<String, String> map = new HashMap<>();
-    if(query.startsWith("?")) {
-      query = query.substring(1);
-    } else if (query.contains("?")){
-      int qpos = query.indexOf("?");
-      query = query.substring(qpos+1);
-    }
-    String[] tmpQ = query.trim().split("&");
-    for(String kv: tmpQ) {
-      String[] tmpkv = kv.split("=");
-      if (tmpkv.length == 0) {
-        // case where either no `=` or empty key string
-        continue;
+    String q = query.trim();
+    int qpos = q.indexOf('?');
+    if(qpos >= 0) {
+      q = q.substring(qpos+1);
+    }
+    return new HTTPQuery(q).toMap();
+  }
+  
+  /**
+   * Appends a url encoded form of the String to the {@link StringBuilder}.  Letters, digits and 
+   * {@code -._~*!'()/:@,;$} are kept as is, spaces become {@code +} and everything else is percent encoded
+   * as UTF-8.
+   * 
+   * @param sb the {@link StringBuilder} to append to.
+   * @param str the String to encode.
+   */
+  public static void urlEncode(final StringBuilder sb, final String str) {
+    for(int i = 0; i < str.length(); i++) {
+      char c = str.charAt(i);
+      if(c < ASCII_LIMIT && URL_SAFE[c]) {
+        sb.append(c);
+      } else if(c == ' ') {
+        sb.append('+');
+      } else if(c < ASCII_LIMIT) {
+        appendEscape(sb, (byte)c);
+      } else {
+        int cp = str.codePointAt(i);
+        if(Character.isSupplementaryCodePoint(cp)) {
+          i++;
+        }
+        for(byte b: new String(Character.toChars(cp)).getBytes(StandardCharsets.UTF_8)) {
+          appendEscape(sb, b);
+        }
+      }
+    }
+  }
+  
+  private static void appendEscape(final StringBuilder sb, final byte b) {
+    sb.append('%');
+    sb.append(HEX_DIGITS[(b >> HEX_BITS) & HEX_MASK]);
+    sb.append(HEX_DIGITS[b & HEX_MASK]);
+  }
+  
+  /**
+   * Checks if the byte is an HTTP whitespace character (space, tab, carriage return or line feed).
+   * 
+   * @param b the byte to check.
+   * @return true if the byte is whitespace, false if not.
+   */
+  public static boolean isWhitespace(final byte b) {
+    return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+  }
+  
+  /**
+   * Finds the absolute index of the next CRLF in the {@link ByteBuffer} between the provided positions.
+   * This does not modify the {@link ByteBuffer}.
+   * 
+   * @param bb the {@link ByteBuffer} to search.
+   * @param start the absolute position to start searching at.
+   * @param end the absolute position to stop searching at (exclusive).
+   * @return the absolute index of the '\r' in the CRLF, or -1 if none was found.
+   */
+  public static int indexOfNewline(final ByteBuffer bb, final int start, final int end) {
+    for(int i = start; i < end - 1; i++) {
+      if(bb.get(i) == '\r' && bb.get(i+1) == '\n') {
+        return i;
       }
-      if(tmpkv.length == 1) {
-        map.put(tmpkv[0].trim(), "");
+    }
+    return -1;
+  }
+  
+  /**
+   * Compares a section of a {@link ByteBuffer} to a String ignoring ASCII case.  This does not create any 
+   * temporary objects and does not modify the {@link ByteBuffer}.
+   * 
+   * @param bb the {@link ByteBuffer} to compare.
+   * @param start the absolute start position in the {@link ByteBuffer}.
+   * @param end the absolute end position in the {@link ByteBuffer} (exclusive).
+   * @param value the ASCII String to compare against.
+   * @return true if the bytes match the String ignoring case, false if not.
+   */
+  public static boolean equalsIgnoreCase(final ByteBuffer bb, final int start, final int end, final String value) {
+    if(end - start != value.length()) {
+      return false;
+    }
+    for(int i = 0; i < value.length(); i++) {
+      byte b = bb.get(start+i);
+      char c = value.charAt(i);
+      if(b != c && ((b | ASCII_CASE_BIT) != (c | ASCII_CASE_BIT) || !Character.isLetter(c))) {
+        return false;
+      }
+    }
+    return true;
+  }
+  
+  /**
+   * Gets the number of bytes {@link #putString(ByteBuffer, String)} will write for the provided String.
+   * 
+   * @param str the String to check.
+   * @return the number of bytes the String encodes to.
+   */
+  public static int encodedLength(final String str) {
+    for(int i = 0; i < str.length(); i++) {
+      if(str.charAt(i) >= ASCII_LIMIT) {
+        return i + str.substring(i).getBytes(StandardCharsets.UTF_8).length;
+      }
+    }
+    return str.length();
+  }
+  
+  /**
+   * Writes a String into a {@link ByteBuffer} without making an intermediate byte[].  ASCII characters are
+   * written directly, anything after the first non ASCII character is written as UTF-8.
+   * 
+   * @param bb the {@link ByteBuffer} to write into.
+   * @param str the String to write.
+   * @throws java.nio.BufferOverflowException if there is not enough room in the {@link ByteBuffer}.
+   */
+  public static void putString(final ByteBuffer bb, final String str) {
+    for(int i = 0; i < str.length(); i++) {
+      char c = str.charAt(i);
+      if(c >= ASCII_LIMIT) {
+        bb.put(str.substring(i).getBytes(StandardCharsets.UTF_8));
+        return;
+      }
+      bb.put((byte)c);
+    }
+  }
+  
+  /**
+   * Moves bytes from the front of one {@link MergedByteBuffers} into a new one without copying them.  Whole
+   * buffers are moved as is and only the last one is sliced, unlike {@link MergedByteBuffers#pullBuffer(int)}
+   * which copies whenever the range crosses the end of a buffer.
+   *
+   * @param mbb the {@link MergedByteBuffers} to take the bytes from.
+   * @param size the number of bytes to take.
+   * @return a {@link MergedByteBuffers} with the bytes in it.
+   */
+  public static MergedByteBuffers pullBuffers(final MergedByteBuffers mbb, final int size) {
+    ReuseableMergedByteBuffers result = new ReuseableMergedByteBuffers(false);
+    int left = size;
+    while(left > 0) {
+      int next = mbb.nextBufferSize();
+      if(next <= left) {
+        result.add(mbb.popBuffer());
+        left -= next;
       } else {
-        map.put(tmpkv[0].trim(), tmpkv[1].trim());
+        result.add(mbb.pullBuffer(left));
+        left = 0;
       }
     }
-    return Collections.unmodifiableMap(map);
+    return result;
+  }
+
+  /**
+   * Creates a String from a section of a {@link ByteBuffer}.  This does not modify the {@link ByteBuffer}.
+   * 
+   * @param bb the {@link ByteBuffer} to read from.
+   * @param start the absolute start position in the {@link ByteBuffer}.
+   * @param end the absolute end position in the {@link ByteBuffer} (exclusive).
+   * @return a String of the bytes between start and end.
+   */
+  public static String bytesToString(final ByteBuffer bb, final int start, final int end) {
+    if(bb.hasArray()) {
+      return new String(bb.array(), bb.arrayOffset()+start, end-start, StandardCharsets.UTF_8);
+    }
+    byte[] ba = new byte[end-start];
+    for(int i = 0; i < ba.length; i++) {
+      ba[i] = bb.get(start+i);
+    }
+    return new String(ba, StandardCharsets.UTF_8);
   }
 }
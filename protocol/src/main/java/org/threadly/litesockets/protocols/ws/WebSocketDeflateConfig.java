@@ -0,0 +1,380 @@
+package org.threadly.litesockets.protocols.ws;
+
+import java.text.ParseException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Settings for the permessage-deflate WebSocket extension (RFC 7692), and the negotiation of it.  One config is
+ * normally shared by every connection of a client or server, it holds the pools of {@link Deflater}s and
+ * {@link Inflater}s and the {@link WebSocketDeflateStats} for all of them.  Each connection that negotiates the
+ * extension gets its own {@link WebSocketDeflater}.
+ *
+ * java.util.zip always compresses with a 15 bit window, so offers that need this side to use a smaller window
+ * are declined.  The window bits settings only limit the window the other side is asked to use.
+ *
+ * The settings should not be changed once the config is in use.
+ *
+ * @author lwahlmeier
+ *
+ */
+public class WebSocketDeflateConfig {
+  public static final String EXTENSION_NAME = "permessage-deflate";
+  public static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+  public static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+  public static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+  public static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+  public static final int MIN_WINDOW_BITS = 8;
+  public static final int MAX_WINDOW_BITS = 15;
+  public static final int DEFAULT_COMPRESSION_THRESHOLD = 128;
+  public static final int DEFAULT_POOL_SIZE = 64;
+
+  private static final String EXTENSION_DELIMITER = ",";
+  private static final String PARAM_DELIMITER = ";";
+  private static final String VALUE_DELIMITER = "=";
+
+  private final WebSocketDeflateStats stats = new WebSocketDeflateStats();
+  private final ArrayBlockingQueue<Deflater> deflaters;
+  private final ArrayBlockingQueue<Inflater> inflaters;
+  private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+  private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+  private long maxInflatedSize = Long.MAX_VALUE;
+  private boolean serverNoContextTakeover = false;
+  private boolean clientNoContextTakeover = false;
+  private int serverMaxWindowBits = MAX_WINDOW_BITS;
+  private int clientMaxWindowBits = MAX_WINDOW_BITS;
+
+  /**
+   * Creates a config with the default pool size.
+   */
+  public WebSocketDeflateConfig() {
+    this(DEFAULT_POOL_SIZE);
+  }
+
+  /**
+   * Creates a config that keeps up to poolSize idle {@link Deflater}s and {@link Inflater}s.
+   *
+   * @param poolSize the number of each to keep.
+   */
+  public WebSocketDeflateConfig(final int poolSize) {
+    deflaters = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+    inflaters = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+  }
+
+  /**
+   * Sets the {@link Deflater} compression level, the default is {@link Deflater#DEFAULT_COMPRESSION}.
+   *
+   * @param compressionLevel the compression level, -1 to 9.
+   * @return this config.
+   */
+  public WebSocketDeflateConfig setCompressionLevel(final int compressionLevel) {
+    if(compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("Bad compression level: "+compressionLevel);
+    }
+    this.compressionLevel = compressionLevel;
+    return this;
+  }
+
+  public int getCompressionLevel() {
+    return compressionLevel;
+  }
+
+  /**
+   * Sets the smallest message that will be compressed, smaller messages are sent as is.  The default is
+   * {@link #DEFAULT_COMPRESSION_THRESHOLD}.
+   *
+   * @param compressionThreshold the size in bytes.
+   * @return this config.
+   */
+  public WebSocketDeflateConfig setCompressionThreshold(final int compressionThreshold) {
+    this.compressionThreshold = compressionThreshold;
+    return this;
+  }
+
+  public int getCompressionThreshold() {
+    return compressionThreshold;
+  }
+
+  /**
+   * Sets the largest size a single received message can inflate to.  The connection owning the
+   * {@link WebSocketDeflater} can lower this to its own message limit.  The default is no limit.
+   *
+   * @param maxInflatedSize the size in bytes.
+   * @return this config.
+   */
+  public WebSocketDeflateConfig setMaxInflatedSize(final long maxInflatedSize) {
+    this.maxInflatedSize = maxInflatedSize;
+    return this;
+  }
+
+  public long getMaxInflatedSize() {
+    return maxInflatedSize;
+  }
+
+  /**
+   * Sets if the server should reset its compression context after each message.  This uses less memory per
+   * connection (nothing is held between messages) but compresses worse.
+   *
+   * @param serverNoContextTakeover true to ask for server_no_context_takeover.
+   * @return this config.
+   */
+  public WebSocketDeflateConfig setServerNoContextTakeover(final boolean serverNoContextTakeover) {
+    this.serverNoContextTakeover = serverNoContextTakeover;
+    return this;
+  }
+
+  public boolean isServerNoContextTakeover() {
+    return serverNoContextTakeover;
+  }
+
+  /**
+   * Sets if the client should reset its compression context after each message.
+   *
+   * @param clientNoContextTakeover true to ask for client_no_context_takeover.
+   * @return this config.
+   */
+  public WebSocketDeflateConfig setClientNoContextTakeover(final boolean clientNoContextTakeover) {
+    this.clientNoContextTakeover = clientNoContextTakeover;
+    return this;
+  }
+
+  public boolean isClientNoContextTakeover() {
+    return clientNoContextTakeover;
+  }
+
+  /**
+   * Sets the window bits a client asks the server to use, this is only used by clients.
+   *
+   * @param serverMaxWindowBits 8 to 15, 15 is the default and is not sent.
+   * @return this config.
+   */
+  public WebSocketDeflateConfig setServerMaxWindowBits(final int serverMaxWindowBits) {
+    this.serverMaxWindowBits = checkWindowBits(serverMaxWindowBits);
+    return this;
+  }
+
+  public int getServerMaxWindowBits() {
+    return serverMaxWindowBits;
+  }
+
+  /**
+   * Sets the window bits a server asks the client to use, this is only used by servers and only if the
+   * client offered client_max_window_bits.
+   *
+   * @param clientMaxWindowBits 8 to 15, 15 is the default and is not sent.
+   * @return this config.
+   */
+  public WebSocketDeflateConfig setClientMaxWindowBits(final int clientMaxWindowBits) {
+    this.clientMaxWindowBits = checkWindowBits(clientMaxWindowBits);
+    return this;
+  }
+
+  public int getClientMaxWindowBits() {
+    return clientMaxWindowBits;
+  }
+
+  /**
+   * Gets the {@link WebSocketDeflateStats} for every connection using this config.
+   *
+   * @return the {@link WebSocketDeflateStats}.
+   */
+  public WebSocketDeflateStats getStats() {
+    return stats;
+  }
+
+  /**
+   * Makes the Sec-WebSocket-Extensions header value for a client to offer permessage-deflate.
+   *
+   * @return the header value.
+   */
+  public String makeOffer() {
+    StringBuilder sb = new StringBuilder(EXTENSION_NAME);
+    if(clientNoContextTakeover) {
+      sb.append(PARAM_DELIMITER).append(' ').append(CLIENT_NO_CONTEXT_TAKEOVER);
+    }
+    if(serverNoContextTakeover) {
+      sb.append(PARAM_DELIMITER).append(' ').append(SERVER_NO_CONTEXT_TAKEOVER);
+    }
+    if(serverMaxWindowBits < MAX_WINDOW_BITS) {
+      sb.append(PARAM_DELIMITER).append(' ').append(SERVER_MAX_WINDOW_BITS)
+        .append(VALUE_DELIMITER).append(serverMaxWindowBits);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Picks the first permessage-deflate offer from a clients Sec-WebSocket-Extensions header that can be
+   * accepted, this is used by servers.
+   *
+   * @param extensions the clients Sec-WebSocket-Extensions header, can be null.
+   * @return a {@link WebSocketDeflater} for the connection, its {@link WebSocketDeflater#getExtensionHeader()}
+   *     must be sent back in the upgrade response.  Null if there was no offer that could be accepted.
+   */
+  public WebSocketDeflater acceptOffer(final String extensions) {
+    if(extensions == null) {
+      return null;
+    }
+    for(String offer: extensions.split(EXTENSION_DELIMITER)) {
+      String[] params = offer.split(PARAM_DELIMITER);
+      if(!params[0].trim().equalsIgnoreCase(EXTENSION_NAME)) {
+        continue;
+      }
+      boolean accept = true;
+      boolean serverNoContext = serverNoContextTakeover;
+      boolean clientNoContext = clientNoContextTakeover;
+      boolean clientWindowOffered = false;
+      int clientWindow = MAX_WINDOW_BITS;
+      Set<String> seen = new HashSet<>();
+      for(int i=1; i<params.length && accept; i++) {
+        final String name = paramName(params[i]);
+        final String value = paramValue(params[i]);
+        accept = seen.add(name);
+        if(name.equals(SERVER_NO_CONTEXT_TAKEOVER) && value == null) {
+          serverNoContext = true;
+        } else if(name.equals(CLIENT_NO_CONTEXT_TAKEOVER) && value == null) {
+          clientNoContext = true;
+        } else if(name.equals(SERVER_MAX_WINDOW_BITS)) {
+          accept = accept && parseWindowBits(value) == MAX_WINDOW_BITS;
+        } else if(name.equals(CLIENT_MAX_WINDOW_BITS)) {
+          clientWindowOffered = true;
+          if(value != null) {
+            clientWindow = parseWindowBits(value);
+            accept = accept && clientWindow > 0;
+          }
+        } else {
+          accept = false;
+        }
+      }
+      if(accept) {
+        StringBuilder sb = new StringBuilder(EXTENSION_NAME);
+        if(serverNoContext) {
+          sb.append(PARAM_DELIMITER).append(' ').append(SERVER_NO_CONTEXT_TAKEOVER);
+        }
+        if(clientNoContext) {
+          sb.append(PARAM_DELIMITER).append(' ').append(CLIENT_NO_CONTEXT_TAKEOVER);
+        }
+        if(clientWindowOffered && Math.min(clientWindow, clientMaxWindowBits) < MAX_WINDOW_BITS) {
+          sb.append(PARAM_DELIMITER).append(' ').append(CLIENT_MAX_WINDOW_BITS)
+            .append(VALUE_DELIMITER).append(Math.min(clientWindow, clientMaxWindowBits));
+        }
+        return new WebSocketDeflater(this, serverNoContext, clientNoContext, sb.toString());
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Checks a servers Sec-WebSocket-Extensions response to {@link #makeOffer()}, this is used by clients.
+   *
+   * @param extensions the servers Sec-WebSocket-Extensions header, can be null.
+   * @return a {@link WebSocketDeflater} for the connection or null if the server did not accept the offer.
+   * @throws ParseException if the response is not valid for the offer, the connection must be failed.
+   */
+  public WebSocketDeflater acceptResponse(final String extensions) throws ParseException {
+    if(extensions == null || extensions.trim().isEmpty()) {
+      return null;
+    }
+    final String[] params = extensions.split(PARAM_DELIMITER);
+    if(extensions.contains(EXTENSION_DELIMITER) || !params[0].trim().equalsIgnoreCase(EXTENSION_NAME)) {
+      throw new ParseException("Extension was not offered: "+extensions, 0);
+    }
+    boolean serverNoContext = false;
+    boolean clientNoContext = clientNoContextTakeover;
+    Set<String> seen = new HashSet<>();
+    for(int i=1; i<params.length; i++) {
+      final String name = paramName(params[i]);
+      final String value = paramValue(params[i]);
+      if(!seen.add(name)) {
+        throw new ParseException("Duplicate extension parameter: "+name, 0);
+      } else if(name.equals(SERVER_NO_CONTEXT_TAKEOVER) && value == null) {
+        serverNoContext = true;
+      } else if(name.equals(CLIENT_NO_CONTEXT_TAKEOVER) && value == null) {
+        clientNoContext = true;
+      } else if(name.equals(SERVER_MAX_WINDOW_BITS)) {
+        final int bits = parseWindowBits(value);
+        if(bits <= 0 || bits > serverMaxWindowBits) {
+          throw new ParseException("Bad "+SERVER_MAX_WINDOW_BITS+": "+value, 0);
+        }
+      } else {
+        // client_max_window_bits is never offered since it could not be honored
+        throw new ParseException("Bad extension parameter: "+params[i].trim(), 0);
+      }
+    }
+    return new WebSocketDeflater(this, clientNoContext, serverNoContext, extensions.trim());
+  }
+
+  Deflater acquireDeflater() {
+    final Deflater d = deflaters.poll();
+    if(d == null) {
+      return new Deflater(compressionLevel, true);
+    }
+    return d;
+  }
+
+  void releaseDeflater(final Deflater d) {
+    d.reset();
+    if(!deflaters.offer(d)) {
+      d.end();
+    }
+  }
+
+  Inflater acquireInflater() {
+    final Inflater i = inflaters.poll();
+    if(i == null) {
+      return new Inflater(true);
+    }
+    return i;
+  }
+
+  void releaseInflater(final Inflater i) {
+    i.reset();
+    if(!inflaters.offer(i)) {
+      i.end();
+    }
+  }
+
+  private static String paramName(final String param) {
+    final int pos = param.indexOf(VALUE_DELIMITER);
+    return (pos < 0 ? param : param.substring(0, pos)).trim().toLowerCase();
+  }
+
+  private static String paramValue(final String param) {
+    final int pos = param.indexOf(VALUE_DELIMITER);
+    if(pos < 0) {
+      return null;
+    }
+    String value = param.substring(pos+1).trim();
+    if(value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+      value = value.substring(1, value.length()-1);
+    }
+    return value;
+  }
+
+  /**
+   * Parses a window bits value, returning -1 if it is missing or not valid.
+   */
+  private static int parseWindowBits(final String value) {
+    if(value == null) {
+      return -1;
+    }
+    try {
+      final int bits = Integer.parseInt(value);
+      if(bits >= MIN_WINDOW_BITS && bits <= MAX_WINDOW_BITS) {
+        return bits;
+      }
+    } catch(NumberFormatException e) {
+      // fall through to invalid
+    }
+    return -1;
+  }
+
+  private static int checkWindowBits(final int bits) {
+    if(bits < MIN_WINDOW_BITS || bits > MAX_WINDOW_BITS) {
+      throw new IllegalArgumentException("Window bits must be between "+MIN_WINDOW_BITS+" and "+MAX_WINDOW_BITS);
+    }
+    return bits;
+  }
+}
@@ -0,0 +1,188 @@
+package org.threadly.litesockets.protocols.ws;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for permessage-deflate, shared by every connection using the same {@link WebSocketDeflateConfig}.
+ *
+ * Time is measured as CPU time of the thread doing the work when the JVM supports it, otherwise as wall
+ * time.
+ *
+ * @author lwahlmeier
+ *
+ */
+public class WebSocketDeflateStats {
+  private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+  private static final boolean CPU_TIME = THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() &&
+      THREAD_MX_BEAN.isThreadCpuTimeEnabled();
+
+  private final LongAdder compressedMessages = new LongAdder();
+  private final LongAdder uncompressedMessages = new LongAdder();
+  private final LongAdder compressBytesIn = new LongAdder();
+  private final LongAdder compressBytesOut = new LongAdder();
+  private final LongAdder compressNanos = new LongAdder();
+  private final LongAdder inflatedMessages = new LongAdder();
+  private final LongAdder inflateBytesIn = new LongAdder();
+  private final LongAdder inflateBytesOut = new LongAdder();
+  private final LongAdder inflateNanos = new LongAdder();
+
+  static long time() {
+    if(CPU_TIME) {
+      return THREAD_MX_BEAN.getCurrentThreadCpuTime();
+    }
+    return System.nanoTime();
+  }
+
+  void compressed(final long bytesIn, final long bytesOut, final long start) {
+    compressedMessages.increment();
+    compressBytesIn.add(bytesIn);
+    compressBytesOut.add(bytesOut);
+    compressNanos.add(time() - start);
+  }
+
+  void uncompressed() {
+    uncompressedMessages.increment();
+  }
+
+  void inflated(final long bytesIn, final long bytesOut, final long start) {
+    inflateBytesIn.add(bytesIn);
+    inflateBytesOut.add(bytesOut);
+    inflateNanos.add(time() - start);
+  }
+
+  void inflatedMessage() {
+    inflatedMessages.increment();
+  }
+
+  /**
+   * Lets you know if the times are CPU time or wall time.
+   *
+   * @return true if the times are CPU time.
+   */
+  public boolean isCpuTime() {
+    return CPU_TIME;
+  }
+
+  /**
+   * Gets the number of messages that were sent compressed.
+   *
+   * @return the number of compressed messages.
+   */
+  public long getCompressedMessages() {
+    return compressedMessages.sum();
+  }
+
+  /**
+   * Gets the number of data messages that were sent uncompressed because they were under the threshold.
+   *
+   * @return the number of uncompressed messages.
+   */
+  public long getUncompressedMessages() {
+    return uncompressedMessages.sum();
+  }
+
+  /**
+   * Gets the number of payload bytes that were compressed.
+   *
+   * @return the bytes before compression.
+   */
+  public long getCompressBytesIn() {
+    return compressBytesIn.sum();
+  }
+
+  /**
+   * Gets the number of bytes the compressed payloads came to.
+   *
+   * @return the bytes after compression.
+   */
+  public long getCompressBytesOut() {
+    return compressBytesOut.sum();
+  }
+
+  /**
+   * Gets the time spent compressing.
+   *
+   * @return the time in nanoseconds.
+   */
+  public long getCompressNanos() {
+    return compressNanos.sum();
+  }
+
+  /**
+   * Gets the compressed size over the uncompressed size of everything compressed, lower is better.
+   *
+   * @return the compression ratio, or 1 if nothing has been compressed.
+   */
+  public double getCompressionRatio() {
+    return ratio(getCompressBytesOut(), getCompressBytesIn());
+  }
+
+  /**
+   * Gets the number of compressed messages that were received.
+   *
+   * @return the number of inflated messages.
+   */
+  public long getInflatedMessages() {
+    return inflatedMessages.sum();
+  }
+
+  /**
+   * Gets the number of compressed payload bytes that were received.
+   *
+   * @return the bytes before inflating.
+   */
+  public long getInflateBytesIn() {
+    return inflateBytesIn.sum();
+  }
+
+  /**
+   * Gets the number of bytes the received payloads inflated to.
+   *
+   * @return the bytes after inflating.
+   */
+  public long getInflateBytesOut() {
+    return inflateBytesOut.sum();
+  }
+
+  /**
+   * Gets the time spent inflating.
+   *
+   * @return the time in nanoseconds.
+   */
+  public long getInflateNanos() {
+    return inflateNanos.sum();
+  }
+
+  /**
+   * Gets the compressed size over the inflated size of everything received, lower is better.
+   *
+   * @return the compression ratio of received messages, or 1 if nothing has been inflated.
+   */
+  public double getInflateRatio() {
+    return ratio(getInflateBytesIn(), getInflateBytesOut());
+  }
+
+  /**
+   * Resets all the counters to 0.
+   */
+  public void reset() {
+    compressedMessages.reset();
+    uncompressedMessages.reset();
+    compressBytesIn.reset();
+    compressBytesOut.reset();
+    compressNanos.reset();
+    inflatedMessages.reset();
+    inflateBytesIn.reset();
+    inflateBytesOut.reset();
+    inflateNanos.reset();
+  }
+
+  private static double ratio(final long part, final long whole) {
+    if(whole == 0) {
+      return 1;
+    }
+    return (double)part / whole;
+  }
+}
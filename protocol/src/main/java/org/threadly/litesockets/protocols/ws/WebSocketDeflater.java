@@ -0,0 +1,311 @@
+package org.threadly.litesockets.protocols.ws;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.threadly.litesockets.buffers.MergedByteBuffers;
+import org.threadly.litesockets.buffers.SimpleMergedByteBuffers;
+import org.threadly.litesockets.protocols.http.shared.HTTPBufferPool;
+import org.threadly.litesockets.protocols.ws.WebSocketFrameParser.WebSocketFrame;
+
+/**
+ * The permessage-deflate state for a single connection, made by {@link WebSocketDeflateConfig#acceptOffer(String)}
+ * or {@link WebSocketDeflateConfig#acceptResponse(String)}.
+ *
+ * When a side uses context takeover its {@link Deflater} or {@link Inflater} is held for the life of the
+ * connection, otherwise one is taken from the configs pool for each message and given back after it.
+ * {@link #close()} must be called once the connection is closed to give back anything still held.
+ *
+ * With compression context takeover every message depends on the ones compressed before it, so calls to
+ * {@link #makeWebSocketFrame(HTTPBufferPool, MergedByteBuffers, byte, boolean, int)} must be done one at a time
+ * and the frames written in the same order (normally by holding the lock on this object while building and
+ * queuing the write), see {@link #isCompressContextTakeover()}.  Without it frames can be built concurrently.
+ *
+ * Inflating is not thread safe and should only be done from the connections read thread.
+ *
+ * @author lwahlmeier
+ *
+ */
+public class WebSocketDeflater {
+  private static final byte RSV1_BIT = 0x40;
+  private static final byte[] TRAILER = new byte[] {0, 0, (byte)0xff, (byte)0xff};
+  private static final int MIN_OUTPUT_SIZE = 64;
+
+  private final WebSocketDeflateConfig config;
+  private final WebSocketDeflateStats stats;
+  private final boolean compressNoContextTakeover;
+  private final boolean inflateNoContextTakeover;
+  private final String extensionHeader;
+  private Deflater deflater;
+  private Inflater inflater;
+  private long maxInflatedSize;
+  private boolean messageCompressed = false;
+  private long inflatedSize = 0;
+  private byte[] inputCopy = new byte[0];
+  private byte[] output;
+  private int outputSize;
+
+  WebSocketDeflater(final WebSocketDeflateConfig config, final boolean compressNoContextTakeover,
+      final boolean inflateNoContextTakeover, final String extensionHeader) {
+    this.config = config;
+    this.stats = config.getStats();
+    this.compressNoContextTakeover = compressNoContextTakeover;
+    this.inflateNoContextTakeover = inflateNoContextTakeover;
+    this.extensionHeader = extensionHeader;
+    this.maxInflatedSize = config.getMaxInflatedSize();
+  }
+
+  /**
+   * Gets the negotiated Sec-WebSocket-Extensions value.  A server must send this back in its upgrade response.
+   *
+   * @return the extension header value.
+   */
+  public String getExtensionHeader() {
+    return extensionHeader;
+  }
+
+  /**
+   * Lets you know if this side keeps its compression context between messages.
+   *
+   * @return true if frames must be built in the order they are written.
+   */
+  public boolean isCompressContextTakeover() {
+    return !compressNoContextTakeover;
+  }
+
+  /**
+   * Lets you know if the other side keeps its compression context between messages.
+   *
+   * @return true if the {@link Inflater} is held between messages.
+   */
+  public boolean isInflateContextTakeover() {
+    return !inflateNoContextTakeover;
+  }
+
+  /**
+   * Sets the largest size a single received message can inflate to, this is only lowered from the configs
+   * {@link WebSocketDeflateConfig#getMaxInflatedSize()}.
+   *
+   * @param maxInflatedSize the size in bytes.
+   */
+  public void setMaxInflatedSize(final long maxInflatedSize) {
+    this.maxInflatedSize = Math.min(maxInflatedSize, config.getMaxInflatedSize());
+  }
+
+  /**
+   * Builds a full WebSocket frame the same as
+   * {@link WebSocketFrameParser#makeWebSocketFrame(HTTPBufferPool, MergedByteBuffers, boolean, byte, boolean, int)}
+   * but compresses Text and Binary payloads that are at least the configs compression threshold, and marks
+   * them with RSV1.  Control frames and small payloads are sent as is.
+   *
+   * @param pool the {@link HTTPBufferPool} to get the buffer from.
+   * @param payload the payload to put in the frame, this is consumed.
+   * @param opCode The opCode to put in this WebSocket.
+   * @param mask true if the payload should be masked, false if not.
+   * @param maskValue the mask to use, ignored if mask is false.
+   * @return a {@link ByteBuffer} from the pool with the full frame in it.
+   */
+  public ByteBuffer makeWebSocketFrame(final HTTPBufferPool pool, final MergedByteBuffers payload,
+      final byte opCode, final boolean mask, final int maskValue) {
+    if(opCode != WebSocketOpCode.Text.getValue() && opCode != WebSocketOpCode.Binary.getValue()) {
+      return WebSocketFrameParser.makeWebSocketFrame(pool, payload, true, opCode, mask, maskValue);
+    }
+    if(payload.remaining() < config.getCompressionThreshold()) {
+      stats.uncompressed();
+      return WebSocketFrameParser.makeWebSocketFrame(pool, payload, true, opCode, mask, maskValue);
+    }
+    return WebSocketFrameParser.makeWebSocketFrame(pool, new SimpleMergedByteBuffers(false, compress(payload)),
+        true, (byte)(opCode | RSV1_BIT), mask, maskValue);
+  }
+
+  /**
+   * Compresses a full message, without the trailing 0x00 0x00 0xff 0xff the extension leaves off.
+   *
+   * @param payload the message to compress, this is consumed.
+   * @return a {@link ByteBuffer} with the compressed message.
+   */
+  public ByteBuffer compress(final MergedByteBuffers payload) {
+    final long start = WebSocketDeflateStats.time();
+    final int size = payload.remaining();
+    final byte[] in;
+    final int offset;
+    if(payload.nextBufferSize() == size && size > 0) {
+      final ByteBuffer bb = payload.popBuffer();
+      if(bb.hasArray()) {
+        in = bb.array();
+        offset = bb.arrayOffset() + bb.position();
+      } else {
+        in = new byte[size];
+        bb.get(in);
+        offset = 0;
+      }
+    } else {
+      in = new byte[size];
+      payload.get(in, 0, size);
+      offset = 0;
+    }
+    final Deflater d = deflater == null ? config.acquireDeflater() : deflater;
+    d.setInput(in, offset, size);
+    byte[] out = new byte[Math.max(MIN_OUTPUT_SIZE, size / 2)];
+    int outSize = 0;
+    while(true) {
+      outSize += d.deflate(out, outSize, out.length - outSize, Deflater.SYNC_FLUSH);
+      if(outSize < out.length) {
+        break;
+      }
+      out = Arrays.copyOf(out, out.length * 2);
+    }
+    if(compressNoContextTakeover) {
+      config.releaseDeflater(d);
+    } else {
+      deflater = d;
+    }
+    outSize -= TRAILER.length;
+    stats.compressed(size, outSize, start);
+    return ByteBuffer.wrap(out, 0, outSize);
+  }
+
+  /**
+   * Inflates a part of a frames payload.  Control frames and frames of messages that were not compressed
+   * are returned as is.  Once all of a frames payload has been passed in {@link #finishFrame(WebSocketFrame)}
+   * must be called.
+   *
+   * @param frame the {@link WebSocketFrame} the payload is from.
+   * @param part the next part of the payload, already unmasked.
+   * @return the inflated data, might be empty.
+   * @throws ParseException if the data is not valid or the message inflates to more then the max size.
+   */
+  public ByteBuffer inflate(final WebSocketFrame frame, final ByteBuffer part) throws ParseException {
+    if(!isCompressed(frame)) {
+      return part;
+    }
+    final long start = WebSocketDeflateStats.time();
+    final int size = part.remaining();
+    outputSize = 0;
+    output = new byte[Math.max(MIN_OUTPUT_SIZE, size * 2)];
+    feed(part);
+    stats.inflated(size, outputSize, start);
+    return ByteBuffer.wrap(output, 0, outputSize);
+  }
+
+  /**
+   * Finishes a frame whose payload was passed to {@link #inflate(WebSocketFrame, ByteBuffer)}.  If it was
+   * the last frame of a compressed message anything the {@link Inflater} was still holding is returned.
+   *
+   * @param frame the {@link WebSocketFrame} that was finished.
+   * @return the last of the inflated data, might be empty.
+   * @throws ParseException if the data is not valid or the message inflates to more then the max size.
+   */
+  public ByteBuffer finishFrame(final WebSocketFrame frame) throws ParseException {
+    if(!isCompressed(frame) || !frame.isFinished()) {
+      return ByteBuffer.allocate(0);
+    }
+    final long start = WebSocketDeflateStats.time();
+    outputSize = 0;
+    output = new byte[MIN_OUTPUT_SIZE];
+    feed(ByteBuffer.wrap(TRAILER));
+    finishMessage();
+    stats.inflated(0, outputSize, start);
+    return ByteBuffer.wrap(output, 0, outputSize);
+  }
+
+  /**
+   * Inflates a full frames payload, the same as calling {@link #inflate(WebSocketFrame, ByteBuffer)}
+   * and then {@link #finishFrame(WebSocketFrame)}.
+   *
+   * @param frame the {@link WebSocketFrame} the payload is from.
+   * @param payload the full payload of the frame, already unmasked.
+   * @return the inflated data.
+   * @throws ParseException if the data is not valid or the message inflates to more then the max size.
+   */
+  public ByteBuffer inflateFrame(final WebSocketFrame frame, final ByteBuffer payload) throws ParseException {
+    if(!isCompressed(frame)) {
+      return payload;
+    }
+    final long start = WebSocketDeflateStats.time();
+    final int size = payload.remaining();
+    outputSize = 0;
+    output = new byte[Math.max(MIN_OUTPUT_SIZE, size * 2)];
+    feed(payload);
+    if(frame.isFinished()) {
+      feed(ByteBuffer.wrap(TRAILER));
+      finishMessage();
+    }
+    stats.inflated(size, outputSize, start);
+    return ByteBuffer.wrap(output, 0, outputSize);
+  }
+
+  /**
+   * Gives back any {@link Deflater} or {@link Inflater} this is holding.  This must be called once the
+   * connection is closed.
+   */
+  public void close() {
+    synchronized(this) {
+      if(deflater != null) {
+        config.releaseDeflater(deflater);
+        deflater = null;
+      }
+    }
+    if(inflater != null) {
+      config.releaseInflater(inflater);
+      inflater = null;
+    }
+  }
+
+  private boolean isCompressed(final WebSocketFrame frame) {
+    final int opCode = frame.getOpCode();
+    if(opCode == WebSocketOpCode.Text.getValue() || opCode == WebSocketOpCode.Binary.getValue()) {
+      messageCompressed = frame.hasRSV1();
+      return messageCompressed;
+    }
+    return opCode == WebSocketOpCode.Continuation.getValue() && messageCompressed;
+  }
+
+  private void finishMessage() {
+    stats.inflatedMessage();
+    messageCompressed = false;
+    inflatedSize = 0;
+    if(inflateNoContextTakeover) {
+      config.releaseInflater(inflater);
+      inflater = null;
+    } else if(inflater.finished()) {
+      inflater.reset();
+    }
+  }
+
+  private void feed(final ByteBuffer bb) throws ParseException {
+    if(inflater == null) {
+      inflater = config.acquireInflater();
+    }
+    final int size = bb.remaining();
+    if(bb.hasArray()) {
+      inflater.setInput(bb.array(), bb.arrayOffset() + bb.position(), size);
+    } else {
+      if(inputCopy.length < size) {
+        inputCopy = new byte[size];
+      }
+      bb.duplicate().get(inputCopy, 0, size);
+      inflater.setInput(inputCopy, 0, size);
+    }
+    try {
+      int read;
+      do {
+        if(outputSize == output.length) {
+          output = Arrays.copyOf(output, output.length * 2);
+        }
+        read = inflater.inflate(output, outputSize, output.length - outputSize);
+        outputSize += read;
+        inflatedSize += read;
+        if(inflatedSize > maxInflatedSize) {
+          throw new ParseException("WebSocket message inflated to more then "+maxInflatedSize, 0);
+        }
+      } while(read > 0);
+    } catch(DataFormatException e) {
+      throw new ParseException("Bad compressed WebSocket data: "+e.getMessage(), 0);
+    }
+  }
+}
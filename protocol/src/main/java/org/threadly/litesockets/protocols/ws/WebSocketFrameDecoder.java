@@ -0,0 +1,240 @@
+package org.threadly.litesockets.protocols.ws;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+import org.threadly.litesockets.buffers.MergedByteBuffers;
+import org.threadly.litesockets.protocols.ws.WebSocketFrameParser.WebSocketFrame;
+
+/**
+ * A stateful decoder for WebSocket frames.  Header bytes are read straight out of the pending
+ * {@link MergedByteBuffers} into a fixed buffer as they arrive, so a header split across reads is picked up
+ * where it left off, and nothing is allocated per frame.
+ *
+ * The payload can either be pulled out by the caller once it has all arrived, or streamed out in parts as it
+ * arrives with {@link #nextPayload(MergedByteBuffers)}, which keeps track of how much of it has been read and
+ * unmasks each part.  Frames bigger then {@link #getMaxFrameSize()} and messages (a data frame and its
+ * continuations) bigger then {@link #getMaxMessageSize()} fail to decode, so the memory used for a connection
+ * can be bounded.  Frames with any of the reserved bits set also fail to decode (RFC 6455 section 5.2), unless
+ * an extension that uses RSV1, like permessage-deflate, was negotiated and {@link #setAllowRSV1(boolean)} is
+ * set.
+ *
+ * The same {@link WebSocketFrame} is returned for every frame and is only valid until the next call to
+ * {@link #decode(MergedByteBuffers)} or {@link #reset()}.  Use {@link WebSocketFrame#copy()} to keep one.
+ *
+ * This is not thread safe, there should be one per connection.
+ *
+ * @author lwahlmeier
+ *
+ */
+public class WebSocketFrameDecoder {
+  private static final int MIN_HEADER_SIZE = 2;
+  private static final int MAX_HEADER_SIZE = 14;
+  private static final int CONTROL_OPCODE_BIT = 0x8;
+
+  private final byte[] header = new byte[MAX_HEADER_SIZE];
+  private final ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+  private final WebSocketFrame frame = new WebSocketFrame(headerBuffer, false);
+  private long maxFrameSize = Long.MAX_VALUE;
+  private long maxMessageSize = Long.MAX_VALUE;
+  private boolean unmaskInPlace = false;
+  private boolean allowRSV1 = false;
+  private int headerRead = 0;
+  private int headerSize = MIN_HEADER_SIZE;
+  private boolean complete = false;
+  private long payloadRead = 0;
+  private long messageSize = 0;
+  private boolean messageFinished = true;
+
+  /**
+   * Sets the largest frame payload that will be decoded.
+   *
+   * @param maxFrameSize the max payload size in bytes.
+   */
+  public void setMaxFrameSize(final long maxFrameSize) {
+    this.maxFrameSize = maxFrameSize;
+  }
+
+  /**
+   * Gets the largest frame payload that will be decoded.  The default is no limit.
+   *
+   * @return the max payload size in bytes.
+   */
+  public long getMaxFrameSize() {
+    return maxFrameSize;
+  }
+
+  /**
+   * Sets the largest total payload of a message, that is a data frame and all of its continuation frames.
+   * Control frames are not counted.
+   *
+   * @param maxMessageSize the max message size in bytes.
+   */
+  public void setMaxMessageSize(final long maxMessageSize) {
+    this.maxMessageSize = maxMessageSize;
+  }
+
+  /**
+   * Gets the largest total payload of a message.  The default is no limit.
+   *
+   * @return the max message size in bytes.
+   */
+  public long getMaxMessageSize() {
+    return maxMessageSize;
+  }
+
+  /**
+   * Sets if {@link #nextPayload(MergedByteBuffers)} should unmask payloads in the buffers they arrived in, see
+   * {@link WebSocketFrameParser#doDataMaskInPlace(ByteBuffer, int, long)}.  Read only buffers are always
+   * copied.  This is off by default.
+   *
+   * @param unmaskInPlace true to unmask payloads in place.
+   */
+  public void setUnmaskInPlace(final boolean unmaskInPlace) {
+    this.unmaskInPlace = unmaskInPlace;
+  }
+
+  /**
+   * Sets if the first frame of a data message can have RSV1 set.  This should only be set once an extension
+   * that uses it has been negotiated, RSV1 on a control frame or a continuation frame still fails to decode.
+   * This is off by default.
+   *
+   * @param allowRSV1 true to allow RSV1 on the first frame of a message.
+   */
+  public void setAllowRSV1(final boolean allowRSV1) {
+    this.allowRSV1 = allowRSV1;
+  }
+
+  /**
+   * Reads as much of the next frame header as is available.  Only header bytes are consumed from the
+   * {@link MergedByteBuffers}, the payload is left in it.  If the last call returned a frame this starts
+   * on the next one.
+   *
+   * @param mbb the pending data, with the next frame header at the front.
+   * @return the decoded {@link WebSocketFrame} or null if the full header has not arrived yet.
+   * @throws ParseException if the frame has reserved bits set that are not allowed, or the frame or the
+   *     message it is part of is over the size limits.
+   */
+  public WebSocketFrame decode(final MergedByteBuffers mbb) throws ParseException {
+    if(complete) {
+      nextFrame();
+    }
+    while(headerRead < headerSize && mbb.remaining() > 0) {
+      final int read = Math.min(headerSize - headerRead, mbb.remaining());
+      mbb.get(header, headerRead, read);
+      headerRead += read;
+      if(headerRead == MIN_HEADER_SIZE) {
+        headerBuffer.limit(MIN_HEADER_SIZE);
+        headerSize = WebSocketFrameParser.getFrameLength(headerBuffer);
+      }
+    }
+    if(headerRead < headerSize) {
+      return null;
+    }
+    headerBuffer.limit(headerSize);
+    checkReservedBits();
+    checkLimits();
+    complete = true;
+    return frame;
+  }
+
+  /**
+   * Takes the next part of the current frames payload that has arrived, unmasked.  Whole buffers are taken
+   * as is when they are all payload, otherwise only a slice is taken, so the data is not copied unless it
+   * has to be unmasked and can not be done in place.
+   *
+   * @param mbb the pending data, with the rest of the current payload at the front.
+   * @return a part of the payload or null if none is available or the payload has all been read.
+   */
+  public ByteBuffer nextPayload(final MergedByteBuffers mbb) {
+    if(!complete || mbb.remaining() == 0 || isPayloadComplete()) {
+      return null;
+    }
+    final long left = frame.getPayloadDataLength() - payloadRead;
+    final int next = mbb.nextBufferSize();
+    ByteBuffer bb;
+    if(next <= left) {
+      bb = mbb.popBuffer();
+    } else {
+      bb = mbb.pullBuffer((int)left);
+    }
+    if(frame.hasMask()) {
+      if(!unmaskInPlace || bb.isReadOnly()) {
+        ByteBuffer nbb = ByteBuffer.allocate(bb.remaining());
+        nbb.put(bb);
+        nbb.flip();
+        bb = nbb;
+      }
+      frame.unmaskPayloadInPlace(bb, payloadRead);
+    }
+    payloadRead += bb.remaining();
+    return bb;
+  }
+
+  /**
+   * Lets you know if all of the current frames payload has been taken with
+   * {@link #nextPayload(MergedByteBuffers)}.
+   *
+   * @return true if there is a current frame and its payload has all been read.
+   */
+  public boolean isPayloadComplete() {
+    return complete && payloadRead == frame.getPayloadDataLength();
+  }
+
+  /**
+   * Gets the last frame returned from {@link #decode(MergedByteBuffers)}.
+   *
+   * @return the current {@link WebSocketFrame} or null if a full header has not been decoded.
+   */
+  public WebSocketFrame getFrame() {
+    return complete ? frame : null;
+  }
+
+  /**
+   * Drops any partly read header, the current frame and any partly read message.
+   */
+  public void reset() {
+    nextFrame();
+    messageSize = 0;
+    messageFinished = true;
+  }
+
+  private void nextFrame() {
+    headerRead = 0;
+    headerSize = MIN_HEADER_SIZE;
+    complete = false;
+    payloadRead = 0;
+    headerBuffer.limit(MAX_HEADER_SIZE);
+  }
+
+  private void checkReservedBits() throws ParseException {
+    if(frame.hasRSV2() || frame.hasRSV3()) {
+      throw new ParseException("WebSocket frame has RSV2 or RSV3 set without an extension for it", 0);
+    }
+    if(frame.hasRSV1()) {
+      final int opCode = frame.getOpCode();
+      if(!allowRSV1) {
+        throw new ParseException("WebSocket frame has RSV1 set without an extension for it", 0);
+      } else if((opCode & CONTROL_OPCODE_BIT) != 0 || opCode == WebSocketOpCode.Continuation.getValue()) {
+        throw new ParseException("WebSocket frame has RSV1 set on a control or continuation frame", 0);
+      }
+    }
+  }
+
+  private void checkLimits() throws ParseException {
+    final long size = frame.getPayloadDataLength();
+    if(size < 0 || size > maxFrameSize) {
+      throw new ParseException("WebSocket frame is to big: "+size, 0);
+    }
+    if((frame.getOpCode() & CONTROL_OPCODE_BIT) == 0) {
+      if(messageFinished) {
+        messageSize = 0;
+      }
+      messageSize += size;
+      messageFinished = frame.isFinished();
+      if(messageSize > maxMessageSize) {
+        throw new ParseException("WebSocket message is to big: "+messageSize, 0);
+      }
+    }
+  }
+}
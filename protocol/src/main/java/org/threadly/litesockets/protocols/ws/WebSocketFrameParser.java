@@ -1,14 +1,17 @@
 package org.threadly.litesockets.protocols.ws;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
 import java.util.Base64;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 import org.threadly.litesockets.buffers.MergedByteBuffers;
 import org.threadly.litesockets.buffers.SimpleMergedByteBuffers;
+import org.threadly.litesockets.protocols.http.shared.HTTPBufferPool;
 
 
 /**
@@ -23,6 +26,7 @@ public class WebSocketFrameParser {
   private static final byte[] MAGIC_UUID_BA = MAGIC_UUID.getBytes();
   private static final int UNSIGN_BYTE_MASK = 0xff;
   private static final int UNSIGNED_SHORT_MASK = 0xffff;
+  private static final long UNSIGNED_INT_MASK = 0xffffffffL;
   private static final int OPCODE_MASK = 0xf;
   private static final int WS_SMALL_LENGTH_MASK = 0x7f;
   private static final int WS_SHORT_SIZE = 126;
@@ -84,7 +88,7 @@ public class WebSocketFrameParser {
    * @throws ParseException this is thrown if there is not enough data to make a {@link WebSocketFrame}. 
    */
   public static WebSocketFrame parseWebSocketFrame(final ByteBuffer bb) throws ParseException {
-    MergedByteBuffers mbb = new SimpleMergedByteBuffers(false, bb);
+    MergedByteBuffers mbb = new SimpleMergedByteBuffers(false, bb.duplicate());
     int origSize = mbb.remaining();
     WebSocketFrame wsf = parseWebSocketFrame(mbb);
     bb.position(bb.position() + origSize - mbb.remaining());
@@ -141,7 +145,8 @@ public class WebSocketFrameParser {
   }
 
   /**
-   * This will mask or unmask data against provided mask.
+   * This will mask or unmask data against provided mask.  The data is copied into a new heap 
+   * {@link ByteBuffer}, see {@link #doDataMaskInPlace(ByteBuffer, int, long)} to avoid the copy.
    * 
    * @param nbb the {@link ByteBuffer} to apply the mask to.
    * @param mask the mask to apply to the ByteBuffer.
@@ -151,18 +156,29 @@ public class WebSocketFrameParser {
     if(mask == 0) {
       return nbb;
     } else {
-      byte[] maskArray = ByteBuffer.allocate(MASK_SIZE).putInt(mask).array();
       ByteBuffer rbb = ByteBuffer.allocate(nbb.remaining());
-      while(nbb.remaining()>=MASK_SIZE) {
-        rbb.putInt(nbb.getInt()^mask);
-      }
-      for(int i=0; nbb.remaining() > 0; i++) {
-        rbb.put((byte)(nbb.get()^maskArray[i%MASK_SIZE]));
-      }
+      rbb.put(nbb);
+      maskRange(rbb, 0, rbb.position(), mask, 0);
       rbb.flip();
       return rbb;
     }
   }
+  
+  /**
+   * Masks or unmasks the remaining data in the {@link ByteBuffer} in place.  The position and limit are not
+   * changed.  A payload can be done in parts as it arrives by passing the offset of each part in the payload,
+   * the mask is lined up to that offset.  The {@link ByteBuffer} must be writable and must not be used 
+   * anywhere else that expects the original data.
+   * 
+   * @param nbb the {@link ByteBuffer} to apply the mask to.
+   * @param mask the mask to apply to the ByteBuffer.
+   * @param payloadOffset the number of payload bytes that came before the data in this {@link ByteBuffer}.
+   */
+  public static void doDataMaskInPlace(final ByteBuffer nbb, final int mask, final long payloadOffset) {
+    if(mask != 0) {
+      maskRange(nbb, nbb.position(), nbb.limit(), mask, payloadOffset);
+    }
+  }
 
 
   
@@ -188,36 +204,140 @@ public class WebSocketFrameParser {
    * @return a {@link WebSocketFrame} object created with the provided params.
    */
   public static WebSocketFrame makeWebSocketFrame(final int size, boolean isFinished, byte opCode, final boolean mask) {
+    ByteBuffer nbb = ByteBuffer.allocate(getFrameHeaderSize(size, mask));
+    putFrameHeader(nbb, size, isFinished, opCode, mask, ThreadLocalRandom.current().nextInt());
+    nbb.flip();
+    return new WebSocketFrame(nbb);
+  }
+  
+  /**
+   * Creates a full WebSocket Frame, header and payload, in a single buffer from the provided 
+   * {@link HTTPBufferPool}.  The payload is consumed from the {@link MergedByteBuffers} and masked with a 
+   * random mask if mask is true.  The returned buffer must be given back with 
+   * {@link HTTPBufferPool#release(ByteBuffer)} once it has been written.
+   * 
+   * @param pool the {@link HTTPBufferPool} to get the buffer from.
+   * @param payload the payload to put in the frame.
+   * @param isFinished true if we should mark this WebSocket Frame as finished false if not.
+   * @param opCode The opCode to put in this WebSocket.
+   * @param mask true if the payload should be masked, false if not.
+   * @return a {@link ByteBuffer} from the pool with the full frame in it.
+   */
+  public static ByteBuffer makeWebSocketFrame(final HTTPBufferPool pool, final MergedByteBuffers payload, 
+      final boolean isFinished, final byte opCode, final boolean mask) {
+    return makeWebSocketFrame(pool, payload, isFinished, opCode, mask, 
+        mask ? ThreadLocalRandom.current().nextInt() : 0);
+  }
 
-    ByteBuffer nbb;
+  /**
+   * Creates a full WebSocket Frame like {@link #makeWebSocketFrame(HTTPBufferPool, MergedByteBuffers, boolean, byte, boolean)}
+   * but with the provided mask, normally from a per connection {@link WebSocketMaskGenerator}.  The payload is 
+   * masked as it is copied into the frame so it is only gone over once.
+   * 
+   * @param pool the {@link HTTPBufferPool} to get the buffer from.
+   * @param payload the payload to put in the frame.
+   * @param isFinished true if we should mark this WebSocket Frame as finished false if not.
+   * @param opCode The opCode to put in this WebSocket.
+   * @param mask true if the payload should be masked, false if not.
+   * @param maskValue the mask to use, ignored if mask is false.
+   * @return a {@link ByteBuffer} from the pool with the full frame in it.
+   */
+  public static ByteBuffer makeWebSocketFrame(final HTTPBufferPool pool, final MergedByteBuffers payload, 
+      final boolean isFinished, final byte opCode, final boolean mask, final int maskValue) {
+    final int size = payload.remaining();
+    final ByteBuffer nbb = pool.acquire(getFrameHeaderSize(size, mask) + size);
+    putFrameHeader(nbb, size, isFinished, opCode, mask, maskValue);
+    long offset = 0;
+    while(payload.remaining() > 0) {
+      final ByteBuffer bb = payload.popBuffer();
+      if(mask) {
+        offset += maskInto(nbb, bb, maskValue, offset);
+      } else {
+        nbb.put(bb);
+      }
+    }
+    nbb.flip();
+    return nbb;
+  }
+  
+  private static int getFrameHeaderSize(final int size, final boolean mask) {
     int maskExtra = mask ? MASK_SIZE : 0;
+    if(size < WS_SHORT_SIZE) {
+      return MIN_WS_FRAME_SIZE+maskExtra;
+    } else if (size <= UNSIGNED_SHORT_MASK) {
+      return MIN_WS_FRAME_SIZE+WS_SHORT_LENGTH+maskExtra;
+    }
+    return MIN_WS_FRAME_SIZE+WS_LONG_LENGTH+maskExtra;
+  }
+  
+  private static void putFrameHeader(final ByteBuffer nbb, final int size, final boolean isFinished, 
+      final byte opCode, final boolean mask, final int maskValue) {
     byte bmask = mask ? (byte)1 : (byte)0;
     byte firstByte = opCode;
     if(isFinished) {
       firstByte = (byte)(firstByte | (1<<STATIC_SEVEN));
     }
     
+    nbb.put(firstByte);
     if(size < WS_SHORT_SIZE) {
-      nbb = ByteBuffer.allocate(MIN_WS_FRAME_SIZE+maskExtra);
-      nbb.put(firstByte);
       nbb.put((byte)(bmask<<STATIC_SEVEN | size));
     } else if (size <= UNSIGNED_SHORT_MASK) {
-      nbb = ByteBuffer.allocate(MIN_WS_FRAME_SIZE+WS_SHORT_LENGTH+maskExtra);
-      nbb.put(firstByte);
       nbb.put((byte)(bmask<<STATIC_SEVEN|WS_SHORT_SIZE));
       nbb.putShort((short)size);
     } else {
-      nbb = ByteBuffer.allocate(MIN_WS_FRAME_SIZE+WS_LONG_LENGTH+maskExtra);
-      nbb.put(firstByte);
       nbb.put((byte)(bmask<<STATIC_SEVEN|WS_LONG_SIZE));
       nbb.putLong(size);
     }
 
     if(mask) {
-      nbb.putInt(RANDOM.nextInt());
+      nbb.putInt(maskValue);
     }
-    nbb.flip();
-    return new WebSocketFrame(nbb);
+  }
+  
+  private static void maskRange(final ByteBuffer bb, final int start, final int end, final int mask, 
+      final long payloadOffset) {
+    final int phase = (int)(payloadOffset & (MASK_SIZE-1));
+    final long lmask = longMask(mask, phase, bb.order());
+    int i = start;
+    for(; i + Long.BYTES <= end; i += Long.BYTES) {
+      bb.putLong(i, bb.getLong(i)^lmask);
+    }
+    for(int m = phase; i < end; i++, m++) {
+      bb.put(i, (byte)(bb.get(i)^maskByte(mask, m)));
+    }
+  }
+
+  private static int maskInto(final ByteBuffer dst, final ByteBuffer src, final int mask, final long payloadOffset) {
+    final int phase = (int)(payloadOffset & (MASK_SIZE-1));
+    final int start = src.position();
+    final int end = src.limit();
+    int s = start;
+    int d = dst.position();
+    if(src.order() == dst.order()) {
+      final long lmask = longMask(mask, phase, src.order());
+      for(; s + Long.BYTES <= end; s += Long.BYTES, d += Long.BYTES) {
+        dst.putLong(d, src.getLong(s)^lmask);
+      }
+    }
+    for(int m = phase + s - start; s < end; s++, d++, m++) {
+      dst.put(d, (byte)(src.get(s)^maskByte(mask, m)));
+    }
+    dst.position(d);
+    src.position(end);
+    return end - start;
+  }
+
+  private static long longMask(final int mask, final int phase, final ByteOrder order) {
+    final int rmask = Integer.rotateLeft(mask, phase*Byte.SIZE);
+    final long lmask = ((long)rmask << Integer.SIZE) | (rmask & UNSIGNED_INT_MASK);
+    if(order != ByteOrder.BIG_ENDIAN) {
+      return Long.reverseBytes(lmask);
+    }
+    return lmask;
+  }
+
+  private static int maskByte(final int mask, final int index) {
+    return mask >>> Byte.SIZE*(MASK_SIZE-1-(index & (MASK_SIZE-1)));
   }
 
   private static byte getSmallLen(final ByteBuffer bb) {
@@ -242,7 +362,9 @@ public class WebSocketFrameParser {
 
   /**
    * WebSocketFrame object.  This is allows you to easily get information about the WebSocketFrame data.
-   * This object is immutable.
+   * Frames from {@link #parseWebSocketFrame(MergedByteBuffers)} are immutable, frames from a 
+   * {@link WebSocketFrameDecoder} are reused for the next frame and should be copied with {@link #copy()} 
+   * if they need to be kept.
    * 
    * 
    * @author lwahlmeier
@@ -250,12 +372,17 @@ public class WebSocketFrameParser {
    */
   public static class WebSocketFrame {
     private final ByteBuffer bb;
-    private final int frameLength;
 
     protected WebSocketFrame(final ByteBuffer bb) {
-      frameLength = getFrameLength(bb);
-      if(frameLength < 0 || bb.remaining() < frameLength) {
-        throw new IllegalStateException("Not enough data to make a WebSocketFrame");
+      this(bb, true);
+    }
+    
+    WebSocketFrame(final ByteBuffer bb, final boolean validate) {
+      if(validate) {
+        final int frameLength = getFrameLength(bb);
+        if(frameLength < 0 || bb.remaining() < frameLength) {
+          throw new IllegalStateException("Not enough data to make a WebSocketFrame");
+        }
       }
       this.bb = bb;
     }
@@ -263,6 +390,21 @@ public class WebSocketFrameParser {
     public ByteBuffer getRawFrame() {
       return bb.duplicate();
     }
+    
+    /**
+     * Makes a copy of this frame that does not share any data with it.  This should be used to keep a frame
+     * from a {@link WebSocketFrameDecoder} past the callback it was passed to.
+     * 
+     * @return a new {@link WebSocketFrame} with the same header.
+     */
+    public WebSocketFrame copy() {
+      ByteBuffer nbb = ByteBuffer.allocate(getFrameLength(bb));
+      ByteBuffer raw = bb.duplicate();
+      raw.limit(raw.position() + nbb.remaining());
+      nbb.put(raw);
+      nbb.flip();
+      return new WebSocketFrame(nbb);
+    }
 
     public boolean isFinished() {
       return ((bb.get(0)&UNSIGN_BYTE_MASK) >> STATIC_SEVEN) == 1;
@@ -325,5 +467,18 @@ public class WebSocketFrameParser {
         return doDataMask(nbb, getMaskValue());
       }
     }
+    
+    /**
+     * Unmasks payload data in place, see {@link WebSocketFrameParser#doDataMaskInPlace(ByteBuffer, int, long)}.
+     * This does nothing if the frame has no mask.
+     * 
+     * @param nbb the payload data to unmask.
+     * @param payloadOffset the number of payload bytes that came before the data in this {@link ByteBuffer}.
+     */
+    public void unmaskPayloadInPlace(final ByteBuffer nbb, final long payloadOffset) {
+      if(hasMask()) {
+        doDataMaskInPlace(nbb, getMaskValue(), payloadOffset);
+      }
+    }
   }
 }
@@ -0,0 +1,55 @@
+package org.threadly.litesockets.protocols.ws;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Makes the masks for WebSocket frames sent on a single connection.  Each connection should have its own so
+ * that threads writing to different connections never touch the same state, and threads writing to the same
+ * connection only need a single atomic add to get a mask (no lock or CAS retry loop like a shared
+ * {@link java.util.Random}).
+ *
+ * Masks are made with SplitMix64 from a randomly seeded counter, this is not a secure random but it is not
+ * predictable without knowing the seed.
+ *
+ * @author lwahlmeier
+ *
+ */
+public class WebSocketMaskGenerator {
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+  private static final long MIX_ONE = 0xbf58476d1ce4e5b9L;
+  private static final long MIX_TWO = 0x94d049bb133111ebL;
+  private static final int SHIFT_ONE = 30;
+  private static final int SHIFT_TWO = 27;
+  private static final int SHIFT_THREE = 31;
+
+  private final AtomicLong seed;
+
+  /**
+   * Creates a generator with a random seed.
+   */
+  public WebSocketMaskGenerator() {
+    this(ThreadLocalRandom.current().nextLong() ^ System.nanoTime());
+  }
+
+  /**
+   * Creates a generator with the provided seed, the same seed will always produce the same masks.
+   *
+   * @param seed the seed to start from.
+   */
+  public WebSocketMaskGenerator(final long seed) {
+    this.seed = new AtomicLong(seed);
+  }
+
+  /**
+   * Gets the next mask.  This is thread safe.
+   *
+   * @return a mask to use for a frame.
+   */
+  public int nextMask() {
+    long z = seed.addAndGet(GOLDEN_GAMMA);
+    z = (z ^ (z >>> SHIFT_ONE)) * MIX_ONE;
+    z = (z ^ (z >>> SHIFT_TWO)) * MIX_TWO;
+    return (int)(z ^ (z >>> SHIFT_THREE));
+  }
+}
@@ -0,0 +1,279 @@
+package org.threadly.litesockets.protocols.ws;
+
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+import org.threadly.litesockets.buffers.MergedByteBuffers;
+import org.threadly.litesockets.buffers.ReuseableMergedByteBuffers;
+import org.threadly.litesockets.protocols.ws.WebSocketFrameParser.WebSocketFrame;
+
+/**
+ * Puts fragmented WebSocket messages back together.  Frame payloads are passed in, already unmasked (and
+ * inflated), either whole with {@link #onFrame(WebSocketFrame, ByteBuffer)} or in parts with
+ * {@link #onPayload(WebSocketFrame, ByteBuffer)} and {@link #onFrameFinished(WebSocketFrame)}, and once the
+ * final frame of a message is done the full message is passed to
+ * {@link WebSocketMessageListener#onMessage(int, MergedByteBuffers)}.  The message is a
+ * {@link MergedByteBuffers} over the buffers that were passed in, so nothing is copied.
+ *
+ * Control frames can come in the middle of a fragmented message, they are passed to
+ * {@link WebSocketMessageListener#onControlFrame(WebSocketFrame, ByteBuffer)} as soon as they are done without
+ * effecting the message being put together.
+ *
+ * Messages bigger then {@link #getMaxMessageSize()} fail.  Messages that grow bigger then
+ * {@link #getStreamThreshold()} stop being buffered, what has been buffered so far and every part after it is
+ * passed to {@link WebSocketMessageListener#onMessagePart(int, ByteBuffer)} as it arrives, followed by
+ * {@link WebSocketMessageListener#onMessageFinished(int)}, so very large messages can be read without holding
+ * them in memory.
+ *
+ * This is not thread safe, there should be one per connection.
+ *
+ * @author lwahlmeier
+ *
+ */
+public class WebSocketMessageAssembler {
+  public static final int MAX_CONTROL_PAYLOAD_SIZE = 125;
+  private static final int CONTROL_OPCODE_BIT = 0x8;
+  private static final int NO_MESSAGE = -1;
+
+  private final WebSocketMessageListener listener;
+  private final ReuseableMergedByteBuffers control = new ReuseableMergedByteBuffers(false);
+  private ReuseableMergedByteBuffers message = new ReuseableMergedByteBuffers(false);
+  private long maxMessageSize = Long.MAX_VALUE;
+  private long streamThreshold = Long.MAX_VALUE;
+  private boolean frameStarted = false;
+  private int messageOpCode = NO_MESSAGE;
+  private long messageSize = 0;
+  private boolean messageStreaming = false;
+
+  /**
+   * Creates a new {@link WebSocketMessageAssembler}.
+   *
+   * @param listener the {@link WebSocketMessageListener} to pass messages and control frames to.
+   */
+  public WebSocketMessageAssembler(final WebSocketMessageListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Sets the largest message that will be accepted, counting the payloads of a data frame and all of its
+   * continuations.  This also applies to streamed messages.
+   *
+   * @param maxMessageSize the max message size in bytes.
+   * @return this {@link WebSocketMessageAssembler}.
+   */
+  public WebSocketMessageAssembler setMaxMessageSize(final long maxMessageSize) {
+    this.maxMessageSize = maxMessageSize;
+    return this;
+  }
+
+  /**
+   * Gets the largest message that will be accepted.  The default is no limit, though messages over
+   * {@link Integer#MAX_VALUE} can only be streamed.
+   *
+   * @return the max message size in bytes.
+   */
+  public long getMaxMessageSize() {
+    return maxMessageSize;
+  }
+
+  /**
+   * Sets the size a message can be buffered to before it is streamed to
+   * {@link WebSocketMessageListener#onMessagePart(int, ByteBuffer)} instead.  Use 0 to stream every message.
+   *
+   * @param streamThreshold the size in bytes.
+   * @return this {@link WebSocketMessageAssembler}.
+   */
+  public WebSocketMessageAssembler setStreamThreshold(final long streamThreshold) {
+    this.streamThreshold = streamThreshold;
+    return this;
+  }
+
+  /**
+   * Gets the size a message can be buffered to before it is streamed.  The default is to never stream.
+   *
+   * @return the size in bytes.
+   */
+  public long getStreamThreshold() {
+    return streamThreshold;
+  }
+
+  /**
+   * Lets you know if a fragmented message has been started and not finished yet.
+   *
+   * @return true if a message is being put together.
+   */
+  public boolean isMessageInProgress() {
+    return messageOpCode != NO_MESSAGE;
+  }
+
+  /**
+   * Passes in a full frame, the same as calling {@link #onPayload(WebSocketFrame, ByteBuffer)} and then
+   * {@link #onFrameFinished(WebSocketFrame)}.
+   *
+   * @param frame the {@link WebSocketFrame} header.
+   * @param payload the full payload of the frame, already unmasked.
+   * @throws ParseException if the frame is not valid where it is in the message or the message is to big.
+   */
+  public void onFrame(final WebSocketFrame frame, final ByteBuffer payload) throws ParseException {
+    onPayload(frame, payload);
+    onFrameFinished(frame);
+  }
+
+  /**
+   * Passes in the next part of a frames payload.  The buffer is held on to and handed back as part of the
+   * message so it must not be changed after this.
+   *
+   * @param frame the {@link WebSocketFrame} header the payload is for.
+   * @param part the next part of the payload, already unmasked.
+   * @throws ParseException if the frame is not valid where it is in the message or the message is to big.
+   */
+  public void onPayload(final WebSocketFrame frame, final ByteBuffer part) throws ParseException {
+    startFrame(frame);
+    if(!part.hasRemaining()) {
+      return;
+    }
+    if(isControl(frame)) {
+      control.add(part);
+      if(control.remaining() > MAX_CONTROL_PAYLOAD_SIZE) {
+        throw new ParseException("WebSocket control frame is to big: "+control.remaining(), 0);
+      }
+      return;
+    }
+    messageSize += part.remaining();
+    if(messageSize > maxMessageSize) {
+      throw new ParseException("WebSocket message is to big: "+messageSize, 0);
+    }
+    if(messageStreaming) {
+      listener.onMessagePart(messageOpCode, part);
+      return;
+    }
+    message.add(part);
+    if(messageSize > streamThreshold) {
+      messageStreaming = true;
+      while(message.remaining() > 0) {
+        listener.onMessagePart(messageOpCode, message.popBuffer());
+      }
+    } else if(messageSize > Integer.MAX_VALUE) {
+      throw new ParseException("WebSocket message is to big to buffer: "+messageSize, 0);
+    }
+  }
+
+  /**
+   * Finishes a frame whose payload was passed to {@link #onPayload(WebSocketFrame, ByteBuffer)}.  If this was
+   * a control frame or the final frame of a message it is passed to the {@link WebSocketMessageListener}.
+   *
+   * @param frame the {@link WebSocketFrame} that was finished.
+   * @throws ParseException if the frame is not valid where it is in the message.
+   */
+  public void onFrameFinished(final WebSocketFrame frame) throws ParseException {
+    startFrame(frame);
+    frameStarted = false;
+    if(isControl(frame)) {
+      final ByteBuffer payload = control.remaining() == 0 ? ByteBuffer.allocate(0) : control.pullBuffer(control.remaining());
+      listener.onControlFrame(frame, payload);
+      return;
+    }
+    if(!frame.isFinished()) {
+      return;
+    }
+    final int opCode = messageOpCode;
+    final boolean streamed = messageStreaming;
+    final MergedByteBuffers done = message;
+    message = new ReuseableMergedByteBuffers(false);
+    finishMessage();
+    if(streamed) {
+      listener.onMessageFinished(opCode);
+    } else {
+      listener.onMessage(opCode, done);
+    }
+  }
+
+  /**
+   * Drops any partly received message or control frame.
+   */
+  public void reset() {
+    control.discard(control.remaining());
+    message.discard(message.remaining());
+    frameStarted = false;
+    finishMessage();
+  }
+
+  private void finishMessage() {
+    messageOpCode = NO_MESSAGE;
+    messageSize = 0;
+    messageStreaming = false;
+  }
+
+  private void startFrame(final WebSocketFrame frame) throws ParseException {
+    if(frameStarted) {
+      return;
+    }
+    frameStarted = true;
+    final int opCode = frame.getOpCode();
+    if(isControl(frame)) {
+      if(!frame.isFinished()) {
+        throw new ParseException("WebSocket control frames can not be fragmented", 0);
+      }
+    } else if(opCode == WebSocketOpCode.Continuation.getValue()) {
+      if(messageOpCode == NO_MESSAGE) {
+        throw new ParseException("WebSocket continuation frame without a message to continue", 0);
+      }
+    } else {
+      if(messageOpCode != NO_MESSAGE) {
+        throw new ParseException("WebSocket message started before the last one finished", 0);
+      }
+      messageOpCode = opCode;
+    }
+  }
+
+  private static boolean isControl(final WebSocketFrame frame) {
+    return (frame.getOpCode() & CONTROL_OPCODE_BIT) != 0;
+  }
+
+  /**
+   * The callback for a {@link WebSocketMessageAssembler}.
+   *
+   * @author lwahlmeier
+   *
+   */
+  public interface WebSocketMessageListener {
+    /**
+     * Called with each full message that was not streamed.
+     *
+     * @param opCode the opCode of the first frame of the message, ie Text or Binary.
+     * @param message the full payload of the message, made up of the buffers that were received.
+     */
+    public void onMessage(int opCode, MergedByteBuffers message);
+
+    /**
+     * Called with each control frame (Ping, Pong, Close) once its payload has arrived.
+     *
+     * @param frame the {@link WebSocketFrame} header, this is reused for the next frame so use
+     *     {@link WebSocketFrame#copy()} to keep it.
+     * @param payload the payload of the frame, might be empty, but never null.
+     */
+    default void onControlFrame(WebSocketFrame frame, ByteBuffer payload) {
+      // ignored by default
+    }
+
+    /**
+     * Called with each part of a message that went over {@link WebSocketMessageAssembler#getStreamThreshold()}.
+     * This must be implemented if a threshold is set or those messages are lost.
+     *
+     * @param opCode the opCode of the first frame of the message, ie Text or Binary.
+     * @param part the next part of the message.
+     */
+    default void onMessagePart(int opCode, ByteBuffer part) {
+      // ignored by default
+    }
+
+    /**
+     * Called once every part of a streamed message has been passed to {@link #onMessagePart(int, ByteBuffer)}.
+     *
+     * @param opCode the opCode of the first frame of the message, ie Text or Binary.
+     */
+    default void onMessageFinished(int opCode) {
+      // ignored by default
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package org.threadly.litesockets.protocols.http;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.threadly.litesockets.protocols.http.request.HTTPRequest;
+import org.threadly.litesockets.protocols.http.request.HTTPRequestBuilder;
+import org.threadly.litesockets.protocols.http.request.HTTPRequestProcessor.HTTPRequestCallback;
+import org.threadly.litesockets.protocols.http.shared.CallbackDispatcher;
+import org.threadly.util.ExceptionUtils;
+
+public class CallbackDispatcherTests {
+  @Test
+  public void singleListenerGetsSameBuffer() {
+    CallbackDispatcher<HTTPRequestCallback> cd = new CallbackDispatcher<>();
+    RequestTests.HTTPCB cb = new RequestTests.HTTPCB();
+    cd.addListener(cb);
+    ByteBuffer bb = ByteBuffer.wrap(RequestTests.DATA_BA);
+    cd.callWithBuffer(HTTPRequestCallback::bodyData, bb);
+    assertSame(bb, cb.bbs.get(0));
+  }
+
+  @Test
+  public void multipleListenersGetDuplicates() {
+    CallbackDispatcher<HTTPRequestCallback> cd = new CallbackDispatcher<>();
+    RequestTests.HTTPCB cb1 = new RequestTests.HTTPCB();
+    RequestTests.HTTPCB cb2 = new RequestTests.HTTPCB();
+    cd.addListener(cb1);
+    cd.addListener(cb2);
+    assertEquals(2, cd.registeredListenerCount());
+    ByteBuffer bb = ByteBuffer.wrap(RequestTests.DATA_BA);
+    cd.callWithBuffer(HTTPRequestCallback::bodyData, bb);
+    assertNotSame(bb, cb1.bbs.get(0));
+    assertNotSame(cb1.bbs.get(0), cb2.bbs.get(0));
+    cb1.bbs.get(0).get();
+    assertEquals(RequestTests.DATA_BA.length, cb2.bbs.get(0).remaining());
+
+    HTTPRequest hr = new HTTPRequestBuilder().build();
+    cd.call(HTTPRequestCallback::headersFinished, hr);
+    assertSame(hr, cb1.request);
+    assertSame(hr, cb2.request);
+    assertTrue(cd.removeListener(cb1));
+    assertFalse(cd.removeListener(cb1));
+    cd.call(HTTPRequestCallback::finished);
+    assertEquals(0, cb1.finishedCalls);
+    assertEquals(1, cb2.finishedCalls);
+  }
+
+  @Test
+  public void listenerExceptionDoesNotStopOthers() {
+    CallbackDispatcher<Runnable> cd = new CallbackDispatcher<>();
+    final List<Integer> calls = new ArrayList<>();
+    final List<Throwable> handled = new ArrayList<>();
+    final RuntimeException expected = new RuntimeException("expected");
+    cd.addListener(() -> { throw expected; });
+    cd.addListener(() -> calls.add(1));
+    ExceptionUtils.setThreadExceptionHandler(handled::add);
+    try {
+      cd.call(Runnable::run);
+    } finally {
+      ExceptionUtils.setThreadExceptionHandler(null);
+    }
+    assertEquals(1, calls.size());
+    assertEquals(1, handled.size());
+    assertSame(expected, handled.get(0));
+  }
+}
@@ -2,21 +2,169 @@ package org.threadly.litesockets.protocols.http;
 
 import static org.junit.Assert.*;
 
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Random;
 
 import org.junit.Test;
 import org.threadly.litesockets.protocols.http.request.HTTPRequestHeader;
+import org.threadly.litesockets.protocols.http.response.HTTPResponse;
+import org.threadly.litesockets.protocols.http.response.HTTPResponseBuilder;
+import org.threadly.litesockets.protocols.http.shared.DirectHTTPBufferPool;
 import org.threadly.litesockets.protocols.http.shared.HTTPConstants;
+import org.threadly.litesockets.protocols.http.shared.HTTPDate;
+import org.threadly.litesockets.protocols.http.shared.HTTPFormDecoder;
+import org.threadly.litesockets.protocols.http.shared.HTTPHeaderStore;
+import org.threadly.litesockets.protocols.http.shared.HTTPHeaderValueCache;
 import org.threadly.litesockets.protocols.http.shared.HTTPHeaders;
+import org.threadly.litesockets.protocols.http.shared.HTTPParsingException;
+import org.threadly.litesockets.protocols.http.shared.HTTPQuery;
 import org.threadly.litesockets.protocols.http.shared.HTTPUtils;
 import org.threadly.litesockets.protocols.http.shared.HTTPRequestType;
 
 public class HTTPUtilsTests {
   
+  @Test
+  public void httpDateFormatAndParse() {
+    DateTimeFormatter dtf = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+    Random rnd = new Random(1);
+    for(int i=0; i<10000; i++) {
+      long millis = (rnd.nextLong() & Long.MAX_VALUE) % 253402300799000L;
+      long seconds = millis - (millis % 1000);
+      String date = HTTPDate.formatDate(millis);
+      assertEquals(dtf.format(Instant.ofEpochMilli(millis)), date);
+      assertEquals(seconds, HTTPDate.parseDate(date));
+    }
+    assertEquals(784111777000L, HTTPDate.parseDate("Sun, 06 Nov 1994 08:49:37 GMT"));
+    assertEquals(784111777000L, HTTPDate.parseDate("Sunday, 06-Nov-94 08:49:37 GMT"));
+    assertEquals(784111777000L, HTTPDate.parseDate("Sun Nov  6 08:49:37 1994"));
+    assertEquals(-1, HTTPDate.parseDate("Sun, 06 Nox 1994 08:49:37 GMT"));
+    assertEquals(-1, HTTPDate.parseDate("Sun, 06 Nov 1994 08:49:37 PST"));
+    assertEquals(-1, HTTPDate.parseDate("garbage"));
+    assertEquals(-1, HTTPDate.parseDate(null));
+  }
+  
+  @Test
+  public void httpDateCurrent() {
+    long now = System.currentTimeMillis();
+    long parsed = HTTPDate.parseDate(HTTPDate.getCurrentDate());
+    assertTrue(Math.abs(now - parsed) < 5000);
+    assertEquals(HTTPDate.getCurrentDate(), new String(HTTPDate.getCurrentDateBytes()));
+    HTTPResponse hr = new HTTPResponseBuilder().setAddDateHeader(true).build();
+    assertTrue(HTTPDate.parseDate(hr.getHeaders().getHeader(HTTPConstants.HTTP_KEY_DATE)) > 0);
+    assertNull(new HTTPResponseBuilder().build().getHeaders().getHeader(HTTPConstants.HTTP_KEY_DATE));
+  }
+  
+  @Test
+  public void queryDecoding() {
+    HTTPQuery q = new HTTPQuery("a=1&b=hello+world&a=2&c&&d=%E2%82%AC%20x&e=50%&f=%zz&=skip&g=x=y");
+    assertEquals(8, q.size());
+    assertEquals("2", q.get("a"));
+    assertEquals(Arrays.asList("1", "2"), q.getAll("a"));
+    assertEquals("hello world", q.get("b"));
+    assertEquals("", q.get("c"));
+    assertEquals("\u20ac x", q.get("d"));
+    assertEquals("50%", q.get("e"));
+    assertEquals("%zz", q.get("f"));
+    assertEquals("x=y", q.get("g"));
+    assertNull(q.get("missing"));
+    assertTrue(q.getAll("missing").isEmpty());
+    assertEquals("a", q.getName(0));
+    assertEquals("1", q.getValue(0));
+    assertEquals(Arrays.asList("a", "b", "c", "d", "e", "f", "g"), new ArrayList<>(q.toMap().keySet()));
+
+    HTTPQuery bq = new HTTPQuery(ByteBuffer.wrap("/p?a=1&b=hello+world&a=2".getBytes()), 3, 24);
+    assertEquals(Arrays.asList("1", "2"), bq.getAll("a"));
+    assertEquals("hello world", bq.get("b"));
+
+    String nested = "GET /p?next=/a?b=1&c=2 HTTP/1.1";
+    HTTPRequestHeader sh = new HTTPRequestHeader(nested);
+    HTTPRequestHeader bh = new HTTPRequestHeader(ByteBuffer.wrap(nested.getBytes()));
+    assertEquals("/a?b=1", sh.getRequestQuery().get("next"));
+    assertEquals(sh.getRequestQuery(), bh.getRequestQuery());
+
+    Map<String, String> map = new LinkedHashMap<>();
+    map.put("k y", "v&=+%\u20ac");
+    map.put("path", "/a/b:c");
+    String encoded = HTTPUtils.queryToString(map);
+    assertEquals("?k+y=v%26%3D%2B%25%E2%82%AC&path=/a/b:c", encoded);
+    assertEquals(map, HTTPUtils.queryToMap(encoded));
+  }
+  
+  @Test
+  public void formDecoderSplitInput() throws HTTPParsingException {
+    String body = "name=J%C3%B6rg+M&list=1&list=2&empty=&flag&pct=%41%4";
+    final List<String> whole = new ArrayList<>();
+    HTTPFormDecoder decoder = new HTTPFormDecoder((k, v) -> { whole.add(k); whole.add(v); });
+    decoder.process(ByteBuffer.wrap(body.getBytes()));
+    decoder.finish();
+    assertEquals(Arrays.asList("name", "J\u00f6rg M", "list", "1", "list", "2", "empty", "", "flag", "", "pct", "A%4"), whole);
+    byte[] ba = body.getBytes();
+    for(int split=1; split<ba.length; split++) {
+      final List<String> parts = new ArrayList<>();
+      decoder = new HTTPFormDecoder((k, v) -> { parts.add(k); parts.add(v); });
+      for(int i=0; i<ba.length; i+=split) {
+        decoder.process(ByteBuffer.wrap(ba, i, Math.min(split, ba.length-i)));
+      }
+      decoder.finish();
+      assertEquals(whole, parts);
+    }
+    decoder = new HTTPFormDecoder((k, v) -> {}, 4);
+    decoder.process(ByteBuffer.wrap("abcd=".getBytes()));
+    try {
+      decoder.process(ByteBuffer.wrap("12345".getBytes()));
+      fail();
+    } catch(HTTPParsingException e) {
+      //expected
+    }
+  }
+  
+  @Test
+  public void requestHeaderLazyQuery() {
+    HTTPRequestHeader hrh = new HTTPRequestHeader(ByteBuffer.wrap("GET /test?a=1&a=2&b=x+y HTTP/1.1".getBytes()));
+    assertEquals(Arrays.asList("1", "2"), hrh.getQuery().getAll("a"));
+    assertEquals("2", hrh.getRequestQuery().get("a"));
+    assertEquals("x y", hrh.getRequestQuery().get("b"));
+    assertSame(HTTPQuery.EMPTY, new HTTPRequestHeader(ByteBuffer.wrap("GET /test HTTP/1.1".getBytes())).getQuery());
+  }
+
+  @Test
+  public void headerValueCache() {
+    HTTPHeaderValueCache.clear();
+    char[] cookie = new char[HTTPHeaderValueCache.getMaxValueLength()+1];
+    Arrays.fill(cookie, 'x');
+    byte[] block = ("User-Agent: litesockets-test/1.0\r\nCookie: "+new String(cookie)+"\r\n").getBytes();
+    // a value has to be seen twice before it is cached
+    new HTTPHeaders(ByteBuffer.wrap(block)).getHeader("User-Agent");
+    String cached = new HTTPHeaders(ByteBuffer.wrap(block)).getHeader("User-Agent");
+    long hits = HTTPHeaderValueCache.getHits();
+    String again = new HTTPHeaders(ByteBuffer.wrap(block)).getHeader("User-Agent");
+    assertEquals("litesockets-test/1.0", again);
+    assertSame(cached, again);
+    assertTrue(HTTPHeaderValueCache.getHits() > hits);
+    assertTrue(HTTPHeaderValueCache.getHitRate() > 0);
+    assertNotSame(new HTTPHeaders(ByteBuffer.wrap(block)).getHeader("Cookie"), new HTTPHeaders(ByteBuffer.wrap(block)).getHeader("Cookie"));
+
+    HTTPHeaderValueCache.setEnabled(false);
+    try {
+      assertNotSame(cached, new HTTPHeaders(ByteBuffer.wrap(block)).getHeader("User-Agent"));
+      assertEquals(cached, new HTTPHeaders(ByteBuffer.wrap(block)).getHeader("User-Agent"));
+    } finally {
+      HTTPHeaderValueCache.setEnabled(true);
+    }
+  }
+  
   @Test
   public void queryTest1() {
     String query1 = "?test=test1&343=334&q&5&4&blah=wewew";
@@ -133,6 +281,88 @@ public class HTTPUtilsTests {
     assertEquals(-1, hh1.getContentLength());
   }
   
+  @Test
+  public void HTTPHeadersFromBytesTest() {
+    HTTPHeaders hh1 = new HTTPHeaders(HTTPConstants.DEFAULT_HEADERS_MAP);
+    HTTPHeaders hh2 = new HTTPHeaders(ByteBuffer.wrap(hh1.toString().getBytes()));
+    assertEquals("*/*", hh2.getHeader("accept"));
+    assertNull(hh2.getHeader(HTTPConstants.HTTP_KEY_CONTENT_LENGTH));
+    assertFalse(hh2.isChunked());
+    assertEquals(-1, hh2.getContentLength());
+    assertEquals(hh1, hh2);
+    assertEquals(hh1.hashCode(), hh2.hashCode());
+    assertEquals(hh1.toString(), hh2.toString());
+    
+    hh2 = new HTTPHeaders(ByteBuffer.wrap("Content-Length:  1234 \r\nTRANSFER-ENCODING: chunked\r\nX-Dup: 1\r\nx-dup: 2\r\n".getBytes()));
+    assertEquals(1234, hh2.getContentLength());
+    assertTrue(hh2.isChunked());
+    assertEquals("2", hh2.getHeader("X-Dup"));
+    assertEquals(3, hh2.getHeadersMap().size());
+    assertEquals("2", hh2.getHeadersMap().get("X-Dup"));
+    
+    hh2 = new HTTPHeaders(ByteBuffer.wrap("Content-Length: 12a\r\n".getBytes()));
+    assertEquals(-1, hh2.getContentLength());
+  }
+  
+  @Test
+  public void HTTPHeaderStoreTest() {
+    HTTPHeaderStore hs = new HTTPHeaderStore(1);
+    hs.add("Set-Cookie", "a=1").add(HTTPConstants.HTTP_KEY_HOST, "test.com").add("set-cookie", "b=2");
+    for(int i=0; i<20; i++) {
+      hs.add("X-Header-"+i, Integer.toString(i));
+    }
+    assertEquals(23, hs.size());
+    assertEquals("b=2", hs.get("SET-COOKIE"));
+    assertEquals(Arrays.asList("a=1", "b=2"), hs.getAll("Set-Cookie"));
+    assertEquals("test.com", hs.get("host"));
+    assertEquals("test.com", hs.get(HTTPConstants.HTTP_KEY_HOST));
+    assertEquals("19", hs.get("x-header-19"));
+    assertNull(hs.get(HTTPConstants.HTTP_KEY_CONTENT_LENGTH));
+    
+    hs.set("Set-Cookie", "c=3");
+    assertEquals(Arrays.asList("c=3"), hs.getAll("set-cookie"));
+    assertEquals(HTTPConstants.HTTP_KEY_HOST, hs.getName(0));
+    assertEquals("set-cookie", hs.getName(1));
+    assertEquals("c=3", hs.getValue(1));
+    hs.remove("HOST");
+    assertFalse(hs.contains(HTTPConstants.HTTP_KEY_HOST));
+    assertEquals(21, hs.size());
+    assertEquals("0", hs.get("X-Header-0"));
+    
+    HTTPHeaders hh = new HTTPHeaders(hs.toString());
+    assertEquals(Arrays.asList("c=3"), hh.getHeaders("set-cookie"));
+    assertEquals(hh, new HTTPHeaders(hs));
+    assertEquals(hh.hashCode(), new HTTPHeaders(hs).hashCode());
+  }
+  
+  @Test
+  public void HTTPHeaderStoreNonASCIICase() {
+    // the kelvin sign and accented letters are equal ignoring case to their plain counterparts
+    HTTPHeaderStore hs = new HTTPHeaderStore();
+    hs.add("X-Key", "1").add("X-\u00C9t\u00C9", "2");
+    assertEquals("1", hs.get("x-\u212Aey"));
+    assertEquals("2", hs.get("x-\u00E9t\u00E9"));
+    assertEquals(HTTPHeaderStore.hashName("X-Key"), HTTPHeaderStore.hashName("x-\u212Aey"));
+    
+    HTTPHeaderStore hs2 = new HTTPHeaderStore();
+    hs2.add("x-\u212Aey", "1").add("x-\u00E9t\u00E9", "2");
+    assertEquals(new HTTPHeaders(hs), new HTTPHeaders(hs2));
+    assertEquals(new HTTPHeaders(hs).hashCode(), new HTTPHeaders(hs2).hashCode());
+  }
+  
+  @Test
+  public void builderMultiValueHeaders() {
+    HTTPResponseBuilder hrb = new HTTPResponseBuilder();
+    HTTPResponse hr1 = hrb.addHeader("Set-Cookie", "a=1").addHeader("Set-Cookie", "b=2").build();
+    HTTPResponse hr2 = hrb.setHeader("Set-Cookie", "c=3").build();
+    assertEquals(Arrays.asList("a=1", "b=2"), hr1.getHeaders().getHeaders("set-cookie"));
+    assertEquals(Arrays.asList("c=3"), hr2.getHeaders().getHeaders("set-cookie"));
+    assertTrue(hr1.toString().contains("Set-Cookie: a=1\r\nSet-Cookie: b=2\r\n"));
+    
+    HTTPHeaders parsed = new HTTPHeaders(ByteBuffer.wrap(hr1.getHeaders().toString().getBytes()));
+    assertEquals(Arrays.asList("a=1", "b=2"), parsed.getHeaders("Set-Cookie"));
+  }
+  
   @Test
   public void HTTPRequestHeaderTest1() {
     String req = "GET / HTTP/1.1";
@@ -212,4 +442,62 @@ public class HTTPUtilsTests {
   public void HTTPRequestHeaderTest6() {
     new HTTPRequestHeader(HTTPRequestType.DELETE, "/ds/sds/ds/", new HashMap<String, String>(), "HTTP/1.2");
   }
+  
+  @Test
+  public void directBufferPool() {
+    DirectHTTPBufferPool pool = new DirectHTTPBufferPool(1024, 2, 1);
+    pool.setLeakDetection(true);
+    ByteBuffer bb = pool.acquire(100);
+    assertTrue(bb.isDirect());
+    assertEquals(0, bb.position());
+    assertEquals(100, bb.limit());
+    assertEquals(128, bb.capacity());
+    assertEquals(0, pool.getHits());
+    assertEquals(1, pool.getMisses());
+    assertEquals(1, pool.getOutstanding());
+    bb.put((byte)1).limit(50);
+    pool.release(bb);
+    assertEquals(0, pool.getOutstanding());
+    
+    ByteBuffer bb2 = pool.acquire(128);
+    assertSame(bb, bb2);
+    assertEquals(0, bb2.position());
+    assertEquals(128, bb2.limit());
+    assertEquals(1, pool.getHits());
+    
+    ByteBuffer big = pool.acquire(2000);
+    assertFalse(big.isDirect());
+    assertEquals(2000, big.capacity());
+    assertEquals(2, pool.getMisses());
+    assertEquals(2, pool.getOutstanding());
+    pool.release(big);
+    
+    List<Throwable> leaks = pool.getLeaks();
+    assertEquals(1, leaks.size());
+    assertTrue(leaks.get(0).getStackTrace()[1].getMethodName().equals("directBufferPool"));
+    pool.release(bb2);
+    assertTrue(pool.getLeaks().isEmpty());
+    try {
+      pool.release(bb2);
+      fail();
+    } catch(IllegalStateException e) {
+      // expected
+    }
+    
+    // thread cache holds 2 and the shared cache 1, the 4th is dropped
+    ByteBuffer[] bbs = new ByteBuffer[4];
+    for(int i=0; i<bbs.length; i++) {
+      bbs[i] = pool.acquire(64);
+    }
+    for(ByteBuffer b: bbs) {
+      pool.release(b);
+    }
+    pool.resetStats();
+    for(int i=0; i<bbs.length; i++) {
+      bbs[i] = pool.acquire(64);
+    }
+    assertEquals(3, pool.getHits());
+    assertEquals(1, pool.getMisses());
+    assertEquals(4, pool.getLeaks().size());
+  }
 }
@@ -5,19 +5,33 @@ import static org.junit.Assert.*;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.ByteBuffer;
+import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.threadly.litesockets.buffers.MergedByteBuffers;
+import org.threadly.litesockets.buffers.ReuseableMergedByteBuffers;
 import org.threadly.litesockets.protocols.http.request.HTTPRequest;
 import org.threadly.litesockets.protocols.http.request.HTTPRequestBuilder;
+import org.threadly.litesockets.protocols.http.request.HTTPRequestHeader;
 import org.threadly.litesockets.protocols.http.request.HTTPRequestProcessor;
 import org.threadly.litesockets.protocols.http.request.HTTPRequestProcessor.HTTPRequestCallback;
+import org.threadly.litesockets.protocols.http.request.HTTPRequestProcessor.RequestLineControl;
+import org.threadly.litesockets.protocols.http.response.HTTPResponseBuilder;
+import org.threadly.litesockets.protocols.http.shared.DirectHTTPBufferPool;
+import org.threadly.litesockets.protocols.http.shared.HTTPChunkedEncoder;
 import org.threadly.litesockets.protocols.http.shared.HTTPConstants;
 import org.threadly.litesockets.protocols.http.shared.HTTPParsingException;
+import org.threadly.litesockets.protocols.http.shared.HTTPResponseCode;
 import org.threadly.litesockets.protocols.http.shared.HTTPUtils;
+import org.threadly.litesockets.protocols.ws.WebSocketDeflateConfig;
+import org.threadly.litesockets.protocols.ws.WebSocketDeflater;
+import org.threadly.litesockets.protocols.ws.WebSocketFrameParser;
 import org.threadly.litesockets.protocols.ws.WebSocketFrameParser.WebSocketFrame;
+import org.threadly.litesockets.protocols.ws.WebSocketOpCode;
 import org.threadly.litesockets.protocols.http.shared.HTTPRequestType;
 
 public class RequestTests {
@@ -238,6 +252,74 @@ public class RequestTests {
     assertTrue(cb.finished);
   }
   
+  @Test
+  public void parsingChunkedExtensionsAndTrailers() throws MalformedURLException {
+    hrb.setHeader(HTTPConstants.HTTP_KEY_TRANSFER_ENCODING, "chunked");
+    hrp.addHTTPRequestCallback(cb);
+    hrp.processData(hrb.build().getByteBuffer());
+    hrp.processData("A;name=value\r\n12345".getBytes());
+    assertEquals(1, cb.bbs.size());
+    assertEquals("12345", bbToString(cb.bbs.get(0)));
+    hrp.processData("67890\r\n1a \r\n".getBytes());
+    assertEquals("67890", bbToString(cb.bbs.get(1)));
+    hrp.processData("abcdefghijklmnopqrstuvwxyz\r\n0\r\nX-Trailer: 1\r\nX-Other: 2\r\n".getBytes());
+    assertEquals("abcdefghijklmnopqrstuvwxyz", bbToString(cb.bbs.get(2)));
+    assertFalse(cb.finished);
+    hrp.processData("\r\n".getBytes());
+    assertTrue(cb.finished);
+    assertNull(cb.error);
+    assertEquals(0, hrp.getBufferSize());
+  }
+
+  @Test
+  public void parsingChunkedMissingCRLF() throws MalformedURLException {
+    hrb.setHeader(HTTPConstants.HTTP_KEY_TRANSFER_ENCODING, "chunked");
+    hrp.addHTTPRequestCallback(cb);
+    hrp.processData(hrb.build().getByteBuffer());
+    hrp.processData("5\r\n12345XX".getBytes());
+    assertTrue(cb.error instanceof HTTPParsingException);
+  }
+
+  @Test
+  public void chunkEncoderRoundTrip() {
+    hrb.setHeader(HTTPConstants.HTTP_KEY_TRANSFER_ENCODING, "chunked");
+    hrp.addHTTPRequestCallback(cb);
+    hrp.processData(hrb.build().getByteBuffer());
+    int[] sizes = new int[] {10, 255, 16384, 65536, 70000};
+    int total = 0;
+    for(int size: sizes) {
+      ByteBuffer bb = ByteBuffer.allocate(size);
+      for(int i=0; i<size; i++) {
+        bb.put(i, (byte)i);
+      }
+      MergedByteBuffers mbb = HTTPChunkedEncoder.wrapInChunk(bb);
+      assertEquals(Integer.toHexString(size)+"\r\n", mbb.getAsString(Integer.toHexString(size).length()+2));
+      assertSame(bb.array(), mbb.popBuffer().array());
+      hrp.processData(HTTPChunkedEncoder.wrapInChunk(bb.duplicate()));
+      total += size;
+    }
+    hrp.processData(HTTPChunkedEncoder.wrapInChunk(ByteBuffer.allocate(0)));
+    assertNull(cb.error);
+    assertTrue(cb.finished);
+    int read = 0;
+    for(ByteBuffer bb: cb.bbs) {
+      read += bb.remaining();
+    }
+    assertEquals(total, read);
+    assertEquals("0\r\n", bbToString(HTTPChunkedEncoder.chunkHeader(0)));
+    // cached headers are handed out as read only duplicates, reading one never uses up the cached copy
+    for(int size: new int[] {HTTPChunkedEncoder.MAX_CACHED_CHUNK_SIZE, 65536}) {
+      ByteBuffer first = HTTPChunkedEncoder.chunkHeader(size);
+      assertTrue(first.isReadOnly());
+      assertEquals(Integer.toHexString(size)+"\r\n", bbToString(first));
+      assertFalse(first.hasRemaining());
+      assertEquals(Integer.toHexString(size)+"\r\n", bbToString(HTTPChunkedEncoder.chunkHeader(size)));
+    }
+    // past the small cache and not a power of 2, so it is made every time
+    assertEquals("4001\r\n", bbToString(HTTPChunkedEncoder.chunkHeader(HTTPChunkedEncoder.MAX_CACHED_CHUNK_SIZE+1)));
+    assertEquals("11170\r\n", bbToString(HTTPChunkedEncoder.chunkHeader(70000)));
+  }
+
   @Test
   public void basicBuildAndParsingChunked() throws MalformedURLException {
     hrb.setURL(new URL("https://test.com/test12334?query=1")).setHeader(HTTPConstants.HTTP_KEY_TRANSFER_ENCODING, "chunked");
@@ -289,6 +371,367 @@ public class RequestTests {
     }
   }
   
+  @Test
+  public void parseHeadFromBytes() {
+    String raw = "post /some/path?a=1&b=2 http/1.1\r\nHost: test.com\r\nx-custom:  value \r\n\r\n";
+    hrp.addHTTPRequestCallback(cb);
+    hrp.processData(ByteBuffer.wrap(raw.getBytes()));
+    assertNull(cb.error);
+    assertTrue(cb.finished);
+    assertEquals(HTTPRequestType.POST.toString(), cb.request.getHTTPRequestHeader().getRequestType());
+    assertEquals("/some/path", cb.request.getHTTPRequestHeader().getRequestPath());
+    assertEquals("2", cb.request.getHTTPRequestHeader().getRequestQuery().get("b"));
+    assertEquals(HTTPConstants.HTTP_VERSION_1_1, cb.request.getHTTPRequestHeader().getHttpVersion());
+    assertEquals("test.com", cb.request.getHTTPHeaders().getHeader("host"));
+    assertEquals("value", cb.request.getHTTPHeaders().getHeader("X-Custom"));
+  }
+
+  @Test
+  public void parseHeadNoHeaders() {
+    String raw = "GET / HTTP/1.1\r\n\r\n";
+    hrp.addHTTPRequestCallback(cb);
+    hrp.processData(ByteBuffer.wrap(raw.getBytes()));
+    assertNull(cb.error);
+    assertTrue(cb.finished);
+    assertEquals(raw, cb.request.toString());
+    assertEquals(raw, bbToString(cb.request.getByteBuffer()));
+  }
+
+  @Test
+  public void parseHeadBadVersion() {
+    hrp.addHTTPRequestCallback(cb);
+    hrp.processData(ByteBuffer.wrap("GET / HTTP/2.0\r\nHost: test.com\r\n\r\n".getBytes()));
+    assertNotNull(cb.error);
+    assertFalse(cb.finished);
+  }
+
+  @Test
+  public void requestLineRejectAndLimit() {
+    final ByteBuffer notFound = new HTTPResponseBuilder().setResponseCode(HTTPResponseCode.NotFound).build().getByteBuffer();
+    final List<String> lines = new ArrayList<>();
+    final List<ByteBuffer> rejections = new ArrayList<>();
+    hrp.addHTTPRequestCallback(cb);
+    hrp.addHTTPRequestCallback(new HTTPCB() {
+      @Override
+      public void requestLineFinished(HTTPRequestHeader hrh, RequestLineControl control) {
+        lines.add(hrh.getRequestPath());
+        if(hrh.getRequestPath().startsWith("/small")) {
+          control.setMaxHeaderLength(64);
+        } else if(hrh.getRequestPath().startsWith("/blocked")) {
+          control.reject(notFound);
+        }
+      }
+
+      @Override
+      public void requestRejected(HTTPRequestHeader hrh, ByteBuffer response) {
+        rejections.add(response);
+      }
+    });
+    // the request line is seen before the headers arrive
+    hrp.processData("GET /ok HTTP/1.1\r\nHost: te".getBytes());
+    assertEquals(Arrays.asList("/ok"), lines);
+    assertNull(cb.request);
+    hrp.processData("st.com\r\n\r\n".getBytes());
+    assertEquals("/ok", cb.request.getHTTPRequestHeader().getRequestPath());
+    assertEquals("test.com", cb.request.getHTTPHeaders().getHeader("Host"));
+    assertTrue(cb.finished);
+
+    cb.reset();
+    hrp.processData("GET /small HTTP/1.1\r\nX-Big: 01234567890123456789012345678901234567890123456789\r\n\r\n".getBytes());
+    assertTrue(cb.error instanceof HTTPParsingException);
+    assertNull(cb.request);
+    hrp.clearBuffer();
+
+    cb.reset();
+    hrp.processData("GET /blocked HTTP/1.1\r\nHost: ".getBytes());
+    assertTrue(hrp.isRejected());
+    assertEquals(1, rejections.size());
+    assertEquals(bbToString(notFound.duplicate()), bbToString(rejections.get(0)));
+    assertEquals(0, hrp.getBufferSize());
+    hrp.processData("test.com\r\n\r\nGET /ok HTTP/1.1\r\n\r\n".getBytes());
+    assertEquals(0, hrp.getBufferSize());
+    assertNull(cb.request);
+
+    hrp.clearBuffer();
+    assertFalse(hrp.isRejected());
+    hrp.processData("GET /ok2 HTTP/1.1\r\n\r\n".getBytes());
+    assertEquals("/ok2", cb.request.getHTTPRequestHeader().getRequestPath());
+  }
+
+  @Test
+  public void mergedBodyDataNoCopy() {
+    final List<MergedByteBuffers> bodies = new ArrayList<>();
+    hrp.setMergedBodyData(true);
+    hrp.addHTTPRequestCallback(new HTTPCB() {
+      @Override
+      public void bodyData(MergedByteBuffers mbb) {
+        bodies.add(mbb);
+      }
+    });
+    byte[] part1 = "POST / HTTP/1.1\r\nContent-Length: 10\r\n\r\n12345".getBytes();
+    byte[] part2 = "67890GET".getBytes();
+    ReuseableMergedByteBuffers reads = new ReuseableMergedByteBuffers(false);
+    reads.add(part1);
+    reads.add(part2);
+    hrp.processData(reads);
+    assertEquals(1, bodies.size());
+    MergedByteBuffers body = bodies.get(0);
+    assertEquals(10, body.remaining());
+    // the body is still in the original read arrays
+    assertSame(part1, body.popBuffer().array());
+    assertSame(part2, body.popBuffer().array());
+    assertEquals(3, hrp.getBufferSize());
+
+    hrp.clearBuffer();
+    bodies.clear();
+    hrp.processData("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nab".getBytes());
+    hrp.processData("cde\r\n0\r\n\r\n".getBytes());
+    assertEquals(2, bodies.size());
+    assertEquals("ab", bodies.get(0).getAsString(2));
+    assertEquals("cde", bodies.get(1).getAsString(3));
+
+    // callbacks that only handle ByteBuffers still get the data
+    hrp = new HTTPRequestProcessor();
+    hrp.setMergedBodyData(true);
+    hrp.addHTTPRequestCallback(cb);
+    reads = new ReuseableMergedByteBuffers(false);
+    reads.add(part1);
+    reads.add(part2);
+    hrp.processData(reads);
+    assertEquals(2, cb.bbs.size());
+    assertEquals("12345", bbToString(cb.bbs.get(0)));
+    assertEquals("67890", bbToString(cb.bbs.get(1)));
+    assertTrue(cb.finished);
+  }
+
+  @Test
+  public void segmentedHead() {
+    for(int i=0; i<100; i++) {
+      hrb.setHeader("X-Header-"+i, "some-value-"+i);
+    }
+    HTTPRequest hr = hrb.setHeader(HTTPConstants.HTTP_KEY_CONTENT_LENGTH, "0").build();
+    hrp.addHTTPRequestCallback(cb);
+    for(int segment: new int[] {1, 7}) {
+      for(int i=0; i<2; i++) {
+        ByteBuffer bb = hr.getByteBuffer();
+        while(bb.hasRemaining()) {
+          ByteBuffer nbb = bb.duplicate();
+          nbb.limit(Math.min(bb.limit(), bb.position()+segment));
+          bb.position(nbb.limit());
+          hrp.processData(nbb);
+        }
+      }
+      assertNull(cb.error);
+      assertEquals(hr, cb.request);
+      assertEquals(0, hrp.getBufferSize());
+    }
+    assertEquals(4, cb.finishedCalls);
+  }
+
+  @Test
+  public void websocketUnmaskInPlace() {
+    final List<ByteBuffer> frames = new ArrayList<>();
+    hrp.addHTTPRequestCallback(new HTTPCB() {
+      @Override
+      public void websocketData(WebSocketFrame wsf, ByteBuffer bb) {
+        frames.add(bb);
+      }
+    });
+    hrp.processData("GET /ws HTTP/1.1\r\nUpgrade: websocket\r\n\r\n".getBytes());
+    byte[] payload = "a masked websocket payload".getBytes();
+    ByteBuffer frame = WebSocketFrameParser.makeWebSocketFrame(new DirectHTTPBufferPool(), 
+        new ReuseableMergedByteBuffers(false, ByteBuffer.wrap(payload)), true, WebSocketOpCode.Text.getValue(), true);
+    byte[] wire = new byte[frame.remaining()];
+    frame.get(wire);
+    
+    hrp.processData(Arrays.copyOf(wire, wire.length));
+    assertEquals(1, frames.size());
+    assertEquals(new String(payload), bbToString(frames.get(0)));
+    
+    hrp.setUnmaskInPlace(true);
+    byte[] read = Arrays.copyOf(wire, wire.length);
+    hrp.processData(read);
+    assertEquals(2, frames.size());
+    ByteBuffer data = frames.get(1);
+    assertSame(read, data.array());
+    assertEquals(new String(payload), bbToString(data));
+    assertEquals(new String(payload), new String(read, wire.length-payload.length, payload.length));
+  }
+
+  @Test
+  public void websocketFramesSplitAcrossReads() {
+    final List<String> frames = new ArrayList<>();
+    hrp.addHTTPRequestCallback(new HTTPCB() {
+      @Override
+      public void websocketData(WebSocketFrame wsf, ByteBuffer bb) {
+        frames.add(wsf.getOpCode()+":"+bbToString(bb));
+      }
+    });
+    hrp.processData("GET /ws HTTP/1.1\r\nUpgrade: websocket\r\n\r\n".getBytes());
+    DirectHTTPBufferPool pool = new DirectHTTPBufferPool();
+    ReuseableMergedByteBuffers wire = new ReuseableMergedByteBuffers(false);
+    for(String msg: new String[] {"first", "", "third frame"}) {
+      ByteBuffer frame = WebSocketFrameParser.makeWebSocketFrame(pool, 
+          new ReuseableMergedByteBuffers(false, ByteBuffer.wrap(msg.getBytes())), true, WebSocketOpCode.Text.getValue(), true);
+      byte[] ba = new byte[frame.remaining()];
+      frame.get(ba);
+      pool.release(frame);
+      wire.add(ba);
+    }
+    while(wire.remaining() > 0) {
+      byte[] ba = new byte[Math.min(3, wire.remaining())];
+      wire.get(ba);
+      hrp.processData(ba);
+    }
+    assertEquals(Arrays.asList("1:first", "1:", "1:third frame"), frames);
+    assertEquals(0, hrp.getBufferSize());
+  }
+
+  @Test
+  public void websocketStreamingAndLimits() {
+    final StringBuilder payload = new StringBuilder();
+    final List<Integer> frameEnds = new ArrayList<>();
+    hrp.setWebsocketStreaming(true);
+    hrp.setMaxWebsocketFrameSize(100000);
+    hrp.setMaxWebsocketMessageSize(150000);
+    hrp.addHTTPRequestCallback(new HTTPCB() {
+      @Override
+      public void websocketPayload(WebSocketFrame wsf, ByteBuffer bb) {
+        payload.append(bbToString(bb));
+      }
+      
+      @Override
+      public void websocketFrameFinished(WebSocketFrame wsf) {
+        frameEnds.add(payload.length());
+      }
+    });
+    hrp.addHTTPRequestCallback(cb);
+    hrp.processData("GET /ws HTTP/1.1\r\nUpgrade: websocket\r\n\r\n".getBytes());
+    StringBuilder sb = new StringBuilder();
+    for(int i=0; sb.length() < 90000; i++) {
+      sb.append(i).append(',');
+    }
+    String msg = sb.toString();
+    byte[] first = wsFrame(msg, false);
+    // the payload is passed on as each read arrives, long before the frame is done
+    hrp.processData(Arrays.copyOf(first, 1000));
+    assertEquals(1000-14, payload.length());
+    assertTrue(frameEnds.isEmpty());
+    hrp.processData(Arrays.copyOfRange(first, 1000, 50001));
+    assertEquals(50001-14, payload.length());
+    hrp.processData(Arrays.copyOfRange(first, 50001, first.length));
+    assertEquals(msg, payload.toString());
+    assertEquals(Arrays.asList(msg.length()), frameEnds);
+    assertNull(cb.error);
+    
+    // the continuation puts the message over the limit
+    hrp.processData(wsFrame(msg, true));
+    assertTrue(cb.error instanceof HTTPParsingException);
+    assertTrue(hrp.isRejected());
+    assertEquals(1, frameEnds.size());
+    assertEquals(0, hrp.getBufferSize());
+    
+    hrp.clearBuffer();
+    cb.reset();
+    hrp.processData("GET /ws HTTP/1.1\r\nUpgrade: websocket\r\n\r\n".getBytes());
+    hrp.processData(wsFrame(msg+msg, true));
+    assertTrue(cb.error instanceof HTTPParsingException);
+    assertEquals(1, frameEnds.size());
+  }
+  
+  @Test
+  public void websocketDeflate() throws ParseException {
+    final List<String> messages = new ArrayList<>();
+    final StringBuilder streamed = new StringBuilder();
+    WebSocketDeflateConfig config = new WebSocketDeflateConfig();
+    WebSocketDeflater client = config.acceptResponse("permessage-deflate");
+    hrp.addHTTPRequestCallback(new HTTPCB() {
+      @Override
+      public void websocketData(WebSocketFrame wsf, ByteBuffer bb) {
+        messages.add(bbToString(bb));
+      }
+      
+      @Override
+      public void websocketPayload(WebSocketFrame wsf, ByteBuffer bb) {
+        streamed.append(bbToString(bb));
+      }
+    });
+    hrp.addHTTPRequestCallback(cb);
+    hrp.processData("GET /ws HTTP/1.1\r\nUpgrade: websocket\r\nSec-WebSocket-Extensions: permessage-deflate\r\n\r\n".getBytes());
+    WebSocketDeflater server = config.acceptOffer(cb.request.getHTTPHeaders().getHeader(HTTPConstants.HTTP_KEY_WEBSOCKET_EXTENSIONS));
+    hrp.setWebsocketDeflater(server);
+    StringBuilder sb = new StringBuilder();
+    for(int i=0; sb.length() < 5000; i++) {
+      sb.append("{\"id\":").append(i).append('}');
+    }
+    String msg = sb.toString();
+    byte[] frame = deflatedFrame(client, msg);
+    assertTrue(frame.length < msg.length() / 2);
+    hrp.processData(Arrays.copyOf(frame, 10));
+    hrp.processData(Arrays.copyOfRange(frame, 10, frame.length));
+    hrp.processData(deflatedFrame(client, "small"));
+    assertEquals(Arrays.asList(msg, "small"), messages);
+    
+    hrp.setWebsocketStreaming(true);
+    frame = deflatedFrame(client, msg);
+    hrp.processData(Arrays.copyOf(frame, 10));
+    hrp.processData(Arrays.copyOfRange(frame, 10, frame.length));
+    assertEquals(msg, streamed.toString());
+    assertNull(cb.error);
+    
+    // not valid deflate data
+    hrp.processData(new byte[] {(byte)0xc1, 4, 1, 2, 3, 4});
+    assertTrue(cb.error instanceof HTTPParsingException);
+    assertTrue(hrp.isRejected());
+    assertNull(hrp.getWebsocketDeflater());
+  }
+
+  @Test
+  public void websocketReservedBits() throws ParseException {
+    hrp.addHTTPRequestCallback(cb);
+    // RSV1, RSV2 and RSV3 with no extension negotiated
+    for(byte first: new byte[] {(byte)0xc1, (byte)0xa1, (byte)0x91}) {
+      hrp.clearBuffer();
+      cb.reset();
+      hrp.processData("GET /ws HTTP/1.1\r\nUpgrade: websocket\r\n\r\n".getBytes());
+      hrp.processData(new byte[] {first, 4, 't', 'e', 's', 't'});
+      assertTrue(cb.error instanceof HTTPParsingException);
+      assertTrue(hrp.isRejected());
+    }
+
+    // permessage-deflate only claims RSV1 on the first frame of a data message
+    WebSocketDeflateConfig config = new WebSocketDeflateConfig();
+    for(byte first: new byte[] {(byte)0xc9, (byte)0xc0, (byte)0xe1}) {
+      hrp.clearBuffer();
+      cb.reset();
+      hrp.processData("GET /ws HTTP/1.1\r\nUpgrade: websocket\r\nSec-WebSocket-Extensions: permessage-deflate\r\n\r\n".getBytes());
+      hrp.setWebsocketDeflater(config.acceptOffer(cb.request.getHTTPHeaders().getHeader(HTTPConstants.HTTP_KEY_WEBSOCKET_EXTENSIONS)));
+      hrp.processData(new byte[] {first, 0});
+      assertTrue(cb.error instanceof HTTPParsingException);
+      assertTrue(hrp.isRejected());
+    }
+  }
+
+  private static byte[] deflatedFrame(WebSocketDeflater wsd, String msg) {
+    DirectHTTPBufferPool pool = new DirectHTTPBufferPool();
+    ByteBuffer frame = wsd.makeWebSocketFrame(pool, 
+        new ReuseableMergedByteBuffers(false, ByteBuffer.wrap(msg.getBytes())), WebSocketOpCode.Text.getValue(), true, 12345);
+    byte[] ba = new byte[frame.remaining()];
+    frame.get(ba);
+    pool.release(frame);
+    return ba;
+  }
+  
+  private static byte[] wsFrame(String msg, boolean fin) {
+    DirectHTTPBufferPool pool = new DirectHTTPBufferPool();
+    ByteBuffer frame = WebSocketFrameParser.makeWebSocketFrame(pool, 
+        new ReuseableMergedByteBuffers(false, ByteBuffer.wrap(msg.getBytes())), fin, WebSocketOpCode.Text.getValue(), true);
+    byte[] ba = new byte[frame.remaining()];
+    frame.get(ba);
+    pool.release(frame);
+    return ba;
+  }
+
   private static String bbToString(ByteBuffer bb) {
     byte[] ba = new byte[bb.remaining()];
     bb.get(ba);
@@ -2,6 +2,8 @@ package org.threadly.litesockets.protocols.http;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -67,6 +69,49 @@ public class ResponseHeaderTests {
     }
   }
 
+  @Test
+  public void ResponseHeaderFromBytes() {
+    for(HTTPResponseCode hrc: HTTPResponseCode.values()) {
+      assertSame(hrc, HTTPResponseCode.findResponseCode(hrc.getId()));
+      for(String version: new String[] {HTTPConstants.HTTP_VERSION_1_0, HTTPConstants.HTTP_VERSION_1_1}) {
+        String line = version+" "+hrc.getId()+" "+hrc.toString();
+        HTTPResponseHeader hrh = new HTTPResponseHeader(ByteBuffer.wrap((" "+line+" ").getBytes()));
+        HTTPResponseHeader hrh2 = new HTTPResponseHeader(hrc, version);
+        assertEquals(hrh2, hrh);
+        assertEquals(hrh2.hashCode(), hrh.hashCode());
+        assertEquals(line, hrh.toString());
+        assertEquals(line, hrh2.toString());
+        assertEquals(line.length(), hrh2.encodedLength());
+        ByteBuffer bb = ByteBuffer.allocate(hrh2.encodedLength());
+        hrh2.writeTo(bb);
+        bb.flip();
+        assertEquals(hrc.getStatusLine(version), bb);
+        assertEquals(hrh.getByteBuffer(), bb);
+      }
+    }
+    assertNull(HTTPResponseCode.lookup(122));
+    assertNull(HTTPResponseCode.lookup(-1));
+    assertNull(HTTPResponseCode.lookup(1000));
+    HTTPResponseHeader hrh = new HTTPResponseHeader(ByteBuffer.wrap("HTTP/1.1 200 Fine".getBytes()));
+    assertEquals(HTTPResponseCode.OK, hrh.getResponseCode());
+    assertEquals("HTTP/1.1 200 Fine", hrh.toString());
+  }
+
+  @Test
+  public void BadResponseHeaderFromBytes() {
+    String[] bad = new String[] {"HTTP/1.0 122NotHere", "HTTP/1.0 2000 OK", "HTTP/1.0", "HTTP/3.1 404 Not Found", "HTTP/1.0 122 Not Here"};
+    String[] messages = new String[] {"Invalid Response Header! :HTTP/1.0 122NotHere", "Invalid Response Header! :HTTP/1.0 2000 OK", 
+        "Invalid Response Header! :HTTP/1.0", "Unknown HTTP Version!:HTTP/3.1", "Could not find ResponseCode: 122"};
+    for(int i=0; i<bad.length; i++) {
+      try {
+        new HTTPResponseHeader(ByteBuffer.wrap(bad[i].getBytes()));
+        fail("Should not make it this far");
+      } catch(IllegalArgumentException e) {
+        assertEquals(messages[i], e.getMessage());
+      }
+    }
+  }
+
   @Test
   public void BadResponseHeader() {
     try {
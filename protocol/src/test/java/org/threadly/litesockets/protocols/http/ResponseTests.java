@@ -3,8 +3,12 @@ package org.threadly.litesockets.protocols.http;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -15,8 +19,10 @@ import org.threadly.litesockets.protocols.http.response.HTTPResponse;
 import org.threadly.litesockets.protocols.http.response.HTTPResponseBuilder;
 import org.threadly.litesockets.protocols.http.response.HTTPResponseHeader;
 import org.threadly.litesockets.protocols.http.response.HTTPResponseProcessor;
+import org.threadly.litesockets.protocols.http.response.HTTPResponseTemplate;
 import org.threadly.litesockets.protocols.http.response.HTTPResponseProcessor.HTTPResponseCallback;
 import org.threadly.litesockets.protocols.http.shared.HTTPConstants;
+import org.threadly.litesockets.protocols.http.shared.HTTPDate;
 import org.threadly.litesockets.protocols.http.shared.HTTPResponseCode;
 import org.threadly.litesockets.protocols.ws.WebSocketFrameParser.WebSocketFrame;
 
@@ -49,6 +55,103 @@ public class ResponseTests {
     assertEquals(hr1.toString(), hr2.toString());
   }
   
+  @Test
+  public void responseEncodeOnce() {
+    HTTPResponse hr = new HTTPResponseBuilder().setHeader("X-Custom", "blah").setHeader("Set-Cookie", "a=1").build();
+    ByteBuffer bb1 = hr.getByteBuffer();
+    ByteBuffer bb2 = hr.getByteBuffer();
+    assertTrue(bb1.isReadOnly());
+    assertEquals(hr.toString(), bbToString(bb1));
+    assertEquals(0, bb1.remaining());
+    assertEquals(hr.toString(), bbToString(bb2));
+
+    HTTPResponse hr2 = hr.makeBuilder().build();
+    ByteBuffer out = ByteBuffer.allocate(hr2.encodedLength());
+    hr2.writeTo(out);
+    assertEquals(0, out.remaining());
+    out.flip();
+    assertEquals(hr.toString(), bbToString(out));
+    try {
+      hr2.writeTo(ByteBuffer.allocate(hr2.encodedLength()-1));
+      fail();
+    } catch(BufferOverflowException e) {
+      //expected
+    }
+  }
+
+  @Test
+  public void responseWithDate() {
+    HTTPResponse hr = new HTTPResponseBuilder().setHeader("X-Custom", "blah").build();
+    String head = hr.toString();
+    String dated = bbToString(hr.getByteBufferWithDate());
+    assertTrue(dated.startsWith(head.substring(0, head.length()-2)));
+    assertTrue(dated.endsWith("\r\n\r\n"));
+    assertEquals(head.length() + bbToString(HTTPDate.getDateHeaderRow()).length(), dated.length());
+    assertTrue(hr.getByteBufferWithDate().isReadOnly());
+    assertEquals(head, bbToString(hr.getByteBuffer()));
+  }
+
+  @Test
+  public void parsedResponseWriteTo() {
+    HTTPResponse hr = new HTTPResponseBuilder().setHeader("X-Custom", "blah").build();
+    HTTPResponseProcessor hrp = new HTTPResponseProcessor();
+    TestCallback cb = new TestCallback();
+    hrp.addHTTPResponseCallback(cb);
+    hrp.processData(hr.getByteBuffer());
+    ByteBuffer out = ByteBuffer.allocate(cb.response.encodedLength());
+    cb.response.writeTo(out);
+    out.flip();
+    assertEquals(hr.toString(), bbToString(out));
+  }
+
+  @Test
+  public void responseTemplate() {
+    HTTPResponse hr = new HTTPResponseBuilder().setHeader("X-Custom", "blah").build();
+    HTTPResponseTemplate template = new HTTPResponseTemplate(hr, 
+        new String[] {HTTPConstants.HTTP_KEY_CONTENT_LENGTH, "X-Request-Id"}, 
+        new int[] {HTTPResponseTemplate.CONTENT_LENGTH_WIDTH, 8});
+    assertEquals(0, template.findSlot("content-length"));
+    assertEquals(1, template.findSlot("X-Request-Id"));
+    assertEquals(-1, template.findSlot("X-Custom"));
+
+    ByteBuffer bb = ByteBuffer.allocate(template.length()+10);
+    bb.put((byte)'Z');
+    for(int i=0; i<3; i++) {
+      bb.clear();
+      bb.position(1);
+      template.writeTo(bb);
+      template.setSlot(bb, 1, 0, 12345L*i);
+      template.setSlot(bb, 1, 1, "id"+i);
+      bb.flip();
+      bb.position(1);
+      HTTPResponseProcessor hrp = new HTTPResponseProcessor();
+      TestCallback cb = new TestCallback();
+      hrp.addHTTPResponseCallback(cb);
+      hrp.processData(bb);
+      assertEquals(12345L*i, cb.response.getHeaders().getContentLength());
+      assertEquals("id"+i, cb.response.getHeaders().getHeader("X-Request-Id"));
+      assertEquals("blah", cb.response.getHeaders().getHeader("X-Custom"));
+      assertEquals(hr.getResponseHeader(), cb.response.getResponseHeader());
+    }
+    assertEquals('Z', bb.get(0));
+
+    bb = template.newBuffer();
+    template.setSlot(bb, 0, 0, Long.MAX_VALUE);
+    template.setSlot(bb, 0, 1, "12345678".getBytes());
+    try {
+      template.setSlot(bb, 0, 1, "123456789");
+      fail();
+    } catch(IllegalArgumentException e) {
+      //expected
+    }
+    try {
+      template.setSlot(bb, 0, 0, -1);
+      fail();
+    } catch(IllegalArgumentException e) {
+      //expected
+    }
+  }
+
   @Test
   public void responseProcessorTest1() throws InterruptedException, ExecutionException, TimeoutException {
     HTTPResponseProcessor hrp = new HTTPResponseProcessor();
@@ -88,4 +191,88 @@ public class ResponseTests {
     assertEquals(hr, header.get(5,TimeUnit.SECONDS));
     assertTrue(finished.get(5,TimeUnit.SECONDS));
   }
+
+  @Test
+  public void responseProcessorSegmented() {
+    HTTPResponseBuilder hrb = new HTTPResponseBuilder();
+    for(int i=0; i<100; i++) {
+      hrb.setHeader("X-Header-"+i, "some-value-"+i);
+    }
+    HTTPResponse hr = hrb.setHeader(HTTPConstants.HTTP_KEY_CONTENT_LENGTH, "0").build();
+    HTTPResponseProcessor hrp = new HTTPResponseProcessor();
+    final List<HTTPResponse> responses = new ArrayList<>();
+    hrp.addHTTPResponseCallback(new TestCallback() {
+      @Override
+      public void headersFinished(HTTPResponse hr) {
+        responses.add(hr);
+      }
+    });
+    for(int segment: new int[] {1, 7}) {
+      for(int i=0; i<2; i++) {
+        ByteBuffer bb = hr.getByteBuffer();
+        while(bb.hasRemaining()) {
+          ByteBuffer nbb = bb.duplicate();
+          nbb.limit(Math.min(bb.limit(), bb.position()+segment));
+          bb.position(nbb.limit());
+          hrp.processData(nbb);
+        }
+      }
+    }
+    assertEquals(4, responses.size());
+    for(HTTPResponse r: responses) {
+      assertEquals(hr, r);
+    }
+  }
+
+  @Test
+  public void responseProcessorHeadersToBig() {
+    HTTPResponseProcessor hrp = new HTTPResponseProcessor();
+    final List<Throwable> errors = new ArrayList<>();
+    hrp.addHTTPResponseCallback(new TestCallback() {
+      @Override
+      public void hasError(Throwable t) {
+        errors.add(t);
+      }
+    });
+    StringBuilder sb = new StringBuilder("HTTP/1.1 200 OK");
+    for(int i=0; i<HTTPResponseProcessor.MAX_RESPONSE_HEADER_SIZE; i++) {
+      sb.append('K');
+    }
+    hrp.processData(sb.append("\r\n\r\n").toString().getBytes());
+    assertEquals(1, errors.size());
+    hrp.clearBuffer();
+    sb = new StringBuilder("HTTP/1.1 200 OK\r\n");
+    while(sb.length() <= HTTPResponseProcessor.MAX_HEADER_SIZE) {
+      sb.append("X-Header: value\r\n");
+    }
+    hrp.processData(sb.toString().getBytes());
+    assertEquals(2, errors.size());
+  }
+
+  private static String bbToString(ByteBuffer bb) {
+    byte[] ba = new byte[bb.remaining()];
+    bb.get(ba);
+    return new String(ba);
+  }
+
+  private static class TestCallback implements HTTPResponseCallback {
+    HTTPResponse response;
+
+    @Override
+    public void headersFinished(HTTPResponse hr) {
+      response = hr;
+    }
+
+    @Override
+    public void bodyData(ByteBuffer bb) {}
+
+    @Override
+    public void websocketData(WebSocketFrame wsf, ByteBuffer bb) {}
+
+    @Override
+    public void finished() {}
+
+    @Override
+    public void hasError(Throwable t) {}
+  }
 }
@@ -2,16 +2,33 @@ package org.threadly.litesockets.protocols.http;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 
 import org.junit.Test;
+import org.threadly.litesockets.buffers.MergedByteBuffers;
+import org.threadly.litesockets.buffers.ReuseableMergedByteBuffers;
+import org.threadly.litesockets.buffers.SimpleMergedByteBuffers;
+import org.threadly.litesockets.protocols.http.shared.DirectHTTPBufferPool;
+import org.threadly.litesockets.protocols.ws.WebSocketDeflateConfig;
+import org.threadly.litesockets.protocols.ws.WebSocketDeflateStats;
+import org.threadly.litesockets.protocols.ws.WebSocketDeflater;
+import org.threadly.litesockets.protocols.ws.WebSocketFrameDecoder;
 import org.threadly.litesockets.protocols.ws.WebSocketFrameParser;
 import org.threadly.litesockets.protocols.ws.WebSocketFrameParser.WebSocketFrame;
+import org.threadly.litesockets.protocols.ws.WebSocketMaskGenerator;
+import org.threadly.litesockets.protocols.ws.WebSocketMessageAssembler;
+import org.threadly.litesockets.protocols.ws.WebSocketMessageAssembler.WebSocketMessageListener;
 import org.threadly.litesockets.protocols.ws.WebSocketOpCode;
 
 
@@ -74,4 +91,363 @@ public class WebSocketsTests {
     ByteBuffer nbb = WebSocketFrameParser.doDataMask(bb, mask);
     assertEquals(testString, new String(nbb.array()));
   }
-}
\ No newline at end of file
+  
+  @Test
+  public void pooledFrame() throws ParseException {
+    DirectHTTPBufferPool pool = new DirectHTTPBufferPool();
+    pool.setLeakDetection(true);
+    for(int size: new int[] {5, 6555, 70000}) {
+      byte[] payload = new byte[size];
+      new Random(size).nextBytes(payload);
+      for(boolean mask: new boolean[] {false, true}) {
+        ByteBuffer frame = WebSocketFrameParser.makeWebSocketFrame(pool, 
+            new SimpleMergedByteBuffers(false, ByteBuffer.wrap(payload, 0, 3), ByteBuffer.wrap(payload, 3, size-3)), 
+            true, WebSocketOpCode.Binary.getValue(), mask);
+        assertEquals(size > 65536, !frame.isDirect());
+        ByteBuffer read = frame.duplicate();
+        WebSocketFrame wsf = WebSocketFrameParser.parseWebSocketFrame(read);
+        assertEquals(size, wsf.getPayloadDataLength());
+        assertEquals(mask, wsf.hasMask());
+        assertEquals(WebSocketOpCode.Binary.getValue(), wsf.getOpCode());
+        ByteBuffer data = wsf.unmaskPayload(read);
+        byte[] ba = new byte[data.remaining()];
+        data.get(ba);
+        assertTrue(Arrays.equals(payload, ba));
+        pool.release(frame);
+      }
+    }
+    assertEquals(0, pool.getOutstanding());
+    assertTrue(pool.getLeaks().isEmpty());
+  }
+  
+  @Test
+  public void pooledFrameWithMaskGenerator() throws ParseException {
+    DirectHTTPBufferPool pool = new DirectHTTPBufferPool();
+    WebSocketMaskGenerator maskGenerator = new WebSocketMaskGenerator(1);
+    assertEquals(new WebSocketMaskGenerator(1).nextMask(), maskGenerator.nextMask());
+    assertTrue(maskGenerator.nextMask() != maskGenerator.nextMask());
+    byte[] payload = new byte[1000];
+    new Random(2).nextBytes(payload);
+    for(int split: new int[] {1, 3, 7, 9, 500}) {
+      int mask = maskGenerator.nextMask();
+      ByteBuffer first = ByteBuffer.wrap(payload, 0, split);
+      ByteBuffer second = ByteBuffer.allocateDirect(payload.length - split).order(ByteOrder.LITTLE_ENDIAN);
+      second.put(payload, split, payload.length - split).flip();
+      ByteBuffer frame = WebSocketFrameParser.makeWebSocketFrame(pool, 
+          new SimpleMergedByteBuffers(false, first, second), true, WebSocketOpCode.Binary.getValue(), true, mask);
+      ByteBuffer read = frame.duplicate();
+      WebSocketFrame wsf = WebSocketFrameParser.parseWebSocketFrame(read);
+      assertEquals(mask, wsf.getMaskValue());
+      ByteBuffer data = wsf.unmaskPayload(read);
+      byte[] ba = new byte[data.remaining()];
+      data.get(ba);
+      assertTrue(Arrays.equals(payload, ba));
+      pool.release(frame);
+    }
+    assertEquals(0, pool.getOutstanding());
+  }
+
+  @Test
+  public void deflateNegotiation() throws ParseException {
+    WebSocketDeflateConfig config = new WebSocketDeflateConfig().setClientMaxWindowBits(10);
+    assertEquals("permessage-deflate", config.makeOffer());
+    
+    WebSocketDeflater wsd = config.acceptOffer("x-webkit-deflate-frame, permessage-deflate; client_max_window_bits");
+    assertEquals("permessage-deflate; client_max_window_bits=10", wsd.getExtensionHeader());
+    assertTrue(wsd.isCompressContextTakeover());
+    // a smaller server window can not be done with java.util.zip, the next offer is used
+    wsd = config.acceptOffer("permessage-deflate; server_max_window_bits=10, permessage-deflate; server_no_context_takeover");
+    assertEquals("permessage-deflate; server_no_context_takeover", wsd.getExtensionHeader());
+    assertFalse(wsd.isCompressContextTakeover());
+    assertNull(config.acceptOffer("permessage-deflate; server_no_context_takeover; server_no_context_takeover"));
+    assertNull(config.acceptOffer("permessage-deflate; unknown"));
+    assertNull(config.acceptOffer(null));
+    
+    WebSocketDeflateConfig client = new WebSocketDeflateConfig().setClientNoContextTakeover(true).setServerMaxWindowBits(12);
+    assertEquals("permessage-deflate; client_no_context_takeover; server_max_window_bits=12", client.makeOffer());
+    wsd = client.acceptResponse("permessage-deflate; server_max_window_bits=12; server_no_context_takeover");
+    assertFalse(wsd.isCompressContextTakeover());
+    assertFalse(wsd.isInflateContextTakeover());
+    assertNull(client.acceptResponse(null));
+    for(String bad: new String[] {"permessage-deflate; client_max_window_bits=10", "permessage-deflate; server_max_window_bits=15", 
+        "x-webkit-deflate-frame", "permessage-deflate, permessage-deflate"}) {
+      try {
+        client.acceptResponse(bad);
+        fail();
+      } catch(ParseException e) {
+        // expected
+      }
+    }
+  }
+  
+  @Test
+  public void deflateRoundTrip() throws ParseException {
+    DirectHTTPBufferPool pool = new DirectHTTPBufferPool();
+    for(boolean noContext: new boolean[] {false, true}) {
+      WebSocketDeflateConfig config = new WebSocketDeflateConfig().setServerNoContextTakeover(noContext);
+      WebSocketDeflater server = config.acceptOffer("permessage-deflate");
+      WebSocketDeflater client = config.acceptResponse(server.getExtensionHeader());
+      StringBuilder sb = new StringBuilder();
+      for(int i=0; sb.length() < 10000; i++) {
+        sb.append("{\"id\":").append(i).append(",\"name\":\"test\"},");
+      }
+      String json = sb.toString();
+      long[] sizes = new long[3];
+      for(int i=0; i<3; i++) {
+        ByteBuffer frame = server.makeWebSocketFrame(pool, 
+            new SimpleMergedByteBuffers(false, ByteBuffer.wrap(json.getBytes())), WebSocketOpCode.Text.getValue(), false, 0);
+        WebSocketFrame wsf = WebSocketFrameParser.parseWebSocketFrame(frame.duplicate());
+        assertTrue(wsf.hasRSV1());
+        assertEquals(WebSocketOpCode.Text.getValue(), wsf.getOpCode());
+        assertTrue(wsf.getPayloadDataLength() < json.length() / 4);
+        sizes[i] = wsf.getPayloadDataLength();
+        ByteBuffer payload = frame.duplicate();
+        payload.position(WebSocketFrameParser.getFrameLength(frame));
+        if(i == 1) {
+          // streamed in parts
+          ByteBuffer first = payload.duplicate();
+          first.limit(first.position() + 7);
+          payload.position(first.limit());
+          ReuseableMergedByteBuffers mbb = new ReuseableMergedByteBuffers();
+          mbb.add(client.inflate(wsf, first), client.inflate(wsf, payload), client.finishFrame(wsf));
+          assertEquals(json, mbb.getAsString(mbb.remaining()));
+        } else {
+          assertEquals(json, new ReuseableMergedByteBuffers(false, client.inflateFrame(wsf, payload)).getAsString(json.length()));
+        }
+        pool.release(frame);
+      }
+      // small and control messages are not compressed
+      ByteBuffer frame = server.makeWebSocketFrame(pool, 
+          new SimpleMergedByteBuffers(false, ByteBuffer.wrap("small".getBytes())), WebSocketOpCode.Text.getValue(), false, 0);
+      assertFalse(WebSocketFrameParser.parseWebSocketFrame(frame.duplicate()).hasRSV1());
+      pool.release(frame);
+      
+      WebSocketDeflateStats stats = config.getStats();
+      assertEquals(3, stats.getCompressedMessages());
+      assertEquals(1, stats.getUncompressedMessages());
+      assertEquals(3, stats.getInflatedMessages());
+      assertEquals(json.length() * 3, stats.getInflateBytesOut());
+      assertTrue(stats.getCompressionRatio() < 0.25);
+      assertEquals(stats.getCompressionRatio(), stats.getInflateRatio(), 0.0001);
+      if(noContext) {
+        // every message is compressed alone
+        assertEquals(sizes[0], sizes[2]);
+      } else {
+        // later messages are mostly references back to the first
+        assertTrue(sizes[2] < sizes[0] / 4);
+      }
+      server.close();
+      client.close();
+    }
+    assertEquals(0, pool.getOutstanding());
+  }
+  
+  @Test
+  public void deflateMaxInflatedSize() throws ParseException {
+    WebSocketDeflateConfig config = new WebSocketDeflateConfig();
+    WebSocketDeflater server = config.acceptOffer("permessage-deflate");
+    WebSocketDeflater client = config.acceptResponse(server.getExtensionHeader());
+    client.setMaxInflatedSize(100000);
+    byte[] zeros = new byte[1000000];
+    DirectHTTPBufferPool pool = new DirectHTTPBufferPool();
+    ByteBuffer frame = server.makeWebSocketFrame(pool, 
+        new SimpleMergedByteBuffers(false, ByteBuffer.wrap(zeros)), WebSocketOpCode.Binary.getValue(), false, 0);
+    WebSocketFrame wsf = WebSocketFrameParser.parseWebSocketFrame(frame.duplicate());
+    assertTrue(wsf.getPayloadDataLength() < 2000);
+    ByteBuffer payload = frame.duplicate();
+    payload.position(WebSocketFrameParser.getFrameLength(frame));
+    try {
+      client.inflateFrame(wsf, payload);
+      fail();
+    } catch(ParseException e) {
+      // expected
+    }
+  }
+  
+  @Test
+  public void maskInPlaceAcrossSlices() {
+    Random rnd = new Random(1);
+    int mask = rnd.nextInt();
+    byte[] payload = new byte[1000];
+    rnd.nextBytes(payload);
+    ByteBuffer expected = WebSocketFrameParser.doDataMask(ByteBuffer.wrap(payload), mask);
+    for(int split: new int[] {1, 3, 7, 9, 13, 64, 999}) {
+      for(ByteOrder order: new ByteOrder[] {ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+        ByteBuffer bb = ByteBuffer.allocateDirect(payload.length).order(order);
+        bb.put(payload).flip();
+        int offset = 0;
+        while(offset < payload.length) {
+          ByteBuffer slice = bb.duplicate().order(order);
+          slice.position(offset).limit(Math.min(payload.length, offset+split));
+          WebSocketFrameParser.doDataMaskInPlace(slice, mask, offset);
+          assertEquals(offset, slice.position());
+          offset = slice.limit();
+        }
+        assertEquals(expected, bb);
+      }
+    }
+    ByteBuffer bb = ByteBuffer.wrap(payload.clone());
+    WebSocketFrameParser.doDataMaskInPlace(bb, mask, 0);
+    WebSocketFrameParser.doDataMaskInPlace(bb, mask, 0);
+    assertTrue(Arrays.equals(payload, bb.array()));
+  }
+  
+  @Test
+  public void decoderReusesFrame() throws ParseException {
+    DirectHTTPBufferPool pool = new DirectHTTPBufferPool();
+    ReuseableMergedByteBuffers wire = new ReuseableMergedByteBuffers(false);
+    int[] sizes = new int[] {0, 5, 200, 70000};
+    for(int size: sizes) {
+      ByteBuffer frame = WebSocketFrameParser.makeWebSocketFrame(pool, 
+          new SimpleMergedByteBuffers(false, ByteBuffer.allocate(size)), size != 5, WebSocketOpCode.Binary.getValue(), size > 0);
+      byte[] ba = new byte[frame.remaining()];
+      frame.get(ba);
+      pool.release(frame);
+      wire.add(ba);
+    }
+    WebSocketFrameDecoder decoder = new WebSocketFrameDecoder();
+    ReuseableMergedByteBuffers pending = new ReuseableMergedByteBuffers(false);
+    WebSocketFrame first = null;
+    WebSocketFrame firstCopy = null;
+    int frames = 0;
+    // feed 1 byte at a time so every header is split up
+    while(wire.remaining() > 0) {
+      pending.add(new byte[] {wire.get()});
+      WebSocketFrame wsf = decoder.getFrame();
+      if(wsf == null) {
+        wsf = decoder.decode(pending);
+      }
+      if(wsf != null && pending.remaining() == wsf.getPayloadDataLength()) {
+        if(first == null) {
+          first = wsf;
+          firstCopy = wsf.copy();
+        }
+        assertSame(first, wsf);
+        assertEquals(sizes[frames], wsf.getPayloadDataLength());
+        assertEquals(sizes[frames] > 0, wsf.hasMask());
+        assertEquals(sizes[frames] != 5, wsf.isFinished());
+        assertEquals(WebSocketOpCode.Binary.getValue(), wsf.getOpCode());
+        pending.discard(pending.remaining());
+        decoder.reset();
+        frames++;
+      }
+    }
+    assertEquals(sizes.length, frames);
+    assertEquals(0, firstCopy.getPayloadDataLength());
+    assertFalse(firstCopy.hasMask());
+    assertNull(decoder.getFrame());
+  }
+  
+  @Test
+  public void messageAssembler() throws ParseException {
+    final List<String> events = new ArrayList<>();
+    final List<MergedByteBuffers> messages = new ArrayList<>();
+    WebSocketMessageAssembler wsma = new WebSocketMessageAssembler(new WebSocketMessageListener() {
+      @Override
+      public void onMessage(int opCode, MergedByteBuffers message) {
+        messages.add(message);
+        events.add("message:"+opCode+":"+message.duplicate().getAsString(message.remaining()));
+      }
+
+      @Override
+      public void onControlFrame(WebSocketFrame frame, ByteBuffer payload) {
+        events.add("control:"+frame.getOpCode()+":"+new SimpleMergedByteBuffers(false, payload).getAsString(payload.remaining()));
+      }
+    });
+    ByteBuffer hello = ByteBuffer.wrap("Hello ".getBytes());
+    ByteBuffer world = ByteBuffer.wrap("World".getBytes());
+    wsma.onFrame(WebSocketFrameParser.makeWebSocketFrame(6, false, WebSocketOpCode.Text.getValue(), false), hello);
+    assertTrue(wsma.isMessageInProgress());
+    // a ping in the middle of the message, sent in 2 parts
+    WebSocketFrame ping = WebSocketFrameParser.makeWebSocketFrame(4, true, WebSocketOpCode.Ping.getValue(), false);
+    wsma.onPayload(ping, ByteBuffer.wrap("pi".getBytes()));
+    wsma.onPayload(ping, ByteBuffer.wrap("ng".getBytes()));
+    wsma.onFrameFinished(ping);
+    WebSocketFrame cont = WebSocketFrameParser.makeWebSocketFrame(5, true, WebSocketOpCode.Continuation.getValue(), false);
+    wsma.onPayload(cont, world);
+    wsma.onFrameFinished(cont);
+    assertFalse(wsma.isMessageInProgress());
+    wsma.onFrame(WebSocketFrameParser.makeWebSocketFrame(0, true, WebSocketOpCode.Binary.getValue(), false), ByteBuffer.allocate(0));
+    assertEquals(Arrays.asList("control:"+WebSocketOpCode.Ping.getValue()+":ping", 
+        "message:"+WebSocketOpCode.Text.getValue()+":Hello World", 
+        "message:"+WebSocketOpCode.Binary.getValue()+":"), events);
+    // the message is made of the buffers that were passed in
+    MergedByteBuffers message = messages.get(0);
+    assertSame(hello.array(), message.popBuffer().array());
+    assertSame(world.array(), message.popBuffer().array());
+  }
+  
+  @Test
+  public void messageAssemblerStreamsAndLimits() throws ParseException {
+    final List<String> parts = new ArrayList<>();
+    final List<Integer> finished = new ArrayList<>();
+    WebSocketMessageAssembler wsma = new WebSocketMessageAssembler(new WebSocketMessageListener() {
+      @Override
+      public void onMessage(int opCode, MergedByteBuffers message) {
+        parts.add("full:"+message.getAsString(message.remaining()));
+      }
+
+      @Override
+      public void onMessagePart(int opCode, ByteBuffer part) {
+        parts.add(new SimpleMergedByteBuffers(false, part).getAsString(part.remaining()));
+      }
+
+      @Override
+      public void onMessageFinished(int opCode) {
+        finished.add(opCode);
+      }
+    }).setStreamThreshold(4).setMaxMessageSize(9);
+    wsma.onFrame(WebSocketFrameParser.makeWebSocketFrame(3, false, WebSocketOpCode.Binary.getValue(), false), 
+        ByteBuffer.wrap("abc".getBytes()));
+    assertTrue(parts.isEmpty());
+    wsma.onFrame(WebSocketFrameParser.makeWebSocketFrame(3, false, WebSocketOpCode.Continuation.getValue(), false), 
+        ByteBuffer.wrap("def".getBytes()));
+    assertEquals(Arrays.asList("abc", "def"), parts);
+    wsma.onFrame(WebSocketFrameParser.makeWebSocketFrame(3, true, WebSocketOpCode.Continuation.getValue(), false), 
+        ByteBuffer.wrap("ghi".getBytes()));
+    assertEquals(Arrays.asList("abc", "def", "ghi"), parts);
+    assertEquals(Arrays.asList((int)WebSocketOpCode.Binary.getValue()), finished);
+    // small messages are still buffered
+    wsma.onFrame(WebSocketFrameParser.makeWebSocketFrame(2, true, WebSocketOpCode.Text.getValue(), false), 
+        ByteBuffer.wrap("jk".getBytes()));
+    assertEquals("full:jk", parts.get(3));
+    
+    // over the max size
+    wsma.onFrame(WebSocketFrameParser.makeWebSocketFrame(5, false, WebSocketOpCode.Binary.getValue(), false), 
+        ByteBuffer.allocate(5));
+    try {
+      wsma.onFrame(WebSocketFrameParser.makeWebSocketFrame(5, true, WebSocketOpCode.Continuation.getValue(), false), 
+          ByteBuffer.allocate(5));
+      fail();
+    } catch(ParseException e) {
+      wsma.reset();
+    }
+    // continuation with no message
+    try {
+      wsma.onFrame(WebSocketFrameParser.makeWebSocketFrame(1, true, WebSocketOpCode.Continuation.getValue(), false), 
+          ByteBuffer.allocate(1));
+      fail();
+    } catch(ParseException e) {
+      wsma.reset();
+    }
+    // new message before the last finished
+    wsma.onFrame(WebSocketFrameParser.makeWebSocketFrame(1, false, WebSocketOpCode.Text.getValue(), false), 
+        ByteBuffer.allocate(1));
+    try {
+      wsma.onFrame(WebSocketFrameParser.makeWebSocketFrame(1, true, WebSocketOpCode.Text.getValue(), false), 
+          ByteBuffer.allocate(1));
+      fail();
+    } catch(ParseException e) {
+      wsma.reset();
+    }
+    // fragmented control frame
+    try {
+      wsma.onFrame(WebSocketFrameParser.makeWebSocketFrame(1, false, WebSocketOpCode.Ping.getValue(), false), 
+          ByteBuffer.allocate(1));
+      fail();
+    } catch(ParseException e) {
+      wsma.reset();
+    }
+    assertFalse(wsma.isMessageInProgress());
+  }
+}
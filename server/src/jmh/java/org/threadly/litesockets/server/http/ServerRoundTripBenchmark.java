@@ -0,0 +1,123 @@
+package org.threadly.litesockets.server.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.threadly.litesockets.NoThreadSocketExecuter;
+import org.threadly.litesockets.TCPServer;
+import org.threadly.litesockets.buffers.MergedByteBuffers;
+import org.threadly.litesockets.protocols.http.response.HTTPResponse;
+import org.threadly.litesockets.protocols.http.response.HTTPResponseBuilder;
+import org.threadly.litesockets.protocols.http.shared.HTTPConstants;
+import org.threadly.litesockets.utils.PortUtils;
+
+/**
+ * Measures a keep-alive request and response through an {@link HTTPServer} with its default settings (so a
+ * Date header is added to every response), next to the same round trip through a bare {@link TCPServer} that
+ * only reads the request and writes the same sized response.  Both servers run on a
+ * {@link NoThreadSocketExecuter} selected from the benchmark thread.
+ *
+ * Run with {@code ./gradlew jmh -PjmhArgs="ServerRoundTripBenchmark -prof gc"}, the difference in
+ * {@code gc.alloc.rate.norm} between the two is what the server allocates for each request on top of the socket.
+ *
+ * @author lwahlmeier
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServerRoundTripBenchmark {
+  private static final byte[] REQUEST = "GET /test HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes();
+  private static final HTTPResponse RESPONSE = new HTTPResponseBuilder()
+      .setHeader(HTTPConstants.HTTP_KEY_CONTENT_LENGTH, "0").build();
+
+  private NoThreadSocketExecuter se;
+  private TCPServer raw;
+  private HTTPServer server;
+  private Socket rawSocket;
+  private Socket serverSocket;
+  private byte[] response;
+
+  @Setup
+  public void setup() throws IOException {
+    se = new NoThreadSocketExecuter();
+    se.start();
+    final ByteBuffer encoded = RESPONSE.getByteBufferWithDate();
+    response = new byte[encoded.remaining()];
+
+    final int rawPort = PortUtils.findTCPPort();
+    raw = se.createTCPServer("localhost", rawPort);
+    raw.setClientAcceptor((client) -> {
+      client.setReader((c) -> {
+        MergedByteBuffers mbb = c.getRead();
+        mbb.discard(mbb.remaining());
+        c.write(encoded.duplicate());
+      });
+    });
+    raw.start();
+    rawSocket = connect(rawPort);
+
+    server = new HTTPServer(se, "localhost", PortUtils.findTCPPort());
+    server.addHandler((httpRequest, responseWriter, bodyListener) -> {
+      responseWriter.sendHTTPResponse(RESPONSE);
+      responseWriter.done();
+    });
+    server.start();
+    serverSocket = connect(server.getListenPort());
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    rawSocket.close();
+    serverSocket.close();
+    raw.close();
+    server.stop();
+    se.stop();
+  }
+
+  @Benchmark
+  public byte[] rawServer() throws IOException {
+    return roundTrip(rawSocket);
+  }
+
+  @Benchmark
+  public byte[] httpServer() throws IOException {
+    return roundTrip(serverSocket);
+  }
+
+  private byte[] roundTrip(final Socket socket) throws IOException {
+    socket.getOutputStream().write(REQUEST);
+    final InputStream is = socket.getInputStream();
+    int read = 0;
+    while(read < response.length) {
+      se.select(1);
+      if(is.available() > 0) {
+        read += is.read(response, read, response.length - read);
+      }
+    }
+    return response;
+  }
+
+  private static Socket connect(final int port) throws IOException {
+    final Socket socket = new Socket("localhost", port);
+    socket.setTcpNoDelay(true);
+    return socket;
+  }
+}
@@ -2,14 +2,19 @@ package org.threadly.litesockets.server.http;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.concurrent.ConcurrentHashMap;
+import java.text.ParseException;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import javax.net.ssl.SSLContext;
 
-import org.threadly.concurrent.event.ListenerHelper;
 import org.threadly.concurrent.event.RunnableListenerHelper;
 import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.concurrent.future.SettableListenableFuture;
+import org.threadly.concurrent.wrapper.KeyDistributedExecutor;
 import org.threadly.litesockets.Client;
 import org.threadly.litesockets.Client.ClientCloseListener;
 import org.threadly.litesockets.Client.Reader;
@@ -18,16 +23,27 @@ import org.threadly.litesockets.SocketExecuter;
 import org.threadly.litesockets.TCPClient;
 import org.threadly.litesockets.TCPServer;
 import org.threadly.litesockets.buffers.MergedByteBuffers;
-import org.threadly.litesockets.buffers.SimpleMergedByteBuffers;
 import org.threadly.litesockets.protocols.http.request.HTTPRequest;
 import org.threadly.litesockets.protocols.http.request.HTTPRequestProcessor;
+import org.threadly.litesockets.protocols.http.request.HTTPRequestHeader;
 import org.threadly.litesockets.protocols.http.request.HTTPRequestProcessor.HTTPRequestCallback;
+import org.threadly.litesockets.protocols.http.request.HTTPRequestProcessor.RequestLineControl;
 import org.threadly.litesockets.protocols.http.response.HTTPResponse;
 import org.threadly.litesockets.protocols.http.response.HTTPResponseBuilder;
+import org.threadly.litesockets.protocols.http.shared.HTTPBufferPool;
+import org.threadly.litesockets.protocols.http.shared.HTTPBufferPools;
+import org.threadly.litesockets.protocols.http.shared.HTTPChunkedEncoder;
 import org.threadly.litesockets.protocols.http.shared.HTTPConstants;
+import org.threadly.litesockets.protocols.http.shared.HTTPDate;
+import org.threadly.litesockets.protocols.http.shared.HTTPFormDecoder;
+import org.threadly.litesockets.protocols.http.shared.HTTPParsingException;
 import org.threadly.litesockets.protocols.http.shared.HTTPResponseCode;
+import org.threadly.litesockets.protocols.ws.WebSocketDeflateConfig;
+import org.threadly.litesockets.protocols.ws.WebSocketDeflater;
 import org.threadly.litesockets.protocols.ws.WebSocketFrameParser;
 import org.threadly.litesockets.protocols.ws.WebSocketFrameParser.WebSocketFrame;
+import org.threadly.litesockets.protocols.ws.WebSocketMessageAssembler;
+import org.threadly.litesockets.protocols.ws.WebSocketMessageAssembler.WebSocketMessageListener;
 import org.threadly.litesockets.protocols.ws.WebSocketOpCode;
 import org.threadly.util.AbstractService;
 import org.threadly.util.ExceptionUtils;
@@ -40,17 +56,29 @@ import org.threadly.util.ExceptionUtils;
  */
 public class HTTPServer extends AbstractService {
   public static final HTTPResponse NOT_FOUND_RESPONSE = new HTTPResponseBuilder().setResponseCode(HTTPResponseCode.NotFound).build();
+  public static final int DEFAULT_BROADCAST_BATCH_SIZE = 256;
+  private static final int MAX_POOLED_CONNECTIONS = 1024;
   private static final Logger LOG = Logger.getLogger(HTTPServer.class.getSimpleName());
   
-  private final ConcurrentHashMap<TCPClient, HTTPRequestProcessor> clients = new ConcurrentHashMap<>();
+  private final ConcurrentLinkedQueue<ConnectionState> statePool = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pooledConnections = new AtomicInteger();
+  private final AtomicInteger pendingBroadcastBatches = new AtomicInteger();
   private final ClientListener clientListener = new ClientListener();
   private final SSLContext sslc;
   private final SocketExecuter se;
+  private final KeyDistributedExecutor broadcastExecutor;
   private final TCPServer server;
   private final String hostname;
   private final int port;
   
   private volatile HTTPServerHandler handler;
+  private volatile HTTPRequestLineHandler requestLineHandler;
+  private volatile boolean addDateHeader = true;
+  private volatile boolean websocketStreaming = false;
+  private volatile long maxWebsocketFrameSize = Long.MAX_VALUE;
+  private volatile long maxWebsocketMessageSize = Long.MAX_VALUE;
+  private volatile WebSocketDeflateConfig websocketDeflate;
+  private volatile int broadcastBatchSize = DEFAULT_BROADCAST_BATCH_SIZE;
   
   /**
    * Constructs an {@link HTTPServer} without SSL support.
@@ -75,6 +103,7 @@ public class HTTPServer extends AbstractService {
    */
   public HTTPServer(final SocketExecuter se, final String hostName, final int port, final SSLContext sslc) throws IOException {
     this.se = se;
+    this.broadcastExecutor = new KeyDistributedExecutor(se.getThreadScheduler());
     this.hostname = hostName;
     this.port = port;
     this.sslc = sslc;
@@ -123,61 +152,381 @@ public class HTTPServer extends AbstractService {
     this.handler = handler;
   }
   
+  /**
+   * Sets an {@link HTTPRequestLineHandler} to this server.  It is called as soon as the request line of a 
+   * request is read and can pick the {@link HTTPServerHandler} for it, limit its header size or reject it
+   * before the headers are buffered.
+   * 
+   * @param requestLineHandler the handler to use, or null to send every request to the servers handler.
+   */
+  public void setRequestLineHandler(final HTTPRequestLineHandler requestLineHandler) {
+    this.requestLineHandler = requestLineHandler;
+  }
+  
+  /**
+   * Sets if a Date header should be added to {@link HTTPResponse}s that do not have one when they are sent.
+   * The date comes from the shared cache in {@link HTTPDate}.  This is on by default.
+   * 
+   * @param addDateHeader true to add a Date header to responses without one.
+   */
+  public void setAddDateHeader(final boolean addDateHeader) {
+    this.addDateHeader = addDateHeader;
+  }
+  
+  /**
+   * Sets if websocket payloads should be passed to 
+   * {@link BodyListener#onWebsocketPayload(HTTPRequest, WebSocketFrame, ByteBuffer, ResponseWriter)} in parts as 
+   * they arrive instead of buffering each frame for 
+   * {@link BodyListener#onWebsocketFrame(HTTPRequest, WebSocketFrame, ByteBuffer, ResponseWriter)}, see 
+   * {@link HTTPRequestProcessor#setWebsocketStreaming(boolean)}.  This only effects new connections.
+   * 
+   * @param websocketStreaming true to stream websocket payloads.
+   */
+  public void setWebsocketStreaming(final boolean websocketStreaming) {
+    this.websocketStreaming = websocketStreaming;
+  }
+  
+  /**
+   * Sets the largest websocket frame payload and message that a client can send.  If either is exceeded 
+   * the connection is closed.  This only effects new connections.
+   * 
+   * @param maxFrameSize the max frame payload size in bytes.
+   * @param maxMessageSize the max message size in bytes, counting a data frame and its continuations.
+   */
+  public void setMaxWebsocketSizes(final long maxFrameSize, final long maxMessageSize) {
+    this.maxWebsocketFrameSize = maxFrameSize;
+    this.maxWebsocketMessageSize = maxMessageSize;
+  }
+  
+  /**
+   * Enables permessage-deflate for websockets.  When a client offers it in its upgrade request and a 
+   * {@link HTTPResponseCode#SwitchingProtocols} response is sent without its own Sec-WebSocket-Extensions 
+   * header, the negotiated extension is added to the response and from then on messages are inflated before 
+   * they are passed to the {@link BodyListener} and compressed in 
+   * {@link ResponseWriter#writeWebsocketFrame(WebSocketOpCode, MergedByteBuffers, boolean)}.  This only effects 
+   * new upgrades.
+   * 
+   * @param websocketDeflate the {@link WebSocketDeflateConfig} to use, or null to not offer compression.
+   */
+  public void setWebsocketDeflate(final WebSocketDeflateConfig websocketDeflate) {
+    this.websocketDeflate = websocketDeflate;
+  }
+  
+  /**
+   * Sets how many connections each task started by 
+   * {@link #broadcastWebsocketFrame(WebSocketOpCode, MergedByteBuffers, Collection, int)} writes to.
+   * 
+   * @param broadcastBatchSize the number of connections per task.
+   */
+  public void setBroadcastBatchSize(final int broadcastBatchSize) {
+    if(broadcastBatchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be at least 1: "+broadcastBatchSize);
+    }
+    this.broadcastBatchSize = broadcastBatchSize;
+  }
+  
+  /**
+   * Sends the same WebSocket frame to many connections.  The unmasked frame is built once in a buffer from 
+   * the default {@link HTTPBufferPool} and each connection is given a read only duplicate of it, the buffer is
+   * released once every write is done.  The writes are split into batches of {@link #setBroadcastBatchSize(int)}
+   * connections, each batch is written from a single task on the {@link SocketExecuter}s thread pool so a large 
+   * broadcast is spread over its threads without submitting a task per connection.  Batches are run in order 
+   * by their index, so as long as the same connections are passed in the same order each connection gets the 
+   * frames in the order they were broadcast.  If there is only one batch and no batches from an earlier 
+   * broadcast are still waiting it is written on the calling thread.
+   * 
+   * Connections that are closed, have not sent a {@link HTTPResponseCode#SwitchingProtocols} response (including 
+   * ones still streaming an ordinary response body), or have more then {@code maxPendingBytes} waiting to be 
+   * written are skipped and counted in the {@link BroadcastResult}.  
+   * Frames are never compressed, even on connections that negotiated permessage-deflate, which is allowed 
+   * since the frame does not set RSV1.
+   * 
+   * @param wsoc the {@link WebSocketOpCode} for the frame.
+   * @param payload the payload of the frame, this is consumed.
+   * @param writers the {@link ResponseWriter}s of the upgraded connections to send to.
+   * @param maxPendingBytes the most data a connection can have waiting to be written and still be sent to.
+   * @return a {@link ListenableFuture} completed with the {@link BroadcastResult} once every write has been 
+   *     submitted, the writes themselves might still be pending.
+   */
+  public ListenableFuture<BroadcastResult> broadcastWebsocketFrame(final WebSocketOpCode wsoc, final MergedByteBuffers payload, 
+      final Collection<ResponseWriter> writers, final int maxPendingBytes) {
+    final HTTPBufferPool pool = HTTPBufferPools.getDefault();
+    final ResponseWriter[] targets = writers.toArray(new ResponseWriter[writers.size()]);
+    final int batchSize = broadcastBatchSize;
+    final int batches = Math.max(1, (targets.length + batchSize - 1) / batchSize);
+    final Broadcast broadcast = new Broadcast(pool, 
+        WebSocketFrameParser.makeWebSocketFrame(pool, payload, true, wsoc.getValue(), false, 0), 
+        targets, maxPendingBytes, batches);
+    if(batches == 1 && pendingBroadcastBatches.get() == 0) {
+      broadcast.writeBatch(0, targets.length);
+    } else {
+      pendingBroadcastBatches.addAndGet(batches);
+      for(int i=0; i<batches; i++) {
+        final int start = i * batchSize;
+        final int end = Math.min(targets.length, start + batchSize);
+        broadcastExecutor.execute(i, () -> {
+          try {
+            broadcast.writeBatch(start, end);
+          } finally {
+            pendingBroadcastBatches.decrementAndGet();
+          }
+        });
+      }
+    }
+    return broadcast.future;
+  }
+  
+  /**
+   * Gets the number of idle connection states being held for reuse by new connections.
+   * 
+   * @return the number of pooled connection states.
+   */
+  public int getPooledConnectionCount() {
+    return pooledConnections.get();
+  }
+  
   /**
    * 
    * @author lwahlmeier
    *
    */
-  private class ClientListener implements ClientAcceptor, Reader, ClientCloseListener {
+  private class ClientListener implements ClientAcceptor {
 
     @Override
     public void accept(Client client) {
       LOG.info("New client connection:"+client);
-      TCPClient tclient = (TCPClient)client;
-      HTTPRequestProcessor hrp = new HTTPRequestProcessor();
-      hrp.addHTTPRequestCallback(new HTTPRequestListener(tclient));
-      clients.put(tclient, hrp);
-      client.setReader(this);
-      client.addCloseListener(this);
+      ConnectionState cs = statePool.poll();
+      if(cs == null) {
+        cs = new ConnectionState();
+      } else {
+        pooledConnections.decrementAndGet();
+      }
+      cs.attach((TCPClient)client);
+      client.setReader(cs);
+      client.addCloseListener(cs);
     }
-
-    @Override
-    public void onClose(Client client) {
-      LOG.info("Client connection closed:"+client);
-      HTTPRequestProcessor hrp = clients.remove(client);
-      if(hrp != null) {
-        hrp.connectionClosed();
+  }
+  
+  /**
+   * A single frame being sent to many connections by 
+   * {@link HTTPServer#broadcastWebsocketFrame(WebSocketOpCode, MergedByteBuffers, Collection, int)}.  The 
+   * pooled frame is held by the broadcast until every batch is done and by every write until it completes, 
+   * it is released once the last one lets go of it.
+   * 
+   * @author lwahlmeier
+   *
+   */
+  private static class Broadcast {
+    private final SettableListenableFuture<BroadcastResult> future = new SettableListenableFuture<>(false);
+    private final AtomicInteger references = new AtomicInteger(1);
+    private final AtomicInteger sent = new AtomicInteger();
+    private final AtomicInteger skippedClosed = new AtomicInteger();
+    private final AtomicInteger skippedBacklogged = new AtomicInteger();
+    private final Runnable releaser = this::release;
+    private final HTTPBufferPool pool;
+    private final ByteBuffer frame;
+    private final ByteBuffer shared;
+    private final ResponseWriter[] writers;
+    private final int maxPendingBytes;
+    private final AtomicInteger batchesLeft;
+    
+    private Broadcast(HTTPBufferPool pool, ByteBuffer frame, ResponseWriter[] writers, int maxPendingBytes, int batches) {
+      this.pool = pool;
+      this.frame = frame;
+      this.shared = frame.asReadOnlyBuffer();
+      this.writers = writers;
+      this.maxPendingBytes = maxPendingBytes;
+      this.batchesLeft = new AtomicInteger(batches);
+    }
+    
+    private void writeBatch(int start, int end) {
+      int batchSent = 0;
+      int batchClosed = 0;
+      int batchBacklogged = 0;
+      try {
+        for(int i=start; i<end; i++) {
+          final ResponseWriter rw = writers[i];
+          if(!rw.canWriteWebsocketFrame()) {
+            batchClosed++;
+          } else if(rw.pendingDataSize() > maxPendingBytes) {
+            batchBacklogged++;
+          } else {
+            references.incrementAndGet();
+            try {
+              rw.client.write(shared.duplicate()).addListener(releaser);
+              batchSent++;
+            } catch(RuntimeException e) {
+              release();
+              batchClosed++;
+            }
+          }
+        }
+      } finally {
+        sent.addAndGet(batchSent);
+        skippedClosed.addAndGet(batchClosed);
+        skippedBacklogged.addAndGet(batchBacklogged);
+        if(batchesLeft.decrementAndGet() == 0) {
+          release();
+          future.setResult(new BroadcastResult(sent.get(), skippedClosed.get(), skippedBacklogged.get()));
+        }
       }
     }
-
+    
+    private void release() {
+      if(references.decrementAndGet() == 0) {
+        pool.release(frame);
+      }
+    }
+  }
+  
+  /**
+   * The outcome of a {@link HTTPServer#broadcastWebsocketFrame(WebSocketOpCode, MergedByteBuffers, Collection, int)}.
+   * 
+   * @author lwahlmeier
+   *
+   */
+  public static class BroadcastResult {
+    private final int sent;
+    private final int skippedClosed;
+    private final int skippedBacklogged;
+    
+    protected BroadcastResult(int sent, int skippedClosed, int skippedBacklogged) {
+      this.sent = sent;
+      this.skippedClosed = skippedClosed;
+      this.skippedBacklogged = skippedBacklogged;
+    }
+    
+    /**
+     * Gets the number of connections the frame was written to.
+     * 
+     * @return the number of sends.
+     */
+    public int getSent() {
+      return sent;
+    }
+    
+    /**
+     * Gets the number of connections that were skipped because they were closed or not able to write.
+     * 
+     * @return the number of closed connections.
+     */
+    public int getSkippedClosed() {
+      return skippedClosed;
+    }
+    
+    /**
+     * Gets the number of connections that were skipped because they had to much data waiting to be written.
+     * 
+     * @return the number of backlogged connections.
+     */
+    public int getSkippedBacklogged() {
+      return skippedBacklogged;
+    }
+    
+    /**
+     * Gets the total number of connections that were skipped.
+     * 
+     * @return the number of skipped connections.
+     */
+    public int getSkipped() {
+      return skippedClosed + skippedBacklogged;
+    }
+    
     @Override
-    public void onRead(Client client) {
-      clients.get(client).processData(client.getRead());
+    public String toString() {
+      return "BroadcastResult:sent="+sent+",skippedClosed="+skippedClosed+",skippedBacklogged="+skippedBacklogged;
     }
   }
   
   /**
+   * Everything the server keeps for a single connection.  Once the connection closes its processor and 
+   * buffers are put back in a pool to be used by the next one.  Each request gets a new {@link BodyFuture} and 
+   * {@link ResponseWriter}, a handler can hold on to those after the request is done and they must never end 
+   * up being used for a different request or connection.
    * 
    * @author lwahlmeier
    *
    */
-  private class HTTPRequestListener implements HTTPRequestCallback {
-    final TCPClient client;
-    BodyFuture bodyFuture;
-    ResponseWriter responseWriter;
-    HTTPRequest hr = null; 
+  private class ConnectionState implements HTTPRequestCallback, Reader, ClientCloseListener {
+    private final HTTPRequestProcessor hrp = new HTTPRequestProcessor();
+    private TCPClient client;
+    private BodyFuture bodyFuture;
+    private ResponseWriter responseWriter;
+    private HTTPServerHandler routedHandler = null;
+    private HTTPRequest hr = null; 
     
-    HTTPRequestListener(TCPClient client) {
+    ConnectionState() {
+      hrp.setMergedBodyData(true);
+      hrp.setUnmaskInPlace(true);
+      hrp.addHTTPRequestCallback(this);
+    }
+    
+    private void attach(TCPClient client) {
       this.client = client;
-      bodyFuture = new BodyFuture();
-      responseWriter = new ResponseWriter(this.client);
+      hrp.setWebsocketStreaming(websocketStreaming);
+      hrp.setMaxWebsocketFrameSize(maxWebsocketFrameSize);
+      hrp.setMaxWebsocketMessageSize(maxWebsocketMessageSize);
+    }
+
+    @Override
+    public void onRead(Client client) {
+      if(client == this.client) {
+        hrp.processData(client.getRead());
+      }
+    }
+
+    @Override
+    public void onClose(Client client) {
+      if(client != this.client) {
+        return;
+      }
+      LOG.info("Client connection closed:"+client);
+      hrp.connectionClosed();
+      if(responseWriter != null) {
+        responseWriter.detach();
+      }
+      hrp.clearBuffer();
+      routedHandler = null;
+      hr = null;
+      bodyFuture = null;
+      responseWriter = null;
+      this.client = null;
+      if(pooledConnections.incrementAndGet() <= MAX_POOLED_CONNECTIONS) {
+        statePool.offer(this);
+      } else {
+        pooledConnections.decrementAndGet();
+      }
+    }
+
+    @Override
+    public void requestLineFinished(HTTPRequestHeader hrh, RequestLineControl control) {
+      HTTPRequestLineHandler rlh = requestLineHandler;
+      if(rlh != null) {
+        routedHandler = rlh.route(hrh, control);
+      }
+    }
+
+    @Override
+    public void requestRejected(HTTPRequestHeader hrh, ByteBuffer response) {
+      routedHandler = null;
+      final TCPClient c = client;
+      c.write(response).addListener(() -> c.close());
     }
 
     @Override
     public void headersFinished(HTTPRequest hr) {
       this.hr = hr;
-      if(handler != null) {
-        handler.handle(hr, responseWriter, bodyFuture);
+      bodyFuture = new BodyFuture();
+      responseWriter = new ResponseWriter(client, addDateHeader);
+      WebSocketDeflateConfig wdc = websocketDeflate;
+      if(wdc != null && HTTPConstants.WEBSOCKET.equals(hr.getHTTPHeaders().getHeader(HTTPConstants.HTTP_KEY_UPGRADE))) {
+        responseWriter.processor = hrp;
+        responseWriter.offeredDeflater = wdc.acceptOffer(hr.getHTTPHeaders().getHeader(HTTPConstants.HTTP_KEY_WEBSOCKET_EXTENSIONS));
+      }
+      HTTPServerHandler h = routedHandler != null ? routedHandler : handler;
+      routedHandler = null;
+      if(h != null) {
+        h.handle(hr, responseWriter, bodyFuture);
       } else {
         responseWriter.sendHTTPResponse(NOT_FOUND_RESPONSE);
         responseWriter.closeOnDone();
@@ -190,26 +539,40 @@ public class HTTPServer extends AbstractService {
       bodyFuture.addBody(hr, bb, responseWriter);
     }
 
+    @Override
+    public void bodyData(MergedByteBuffers mbb) {
+      bodyFuture.addBody(hr, mbb, responseWriter);
+    }
+
     @Override
     public void finished() {
       bodyFuture.completed(hr, responseWriter);
-      bodyFuture = new BodyFuture();
-      responseWriter = new ResponseWriter(this.client);
     }
 
     @Override
     public void hasError(Throwable t) {
       ExceptionUtils.handleException(t);
       bodyFuture.completed(hr, responseWriter);
-      bodyFuture = new BodyFuture();
-      responseWriter = new ResponseWriter(this.client);
-      
+      if(hrp.isRejected()) {
+        // a websocket went over its size limits, nothing more can be read from it
+        client.close();
+      }
     }
 
     @Override
     public void websocketData(WebSocketFrame wsf, ByteBuffer bb) {
       bodyFuture.onWebsocketFrame(hr, wsf, bb, responseWriter);
     }
+
+    @Override
+    public void websocketPayload(WebSocketFrame wsf, ByteBuffer bb) {
+      bodyFuture.onWebsocketPayload(hr, wsf, bb, responseWriter);
+    }
+
+    @Override
+    public void websocketFrameFinished(WebSocketFrame wsf) {
+      bodyFuture.onWebsocketFrameFinished(hr, wsf, responseWriter);
+    }
   }
   
   /**
@@ -219,19 +582,72 @@ public class HTTPServer extends AbstractService {
    *
    */
   public static class ResponseWriter {
-    private final Client client;
     private final RunnableListenerHelper closeListener = new RunnableListenerHelper(false);
-    private boolean responseSent = false;
-    private boolean done = false;
-    private boolean closeOnDone = false;
+    private final Client client;
+    private final boolean addDateHeader;
+    private volatile boolean responseSent = false;
+    private volatile boolean upgraded = false;
+    private volatile boolean done = false;
+    private volatile boolean closeOnDone = false;
+    private boolean closeListenerAdded = false;
+    private HTTPRequestProcessor processor;
+    private WebSocketDeflater offeredDeflater;
+    private volatile WebSocketDeflater deflater;
     
     protected ResponseWriter(Client client) {
+      this(client, false);
+    }
+    
+    protected ResponseWriter(Client client, boolean addDateHeader) {
       this.client = client;
-      this.client.addCloseListener(new ClientCloseListener() {
-        @Override
-        public void onClose(Client client) {
-          closeListener.callListeners();
-        }});
+      this.addDateHeader = addDateHeader;
+    }
+    
+    /**
+     * Lets go of the connections processor and deflater once it closes, the processor is pooled for the next 
+     * connection and a late upgrade response from a handler must not change it.
+     */
+    private void detach() {
+      processor = null;
+      offeredDeflater = null;
+      closeDeflater();
+    }
+    
+    /**
+     * Turns on the offered permessage-deflate if this is the websocket upgrade response and the handler did 
+     * not negotiate its own extensions.
+     */
+    private HTTPResponse acceptDeflater(final HTTPResponse hr) {
+      final WebSocketDeflater d = offeredDeflater;
+      final HTTPRequestProcessor p = processor;
+      offeredDeflater = null;
+      if(d == null || p == null || hr.getResponseHeader().getResponseCode() != HTTPResponseCode.SwitchingProtocols || 
+          hr.getHeaders().getHeader(HTTPConstants.HTTP_KEY_WEBSOCKET_EXTENSIONS) != null) {
+        return hr;
+      }
+      deflater = d;
+      p.setWebsocketDeflater(d);
+      return hr.makeBuilder().setHeader(HTTPConstants.HTTP_KEY_WEBSOCKET_EXTENSIONS, d.getExtensionHeader()).build();
+    }
+    
+    private void closeDeflater() {
+      final WebSocketDeflater d = deflater;
+      if(d != null) {
+        deflater = null;
+        d.close();
+      }
+    }
+    
+    /**
+     * Lets you know if this connection was upgraded with a {@link HTTPResponseCode#SwitchingProtocols} response 
+     * and can still be sent WebSocket frames, unlike an ordinary response that is still streaming its body.
+     */
+    boolean canWriteWebsocketFrame() {
+      return upgraded && !done && !client.isClosed();
+    }
+    
+    ListenableFuture<?> lastWriteFuture() {
+      return client.lastWriteFuture();
     }
     
     /**
@@ -251,10 +667,17 @@ public class HTTPServer extends AbstractService {
      */
     public ListenableFuture<?> sendHTTPResponse(HTTPResponse hr) {
       if(!responseSent && ! done) {
+        if(offeredDeflater != null) {
+          hr = acceptDeflater(hr);
+        }
         if(hr.getResponseHeader().getHTTPVersion().equals(HTTPConstants.HTTP_VERSION_1_0)) {
           closeOnDone = true;
         }
+        upgraded = hr.getResponseHeader().getResponseCode() == HTTPResponseCode.SwitchingProtocols;
         responseSent = true;
+        if(addDateHeader && hr.getHeaders().getHeader(HTTPConstants.HTTP_KEY_DATE) == null) {
+          return client.write(hr.getByteBufferWithDate());
+        }
         return client.write(hr.getByteBuffer());
       } else if (responseSent) {
         throw new IllegalStateException("HTTPResponse already sent!");
@@ -287,6 +710,27 @@ public class HTTPServer extends AbstractService {
      */
     public void addCloseListener(Runnable cl) {
       closeListener.addListener(cl);
+      synchronized(closeListener) {
+        // only added once it is needed, so a keep-alive connection does not collect one for every request
+        if(!closeListenerAdded) {
+          closeListenerAdded = true;
+          client.addCloseListener(new ClientCloseListener() {
+            @Override
+            public void onClose(Client client) {
+              closeListener.callListeners();
+            }});
+        }
+      }
+    }
+    
+    /**
+     * Removes a Runnable added with {@link #addCloseListener(Runnable)}.
+     * 
+     * @param cl the Runnable to remove.
+     * @return true if the Runnable was found and removed.
+     */
+    public boolean removeCloseListener(Runnable cl) {
+      return closeListener.removeListener(cl);
     }
     
     /**
@@ -316,9 +760,66 @@ public class HTTPServer extends AbstractService {
       }
     }
     
+    /**
+     * Writes body data to the client wrapped in a chunk.  The {@link HTTPResponse} must have been sent with 
+     * chunked Transfer-Encoding set.  The data is not copied, the chunk header and trailing CRLF are written
+     * around it.  Writing an empty buffer sends the final chunk.
+     * 
+     * @param bb the data to write as the next chunk of the body.
+     * @return a {@link ListenableFuture} that will be complete once this data is written to the socket.
+     */
+    public ListenableFuture<?> writeChunk(ByteBuffer bb) {
+      return writeBody(HTTPChunkedEncoder.wrapInChunk(bb));
+    }
+    
+    /**
+     * Writes body data to the client wrapped in a single chunk.  See {@link #writeChunk(ByteBuffer)}.
+     * 
+     * @param mbb the data to write as the next chunk of the body.
+     * @return a {@link ListenableFuture} that will be complete once this data is written to the socket.
+     */
+    public ListenableFuture<?> writeChunk(MergedByteBuffers mbb) {
+      return writeBody(HTTPChunkedEncoder.wrapInChunk(mbb));
+    }
+    
+    /**
+     * Writes the data to the client as a single WebSocket Frame.  The frame is built in a buffer from the
+     * default {@link HTTPBufferPool} which is released once the write is done.  If permessage-deflate was 
+     * negotiated (see {@link HTTPServer#setWebsocketDeflate(WebSocketDeflateConfig)}) Text and Binary 
+     * frames are compressed.
+     * 
+     * @param wsoc the {@link WebSocketOpCode} for the frame.
+     * @param mbb the payload of the frame, this is consumed.
+     * @param mask true to mask the payload, false if not.
+     * @return a {@link ListenableFuture} that will be complete once the frame is written to the socket.
+     */
     public ListenableFuture<?> writeWebsocketFrame(WebSocketOpCode wsoc, MergedByteBuffers mbb, boolean mask) {
-      ByteBuffer bb = mbb.pullBuffer(mbb.remaining());
-      return writeBody(new SimpleMergedByteBuffers(false, WebSocketFrameParser.makeWebSocketFrame(mbb.remaining(), wsoc.getValue(), mask).getRawFrame(), bb));
+      final WebSocketDeflater d = deflater;
+      if(d != null && d.isCompressContextTakeover()) {
+        // each compressed frame depends on the ones before it so they must be written in the order they are made
+        synchronized(d) {
+          return writeWebsocketFrame(d, wsoc, mbb, mask);
+        }
+      }
+      return writeWebsocketFrame(d, wsoc, mbb, mask);
+    }
+    
+    private ListenableFuture<?> writeWebsocketFrame(WebSocketDeflater d, WebSocketOpCode wsoc, 
+        MergedByteBuffers mbb, boolean mask) {
+      final HTTPBufferPool pool = HTTPBufferPools.getDefault();
+      final int maskValue = mask ? ThreadLocalRandom.current().nextInt() : 0;
+      final ByteBuffer frame = d == null ? 
+          WebSocketFrameParser.makeWebSocketFrame(pool, mbb, true, wsoc.getValue(), mask, maskValue) : 
+          d.makeWebSocketFrame(pool, mbb, wsoc.getValue(), mask, maskValue);
+      final ListenableFuture<?> lf;
+      try {
+        lf = writeBody(frame);
+      } catch(RuntimeException e) {
+        pool.release(frame);
+        throw e;
+      }
+      lf.addListener(() -> pool.release(frame));
+      return lf;
     }
     
     /**
@@ -353,7 +854,7 @@ public class HTTPServer extends AbstractService {
    *
    */
   public static class BodyFuture {
-    private final ListenerHelper<BodyListener> listener = new ListenerHelper<>(BodyListener.class);
+    private volatile BodyListener listener;
     
     /**
      * Sets the BodyListener to be used/called back on.
@@ -361,20 +862,354 @@ public class HTTPServer extends AbstractService {
      * @param listener the listener to set.
      */
     public void setBodyListener(BodyListener listener) {
-      this.listener.clearListeners();
-      this.listener.addListener(listener);
+      this.listener = listener;
     }
     
     protected void addBody(HTTPRequest httpRequest, ByteBuffer bb, ResponseWriter responseWriter) {
-      listener.call().onBody(httpRequest, bb, responseWriter);
+      BodyListener bl = listener;
+      if(bl != null) {
+        try {
+          bl.onBody(httpRequest, bb, responseWriter);
+        } catch(Throwable t) {
+          ExceptionUtils.handleException(t);
+        }
+      }
+    }
+    
+    protected void addBody(HTTPRequest httpRequest, MergedByteBuffers mbb, ResponseWriter responseWriter) {
+      BodyListener bl = listener;
+      if(bl != null) {
+        try {
+          bl.onBody(httpRequest, mbb, responseWriter);
+        } catch(Throwable t) {
+          ExceptionUtils.handleException(t);
+        }
+      }
     }
     
     protected void completed(HTTPRequest httpRequest, ResponseWriter responseWriter) {
-      listener.call().bodyComplete(httpRequest, responseWriter);
+      BodyListener bl = listener;
+      if(bl != null) {
+        try {
+          bl.bodyComplete(httpRequest, responseWriter);
+        } catch(Throwable t) {
+          ExceptionUtils.handleException(t);
+        }
+      }
     }
     
     protected void onWebsocketFrame(HTTPRequest httpRequest, WebSocketFrame wsf, ByteBuffer bb, ResponseWriter responseWriter) {
-      listener.call().onWebsocketFrame(httpRequest, wsf, bb, responseWriter);
+      BodyListener bl = listener;
+      if(bl != null) {
+        try {
+          bl.onWebsocketFrame(httpRequest, wsf, bb, responseWriter);
+        } catch(Throwable t) {
+          ExceptionUtils.handleException(t);
+        }
+      }
+    }
+    
+    protected void onWebsocketPayload(HTTPRequest httpRequest, WebSocketFrame wsf, ByteBuffer bb, ResponseWriter responseWriter) {
+      BodyListener bl = listener;
+      if(bl != null) {
+        try {
+          bl.onWebsocketPayload(httpRequest, wsf, bb, responseWriter);
+        } catch(Throwable t) {
+          ExceptionUtils.handleException(t);
+        }
+      }
+    }
+    
+    protected void onWebsocketFrameFinished(HTTPRequest httpRequest, WebSocketFrame wsf, ResponseWriter responseWriter) {
+      BodyListener bl = listener;
+      if(bl != null) {
+        try {
+          bl.onWebsocketFrameFinished(httpRequest, wsf, responseWriter);
+        } catch(Throwable t) {
+          ExceptionUtils.handleException(t);
+        }
+      }
+    }
+  }
+  
+  /**
+   * A {@link BodyListener} for {@code application/x-www-form-urlencoded} bodies.  The body is decoded as it
+   * arrives and each parameter is passed to {@link #onParameter(HTTPRequest, String, String, ResponseWriter)}
+   * as soon as it is complete, so the whole body is never buffered.  A new one should be set for every request.
+   * 
+   * @author lwahlmeier
+   *
+   */
+  public abstract static class FormBodyListener implements BodyListener {
+    private final HTTPFormDecoder decoder;
+    private HTTPRequest currentRequest;
+    private ResponseWriter currentWriter;
+    private boolean failed = false;
+    
+    /**
+     * Creates a new {@link FormBodyListener} with the default max parameter size.
+     */
+    public FormBodyListener() {
+      this(HTTPFormDecoder.DEFAULT_MAX_PARAMETER_SIZE);
+    }
+    
+    /**
+     * Creates a new {@link FormBodyListener}.
+     * 
+     * @param maxParameterSize the max size in bytes a single decoded name or value can be.
+     */
+    public FormBodyListener(int maxParameterSize) {
+      decoder = new HTTPFormDecoder((name, value) -> onParameter(currentRequest, name, value, currentWriter), maxParameterSize);
+    }
+    
+    @Override
+    public void onBody(HTTPRequest httpRequest, ByteBuffer bb, ResponseWriter responseWriter) {
+      if(failed) {
+        return;
+      }
+      currentRequest = httpRequest;
+      currentWriter = responseWriter;
+      try {
+        decoder.process(bb);
+      } catch(HTTPParsingException e) {
+        failed = true;
+        onFormError(httpRequest, e, responseWriter);
+      }
+    }
+    
+    @Override
+    public void onWebsocketFrame(HTTPRequest httpRequest, WebSocketFrame wsf, ByteBuffer bb, ResponseWriter responseWriter) {
+      // form bodies are not sent over websockets
+    }
+    
+    @Override
+    public void bodyComplete(HTTPRequest httpRequest, ResponseWriter responseWriter) {
+      if(failed) {
+        return;
+      }
+      currentRequest = httpRequest;
+      currentWriter = responseWriter;
+      try {
+        decoder.finish();
+      } catch(HTTPParsingException e) {
+        failed = true;
+        onFormError(httpRequest, e, responseWriter);
+        return;
+      }
+      formComplete(httpRequest, responseWriter);
+    }
+    
+    /**
+     * Called for every decoded form parameter, in the order they appear in the body.
+     * 
+     * @param httpRequest the {@link HTTPRequest} this body is for.
+     * @param name the decoded name of the parameter.
+     * @param value the decoded value of the parameter, empty if it had none.
+     * @param responseWriter the {@link ResponseWriter} for this client.
+     */
+    public abstract void onParameter(HTTPRequest httpRequest, String name, String value, ResponseWriter responseWriter);
+    
+    /**
+     * Called once the body is complete and every parameter has been passed to 
+     * {@link #onParameter(HTTPRequest, String, String, ResponseWriter)}.
+     * 
+     * @param httpRequest the {@link HTTPRequest} this body is for.
+     * @param responseWriter the {@link ResponseWriter} for this client.
+     */
+    public abstract void formComplete(HTTPRequest httpRequest, ResponseWriter responseWriter);
+    
+    /**
+     * Called if the body can not be decoded, ie a parameter is to large.  No more parameters will be passed 
+     * after this.  By default the error is passed to {@link ExceptionUtils#handleException(Throwable)} and 
+     * the connection is closed.
+     * 
+     * @param httpRequest the {@link HTTPRequest} this body is for.
+     * @param error the problem decoding the body.
+     * @param responseWriter the {@link ResponseWriter} for this client.
+     */
+    public void onFormError(HTTPRequest httpRequest, HTTPParsingException error, ResponseWriter responseWriter) {
+      ExceptionUtils.handleException(error);
+      responseWriter.closeConnection();
+    }
+  }
+  
+  /**
+   * A {@link BodyListener} for upgraded WebSocket connections that passes whole messages to 
+   * {@link #onWebsocketMessage(HTTPRequest, int, MergedByteBuffers, ResponseWriter)} instead of frames.  
+   * Fragmented messages are put back together with a {@link WebSocketMessageAssembler}, so the message is made 
+   * up of the buffers that were read and nothing is copied, and control frames that come in the middle of a 
+   * message are passed to {@link #onWebsocketControlFrame(HTTPRequest, WebSocketFrame, ByteBuffer, ResponseWriter)} 
+   * right away.  This works with or without {@link HTTPServer#setWebsocketStreaming(boolean)}.  A new one 
+   * should be set for every connection.
+   * 
+   * @author lwahlmeier
+   *
+   */
+  public abstract static class WebSocketMessageBodyListener implements BodyListener {
+    private final WebSocketMessageAssembler assembler;
+    private HTTPRequest currentRequest;
+    private ResponseWriter currentWriter;
+    private boolean failed = false;
+    
+    /**
+     * Creates a new {@link WebSocketMessageBodyListener} with no message size limit that never streams.
+     */
+    public WebSocketMessageBodyListener() {
+      this(Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+    
+    /**
+     * Creates a new {@link WebSocketMessageBodyListener}.
+     * 
+     * @param maxMessageSize the largest message in bytes that will be accepted, see 
+     *     {@link WebSocketMessageAssembler#setMaxMessageSize(long)}.
+     * @param streamThreshold the size in bytes a message can be buffered to before it is passed to 
+     *     {@link #onWebsocketMessagePart(HTTPRequest, int, ByteBuffer, ResponseWriter)} in parts instead, see 
+     *     {@link WebSocketMessageAssembler#setStreamThreshold(long)}.
+     */
+    public WebSocketMessageBodyListener(long maxMessageSize, long streamThreshold) {
+      assembler = new WebSocketMessageAssembler(new WebSocketMessageListener() {
+        @Override
+        public void onMessage(int opCode, MergedByteBuffers message) {
+          onWebsocketMessage(currentRequest, opCode, message, currentWriter);
+        }
+
+        @Override
+        public void onControlFrame(WebSocketFrame frame, ByteBuffer payload) {
+          onWebsocketControlFrame(currentRequest, frame, payload, currentWriter);
+        }
+
+        @Override
+        public void onMessagePart(int opCode, ByteBuffer part) {
+          onWebsocketMessagePart(currentRequest, opCode, part, currentWriter);
+        }
+
+        @Override
+        public void onMessageFinished(int opCode) {
+          onWebsocketMessageFinished(currentRequest, opCode, currentWriter);
+        }
+      }).setMaxMessageSize(maxMessageSize).setStreamThreshold(streamThreshold);
+    }
+    
+    @Override
+    public void onBody(HTTPRequest httpRequest, ByteBuffer bb, ResponseWriter responseWriter) {
+      // only websocket frames are read
+    }
+    
+    @Override
+    public void onWebsocketFrame(HTTPRequest httpRequest, WebSocketFrame wsf, ByteBuffer bb, ResponseWriter responseWriter) {
+      if(failed) {
+        return;
+      }
+      currentRequest = httpRequest;
+      currentWriter = responseWriter;
+      try {
+        assembler.onFrame(wsf, bb);
+      } catch(ParseException e) {
+        fail(e);
+      }
+    }
+    
+    @Override
+    public void onWebsocketPayload(HTTPRequest httpRequest, WebSocketFrame wsf, ByteBuffer bb, ResponseWriter responseWriter) {
+      if(failed) {
+        return;
+      }
+      currentRequest = httpRequest;
+      currentWriter = responseWriter;
+      try {
+        assembler.onPayload(wsf, bb);
+      } catch(ParseException e) {
+        fail(e);
+      }
+    }
+    
+    @Override
+    public void onWebsocketFrameFinished(HTTPRequest httpRequest, WebSocketFrame wsf, ResponseWriter responseWriter) {
+      if(failed) {
+        return;
+      }
+      currentRequest = httpRequest;
+      currentWriter = responseWriter;
+      try {
+        assembler.onFrameFinished(wsf);
+      } catch(ParseException e) {
+        fail(e);
+      }
+    }
+    
+    @Override
+    public void bodyComplete(HTTPRequest httpRequest, ResponseWriter responseWriter) {
+      // websocket connections have no body to complete
+    }
+    
+    private void fail(ParseException e) {
+      failed = true;
+      assembler.reset();
+      onWebsocketError(currentRequest, e, currentWriter);
+    }
+    
+    /**
+     * Called with each full message that was not streamed.
+     * 
+     * @param httpRequest the initial {@link HTTPRequest} that upgraded the connection.
+     * @param opCode the opCode of the first frame of the message, ie Text or Binary.
+     * @param message the full payload of the message, unmasked and inflated.
+     * @param responseWriter the {@link ResponseWriter} for this client.
+     */
+    public abstract void onWebsocketMessage(HTTPRequest httpRequest, int opCode, MergedByteBuffers message, 
+        ResponseWriter responseWriter);
+    
+    /**
+     * Called with each Ping, Pong or Close frame.  By default these are ignored.
+     * 
+     * @param httpRequest the initial {@link HTTPRequest} that upgraded the connection.
+     * @param wsf the {@link WebSocketFrame} header, this is reused for the next frame.
+     * @param payload the payload of the frame, might be empty, but never null.
+     * @param responseWriter the {@link ResponseWriter} for this client.
+     */
+    public void onWebsocketControlFrame(HTTPRequest httpRequest, WebSocketFrame wsf, ByteBuffer payload, 
+        ResponseWriter responseWriter) {
+      // ignored by default
+    }
+    
+    /**
+     * Called with each part of a message that went over the stream threshold.  This must be overridden if a 
+     * threshold is set.
+     * 
+     * @param httpRequest the initial {@link HTTPRequest} that upgraded the connection.
+     * @param opCode the opCode of the first frame of the message, ie Text or Binary.
+     * @param part the next part of the message.
+     * @param responseWriter the {@link ResponseWriter} for this client.
+     */
+    public void onWebsocketMessagePart(HTTPRequest httpRequest, int opCode, ByteBuffer part, ResponseWriter responseWriter) {
+      // ignored by default
+    }
+    
+    /**
+     * Called once every part of a streamed message has been passed to 
+     * {@link #onWebsocketMessagePart(HTTPRequest, int, ByteBuffer, ResponseWriter)}.
+     * 
+     * @param httpRequest the initial {@link HTTPRequest} that upgraded the connection.
+     * @param opCode the opCode of the first frame of the message, ie Text or Binary.
+     * @param responseWriter the {@link ResponseWriter} for this client.
+     */
+    public void onWebsocketMessageFinished(HTTPRequest httpRequest, int opCode, ResponseWriter responseWriter) {
+      // ignored by default
+    }
+    
+    /**
+     * Called if a message is over the max size or the frames are not in a valid order.  Nothing more is passed 
+     * on after this.  By default the error is passed to {@link ExceptionUtils#handleException(Throwable)} and 
+     * the connection is closed.
+     * 
+     * @param httpRequest the initial {@link HTTPRequest} that upgraded the connection.
+     * @param error the problem with the message.
+     * @param responseWriter the {@link ResponseWriter} for this client.
+     */
+    public void onWebsocketError(HTTPRequest httpRequest, ParseException error, ResponseWriter responseWriter) {
+      ExceptionUtils.handleException(error);
+      responseWriter.closeConnection();
     }
   }
   
@@ -395,6 +1230,25 @@ public class HTTPServer extends AbstractService {
     void handle(HTTPRequest httpRequest, ResponseWriter responseWriter, BodyFuture bodyListener);
   }
   
+  /**
+   * Called for every request as soon as its request line is read, before its headers are buffered or parsed.
+   * 
+   * @author lwahlmeier
+   *
+   */
+  public interface HTTPRequestLineHandler {
+    /**
+     * Picks the handler for a request.  The {@link RequestLineControl} can be used to set a header size limit 
+     * for this request, or to reject it with an already encoded response.  Rejected requests have their 
+     * response written and the connection is closed.
+     * 
+     * @param requestHeader the parsed request line.
+     * @param control the {@link RequestLineControl} for this request.
+     * @return the {@link HTTPServerHandler} to handle this request with, or null to use the servers handler.
+     */
+    HTTPServerHandler route(HTTPRequestHeader requestHeader, RequestLineControl control);
+  }
+  
   /**
    * A simple callback interface used to receive body data from an HTTP client.
    * 
@@ -411,8 +1265,57 @@ public class HTTPServer extends AbstractService {
      */
     public void onBody(HTTPRequest httpRequest, ByteBuffer bb, ResponseWriter responseWriter);
     
+    /**
+     * This is called as body data come in, with the data still in the buffers it was read into so nothing
+     * is copied.  By default each buffer is passed to {@link #onBody(HTTPRequest, ByteBuffer, ResponseWriter)} 
+     * in order.
+     * 
+     * @param httpRequest the initial {@link HTTPRequest} this body is for.
+     * @param mbb the current body data.
+     * @param responseWriter the {@link ResponseWriter} for this client.
+     */
+    default void onBody(HTTPRequest httpRequest, MergedByteBuffers mbb, ResponseWriter responseWriter) {
+      while(mbb.remaining() > 0) {
+        onBody(httpRequest, mbb.popBuffer(), responseWriter);
+      }
+    }
+    
+    /**
+     * Called for each WebSocket frame read once the connection has been upgraded.
+     * 
+     * @param httpRequest the initial {@link HTTPRequest} that upgraded the connection.
+     * @param wsf the {@link WebSocketFrame} header, this is reused for the next frame so use 
+     *     {@link WebSocketFrame#copy()} to keep it.
+     * @param bb the unmasked payload of the frame, inflated if permessage-deflate was negotiated.
+     * @param responseWriter the {@link ResponseWriter} for this client.
+     */
     public void onWebsocketFrame(HTTPRequest httpRequest, WebSocketFrame wsf, ByteBuffer bb, ResponseWriter responseWriter);
     
+    /**
+     * Called with each part of a WebSocket frames payload as it arrives when the server is set to 
+     * {@link HTTPServer#setWebsocketStreaming(boolean)}.  The data is already unmasked.
+     * 
+     * @param httpRequest the initial {@link HTTPRequest} that upgraded the connection.
+     * @param wsf the {@link WebSocketFrame} header, this is reused for the next frame.
+     * @param bb the next part of the payload.
+     * @param responseWriter the {@link ResponseWriter} for this client.
+     */
+    default void onWebsocketPayload(HTTPRequest httpRequest, WebSocketFrame wsf, ByteBuffer bb, ResponseWriter responseWriter) {
+      // ignored by default
+    }
+    
+    /**
+     * Called once all of a streamed WebSocket frames payload has been passed to 
+     * {@link #onWebsocketPayload(HTTPRequest, WebSocketFrame, ByteBuffer, ResponseWriter)}.
+     * 
+     * @param httpRequest the initial {@link HTTPRequest} that upgraded the connection.
+     * @param wsf the {@link WebSocketFrame} that was finished.
+     * @param responseWriter the {@link ResponseWriter} for this client.
+     */
+    default void onWebsocketFrameFinished(HTTPRequest httpRequest, WebSocketFrame wsf, ResponseWriter responseWriter) {
+      // ignored by default
+    }
+    
     /**
      * This is called when the body has completed.
      * NOTE: it is not always possible to know if the body data is done depending on the {@link HTTPRequest} so this might not get called.
@@ -0,0 +1,387 @@
+package org.threadly.litesockets.server.http;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.threadly.litesockets.buffers.MergedByteBuffers;
+import org.threadly.litesockets.protocols.ws.WebSocketFrameParser;
+import org.threadly.litesockets.protocols.ws.WebSocketOpCode;
+import org.threadly.litesockets.server.http.HTTPServer.ResponseWriter;
+
+/**
+ * A registry of topics that upgraded WebSocket connections can subscribe to, and publish to all of them at once.
+ *
+ * Topics are kept in a {@link ConcurrentHashMap} and each topics subscribers are split over a number of
+ * {@link ConcurrentHashMap} stripes, so publishing only ever reads and iterates without taking a lock, and
+ * subscribes and unsubscribes only contend with others on the same stripe.  A topic is removed once its last
+ * subscriber leaves.
+ *
+ * Each published frame is built once, unmasked, and every subscriber is written a duplicate of it.  When a
+ * subscribers {@link ResponseWriter#pendingDataSize()} is over the conflate watermark it stops being written
+ * to and only the latest value for the topic is kept for it, replacing any value that was already waiting.
+ * Once its pending writes complete and it is back under the watermark the latest value is written and it goes
+ * back to being written to directly.  A slow subscriber so never holds more then one waiting value per topic.
+ *
+ * Subscribers are removed when their connection closes.
+ *
+ * @author lwahlmeier
+ *
+ */
+public class WebSocketTopicRegistry {
+  public static final int DEFAULT_STRIPES = 16;
+
+  private final ConcurrentHashMap<String, Topic> topics = new ConcurrentHashMap<>();
+  private final int conflateWatermark;
+  private final int stripes;
+
+  /**
+   * Creates a new {@link WebSocketTopicRegistry} with {@link #DEFAULT_STRIPES} stripes per topic.
+   *
+   * @param conflateWatermark the pending write size in bytes over which a subscriber is only sent the latest value.
+   */
+  public WebSocketTopicRegistry(final int conflateWatermark) {
+    this(conflateWatermark, DEFAULT_STRIPES);
+  }
+
+  /**
+   * Creates a new {@link WebSocketTopicRegistry}.
+   *
+   * @param conflateWatermark the pending write size in bytes over which a subscriber is only sent the latest value.
+   * @param stripes the number of stripes to split each topics subscribers over.
+   */
+  public WebSocketTopicRegistry(final int conflateWatermark, final int stripes) {
+    if(stripes < 1) {
+      throw new IllegalArgumentException("Must have at least 1 stripe: "+stripes);
+    }
+    this.conflateWatermark = conflateWatermark;
+    this.stripes = stripes;
+  }
+
+  /**
+   * Subscribes a connection to a topic.  The {@link ResponseWriter} must be for a connection that has already
+   * been upgraded to WebSockets.  A close listener is added to it for as long as it stays subscribed.
+   *
+   * @param topic the topic to subscribe to.
+   * @param writer the {@link ResponseWriter} of the connection.
+   * @return true if the connection was subscribed, false if it already was.
+   */
+  public boolean subscribe(final String topic, final ResponseWriter writer) {
+    final Subscription sub = new Subscription(topic, writer);
+    // added first so a close can not be missed, it is removed again when the subscription is
+    writer.addCloseListener(sub.closeListener);
+    while(true) {
+      final Topic t = topics.computeIfAbsent(topic, (k) -> new Topic(stripes));
+      final Boolean added = t.add(sub);
+      if(added == null) {
+        // the topic was emptied and is being removed, make sure it is gone and try again
+        topics.remove(topic, t);
+        continue;
+      }
+      if(!added) {
+        writer.removeCloseListener(sub.closeListener);
+      }
+      return added;
+    }
+  }
+
+  /**
+   * Unsubscribes a connection from a topic.
+   *
+   * @param topic the topic to unsubscribe from.
+   * @param writer the {@link ResponseWriter} of the connection.
+   * @return true if the connection was unsubscribed, false if it was not subscribed.
+   */
+  public boolean unsubscribe(final String topic, final ResponseWriter writer) {
+    final Topic t = topics.get(topic);
+    if(t == null) {
+      return false;
+    }
+    final Subscription sub = t.remove(writer);
+    if(sub == null) {
+      return false;
+    }
+    sub.close();
+    writer.removeCloseListener(sub.closeListener);
+    if(t.closeIfEmpty()) {
+      topics.remove(topic, t);
+    }
+    return true;
+  }
+
+  /**
+   * Gets the number of topics with at least one subscriber.
+   *
+   * @return the number of topics.
+   */
+  public int getTopicCount() {
+    return topics.size();
+  }
+
+  /**
+   * Gets the number of subscribers on a topic.
+   *
+   * @param topic the topic to check.
+   * @return the number of subscribers.
+   */
+  public int getSubscriberCount(final String topic) {
+    final Topic t = topics.get(topic);
+    return t == null ? 0 : Math.max(0, t.count.get());
+  }
+
+  /**
+   * Publishes a frame to every subscriber of a topic, see {@link WebSocketTopicRegistry} for how slow
+   * subscribers are handled.  This does not block on subscribes or unsubscribes, a subscriber added or
+   * removed while this is running might or might not get the frame.
+   *
+   * @param topic the topic to publish to.
+   * @param wsoc the {@link WebSocketOpCode} of the frame.
+   * @param payload the payload of the frame, this is consumed.
+   * @return a {@link PublishResult} with what was done for the subscribers.
+   */
+  public PublishResult publish(final String topic, final WebSocketOpCode wsoc, final MergedByteBuffers payload) {
+    final Topic t = topics.get(topic);
+    if(t == null) {
+      payload.discard(payload.remaining());
+      return new PublishResult(0, 0, 0);
+    }
+    final ByteBuffer frame = encodeFrame(wsoc, payload);
+    int sent = 0;
+    int conflated = 0;
+    int closed = 0;
+    for(final ConcurrentHashMap<ResponseWriter, Subscription> stripe: t.stripes) {
+      for(final Subscription sub: stripe.values()) {
+        if(!sub.writer.canWriteWebsocketFrame()) {
+          unsubscribe(topic, sub.writer);
+          closed++;
+        } else if(sub.offer(frame)) {
+          sent++;
+        } else {
+          conflated++;
+        }
+      }
+    }
+    return new PublishResult(sent, conflated, closed);
+  }
+
+  /**
+   * Builds the frame on the heap instead of in a pooled buffer, a conflated subscriber can hold on to it for
+   * as long as it stays backed up so there is no good point to release it.
+   */
+  private static ByteBuffer encodeFrame(final WebSocketOpCode wsoc, final MergedByteBuffers payload) {
+    final int size = payload.remaining();
+    final ByteBuffer header = WebSocketFrameParser.makeWebSocketFrame(size, true, wsoc.getValue(), false).getRawFrame();
+    final ByteBuffer frame = ByteBuffer.allocate(header.remaining() + size);
+    frame.put(header);
+    while(payload.remaining() > 0) {
+      frame.put(payload.popBuffer());
+    }
+    frame.flip();
+    return frame.asReadOnlyBuffer();
+  }
+
+  /**
+   * The subscribers of a single topic.  The count is set to -1 once the topic is emptied so nothing can be
+   * added to it while it is being removed from the registry.
+   */
+  private static class Topic {
+    private final AtomicInteger count = new AtomicInteger();
+    private final ConcurrentHashMap<ResponseWriter, Subscription>[] stripes;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Topic(final int stripeCount) {
+      stripes = new ConcurrentHashMap[stripeCount];
+      for(int i=0; i<stripeCount; i++) {
+        stripes[i] = new ConcurrentHashMap<>();
+      }
+    }
+
+    private ConcurrentHashMap<ResponseWriter, Subscription> stripeFor(final ResponseWriter writer) {
+      return stripes[Math.floorMod(System.identityHashCode(writer), stripes.length)];
+    }
+
+    /**
+     * @return true if added, false if already subscribed, or null if this topic is closed.
+     */
+    private Boolean add(final Subscription sub) {
+      int c;
+      do {
+        c = count.get();
+        if(c < 0) {
+          return null;
+        }
+      } while(!count.compareAndSet(c, c + 1));
+      if(stripeFor(sub.writer).putIfAbsent(sub.writer, sub) != null) {
+        count.decrementAndGet();
+        return false;
+      }
+      return true;
+    }
+
+    private Subscription remove(final ResponseWriter writer) {
+      final Subscription sub = stripeFor(writer).remove(writer);
+      if(sub != null) {
+        count.decrementAndGet();
+      }
+      return sub;
+    }
+
+    private boolean closeIfEmpty() {
+      return count.compareAndSet(0, -1);
+    }
+  }
+
+  /**
+   * A single connections subscription to a topic.  Frames are written straight to the connection until it is
+   * over the watermark, then only the latest is held and a listener on the connections last write drains it.
+   * Every write, direct or drained, is done while holding the draining flag, and frames are only written
+   * directly again once the drain finds nothing held, so a held value is never written after a newer one.
+   */
+  private class Subscription {
+    private final AtomicReference<ByteBuffer> latest = new AtomicReference<>();
+    private final AtomicBoolean drainArmed = new AtomicBoolean(false);
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    private final Runnable drainer = this::drain;
+    private final Runnable closeListener;
+    private final ResponseWriter writer;
+    private volatile boolean conflating = false;
+
+    private Subscription(final String topic, final ResponseWriter writer) {
+      this.writer = writer;
+      this.closeListener = () -> unsubscribe(topic, writer);
+    }
+
+    /**
+     * @return true if the frame was written, false if it was held as the latest value.
+     */
+    private boolean offer(final ByteBuffer frame) {
+      if(!conflating && draining.compareAndSet(false, true)) {
+        boolean written = false;
+        try {
+          // checked again now that nothing else can write
+          if(!conflating && writer.pendingDataSize() <= conflateWatermark) {
+            write(frame);
+            written = true;
+          }
+        } finally {
+          draining.set(false);
+        }
+        if(written) {
+          if(latest.get() != null) {
+            // a frame was held while this one was written, its drain might have been locked out
+            armDrain();
+          }
+          return true;
+        }
+      }
+      latest.set(frame);
+      conflating = true;
+      armDrain();
+      return false;
+    }
+
+    private void write(final ByteBuffer frame) {
+      try {
+        writer.writeBody(frame.duplicate());
+      } catch(IllegalStateException e) {
+        // closed or finished between the check and the write, it is removed on the next publish or its close
+      }
+    }
+
+    private void armDrain() {
+      if(drainArmed.compareAndSet(false, true)) {
+        writer.lastWriteFuture().addListener(drainer);
+      }
+    }
+
+    private void drain() {
+      drainArmed.set(false);
+      while(draining.compareAndSet(false, true)) {
+        boolean backedUp = false;
+        try {
+          if(!writer.canWriteWebsocketFrame()) {
+            latest.set(null);
+            return;
+          }
+          if(writer.pendingDataSize() > conflateWatermark) {
+            backedUp = true;
+          } else {
+            final ByteBuffer frame = latest.getAndSet(null);
+            if(frame != null) {
+              write(frame);
+            } else {
+              // only once nothing is held can frames be written directly again
+              conflating = false;
+            }
+          }
+        } finally {
+          draining.set(false);
+        }
+        if(backedUp) {
+          armDrain();
+          return;
+        }
+        if(!conflating && latest.get() == null) {
+          return;
+        }
+      }
+    }
+
+    private void close() {
+      latest.set(null);
+    }
+  }
+
+  /**
+   * The outcome of a {@link WebSocketTopicRegistry#publish(String, WebSocketOpCode, MergedByteBuffers)}.
+   *
+   * @author lwahlmeier
+   *
+   */
+  public static class PublishResult {
+    private final int sent;
+    private final int conflated;
+    private final int closed;
+
+    protected PublishResult(final int sent, final int conflated, final int closed) {
+      this.sent = sent;
+      this.conflated = conflated;
+      this.closed = closed;
+    }
+
+    /**
+     * Gets the number of subscribers the frame was written to.
+     *
+     * @return the number of sends.
+     */
+    public int getSent() {
+      return sent;
+    }
+
+    /**
+     * Gets the number of subscribers that were over the watermark and had the frame held as their latest
+     * value instead.
+     *
+     * @return the number of conflated subscribers.
+     */
+    public int getConflated() {
+      return conflated;
+    }
+
+    /**
+     * Gets the number of subscribers that were closed and removed from the topic.
+     *
+     * @return the number of closed subscribers.
+     */
+    public int getClosed() {
+      return closed;
+    }
+
+    @Override
+    public String toString() {
+      return "PublishResult:sent="+sent+",conflated="+conflated+",closed="+closed;
+    }
+  }
+}
@@ -0,0 +1,529 @@
+package org.threadly.litesockets.server.http;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.threadly.concurrent.PriorityScheduler;
+import org.threadly.concurrent.future.FutureUtils;
+import org.threadly.concurrent.future.ListenableFuture;
+import org.threadly.litesockets.NoThreadSocketExecuter;
+import org.threadly.litesockets.ThreadedSocketExecuter;
+import org.threadly.litesockets.buffers.MergedByteBuffers;
+import org.threadly.litesockets.buffers.ReuseableMergedByteBuffers;
+import org.threadly.litesockets.buffers.SimpleMergedByteBuffers;
+import org.threadly.litesockets.protocols.http.request.HTTPRequest;
+import org.threadly.litesockets.protocols.http.response.HTTPResponse;
+import org.threadly.litesockets.protocols.http.response.HTTPResponseBuilder;
+import org.threadly.litesockets.protocols.http.shared.DirectHTTPBufferPool;
+import org.threadly.litesockets.protocols.http.shared.HTTPBufferPool;
+import org.threadly.litesockets.protocols.http.shared.HTTPBufferPools;
+import org.threadly.litesockets.protocols.http.shared.HTTPConstants;
+import org.threadly.litesockets.protocols.http.shared.HTTPResponseCode;
+import org.threadly.litesockets.protocols.ws.WebSocketDeflateConfig;
+import org.threadly.litesockets.protocols.ws.WebSocketDeflater;
+import org.threadly.litesockets.protocols.ws.WebSocketFrameParser;
+import org.threadly.litesockets.protocols.ws.WebSocketFrameParser.WebSocketFrame;
+import org.threadly.litesockets.protocols.ws.WebSocketOpCode;
+import org.threadly.litesockets.server.http.HTTPServer.BodyFuture;
+import org.threadly.litesockets.server.http.HTTPServer.BroadcastResult;
+import org.threadly.litesockets.server.http.HTTPServer.BodyListener;
+import org.threadly.litesockets.server.http.HTTPServer.HTTPServerHandler;
+import org.threadly.litesockets.server.http.HTTPServer.ResponseWriter;
+import org.threadly.litesockets.server.http.HTTPServer.WebSocketMessageBodyListener;
+import org.threadly.litesockets.server.http.WebSocketTopicRegistry.PublishResult;
+import org.threadly.litesockets.utils.PortUtils;
+
+public class HTTPServerTests {
+  private static final HTTPResponse RESPONSE = new HTTPResponseBuilder()
+      .setHeader(HTTPConstants.HTTP_KEY_CONTENT_LENGTH, "0").build();
+  private static final byte[] REQUEST = "GET /test HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes();
+  private static final int RESPONSE_SIZE = RESPONSE.getByteBuffer().remaining();
+  
+  NoThreadSocketExecuter se;
+  HTTPServer server;
+  HTTPBufferPool defaultPool;
+  DirectHTTPBufferPool pool;
+  List<ResponseWriter> writers = new ArrayList<>();
+  List<BodyFuture> bodyFutures = new ArrayList<>();
+  
+  @Before
+  public void start() throws IOException {
+    defaultPool = HTTPBufferPools.getDefault();
+    pool = new DirectHTTPBufferPool();
+    pool.setLeakDetection(true);
+    HTTPBufferPools.setDefault(pool);
+    se = new NoThreadSocketExecuter();
+    se.start();
+    server = new HTTPServer(se, "localhost", PortUtils.findTCPPort());
+    server.setAddDateHeader(false);
+    server.addHandler(new HTTPServerHandler() {
+      @Override
+      public void handle(HTTPRequest httpRequest, ResponseWriter responseWriter, BodyFuture bodyListener) {
+        writers.add(responseWriter);
+        bodyFutures.add(bodyListener);
+        responseWriter.sendHTTPResponse(RESPONSE);
+        responseWriter.done();
+      }});
+    server.start();
+  }
+  
+  @After
+  public void stop() {
+    server.stop();
+    se.stop();
+    HTTPBufferPools.setDefault(defaultPool);
+    assertTrue(pool.getLeaks().toString(), pool.getLeaks().isEmpty());
+  }
+  
+  @Test
+  public void keepAliveReusesConnectionState() throws IOException {
+    byte[] response = new byte[RESPONSE_SIZE];
+    try(Socket socket = connect()) {
+      for(int i=0; i<10; i++) {
+        doRequest(socket, response);
+      }
+    }
+    assertEquals(10, writers.size());
+    // every request gets its own writer and BodyFuture, a finished one can never touch the next request
+    for(int i=1; i<writers.size(); i++) {
+      assertNotSame(writers.get(i-1), writers.get(i));
+      assertNotSame(bodyFutures.get(i-1), bodyFutures.get(i));
+    }
+    try {
+      writers.get(0).writeBody(ByteBuffer.allocate(1));
+      fail();
+    } catch(IllegalStateException e) {
+      // expected, the old writer is done
+    }
+    waitForPooled(1);
+    
+    // a new connection picks up the pooled state
+    try(Socket socket = connect()) {
+      doRequest(socket, response);
+      assertEquals(0, server.getPooledConnectionCount());
+    }
+    assertTrue(writers.get(0).isClosed());
+    assertEquals(RESPONSE.toString(), new String(response));
+    waitForPooled(1);
+  }
+  
+  @Test
+  public void websocketDeflate() throws IOException, ParseException {
+    WebSocketDeflateConfig config = new WebSocketDeflateConfig();
+    server.setWebsocketDeflate(config);
+    server.addHandler(new HTTPServerHandler() {
+      @Override
+      public void handle(HTTPRequest httpRequest, ResponseWriter responseWriter, BodyFuture bodyListener) {
+        bodyListener.setBodyListener(new BodyListener() {
+          @Override
+          public void onBody(HTTPRequest httpRequest, ByteBuffer bb, ResponseWriter responseWriter) {
+          }
+
+          @Override
+          public void bodyComplete(HTTPRequest httpRequest, ResponseWriter responseWriter) {
+          }
+
+          @Override
+          public void onWebsocketFrame(HTTPRequest httpRequest, WebSocketFrame wsf, ByteBuffer bb, ResponseWriter responseWriter) {
+            responseWriter.writeWebsocketFrame(WebSocketOpCode.Text, new SimpleMergedByteBuffers(false, bb), false);
+          }});
+        String key = httpRequest.getHTTPHeaders().getHeader(HTTPConstants.HTTP_KEY_WEBSOCKET_KEY);
+        responseWriter.sendHTTPResponse(new HTTPResponseBuilder()
+            .setResponseCode(HTTPResponseCode.SwitchingProtocols)
+            .setHeader(HTTPConstants.HTTP_KEY_UPGRADE, HTTPConstants.WEBSOCKET)
+            .setHeader(HTTPConstants.HTTP_KEY_CONNECTION, HTTPConstants.HTTP_KEY_UPGRADE)
+            .setHeader(HTTPConstants.HTTP_KEY_WEBSOCKET_ACCEPT, WebSocketFrameParser.makeKeyResponse(key))
+            .build());
+      }});
+    StringBuilder sb = new StringBuilder();
+    for(int i=0; sb.length() < 20000; i++) {
+      sb.append("{\"tick\":").append(i).append('}');
+    }
+    String msg = sb.toString();
+    try(Socket socket = connect()) {
+      socket.getOutputStream().write(("GET /ws HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+          + "Sec-WebSocket-Key: "+WebSocketFrameParser.makeSecretKey()+"\r\n"
+          + "Sec-WebSocket-Extensions: permessage-deflate; client_max_window_bits\r\n\r\n").getBytes());
+      ReuseableMergedByteBuffers read = new ReuseableMergedByteBuffers();
+      while(read.indexOf("\r\n\r\n") < 0) {
+        readSome(socket, read);
+      }
+      String head = read.getAsString(read.indexOf("\r\n\r\n")+4);
+      assertTrue(head.startsWith("HTTP/1.1 101"));
+      String extension = null;
+      for(String line: head.split("\r\n")) {
+        if(line.startsWith(HTTPConstants.HTTP_KEY_WEBSOCKET_EXTENSIONS+":")) {
+          extension = line.substring(line.indexOf(':')+1).trim();
+        }
+      }
+      assertEquals("permessage-deflate", extension);
+      WebSocketDeflater client = config.acceptResponse(extension);
+      
+      for(int i=0; i<2; i++) {
+        ByteBuffer frame = client.makeWebSocketFrame(pool, 
+            new SimpleMergedByteBuffers(false, ByteBuffer.wrap(msg.getBytes())), WebSocketOpCode.Text.getValue(), true, i+1);
+        byte[] ba = new byte[frame.remaining()];
+        frame.get(ba);
+        pool.release(frame);
+        socket.getOutputStream().write(ba);
+        
+        while(read.remaining() < 2 || read.remaining() < WebSocketFrameParser.getFrameLength(read)) {
+          readSome(socket, read);
+        }
+        WebSocketFrame wsf = WebSocketFrameParser.parseWebSocketFrame(read);
+        assertTrue(wsf.hasRSV1());
+        while(read.remaining() < wsf.getPayloadDataLength()) {
+          readSome(socket, read);
+        }
+        ByteBuffer payload = client.inflateFrame(wsf, read.pullBuffer((int)wsf.getPayloadDataLength()));
+        byte[] echo = new byte[payload.remaining()];
+        payload.get(echo);
+        assertEquals(msg, new String(echo));
+      }
+    }
+    // the client and server share the config, so both sides are counted
+    assertEquals(4, config.getStats().getCompressedMessages());
+    assertEquals(4, config.getStats().getInflatedMessages());
+  }
+  
+  @Test
+  public void websocketMessages() throws IOException, ParseException {
+    server.addHandler(new HTTPServerHandler() {
+      @Override
+      public void handle(HTTPRequest httpRequest, ResponseWriter responseWriter, BodyFuture bodyListener) {
+        bodyListener.setBodyListener(new WebSocketMessageBodyListener(64, Long.MAX_VALUE) {
+          @Override
+          public void onWebsocketMessage(HTTPRequest httpRequest, int opCode, MergedByteBuffers message, 
+              ResponseWriter responseWriter) {
+            responseWriter.writeWebsocketFrame(WebSocketOpCode.Text, message, false);
+          }
+          
+          @Override
+          public void onWebsocketControlFrame(HTTPRequest httpRequest, WebSocketFrame wsf, ByteBuffer payload, 
+              ResponseWriter responseWriter) {
+            if(wsf.getOpCode() == WebSocketOpCode.Ping.getValue()) {
+              responseWriter.writeWebsocketFrame(WebSocketOpCode.Pong, new SimpleMergedByteBuffers(false, payload), false);
+            }
+          }});
+        acceptUpgrade(httpRequest, responseWriter);
+      }});
+    try(Socket socket = connect()) {
+      ReuseableMergedByteBuffers read = new ReuseableMergedByteBuffers();
+      upgrade(socket, read);
+      
+      writeFrame(socket, false, WebSocketOpCode.Text, "Hello ");
+      writeFrame(socket, true, WebSocketOpCode.Ping, "ping");
+      writeFrame(socket, false, WebSocketOpCode.Continuation, "World");
+      writeFrame(socket, true, WebSocketOpCode.Continuation, "!");
+      WebSocketFrame wsf = readFrame(socket, read);
+      assertEquals(WebSocketOpCode.Pong.getValue(), wsf.getOpCode());
+      assertEquals("ping", read.getAsString((int)wsf.getPayloadDataLength()));
+      wsf = readFrame(socket, read);
+      assertEquals(WebSocketOpCode.Text.getValue(), wsf.getOpCode());
+      assertEquals("Hello World!", read.getAsString((int)wsf.getPayloadDataLength()));
+      
+      // over the max message size closes the connection
+      int pooled = server.getPooledConnectionCount();
+      writeFrame(socket, false, WebSocketOpCode.Binary, new String(new byte[40]));
+      writeFrame(socket, true, WebSocketOpCode.Continuation, new String(new byte[40]));
+      // the connection state is given back to the pool once the connection is closed
+      waitForPooled(pooled + 1);
+    }
+  }
+  
+  @Test
+  public void websocketBroadcast() throws IOException, ParseException {
+    final List<ResponseWriter> writers = new ArrayList<>();
+    server.setBroadcastBatchSize(2);
+    server.addHandler((httpRequest, responseWriter, bodyListener) -> {
+      if(httpRequest.getHTTPRequestHeader().getRequestPath().equals("/stream")) {
+        // an ordinary response still streaming its body must never get a frame
+        responseWriter.sendHTTPResponse(new HTTPResponseBuilder()
+            .setHeader(HTTPConstants.HTTP_KEY_TRANSFER_ENCODING, "chunked").build());
+      } else {
+        acceptUpgrade(httpRequest, responseWriter);
+      }
+      writers.add(responseWriter);
+    });
+    List<Socket> sockets = new ArrayList<>();
+    List<ReuseableMergedByteBuffers> reads = new ArrayList<>();
+    try {
+      for(int i=0; i<4; i++) {
+        sockets.add(connect());
+        reads.add(new ReuseableMergedByteBuffers());
+        upgrade(sockets.get(i), reads.get(i));
+      }
+      sockets.get(3).close();
+      long end = System.currentTimeMillis() + 5000;
+      while(!writers.get(3).isClosed() && System.currentTimeMillis() < end) {
+        se.select(1);
+      }
+      Socket stream = connect();
+      sockets.add(stream);
+      ReuseableMergedByteBuffers streamRead = new ReuseableMergedByteBuffers();
+      stream.getOutputStream().write("GET /stream HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes());
+      while(streamRead.indexOf("\r\n\r\n") < 0) {
+        readSome(stream, streamRead);
+      }
+      streamRead.discard(streamRead.indexOf("\r\n\r\n")+4);
+      assertEquals(5, writers.size());
+      
+      ListenableFuture<BroadcastResult> lf = server.broadcastWebsocketFrame(WebSocketOpCode.Text, 
+          new SimpleMergedByteBuffers(false, ByteBuffer.wrap("tick".getBytes())), writers, Integer.MAX_VALUE);
+      BroadcastResult result = waitFor(lf);
+      assertEquals(3, result.getSent());
+      assertEquals(2, result.getSkippedClosed());
+      assertEquals(0, result.getSkippedBacklogged());
+      for(int i=0; i<3; i++) {
+        WebSocketFrame wsf = readFrame(sockets.get(i), reads.get(i));
+        assertEquals(WebSocketOpCode.Text.getValue(), wsf.getOpCode());
+        assertFalse(wsf.hasMask());
+        assertEquals("tick", reads.get(i).getAsString((int)wsf.getPayloadDataLength()));
+      }
+      
+      // every open connection is over the backlog limit
+      lf = server.broadcastWebsocketFrame(WebSocketOpCode.Text, 
+          new SimpleMergedByteBuffers(false, ByteBuffer.wrap("tock".getBytes())), writers, -1);
+      result = waitFor(lf);
+      assertEquals(0, result.getSent());
+      assertEquals(2, result.getSkippedClosed());
+      assertEquals(3, result.getSkippedBacklogged());
+      assertEquals(5, result.getSkipped());
+      
+      // the chunked response body only has what its handler wrote
+      writers.get(4).writeChunk(ByteBuffer.wrap("body".getBytes()));
+      while(streamRead.indexOf("body\r\n") < 0) {
+        readSome(stream, streamRead);
+      }
+      assertEquals("4\r\nbody\r\n", streamRead.getAsString(streamRead.remaining()));
+    } finally {
+      for(Socket socket: sockets) {
+        socket.close();
+      }
+    }
+  }
+  
+  @Test
+  public void websocketBroadcastKeepsOrder() throws Exception {
+    final int connections = 4;
+    final int frames = 200;
+    PriorityScheduler ps = new PriorityScheduler(connections * 2);
+    ThreadedSocketExecuter tse = new ThreadedSocketExecuter(ps);
+    tse.start();
+    HTTPServer threaded = new HTTPServer(tse, "localhost", PortUtils.findTCPPort());
+    final List<ResponseWriter> writers = new CopyOnWriteArrayList<>();
+    // one connection per batch, so every batch of a broadcast can run on a different thread
+    threaded.setBroadcastBatchSize(1);
+    threaded.addHandler((httpRequest, responseWriter, bodyListener) -> {
+      acceptUpgrade(httpRequest, responseWriter);
+      writers.add(responseWriter);
+    });
+    threaded.start();
+    List<Socket> sockets = new ArrayList<>();
+    try {
+      List<ReuseableMergedByteBuffers> reads = new ArrayList<>();
+      for(int i=0; i<connections; i++) {
+        Socket socket = new Socket("localhost", threaded.getListenPort());
+        sockets.add(socket);
+        reads.add(new ReuseableMergedByteBuffers());
+        upgrade(socket, reads.get(i));
+      }
+      long end = System.currentTimeMillis() + 5000;
+      while(writers.size() < connections && System.currentTimeMillis() < end) {
+        Thread.sleep(1);
+      }
+      List<ListenableFuture<BroadcastResult>> futures = new ArrayList<>();
+      for(int i=0; i<frames; i++) {
+        futures.add(threaded.broadcastWebsocketFrame(WebSocketOpCode.Text, 
+            new SimpleMergedByteBuffers(false, ByteBuffer.wrap(Integer.toString(i).getBytes())), writers, Integer.MAX_VALUE));
+      }
+      FutureUtils.blockTillAllComplete(futures);
+      for(int c=0; c<connections; c++) {
+        for(int i=0; i<frames; i++) {
+          WebSocketFrame wsf = readFrame(sockets.get(c), reads.get(c));
+          assertEquals(Integer.toString(i), reads.get(c).getAsString((int)wsf.getPayloadDataLength()));
+        }
+      }
+    } finally {
+      for(Socket socket: sockets) {
+        socket.close();
+      }
+      threaded.stop();
+      tse.stop();
+      ps.shutdownNow();
+    }
+  }
+  
+  @Test
+  public void websocketTopics() throws IOException, ParseException {
+    final List<ResponseWriter> writers = new ArrayList<>();
+    server.addHandler((httpRequest, responseWriter, bodyListener) -> {
+      acceptUpgrade(httpRequest, responseWriter);
+      writers.add(responseWriter);
+    });
+    WebSocketTopicRegistry registry = new WebSocketTopicRegistry(100, 4);
+    List<Socket> sockets = new ArrayList<>();
+    List<ReuseableMergedByteBuffers> reads = new ArrayList<>();
+    try {
+      for(int i=0; i<3; i++) {
+        sockets.add(connect());
+        reads.add(new ReuseableMergedByteBuffers());
+        upgrade(sockets.get(i), reads.get(i));
+        assertTrue(registry.subscribe("ticks", writers.get(i)));
+      }
+      assertFalse(registry.subscribe("ticks", writers.get(0)));
+      assertTrue(registry.subscribe("other", writers.get(0)));
+      assertEquals(2, registry.getTopicCount());
+      assertEquals(3, registry.getSubscriberCount("ticks"));
+      
+      // nothing is written until the executer is selected, so the first tick leaves everyone over the watermark
+      PublishResult result = registry.publish("ticks", WebSocketOpCode.Text, payload(150, 'a'));
+      assertEquals(3, result.getSent());
+      result = registry.publish("ticks", WebSocketOpCode.Text, payload(150, 'b'));
+      assertEquals(3, result.getConflated());
+      result = registry.publish("ticks", WebSocketOpCode.Text, payload(150, 'c'));
+      assertEquals(0, result.getSent());
+      assertEquals(3, result.getConflated());
+      for(int i=0; i<3; i++) {
+        WebSocketFrame wsf = readFrame(sockets.get(i), reads.get(i));
+        assertEquals(payload(150, 'a').getAsString(150), reads.get(i).getAsString((int)wsf.getPayloadDataLength()));
+        // b was replaced by c while the connection was backed up
+        wsf = readFrame(sockets.get(i), reads.get(i));
+        assertEquals(payload(150, 'c').getAsString(150), reads.get(i).getAsString((int)wsf.getPayloadDataLength()));
+      }
+      
+      assertTrue(registry.unsubscribe("ticks", writers.get(1)));
+      assertFalse(registry.unsubscribe("ticks", writers.get(1)));
+      sockets.get(2).close();
+      long end = System.currentTimeMillis() + 5000;
+      while(registry.getSubscriberCount("ticks") > 1 && System.currentTimeMillis() < end) {
+        se.select(1);
+      }
+      assertEquals(1, registry.getSubscriberCount("ticks"));
+      result = registry.publish("ticks", WebSocketOpCode.Text, payload(4, 'd'));
+      assertEquals(1, result.getSent());
+      WebSocketFrame wsf = readFrame(sockets.get(0), reads.get(0));
+      assertEquals("dddd", reads.get(0).getAsString((int)wsf.getPayloadDataLength()));
+      
+      assertTrue(registry.unsubscribe("ticks", writers.get(0)));
+      assertTrue(registry.unsubscribe("other", writers.get(0)));
+      assertEquals(0, registry.getTopicCount());
+      assertEquals(0, registry.publish("ticks", WebSocketOpCode.Text, payload(4, 'e')).getSent());
+    } finally {
+      for(Socket socket: sockets) {
+        socket.close();
+      }
+    }
+  }
+  
+  private static MergedByteBuffers payload(int size, char c) {
+    byte[] ba = new byte[size];
+    Arrays.fill(ba, (byte)c);
+    return new SimpleMergedByteBuffers(false, ByteBuffer.wrap(ba));
+  }
+  
+  private <T> T waitFor(ListenableFuture<T> lf) {
+    long end = System.currentTimeMillis() + 5000;
+    while(!lf.isDone() && System.currentTimeMillis() < end) {
+      se.select(1);
+    }
+    assertTrue(lf.isDone());
+    try {
+      return lf.get();
+    } catch(Exception e) {
+      throw new RuntimeException(e);
+    }
+  }
+  
+  private static void acceptUpgrade(HTTPRequest httpRequest, ResponseWriter responseWriter) {
+    String key = httpRequest.getHTTPHeaders().getHeader(HTTPConstants.HTTP_KEY_WEBSOCKET_KEY);
+    responseWriter.sendHTTPResponse(new HTTPResponseBuilder()
+        .setResponseCode(HTTPResponseCode.SwitchingProtocols)
+        .setHeader(HTTPConstants.HTTP_KEY_UPGRADE, HTTPConstants.WEBSOCKET)
+        .setHeader(HTTPConstants.HTTP_KEY_CONNECTION, HTTPConstants.HTTP_KEY_UPGRADE)
+        .setHeader(HTTPConstants.HTTP_KEY_WEBSOCKET_ACCEPT, WebSocketFrameParser.makeKeyResponse(key))
+        .build());
+  }
+  
+  private void upgrade(Socket socket, MergedByteBuffers read) throws IOException {
+    socket.getOutputStream().write(("GET /ws HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+        + "Sec-WebSocket-Key: "+WebSocketFrameParser.makeSecretKey()+"\r\n\r\n").getBytes());
+    while(read.indexOf("\r\n\r\n") < 0) {
+      readSome(socket, read);
+    }
+    assertTrue(read.getAsString(read.indexOf("\r\n\r\n")+4).startsWith("HTTP/1.1 101"));
+  }
+  
+  private void writeFrame(Socket socket, boolean isFinished, WebSocketOpCode opCode, String payload) throws IOException {
+    ByteBuffer frame = WebSocketFrameParser.makeWebSocketFrame(pool, 
+        new SimpleMergedByteBuffers(false, ByteBuffer.wrap(payload.getBytes())), isFinished, opCode.getValue(), true);
+    byte[] ba = new byte[frame.remaining()];
+    frame.get(ba);
+    pool.release(frame);
+    socket.getOutputStream().write(ba);
+  }
+  
+  private WebSocketFrame readFrame(Socket socket, MergedByteBuffers read) throws IOException, ParseException {
+    while(read.remaining() < 2 || read.remaining() < WebSocketFrameParser.getFrameLength(read)) {
+      readSome(socket, read);
+    }
+    byte[] header = new byte[WebSocketFrameParser.getFrameLength(read)];
+    read.get(header);
+    WebSocketFrame wsf = WebSocketFrameParser.parseWebSocketFrame(ByteBuffer.wrap(header));
+    while(read.remaining() < wsf.getPayloadDataLength()) {
+      readSome(socket, read);
+    }
+    return wsf;
+  }
+  
+  private Socket connect() throws IOException {
+    Socket socket = new Socket("localhost", server.getListenPort());
+    socket.setTcpNoDelay(true);
+    return socket;
+  }
+  
+  private void doRequest(Socket socket, byte[] response) throws IOException {
+    OutputStream os = socket.getOutputStream();
+    InputStream is = socket.getInputStream();
+    os.write(REQUEST);
+    int read = 0;
+    while(read < response.length) {
+      se.select(1);
+      if(is.available() > 0) {
+        read += is.read(response, read, response.length - read);
+      }
+    }
+  }
+  
+  private void readSome(Socket socket, MergedByteBuffers mbb) throws IOException {
+    long end = System.currentTimeMillis() + 5000;
+    InputStream is = socket.getInputStream();
+    while(is.available() == 0) {
+      assertTrue(System.currentTimeMillis() < end);
+      se.select(1);
+    }
+    byte[] ba = new byte[is.available()];
+    mbb.add(ByteBuffer.wrap(ba, 0, is.read(ba)));
+  }
+  
+  private void waitForPooled(int count) {
+    long end = System.currentTimeMillis() + 5000;
+    while(server.getPooledConnectionCount() < count && System.currentTimeMillis() < end) {
+      se.select(1);
+    }
+    assertEquals(count, server.getPooledConnectionCount());
+  }
+}